@@ -0,0 +1,165 @@
+package com.microdb.bufferpool;
+
+import com.microdb.config.DBConfig;
+import com.microdb.exception.DbException;
+import com.microdb.model.DataBase;
+import com.microdb.model.page.Page;
+import com.microdb.model.page.PageID;
+import com.microdb.transaction.Lock;
+import com.microdb.transaction.LockManager;
+import com.microdb.transaction.Transaction;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 后台刷脏线程
+ * <p>
+ * 周期性地将缓冲池中的脏页写盘，使驱逐时大多能选到干净页，前台查询不必承担写盘的IO。
+ * 脏页比例超出目标值时，按(tableId, pageNo)顺序刷出超出部分，每秒刷盘页数受限，避免占满磁盘带宽。
+ * <p>
+ * 只刷没有被pin、没有被事务锁定的脏页，即已提交事务修改过的页，它们的redo日志在提交时已写入；
+ * 刷盘前先对redo日志force，保证日志先于数据页落盘(WAL)。刷盘过程中以后台事务持有页的X锁，
+ * 防止页在写盘、清除脏标记之间被修改
+ *
+ * @author zhangjw
+ * @version 1.0
+ */
+public class BackgroundPageFlusher implements Runnable {
+
+    private final BufferPool bufferPool;
+
+    /**
+     * 目标脏页比例，超出时开始刷盘
+     */
+    private final double targetDirtyRatio;
+
+    /**
+     * 每秒最多刷盘页数
+     */
+    private final int maxPagesPerSecond;
+
+    /**
+     * 两轮刷盘的间隔
+     */
+    private final long intervalMillis;
+
+    private volatile boolean running = false;
+
+    private Thread thread;
+
+    public BackgroundPageFlusher(BufferPool bufferPool, DBConfig dbConfig) {
+        this.bufferPool = bufferPool;
+        this.targetDirtyRatio = dbConfig.getBackgroundFlushTargetDirtyRatio();
+        this.maxPagesPerSecond = dbConfig.getBackgroundFlushMaxPagesPerSecond();
+        this.intervalMillis = Math.max(1, dbConfig.getBackgroundFlushIntervalMillis());
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this, "micro-db-page-flusher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public synchronized void shutdown() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        thread.interrupt();
+        try {
+            thread.join(intervalMillis + LockManager.defaultTimeOutInMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                Thread.sleep(intervalMillis);
+            } catch (InterruptedException e) {
+                break;
+            }
+            try {
+                flushOnce();
+            } catch (DbException e) {
+                System.out.println("background flush failed:" + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 执行一轮刷盘
+     *
+     * @return 本轮刷盘的页数
+     */
+    public int flushOnce() {
+        int dirtyPageCount = bufferPool.getDirtyPageCount();
+        int targetDirtyPageCount = (int) (bufferPool.getCapacity() * targetDirtyRatio);
+        int budget = (int) Math.max(1, (long) maxPagesPerSecond * intervalMillis / 1000);
+        int pagesToFlush = Math.min(dirtyPageCount - targetDirtyPageCount, budget);
+        if (pagesToFlush <= 0) {
+            return 0;
+        }
+
+        List<Frame> candidates = bufferPool.getDirtyFrames();
+        candidates.sort(Comparator.comparingInt((Frame frame) -> frame.getPage().getPageID().getTableId())
+                .thenComparingInt(frame -> frame.getPage().getPageID().getPageNo()));
+
+        // 后台事务，不记录事务开始，仅用于持有刷盘页的锁
+        Transaction flushTransaction = new Transaction(Lock.LockType.XLock);
+        LockManager lockManager = DataBase.getLockManager();
+        List<Frame> flushing = new ArrayList<>();
+        try {
+            for (Frame frame : candidates) {
+                if (flushing.size() >= pagesToFlush) {
+                    break;
+                }
+                PageID pageID = frame.getPage().getPageID();
+                if (frame.isPinned() || !lockManager.tryAcquireLock(flushTransaction, pageID)) {
+                    continue;
+                }
+                if (!frame.pin()) {
+                    continue;
+                }
+                if (!frame.getPage().isDirty()) {
+                    frame.unpin();
+                    continue;
+                }
+                flushing.add(frame);
+            }
+            if (flushing.isEmpty()) {
+                return 0;
+            }
+
+            // WAL：数据页落盘前日志必须已落盘
+            try {
+                DataBase.getRedoLogFile().flush();
+            } catch (IOException e) {
+                throw new DbException("redo log flush error", e);
+            }
+            for (Frame frame : flushing) {
+                Page page = frame.getPage();
+                bufferPool.writePageToDisk(page);
+                page.markDirty(null);
+            }
+            // 一批页写完后统一落盘
+            DataBase.getInstance().syncTableFiles();
+            bufferPool.getStats().recordBackgroundFlush(flushing.size());
+            return flushing.size();
+        } finally {
+            for (Frame frame : flushing) {
+                frame.unpin();
+            }
+            lockManager.releaseLock(flushTransaction.getTransactionId());
+        }
+    }
+}
@@ -3,10 +3,13 @@ package com.microdb.bufferpool;
 import com.microdb.annotation.VisibleForTest;
 import com.microdb.config.DBConfig;
 import com.microdb.connection.Connection;
+import com.microdb.exception.CorruptPageException;
 import com.microdb.exception.DbException;
 import com.microdb.exception.TransactionException;
+import com.microdb.logging.RedoLogFile;
 import com.microdb.model.DataBase;
 import com.microdb.model.table.DbTable;
+import com.microdb.model.table.tablefile.TableFile;
 import com.microdb.model.row.Row;
 import com.microdb.model.page.Page;
 import com.microdb.model.page.PageID;
@@ -15,11 +18,16 @@ import com.microdb.transaction.Transaction;
 import com.microdb.transaction.TransactionID;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+import java.util.function.IntPredicate;
 
 /**
  * 缓存池
@@ -29,16 +37,143 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 public class BufferPool {
 
-    private final ConcurrentHashMap<PageID, Page> pool;
+    /**
+     * 每个分片最少容纳的页数，分片过小时置换策略失去意义
+     */
+    private static final int MIN_PAGES_PER_SHARD = 16;
+
+    /**
+     * 预读线程数
+     */
+    private static final int READ_AHEAD_THREADS = 2;
+
+    /**
+     * 缓冲池分片，按PageID散列
+     */
+    private final BufferPoolShard[] shards;
 
     /**
      * 容量：最多缓存的页数
      */
     private final int capacity;
 
+    /**
+     * 置换策略名称
+     */
+    private final String replacementPolicyName;
+
+    /**
+     * 命中、未命中、驱逐统计
+     */
+    private final BufferPoolStats stats;
+
+    /**
+     * 当前线程的pin作用域
+     */
+    private final ThreadLocal<PinScope> pinScopes = new ThreadLocal<>();
+
+    /**
+     * 后台刷脏线程，未开启时为null
+     */
+    private final BackgroundPageFlusher backgroundFlusher;
+
+    /**
+     * 每次预读的页数，0表示不预读
+     */
+    private final int readAheadPages;
+
+    /**
+     * 预读线程池，不预读时为null
+     */
+    private final ExecutorService readAheadExecutor;
+
+    /**
+     * 大表扫描私有环的大小
+     */
+    private final int scanRingPages;
+
     public BufferPool(DBConfig dbConfig) {
         this.capacity = dbConfig.getBufferPoolCapacity();
-        pool = new ConcurrentHashMap<>();
+        this.stats = new BufferPoolStats();
+
+        int shardCount = resolveShardCount(dbConfig);
+        this.shards = new BufferPoolShard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            // 容量均分到各分片，余数分给前面的分片
+            int shardCapacity = capacity / shardCount + (i < capacity % shardCount ? 1 : 0);
+            shards[i] = new BufferPoolShard(this, shardCapacity, createReplacementPolicy(dbConfig, shardCapacity),
+                    createOffHeapArena(dbConfig, i, shardCount));
+        }
+        this.replacementPolicyName = shards[0].getReplacementPolicyName();
+
+        if (dbConfig.isBackgroundFlushEnabled()) {
+            this.backgroundFlusher = new BackgroundPageFlusher(this, dbConfig);
+            this.backgroundFlusher.start();
+        } else {
+            this.backgroundFlusher = null;
+        }
+
+        this.readAheadPages = Math.max(0, dbConfig.getReadAheadPages());
+        this.readAheadExecutor = readAheadPages > 0
+                ? Executors.newFixedThreadPool(READ_AHEAD_THREADS, runnable -> {
+                    Thread thread = new Thread(runnable, "micro-db-read-ahead");
+                    thread.setDaemon(true);
+                    return thread;
+                })
+                : null;
+        this.scanRingPages = dbConfig.getScanRingPages();
+    }
+
+    /**
+     * 停止后台线程
+     */
+    public void shutdown() {
+        if (backgroundFlusher != null) {
+            backgroundFlusher.shutdown();
+        }
+        if (readAheadExecutor != null) {
+            readAheadExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * 分片数，配置为0时按CPU核数取值，且保证每个分片至少能容纳{@link #MIN_PAGES_PER_SHARD}页
+     */
+    private static int resolveShardCount(DBConfig dbConfig) {
+        int shardCount = dbConfig.getBufferPoolShards();
+        if (shardCount <= 0) {
+            shardCount = Runtime.getRuntime().availableProcessors();
+        }
+        shardCount = Math.min(shardCount, dbConfig.getBufferPoolCapacity() / MIN_PAGES_PER_SHARD);
+        return Math.max(shardCount, 1);
+    }
+
+    /**
+     * 堆外缓存的槽位均分到各分片，未配置时不开启
+     */
+    private static OffHeapPageArena createOffHeapArena(DBConfig dbConfig, int shardIndex, int shardCount) {
+        int arenaPages = dbConfig.getOffHeapArenaPages();
+        int shardArenaPages = arenaPages / shardCount + (shardIndex < arenaPages % shardCount ? 1 : 0);
+        if (shardArenaPages <= 0) {
+            return null;
+        }
+        return new OffHeapPageArena(shardArenaPages, dbConfig.getPageSizeInByte());
+    }
+
+    private static ReplacementPolicy createReplacementPolicy(DBConfig dbConfig, int capacity) {
+        String policy = dbConfig.getReplacementPolicy();
+        if ("clock-pro".equalsIgnoreCase(policy)) {
+            return new ClockProReplacementPolicy(capacity);
+        }
+        if ("lru-k".equalsIgnoreCase(policy)) {
+            return new LruKReplacementPolicy(dbConfig.getLruK(), capacity);
+        }
+        throw new DbException("unknown buffer pool replacement policy: " + policy);
+    }
+
+    private BufferPoolShard shardOf(PageID pageID) {
+        int h = pageID.hashCode();
+        return shards[Math.floorMod(h ^ (h >>> 16), shards.length)];
     }
 
 
@@ -48,32 +183,238 @@ public class BufferPool {
      * 缓存中没有时，从磁盘读取，并放入缓存；从磁盘读取前先检查缓存是否满，已满则先执行驱逐
      * <p>
      * 实现2PL+页级锁：事务中的语句开始执行时加锁，getPage是最适合的加锁位置
+     * <p>
+     * 当前线程处于pin作用域中时，返回的页会被pin住，直到作用域关闭，见{@link #openPinScope()}
      *
      * @param pageID pageID
      */
     public Page getPage(PageID pageID) {
+        acquireLock(pageID);
+
+        PinScope scope = pinScopes.get();
+        if (scope == null) {
+            return fetchFrame(pageID, false).getPage();
+        }
+        Frame frame = fetchPinnedFrame(pageID, false);
+        scope.add(frame);
+        return frame.getPage();
+    }
+
+    /**
+     * 获取缓冲池中已有的页，不加锁、不读磁盘，不在缓冲池中时返回null
+     * 用于事务提交等调用方已持有页锁、只关心缓存中页状态的场景
+     *
+     * @param pageID pageID
+     */
+    public Page getCachedPage(PageID pageID) {
+        Frame frame = shardOf(pageID).getFrame(pageID);
+        return frame == null ? null : frame.getPage();
+    }
+
+    /**
+     * 读取页并pin住，页在{@link PageHandle#close()}之前不会被驱逐
+     *
+     * @param pageID pageID
+     */
+    public PageHandle pinPage(PageID pageID) {
+        acquireLock(pageID);
+        return new PageHandle(fetchPinnedFrame(pageID, false));
+    }
+
+    /**
+     * 以指定模式加页锁，读取页并pin住
+     * 堆表按行修改时在页上加IX锁，多个事务可同时修改同一页的不同行，行之间由行锁互斥
+     *
+     * @param pageID pageID
+     * @param mode   页锁模式
+     */
+    public PageHandle pinPage(PageID pageID, Lock.LockMode mode) {
+        acquireLock(pageID, mode);
+        return new PageHandle(fetchPinnedFrame(pageID, false));
+    }
+
+    /**
+     * 崩溃恢复时读取页并pin住，不加锁：恢复在接受事务之前进行，同一页只由一个恢复线程访问
+     *
+     * @param pageID pageID
+     */
+    public PageHandle pinPageForRecovery(PageID pageID) {
+        return new PageHandle(fetchPinnedFrame(pageID, false));
+    }
+
+    /**
+     * 崩溃恢复时以日志中的整页镜像替换缓冲池中的页
+     */
+    public void installPageForRecovery(Page page) {
+        cachePage(page);
+    }
+
+    /**
+     * 大表扫描读取页并pin住，与{@link #pinPage}的区别是：命中时不计入置换策略的访问历史，
+     * 未命中时读入的页标记为扫描读入，离开{@link ScanRing}时被移除
+     *
+     * @param pageID pageID
+     */
+    public PageHandle pinPageForScan(PageID pageID) {
+        acquireLock(pageID);
+        return new PageHandle(fetchPinnedFrame(pageID, true));
+    }
+
+    /**
+     * 读取页并pin住，不加锁，读取页内容时持有页的监视器
+     * 用于快照读(行的可见性由版本链决定)和乐观事务(提交时校验页版本)
+     *
+     * @param pageID pageID
+     * @param scan   是否为大表扫描，同{@link #pinPageForScan}
+     */
+    public PageHandle pinPageUnlocked(PageID pageID, boolean scan) {
+        return new PageHandle(fetchPinnedFrame(pageID, scan));
+    }
+
+    /**
+     * 开启大表扫描的私有环，表的页数不超过缓冲池容量的1/4时不需要，返回null
+     *
+     * @param tablePageCount 表的页数
+     */
+    public ScanRing openScanRing(int tablePageCount) {
+        if (scanRingPages <= 0 || tablePageCount <= capacity / 4) {
+            return null;
+        }
+        return new ScanRing(this, scanRingPages);
+    }
+
+    void releaseScanPage(PageID pageID) {
+        shardOf(pageID).releaseScanPage(pageID);
+    }
+
+    /**
+     * 异步预读，从pageID开始，沿nextPageID依次读入若干页，不加锁、不pin
+     * <p>
+     * 缓冲池中没有的页在磁盘上就是最新版本，且与前台读取共用同一个加载任务，因此预读不需要加锁
+     *
+     * @param pageID     第一个预读的页，为null时不预读
+     * @param nextPageID 由已读入的页得到下一页，返回null时结束
+     * @param passed     第i个预读的页是否已被扫描读过，预读落后于扫描时结束，避免重新读入扫描环已经移除的页
+     */
+    public void readAhead(PageID pageID, Function<Page, PageID> nextPageID, IntPredicate passed) {
+        if (readAheadExecutor == null || pageID == null) {
+            return;
+        }
+        try {
+            readAheadExecutor.execute(() -> {
+                PageID next = pageID;
+                try {
+                    for (int i = 0; i < readAheadPages && next != null && !passed.test(i); i++) {
+                        Page page = shardOf(next).prefetch(next).getPage();
+                        next = nextPageID.apply(page);
+                    }
+                } catch (DbException e) {
+                    System.out.println("read ahead failed,pageID=" + next + "," + e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // 缓冲池已关闭
+        }
+    }
+
+    public int getReadAheadPages() {
+        return readAheadPages;
+    }
+
+    /**
+     * 开启当前线程的pin作用域，需配合try-with-resources使用
+     */
+    public PinScope openPinScope() {
+        PinScope scope = pinScopes.get();
+        if (scope == null) {
+            scope = new PinScope(this);
+            pinScopes.set(scope);
+        }
+        scope.enter();
+        return scope;
+    }
+
+    void closePinScope() {
+        pinScopes.remove();
+    }
+
+    private void acquireLock(PageID pageID) {
+        acquireLock(pageID, Lock.LockMode.of(Connection.currentTransaction().getLockType()));
+    }
+
+    private void acquireLock(PageID pageID, Lock.LockMode mode) {
         Transaction currentTransaction = Connection.currentTransaction();
         try {
-            DataBase.getLockManager().acquireLock(currentTransaction, pageID);
+            DataBase.getLockManager().acquireLock(currentTransaction, pageID, mode);
         } catch (TransactionException e) {
             System.out.println(String.format("acquire lock 失败,transaction=%s,pageID=%s", currentTransaction, pageID));
             throw e;
         }
 
         System.out.println(String.format("访问页%s，获取锁成功", pageID));
+    }
 
-        Page page = pool.get(pageID);
-        if (page == null) {
-            if (isFull()) {
-                // 驱逐页面
-                this.evictPages();
+    /**
+     * 获取帧并pin住，获取后帧恰好被驱逐时重新获取
+     */
+    private Frame fetchPinnedFrame(PageID pageID, boolean scan) {
+        while (true) {
+            Frame frame = fetchFrame(pageID, scan);
+            if (frame.pin()) {
+                return frame;
             }
-            page = DataBase.getInstance().getDbTableById(pageID.getTableId()).getTableFile().readPageFromDisk(pageID);
-            pool.put(pageID, page);
+            // 帧正在被驱逐，等待驱逐线程刷盘完成
+            Thread.yield();
         }
+    }
+
+    private Frame fetchFrame(PageID pageID, boolean scan) {
+        return shardOf(pageID).fetchFrame(pageID, scan);
+    }
+
+    Page readPageFromDisk(PageID pageID) {
+        TableFile tableFile = DataBase.getInstance().getDbTableById(pageID.getTableId()).getTableFile();
+        try {
+            return tableFile.readPageFromDisk(pageID);
+        } catch (CorruptPageException e) {
+            return repairCorruptPage(tableFile, e);
+        }
+    }
+
+    /**
+     * 页校验失败时由redo日志重建，重建的页写回表文件(先保证所用的日志已落盘)；无法修复时抛出校验失败的异常
+     */
+    private Page repairCorruptPage(TableFile tableFile, CorruptPageException corruption) {
+        Page page;
+        try {
+            RedoLogFile redoLogFile = DataBase.getRedoLogFile();
+            page = redoLogFile.repairPage(corruption.getPageID());
+            if (page != null) {
+                redoLogFile.flush();
+                tableFile.writePageToDisk(page);
+            }
+        } catch (IOException e) {
+            throw new DbException("repair corrupt page from redo log error", e);
+        }
+        stats.recordCorruptPage(page != null);
+        if (page == null) {
+            throw corruption;
+        }
+        System.out.println("repaired corrupt page from redo log:" + corruption.getMessage());
         return page;
     }
 
+    Page createPage(PageID pageID, byte[] pageData) {
+        return DataBase.getInstance().getDbTableById(pageID.getTableId()).getTableFile().createPage(pageID, pageData);
+    }
+
+    /**
+     * 页放入缓存
+     */
+    private Frame cachePage(Page page) {
+        return shardOf(page.getPageID()).cachePage(page);
+    }
+
     public void insertRow(Row row, String tableName) throws IOException {
         Transaction transaction = Connection.currentTransaction();
         if (!Objects.equals(transaction.getLockType(), Lock.LockType.XLock)) {
@@ -85,13 +426,16 @@ public class BufferPool {
 
         // 获取插入过程中产生的脏页，放入缓存
         HashMap<PageID, Page> dirtyPages = Connection.getDirtyPages();
+        if (isBufferedInPrivatePages(transaction, dirtyPages)) {
+            return;
+        }
         if (dirtyPages.isEmpty()) {
             throw new DbException("插入数据应产生脏页脏页");
         }
         // TODO dirtyPages.size 极限值过大说明page size 配置不合理
         System.out.println("dirtyPages.size():" + dirtyPages.size());
-        for (Map.Entry<PageID, Page> entry : dirtyPages.entrySet()) {
-            pool.put(entry.getKey(), entry.getValue());
+        for (Page dirtyPage : dirtyPages.values()) {
+            cachePage(dirtyPage);
         }
         Connection.clearDirtyPages();
     }
@@ -105,65 +449,115 @@ public class BufferPool {
         dbTable.deleteRow(row);
 
         HashMap<PageID, Page> dirtyPages = Connection.getDirtyPages();
+        if (isBufferedInPrivatePages(transaction, dirtyPages)) {
+            return;
+        }
         System.out.println("del.dirtyPages.size():" + dirtyPages.size());
-        for (Map.Entry<PageID, Page> entry : dirtyPages.entrySet()) {
-            pool.put(entry.getKey(), entry.getValue());
+        for (Page dirtyPage : dirtyPages.values()) {
+            cachePage(dirtyPage);
         }
         // 如果不清，会严重降低性能
         Connection.clearDirtyPages();
     }
 
     /**
-     * 缓存池是否已满
+     * 乐观事务对堆表的修改在事务私有的页副本中，提交时才写入缓冲池，不产生脏页
      */
-    private boolean isFull() {
-        return pool.size() >= capacity;
+    private static boolean isBufferedInPrivatePages(Transaction transaction, Map<PageID, Page> dirtyPages) {
+        return transaction.isOptimistic() && (dirtyPages == null || dirtyPages.isEmpty());
+    }
+
+    boolean isLocked(PageID pageID) {
+        return DataBase.getLockManager().isLocked(pageID);
     }
 
     /**
-     * 驱逐页面，不常使用的页面从缓冲区移除
-     * <p>
-     * TODO 目前实现是对整个池中的页全部移除，后续优化根据使用频率驱逐页面:LFU，或使用其他缓存失效算法
-     * <p>
-     * TODO NO-STEAL 策略实现，事务提交前不能将事务产生的脏页刷盘
-     * 刷盘时机改为事务提交时, see {@link Transaction#commit()}
+     * 页的pin计数
      */
-    private void evictPages() {
-        for (Map.Entry<PageID, Page> entry : pool.entrySet()) {
-            Page page = entry.getValue();
-
-            // 刷盘
-            // NO-STEAL 事务提交前不能将事务产生的脏页刷盘
-            // if (page.isDirty()) {
-            //     flushPage(page);
-            // }
-
-            flushPage(page);
-            // 移除缓存
-            pool.remove(page.getPageID());
-        }
+    @VisibleForTest
+    public int getPinCount(PageID pageID) {
+        Frame frame = shardOf(pageID).getFrame(pageID);
+        return frame == null ? 0 : Math.max(frame.getPinCount(), 0);
     }
 
     /**
      * 刷盘
      */
-    private void flushPage(Page page) {
+    void flushPage(Page page) {
 
         if (page.isDirty()) {
-            // 刷盘前，将页的原始数据写入undo日志保存
-            DataBase.getUndoLogFile().recordBeforePageWhenFlushDisk(page.getDirtyTxId(), page.getBeforePage());
+            // 刷盘前，将页的原始数据写入undo日志保存；逐行记录日志的页可能有多个事务的修改，由各事务的undo链按行回滚
+            if (!page.isRowLogged()) {
+                DataBase.getUndoLogFile().recordBeforePageWhenFlushDisk(page.getDirtyTxId(), page.getBeforePage());
+            }
 
-            // 记录 redo log
+            // 记录 redo log，逐行记录了redo日志的页不再记录整页镜像
             try {
-                DataBase.getRedoLogFile().recordPageChange(page.getDirtyTxId(), page.getBeforePage(), page);
+                RedoLogFile redoLogFile = DataBase.getRedoLogFile();
+                if (!page.isRowLogged()) {
+                    redoLogFile.recordPageChange(page.getDirtyTxId(), page.getBeforePage(), page);
+                }
+                // WAL：页落盘前，修改该页的日志必须已落盘
+                redoLogFile.flush();
             } catch (IOException e) {
                 throw new DbException("redo log recordBeforePageWhenFlushDisk error ", e);
             }
         }
 
+        writePageToDisk(page);
+        // 写盘后页与磁盘一致，之后再被修改时重新记录recLSN
+        page.markDirty(null);
+    }
+
+    void writePageToDisk(Page page) {
         int tableId = page.getPageID().getTableId();
         DataBase.getInstance().getDbTableById(tableId).getTableFile().writePageToDisk(page);
-        // TODO 加入缓存失效算法后，需要设置为非脏页
+    }
+
+    /**
+     * 缓冲池中的脏页
+     */
+    List<Frame> getDirtyFrames() {
+        List<Frame> dirtyFrames = new ArrayList<>();
+        for (BufferPoolShard shard : shards) {
+            for (Frame frame : shard.getFrames()) {
+                if (frame.getPage().isDirty()) {
+                    dirtyFrames.add(frame);
+                }
+            }
+        }
+        return dirtyFrames;
+    }
+
+    /**
+     * 脏页表：缓冲池中的脏页 -> 页变脏时redo日志的位置(recLSN)
+     */
+    public Map<PageID, Long> getDirtyPageTable() {
+        Map<PageID, Long> dirtyPageTable = new HashMap<>();
+        for (Frame frame : getDirtyFrames()) {
+            Page page = frame.getPage();
+            long recLsn = page.getRecLsn();
+            if (recLsn >= 0) {
+                dirtyPageTable.put(page.getPageID(), recLsn);
+            }
+        }
+        return dirtyPageTable;
+    }
+
+    public int getDirtyPageCount() {
+        int count = 0;
+        for (BufferPoolShard shard : shards) {
+            for (Frame frame : shard.getFrames()) {
+                if (frame.getPage().isDirty()) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    public int getCapacity() {
+        return capacity;
     }
 
     public void flushPages(List<PageID> pageIDs, TransactionID transactionId) {
@@ -172,10 +566,13 @@ public class BufferPool {
             return;
         }
         for (PageID pageID : pageIDs) {
-            Page page = pool.get(pageID);
+            Frame frame = shardOf(pageID).getFrame(pageID);
+            if (frame == null) {
+                // 已被驱逐，驱逐时已刷盘
+                continue;
+            }
+            Page page = frame.getPage();
             if (page.isDirty()) {
-                page.markDirty(null);
-                pool.put(pageID, page);
                 flushPage(page);
             }
         }
@@ -190,18 +587,44 @@ public class BufferPool {
             return;
         }
         for (PageID pageID : pageIDs) {
-            pool.remove(pageID);
+            shardOf(pageID).discard(pageID);
         }
     }
 
+    public BufferPoolStats getStats() {
+        return stats;
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    /**
+     * 缓存的页数
+     */
+    public int size() {
+        int size = 0;
+        for (BufferPoolShard shard : shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    public String getReplacementPolicyName() {
+        return replacementPolicyName;
+    }
+
     /**
      * 全部刷盘
      * 用于测试
      */
     @VisibleForTest
     public void flushAllPage() {
-        for (Map.Entry<PageID, Page> entry : pool.entrySet()) {
-            flushPage(entry.getValue());
+        for (BufferPoolShard shard : shards) {
+            for (Frame frame : shard.getFrames()) {
+                flushPage(frame.getPage());
+            }
         }
+        DataBase.getInstance().syncTableFiles();
     }
 }
@@ -0,0 +1,270 @@
+package com.microdb.bufferpool;
+
+import com.microdb.exception.DbException;
+import com.microdb.model.page.Page;
+import com.microdb.model.page.PageID;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * 缓冲池分片：按PageID散列将缓冲池划分为多个分片，每个分片有独立的帧表、置换策略和驱逐过程，
+ * 不同分片上的访问互不竞争
+ * <p>
+ * 未命中时为页登记一个加载任务，同一页的并发未命中等待同一次磁盘读取，避免同一页被重复读入产生两个副本
+ *
+ * @author zhangjw
+ * @version 1.0
+ */
+class BufferPoolShard {
+
+    private final BufferPool bufferPool;
+
+    private final ConcurrentHashMap<PageID, Frame> frames;
+
+    /**
+     * 正在从磁盘加载的页
+     */
+    private final ConcurrentHashMap<PageID, FutureTask<Frame>> loadingPages;
+
+    /**
+     * 分片容量
+     */
+    private final int capacity;
+
+    private final ReplacementPolicy replacementPolicy;
+
+    /**
+     * 堆外二级缓存，未开启时为null
+     */
+    private final OffHeapPageArena offHeapArena;
+
+    BufferPoolShard(BufferPool bufferPool, int capacity, ReplacementPolicy replacementPolicy,
+                    OffHeapPageArena offHeapArena) {
+        this.bufferPool = bufferPool;
+        this.capacity = capacity;
+        this.replacementPolicy = replacementPolicy;
+        this.offHeapArena = offHeapArena;
+        this.frames = new ConcurrentHashMap<>();
+        this.loadingPages = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * 获取帧
+     *
+     * @param scan 是否为大表扫描的访问，扫描访问不计入置换策略的访问历史，读入的帧标记为扫描读入
+     */
+    Frame fetchFrame(PageID pageID, boolean scan) {
+        Frame frame = frames.get(pageID);
+        if (frame != null) {
+            bufferPool.getStats().recordHit();
+            recordAccess(frame, scan);
+            return frame;
+        }
+
+        FutureTask<Frame> task = new FutureTask<>(() -> loadFrame(pageID, scan));
+        FutureTask<Frame> loading = loadingPages.putIfAbsent(pageID, task);
+        if (loading == null) {
+            loading = task;
+            try {
+                task.run();
+            } finally {
+                loadingPages.remove(pageID, task);
+            }
+        }
+        try {
+            return loading.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DbException("wait for page loading interrupted, pageID=" + pageID, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new DbException("load page error, pageID=" + pageID, cause);
+        }
+    }
+
+    /**
+     * 从磁盘读取页放入分片，同一页同时只有一个线程执行
+     */
+    private Frame loadFrame(PageID pageID, boolean scan) {
+        // 上一个加载任务可能刚刚完成
+        Frame frame = frames.get(pageID);
+        if (frame != null) {
+            bufferPool.getStats().recordHit();
+            recordAccess(frame, scan);
+            return frame;
+        }
+
+        if (isFull()) {
+            // 驱逐页面
+            evictPages();
+        }
+        frame = cachePage(readPage(pageID));
+        if (scan) {
+            frame.markScanLoaded();
+        }
+        return frame;
+    }
+
+    private void recordAccess(Frame frame, boolean scan) {
+        if (!scan) {
+            frame.clearScanLoaded();
+            replacementPolicy.recordAccess(frame.getPage().getPageID());
+        }
+    }
+
+    /**
+     * 预读：页不在分片中时读入，按扫描读入处理
+     */
+    Frame prefetch(PageID pageID) {
+        Frame frame = frames.get(pageID);
+        if (frame != null) {
+            return frame;
+        }
+        bufferPool.getStats().recordReadAhead();
+        return fetchFrame(pageID, true);
+    }
+
+    /**
+     * 移除扫描读入、之后没有被普通访问命中过的干净页，见{@link ScanRing}
+     */
+    synchronized void releaseScanPage(PageID pageID) {
+        Frame frame = frames.get(pageID);
+        if (frame == null || !frame.isScanLoaded() || frame.getPage().isDirty()) {
+            return;
+        }
+        if (!frame.tryEvict()) {
+            return;
+        }
+        frames.remove(pageID, frame);
+        replacementPolicy.remove(pageID);
+        bufferPool.getStats().recordEviction(false);
+    }
+
+    /**
+     * 先从堆外缓存读取，没有时读磁盘
+     */
+    private Page readPage(PageID pageID) {
+        if (offHeapArena != null) {
+            byte[] pageData = offHeapArena.take(pageID);
+            if (pageData != null) {
+                bufferPool.getStats().recordOffHeapHit();
+                return bufferPool.createPage(pageID, pageData);
+            }
+        }
+        bufferPool.getStats().recordMiss();
+        return bufferPool.readPageFromDisk(pageID);
+    }
+
+    /**
+     * 页放入分片，新进入缓存的页交由置换策略跟踪
+     * <p>
+     * 页已在分片中时复用原来的帧，只替换页对象，保留其pin计数
+     */
+    Frame cachePage(Page page) {
+        PageID pageID = page.getPageID();
+        Frame existing = frames.get(pageID);
+        if (existing != null && (existing.getPage() == page || existing.replacePage(page))) {
+            return existing;
+        }
+        Frame frame = new Frame(page);
+        frames.put(pageID, frame);
+        replacementPolicy.recordLoad(pageID);
+        if (offHeapArena != null) {
+            offHeapArena.remove(pageID);
+        }
+        return frame;
+    }
+
+    Frame getFrame(PageID pageID) {
+        return frames.get(pageID);
+    }
+
+    Collection<Frame> getFrames() {
+        return frames.values();
+    }
+
+    String getReplacementPolicyName() {
+        return replacementPolicy.getName();
+    }
+
+    int size() {
+        return frames.size();
+    }
+
+    void discard(PageID pageID) {
+        frames.remove(pageID);
+        replacementPolicy.remove(pageID);
+        if (offHeapArena != null) {
+            offHeapArena.remove(pageID);
+        }
+    }
+
+    private boolean isFull() {
+        return frames.size() >= capacity;
+    }
+
+    /**
+     * 驱逐页面，由置换策略逐个选出牺牲页，直到分片有空闲位置
+     * <p>
+     * 被pin住的页正在被使用，不会被驱逐。优先驱逐未被事务锁定的页，没有时才驱逐被锁定的页，
+     * 牺牲页是脏页时才需要刷盘，刷盘前记录undo、redo日志(STEAL)，刷盘完成后才从帧表中移除，
+     * 避免其他线程在刷盘完成前从磁盘读到旧数据。开启堆外缓存时，牺牲页的字节在移除前存入堆外缓存。
+     * 所有页都被pin住时，分片暂时超出容量，待页unpin后再驱逐
+     */
+    private synchronized void evictPages() {
+        while (isFull()) {
+            PageID victim = replacementPolicy.selectVictim(this::isUnpinnedAndUnlocked);
+            if (victim == null) {
+                victim = replacementPolicy.selectVictim(this::isUnpinned);
+            }
+            if (victim == null) {
+                System.out.println(String.format("缓冲池分片已满且没有可驱逐的页,size=%s,capacity=%s", frames.size(), capacity));
+                return;
+            }
+            Frame frame = frames.get(victim);
+            if (frame == null) {
+                continue;
+            }
+            if (!frame.tryEvict()) {
+                // 选出后恰好被pin住，按原状态放回置换策略，不算作一次访问
+                replacementPolicy.reinstate(victim);
+                continue;
+            }
+            Page page = frame.getPage();
+            boolean dirty = page.isDirty();
+            if (dirty) {
+                bufferPool.flushPage(page);
+            }
+            if (offHeapArena != null) {
+                // 刷盘后页与磁盘一致，降级存入堆外缓存
+                offHeapArena.put(victim, serialize(page));
+            }
+            frames.remove(victim, frame);
+            bufferPool.getStats().recordEviction(dirty);
+        }
+    }
+
+    private static byte[] serialize(Page page) {
+        try {
+            return page.serialize();
+        } catch (IOException e) {
+            throw new DbException("serialize page error, pageID=" + page.getPageID(), e);
+        }
+    }
+
+    private boolean isUnpinned(PageID pageID) {
+        Frame frame = frames.get(pageID);
+        return frame != null && !frame.isPinned();
+    }
+
+    private boolean isUnpinnedAndUnlocked(PageID pageID) {
+        return isUnpinned(pageID) && !bufferPool.isLocked(pageID);
+    }
+}
@@ -0,0 +1,189 @@
+package com.microdb.bufferpool;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 缓冲池统计：命中、未命中、驱逐次数，用于比较不同置换策略的效果；以及读取页时校验的开销、损坏页的数量
+ * 各分片并发更新，使用LongAdder避免计数器成为竞争热点
+ *
+ * @author zhangjw
+ * @version 1.0
+ */
+public class BufferPoolStats {
+
+    /**
+     * 命中次数
+     */
+    private final LongAdder hitCount = new LongAdder();
+
+    /**
+     * 未命中次数，即从磁盘读取页的次数
+     */
+    private final LongAdder missCount = new LongAdder();
+
+    /**
+     * 堆外缓存命中次数，命中时不需要读磁盘
+     */
+    private final LongAdder offHeapHitCount = new LongAdder();
+
+    /**
+     * 驱逐页数
+     */
+    private final LongAdder evictionCount = new LongAdder();
+
+    /**
+     * 驱逐时需要刷盘的脏页数
+     */
+    private final LongAdder dirtyEvictionCount = new LongAdder();
+
+    /**
+     * 预读的页数
+     */
+    private final LongAdder readAheadCount = new LongAdder();
+
+    /**
+     * 后台刷脏线程写盘的页数
+     */
+    private final LongAdder backgroundFlushCount = new LongAdder();
+
+    /**
+     * 从磁盘读取时校验页的次数与总耗时(纳秒)
+     */
+    private final LongAdder pageVerificationCount = new LongAdder();
+
+    private final LongAdder pageVerificationNanos = new LongAdder();
+
+    /**
+     * 校验失败的页数，以及其中从redo日志修复的页数
+     */
+    private final LongAdder corruptPageCount = new LongAdder();
+
+    private final LongAdder repairedPageCount = new LongAdder();
+
+    void recordHit() {
+        hitCount.increment();
+    }
+
+    void recordMiss() {
+        missCount.increment();
+    }
+
+    void recordOffHeapHit() {
+        offHeapHitCount.increment();
+    }
+
+    void recordReadAhead() {
+        readAheadCount.increment();
+    }
+
+    void recordBackgroundFlush(int pageCount) {
+        backgroundFlushCount.add(pageCount);
+    }
+
+    /**
+     * 表文件读取页时校验页的耗时
+     */
+    public void recordPageVerification(long nanos) {
+        pageVerificationCount.increment();
+        pageVerificationNanos.add(nanos);
+    }
+
+    void recordCorruptPage(boolean repaired) {
+        corruptPageCount.increment();
+        if (repaired) {
+            repairedPageCount.increment();
+        }
+    }
+
+    void recordEviction(boolean dirty) {
+        evictionCount.increment();
+        if (dirty) {
+            dirtyEvictionCount.increment();
+        }
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    public long getOffHeapHitCount() {
+        return offHeapHitCount.sum();
+    }
+
+    public long getReadAheadCount() {
+        return readAheadCount.sum();
+    }
+
+    public long getBackgroundFlushCount() {
+        return backgroundFlushCount.sum();
+    }
+
+    public long getPageVerificationCount() {
+        return pageVerificationCount.sum();
+    }
+
+    public long getPageVerificationNanos() {
+        return pageVerificationNanos.sum();
+    }
+
+    public long getCorruptPageCount() {
+        return corruptPageCount.sum();
+    }
+
+    public long getRepairedPageCount() {
+        return repairedPageCount.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+
+    public long getDirtyEvictionCount() {
+        return dirtyEvictionCount.sum();
+    }
+
+    /**
+     * 命中率
+     */
+    public double getHitRatio() {
+        long hit = getHitCount();
+        long total = hit + getMissCount();
+        return total == 0 ? 0 : (double) hit / total;
+    }
+
+    public void reset() {
+        hitCount.reset();
+        missCount.reset();
+        offHeapHitCount.reset();
+        evictionCount.reset();
+        dirtyEvictionCount.reset();
+        backgroundFlushCount.reset();
+        readAheadCount.reset();
+        pageVerificationCount.reset();
+        pageVerificationNanos.reset();
+        corruptPageCount.reset();
+        repairedPageCount.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "BufferPoolStats{" +
+                "hitCount=" + getHitCount() +
+                ", missCount=" + getMissCount() +
+                ", hitRatio=" + String.format("%.4f", getHitRatio()) +
+                ", offHeapHitCount=" + getOffHeapHitCount() +
+                ", evictionCount=" + getEvictionCount() +
+                ", dirtyEvictionCount=" + getDirtyEvictionCount() +
+                ", backgroundFlushCount=" + getBackgroundFlushCount() +
+                ", readAheadCount=" + getReadAheadCount() +
+                ", pageVerificationCount=" + getPageVerificationCount() +
+                ", pageVerificationNanos=" + getPageVerificationNanos() +
+                ", corruptPageCount=" + getCorruptPageCount() +
+                ", repairedPageCount=" + getRepairedPageCount() +
+                '}';
+    }
+}
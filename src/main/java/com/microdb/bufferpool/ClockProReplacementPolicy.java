@@ -0,0 +1,302 @@
+package com.microdb.bufferpool;
+
+import com.microdb.model.page.PageID;
+
+import java.util.HashMap;
+import java.util.function.Predicate;
+
+/**
+ * CLOCK-Pro 置换策略
+ * <p>
+ * 所有页挂在一个环形链表上，分为三类：热页、驻留的冷页、非驻留的冷页(已被驱逐，只保留元数据用于"测试期")。
+ * 新读入的页为冷页并进入测试期，在测试期内被再次访问则晋升为热页；
+ * 非驻留冷页在测试期内被再次读入，说明冷页空间不足，冷页目标数量增加，反之测试期结束未被访问则减少。
+ * <p>
+ * 三个指针分别负责：
+ * handCold 寻找牺牲页（只驱逐未被引用的驻留冷页）；
+ * handHot 在热页超出目标数量时将未被引用的热页降级为冷页，并结束经过的冷页测试期；
+ * handTest 在非驻留页超出容量时移除最老的非驻留页
+ *
+ * @author zhangjw
+ * @version 1.0
+ */
+public class ClockProReplacementPolicy implements ReplacementPolicy {
+
+    /**
+     * 缓冲池容量
+     */
+    private final int capacity;
+
+    /**
+     * 冷页目标数量，自适应调整，取值[1,capacity-1]
+     */
+    private int coldTarget;
+
+    private int hotCount = 0;
+    private int coldCount = 0;
+    private int nonResidentCount = 0;
+
+    private final HashMap<PageID, Node> nodes;
+
+    private Node handHot;
+    private Node handCold;
+    private Node handTest;
+
+    public ClockProReplacementPolicy(int capacity) {
+        this.capacity = Math.max(capacity, 2);
+        // 初始时冷页目标取容量的一半，随后按测试期内的重访情况自适应调整
+        this.coldTarget = Math.max(1, this.capacity / 2);
+        this.nodes = new HashMap<>();
+    }
+
+    @Override
+    public synchronized void recordLoad(PageID pageID) {
+        Node node = nodes.get(pageID);
+        if (node != null && node.resident) {
+            node.ref = true;
+            return;
+        }
+
+        if (node != null) {
+            // 非驻留页在测试期内被再次读入，冷页空间不足，增大冷页目标
+            coldTarget = Math.min(coldTarget + 1, capacity - 1);
+            unlink(node);
+            nonResidentCount--;
+            node.resident = true;
+            node.hot = true;
+            node.ref = false;
+            node.test = false;
+            insertAtHead(node);
+            hotCount++;
+            balanceHotPages();
+        } else {
+            node = new Node(pageID);
+            node.test = true;
+            nodes.put(pageID, node);
+            insertAtHead(node);
+            coldCount++;
+        }
+        trimNonResidentPages();
+    }
+
+    @Override
+    public synchronized void recordAccess(PageID pageID) {
+        Node node = nodes.get(pageID);
+        if (node == null || !node.resident) {
+            recordLoad(pageID);
+            return;
+        }
+        node.ref = true;
+    }
+
+    @Override
+    public synchronized void remove(PageID pageID) {
+        Node node = nodes.remove(pageID);
+        if (node == null) {
+            return;
+        }
+        if (!node.resident) {
+            nonResidentCount--;
+        } else if (node.hot) {
+            hotCount--;
+        } else {
+            coldCount--;
+        }
+        unlink(node);
+    }
+
+    /**
+     * 牺牲页一定是未被引用的驻留冷页：仍在测试期的恢复为驻留，已移除的重新作为冷页插入，不调整冷页目标
+     */
+    @Override
+    public synchronized void reinstate(PageID pageID) {
+        Node node = nodes.get(pageID);
+        if (node != null && node.resident) {
+            return;
+        }
+        if (node != null) {
+            node.resident = true;
+            nonResidentCount--;
+        } else {
+            node = new Node(pageID);
+            nodes.put(pageID, node);
+            insertAtHead(node);
+        }
+        coldCount++;
+    }
+
+    @Override
+    public synchronized PageID selectVictim(Predicate<PageID> evictable) {
+        // 每个被引用的冷页最多被处理两次（清引用位、晋升或重新进入测试期），因此扫描步数有上界
+        int maxSteps = 3 * nodes.size() + 1;
+        for (int step = 0; step < maxSteps && handCold != null; step++) {
+            Node node = handCold;
+            handCold = node.next;
+
+            if (!node.resident || node.hot) {
+                continue;
+            }
+
+            if (node.ref) {
+                node.ref = false;
+                if (node.test) {
+                    // 测试期内被再次访问，晋升为热页
+                    unlink(node);
+                    node.hot = true;
+                    node.test = false;
+                    insertAtHead(node);
+                    coldCount--;
+                    hotCount++;
+                    balanceHotPages();
+                } else {
+                    // 重新开始测试期
+                    unlink(node);
+                    node.test = true;
+                    insertAtHead(node);
+                }
+                continue;
+            }
+
+            if (!evictable.test(node.pageID)) {
+                continue;
+            }
+
+            coldCount--;
+            if (node.test) {
+                // 仍在测试期，保留为非驻留页
+                node.resident = false;
+                nonResidentCount++;
+                trimNonResidentPages();
+            } else {
+                nodes.remove(node.pageID);
+                unlink(node);
+            }
+            return node.pageID;
+        }
+        return null;
+    }
+
+    @Override
+    public String getName() {
+        return "clock-pro";
+    }
+
+    /**
+     * 热页超出目标数量时，运行handHot降级热页
+     */
+    private void balanceHotPages() {
+        while (hotCount > capacity - coldTarget && hotCount > 0) {
+            if (!runHandHot()) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * handHot前进直至降级一个热页
+     *
+     * @return 是否降级成功
+     */
+    private boolean runHandHot() {
+        int maxSteps = 2 * nodes.size() + 1;
+        for (int step = 0; step < maxSteps && handHot != null; step++) {
+            Node node = handHot;
+            handHot = node.next;
+            if (node.hot) {
+                if (node.ref) {
+                    node.ref = false;
+                } else {
+                    node.hot = false;
+                    node.test = false;
+                    hotCount--;
+                    coldCount++;
+                    return true;
+                }
+            } else if (node.resident) {
+                if (node.test) {
+                    // 冷页测试期内未被访问，结束测试期，减小冷页目标
+                    node.test = false;
+                    coldTarget = Math.max(1, coldTarget - 1);
+                }
+            } else {
+                nodes.remove(node.pageID);
+                unlink(node);
+                nonResidentCount--;
+                coldTarget = Math.max(1, coldTarget - 1);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 非驻留页数量超出容量时，运行handTest移除最老的非驻留页
+     */
+    private void trimNonResidentPages() {
+        int maxSteps = 2 * nodes.size() + 1;
+        for (int step = 0; step < maxSteps && nonResidentCount > capacity && handTest != null; step++) {
+            Node node = handTest;
+            handTest = node.next;
+            if (!node.resident) {
+                nodes.remove(node.pageID);
+                unlink(node);
+                nonResidentCount--;
+                coldTarget = Math.max(1, coldTarget - 1);
+            }
+        }
+    }
+
+    /**
+     * 插入到链表头部：handHot之前的位置，即指针最后才会扫描到的位置
+     */
+    private void insertAtHead(Node node) {
+        if (handHot == null) {
+            node.prev = node;
+            node.next = node;
+            handHot = node;
+            handCold = node;
+            handTest = node;
+            return;
+        }
+        Node tail = handHot.prev;
+        tail.next = node;
+        node.prev = tail;
+        node.next = handHot;
+        handHot.prev = node;
+    }
+
+    private void unlink(Node node) {
+        if (node.next == node) {
+            handHot = null;
+            handCold = null;
+            handTest = null;
+        } else {
+            if (handHot == node) {
+                handHot = node.next;
+            }
+            if (handCold == node) {
+                handCold = node.next;
+            }
+            if (handTest == node) {
+                handTest = node.next;
+            }
+            node.prev.next = node.next;
+            node.next.prev = node.prev;
+        }
+        node.prev = null;
+        node.next = null;
+    }
+
+    private static class Node {
+        final PageID pageID;
+        boolean hot = false;
+        boolean resident = true;
+        boolean ref = false;
+        boolean test = false;
+        Node prev;
+        Node next;
+
+        Node(PageID pageID) {
+            this.pageID = pageID;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.microdb.bufferpool;
+
+import com.microdb.exception.DbException;
+import com.microdb.model.page.Page;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 缓冲池中的一个缓存帧，持有页及其pin计数
+ * pin计数大于0的帧正在被使用，不能被驱逐；帧被驱逐后pin计数置为-1，不能再被pin
+ *
+ * @author zhangjw
+ * @version 1.0
+ */
+class Frame {
+
+    private volatile Page page;
+
+    /**
+     * pin计数，-1表示已被驱逐
+     */
+    private final AtomicInteger pinCount = new AtomicInteger();
+
+    /**
+     * 是否由扫描(或预读)读入且之后没有被普通访问命中过
+     */
+    private volatile boolean scanLoaded = false;
+
+    Frame(Page page) {
+        this.page = page;
+    }
+
+    Page getPage() {
+        return page;
+    }
+
+    /**
+     * 替换帧中的页对象，pin计数保持不变，已有的pin持有者之后看到新的页对象
+     *
+     * @return 帧已被驱逐时返回false，调用方需新建帧
+     */
+    boolean replacePage(Page page) {
+        // 替换期间pin住，避免与驱逐交错
+        if (!pin()) {
+            return false;
+        }
+        this.page = page;
+        unpin();
+        return true;
+    }
+
+    /**
+     * pin住该帧
+     *
+     * @return 帧已被驱逐时返回false，调用方需重新获取帧
+     */
+    boolean pin() {
+        while (true) {
+            int count = pinCount.get();
+            if (count < 0) {
+                return false;
+            }
+            if (pinCount.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+    }
+
+    void unpin() {
+        if (pinCount.decrementAndGet() < 0) {
+            throw new DbException("unpin page error: page is not pinned, pageID=" + page.getPageID());
+        }
+    }
+
+    boolean isPinned() {
+        return pinCount.get() > 0;
+    }
+
+    int getPinCount() {
+        return pinCount.get();
+    }
+
+    void markScanLoaded() {
+        scanLoaded = true;
+    }
+
+    void clearScanLoaded() {
+        if (scanLoaded) {
+            scanLoaded = false;
+        }
+    }
+
+    boolean isScanLoaded() {
+        return scanLoaded;
+    }
+
+    /**
+     * 没有被pin时标记为已驱逐
+     *
+     * @return 是否标记成功
+     */
+    boolean tryEvict() {
+        return pinCount.compareAndSet(0, -1);
+    }
+}
@@ -0,0 +1,192 @@
+package com.microdb.bufferpool;
+
+import com.microdb.model.page.PageID;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * LRU-K 置换策略
+ * 记录每个页最近K次被访问的逻辑时间，驱逐"倒数第K次访问"距今最远的页；
+ * 访问次数不足K次的页，倒数第K次访问视为无穷远，优先被驱逐，它们之间按最早访问时间淘汰(退化为LRU)
+ * <p>
+ * 页被驱逐后，其访问历史会保留一段时间（最多保留capacity个），页很快被再次读入时可以恢复历史，
+ * 避免刚被淘汰的热页重新从"冷"开始
+ *
+ * @author zhangjw
+ * @version 1.0
+ */
+public class LruKReplacementPolicy implements ReplacementPolicy {
+
+    /**
+     * K值
+     */
+    private final int k;
+
+    /**
+     * 被驱逐页访问历史的保留数量
+     */
+    private final int retainedHistorySize;
+
+    /**
+     * 逻辑时钟，每次访问自增
+     */
+    private long clock = 0;
+
+    /**
+     * 驻留页的访问历史
+     */
+    private final HashMap<PageID, History> residentPages;
+
+    /**
+     * 已被驱逐页的访问历史，按驱逐顺序保留
+     */
+    private final LinkedHashMap<PageID, History> retainedHistory;
+
+    public LruKReplacementPolicy(int k, int capacity) {
+        if (k < 1) {
+            throw new IllegalArgumentException("lru-k: k must be greater than 0");
+        }
+        this.k = k;
+        this.retainedHistorySize = Math.max(capacity, 1);
+        this.residentPages = new HashMap<>();
+        this.retainedHistory = new LinkedHashMap<>();
+    }
+
+    @Override
+    public synchronized void recordLoad(PageID pageID) {
+        History history = retainedHistory.remove(pageID);
+        if (history == null) {
+            history = residentPages.get(pageID);
+        }
+        if (history == null) {
+            history = new History(k);
+        }
+        history.access(++clock);
+        residentPages.put(pageID, history);
+    }
+
+    @Override
+    public synchronized void recordAccess(PageID pageID) {
+        History history = residentPages.get(pageID);
+        if (history == null) {
+            recordLoad(pageID);
+            return;
+        }
+        history.access(++clock);
+    }
+
+    @Override
+    public synchronized void remove(PageID pageID) {
+        residentPages.remove(pageID);
+        retainedHistory.remove(pageID);
+    }
+
+    /**
+     * 牺牲页的访问历史刚转入保留的历史，原样移回驻留页，不记录访问
+     */
+    @Override
+    public synchronized void reinstate(PageID pageID) {
+        History history = retainedHistory.remove(pageID);
+        if (history != null) {
+            residentPages.put(pageID, history);
+        } else if (!residentPages.containsKey(pageID)) {
+            recordLoad(pageID);
+        }
+    }
+
+    @Override
+    public synchronized PageID selectVictim(Predicate<PageID> evictable) {
+        PageID victim = null;
+        History victimHistory = null;
+        for (Map.Entry<PageID, History> entry : residentPages.entrySet()) {
+            History history = entry.getValue();
+            if (victimHistory != null && !history.isOlderThan(victimHistory)) {
+                continue;
+            }
+            if (!evictable.test(entry.getKey())) {
+                continue;
+            }
+            victim = entry.getKey();
+            victimHistory = history;
+        }
+
+        if (victim != null) {
+            residentPages.remove(victim);
+            retain(victim, victimHistory);
+        }
+        return victim;
+    }
+
+    private void retain(PageID pageID, History history) {
+        retainedHistory.put(pageID, history);
+        if (retainedHistory.size() > retainedHistorySize) {
+            Iterator<PageID> it = retainedHistory.keySet().iterator();
+            it.next();
+            it.remove();
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "lru-" + k;
+    }
+
+    /**
+     * 页最近K次的访问时间，环形数组存储
+     */
+    private static class History {
+        private final long[] accessTimes;
+        private int accessCount = 0;
+
+        History(int k) {
+            this.accessTimes = new long[k];
+        }
+
+        void access(long time) {
+            accessTimes[accessCount % accessTimes.length] = time;
+            accessCount++;
+        }
+
+        /**
+         * 倒数第K次访问时间，访问不足K次时返回-1，表示无穷远
+         */
+        long kthRecentAccess() {
+            if (accessCount < accessTimes.length) {
+                return -1;
+            }
+            return accessTimes[accessCount % accessTimes.length];
+        }
+
+        /**
+         * 最早一次记录的访问时间，用于访问不足K次的页之间比较
+         */
+        long earliestAccess() {
+            if (accessCount < accessTimes.length) {
+                return accessTimes[0];
+            }
+            return accessTimes[accessCount % accessTimes.length];
+        }
+
+        /**
+         * 是否比other更应该被驱逐
+         */
+        boolean isOlderThan(History other) {
+            long kth = kthRecentAccess();
+            long otherKth = other.kthRecentAccess();
+            if (kth != otherKth) {
+                if (kth == -1) {
+                    return true;
+                }
+                if (otherKth == -1) {
+                    return false;
+                }
+                return kth < otherKth;
+            }
+            return earliestAccess() < other.earliestAccess();
+        }
+    }
+}
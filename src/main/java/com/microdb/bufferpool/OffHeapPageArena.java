@@ -0,0 +1,139 @@
+package com.microdb.bufferpool;
+
+import com.microdb.model.page.PageID;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 堆外页缓存：由直接内存(direct ByteBuffer)划分的定长槽位组成，每个槽位存放一页序列化后的字节
+ * <p>
+ * 作为缓冲池的第二级缓存：页从缓冲池中驱逐并刷盘后，其字节降级存入堆外槽位；缓冲池未命中时先查找堆外缓存，
+ * 命中则由字节重建页对象，不需要读磁盘。页对象在堆上的开销是页大小的数倍，而堆外槽位只占一个页大小且不受GC扫描，
+ * 因此可以用较小的堆内缓冲池配合较大的堆外缓存。
+ * <p>
+ * 与缓冲池互斥存放：页被读回缓冲池时从堆外缓存中移除。槽位用尽时按LRU淘汰，只存放与磁盘一致的干净页，淘汰时无需刷盘
+ *
+ * @author zhangjw
+ * @version 1.0
+ */
+public class OffHeapPageArena {
+
+    /**
+     * 单个直接内存块的最大字节数
+     */
+    private static final int MAX_CHUNK_SIZE_IN_BYTE = 1 << 30;
+
+    /**
+     * 槽位大小，即页大小
+     */
+    private final int slotSize;
+
+    /**
+     * 每个直接内存块的槽位数
+     */
+    private final int slotsPerChunk;
+
+    private final ByteBuffer[] chunks;
+
+    /**
+     * 每个槽位中数据的实际长度，B+树rootPtr页小于页大小
+     */
+    private final int[] lengths;
+
+    /**
+     * 页所在槽位，按访问顺序排列，用于LRU淘汰
+     */
+    private final LinkedHashMap<PageID, Integer> slots;
+
+    private final ArrayDeque<Integer> freeSlots;
+
+    public OffHeapPageArena(int slotCount, int slotSize) {
+        if (slotCount < 1 || slotSize < 1) {
+            throw new IllegalArgumentException("off-heap arena: slotCount and slotSize must be greater than 0");
+        }
+        this.slotSize = slotSize;
+        this.slotsPerChunk = Math.max(1, MAX_CHUNK_SIZE_IN_BYTE / slotSize);
+        int chunkCount = (slotCount + slotsPerChunk - 1) / slotsPerChunk;
+        this.chunks = new ByteBuffer[chunkCount];
+        for (int i = 0; i < chunkCount; i++) {
+            int slots = Math.min(slotsPerChunk, slotCount - i * slotsPerChunk);
+            chunks[i] = ByteBuffer.allocateDirect(slots * slotSize);
+        }
+        this.lengths = new int[slotCount];
+        this.slots = new LinkedHashMap<>(16, 0.75f, true);
+        this.freeSlots = new ArrayDeque<>(slotCount);
+        for (int i = 0; i < slotCount; i++) {
+            freeSlots.add(i);
+        }
+    }
+
+    /**
+     * 存入页数据，已存在时覆盖，槽位用尽时淘汰最久未访问的页
+     *
+     * @param pageID   pageID
+     * @param pageData 页序列化后的字节
+     */
+    public synchronized void put(PageID pageID, byte[] pageData) {
+        if (pageData.length > slotSize) {
+            return;
+        }
+        Integer slot = slots.get(pageID);
+        if (slot == null) {
+            slot = freeSlots.poll();
+        }
+        if (slot == null) {
+            Iterator<Map.Entry<PageID, Integer>> eldest = slots.entrySet().iterator();
+            slot = eldest.next().getValue();
+            eldest.remove();
+        }
+        slotBuffer(slot).put(pageData);
+        lengths[slot] = pageData.length;
+        slots.put(pageID, slot);
+    }
+
+    /**
+     * 取出页数据并释放槽位
+     *
+     * @return 不存在时返回null
+     */
+    public synchronized byte[] take(PageID pageID) {
+        Integer slot = slots.remove(pageID);
+        if (slot == null) {
+            return null;
+        }
+        byte[] pageData = new byte[lengths[slot]];
+        slotBuffer(slot).get(pageData);
+        freeSlots.add(slot);
+        return pageData;
+    }
+
+    /**
+     * 移除页，页在磁盘上被直接修改(如回滚)后，堆外的副本失效
+     */
+    public synchronized void remove(PageID pageID) {
+        Integer slot = slots.remove(pageID);
+        if (slot != null) {
+            freeSlots.add(slot);
+        }
+    }
+
+    public synchronized boolean contains(PageID pageID) {
+        return slots.containsKey(pageID);
+    }
+
+    public synchronized int size() {
+        return slots.size();
+    }
+
+    private ByteBuffer slotBuffer(int slot) {
+        ByteBuffer buffer = chunks[slot / slotsPerChunk].duplicate();
+        int offset = (slot % slotsPerChunk) * slotSize;
+        buffer.limit(offset + slotSize);
+        buffer.position(offset);
+        return buffer;
+    }
+}
@@ -0,0 +1,41 @@
+package com.microdb.bufferpool;
+
+import com.microdb.model.page.Page;
+import com.microdb.model.page.PageID;
+
+/**
+ * 被pin住的页，在close之前页不会被驱逐
+ * 配合try-with-resources使用，或在迭代器中跨方法持有
+ *
+ * @author zhangjw
+ * @version 1.0
+ */
+public class PageHandle implements AutoCloseable {
+
+    private final Frame frame;
+
+    private boolean released = false;
+
+    PageHandle(Frame frame) {
+        this.frame = frame;
+    }
+
+    public Page getPage() {
+        return frame.getPage();
+    }
+
+    public PageID getPageID() {
+        return frame.getPage().getPageID();
+    }
+
+    /**
+     * unpin，重复调用无副作用
+     */
+    @Override
+    public void close() {
+        if (!released) {
+            released = true;
+            frame.unpin();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.microdb.bufferpool;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * pin作用域：作用域内当前线程通过{@link BufferPool#getPage}获取的页都会被pin住，作用域关闭时统一unpin
+ * <p>
+ * 用于B+树页分裂、合并这类一次操作中持有多个页对象引用的场景，避免操作过程中页被驱逐后再次读入，产生同一页的两个副本。
+ * 支持嵌套，最外层作用域关闭时才unpin
+ *
+ * @author zhangjw
+ * @version 1.0
+ */
+public class PinScope implements AutoCloseable {
+
+    private final BufferPool bufferPool;
+
+    /**
+     * 作用域内pin住的帧
+     */
+    private final List<Frame> pinnedFrames = new ArrayList<>();
+
+    /**
+     * 嵌套深度
+     */
+    private int depth = 0;
+
+    PinScope(BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
+    void enter() {
+        depth++;
+    }
+
+    void add(Frame frame) {
+        pinnedFrames.add(frame);
+    }
+
+    @Override
+    public void close() {
+        if (--depth > 0) {
+            return;
+        }
+        for (Frame frame : pinnedFrames) {
+            frame.unpin();
+        }
+        pinnedFrames.clear();
+        bufferPool.closePinScope();
+    }
+}
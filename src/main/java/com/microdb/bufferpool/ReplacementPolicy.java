@@ -0,0 +1,51 @@
+package com.microdb.bufferpool;
+
+import com.microdb.model.page.PageID;
+
+import java.util.function.Predicate;
+
+/**
+ * 缓冲池页面置换策略
+ * 缓冲池满时由置换策略每次选出一个牺牲页，而不是清空整个缓冲池
+ * <p>
+ * 实现类需保证线程安全
+ *
+ * @author zhangjw
+ * @version 1.0
+ */
+public interface ReplacementPolicy {
+
+    /**
+     * 页从磁盘读入缓冲池
+     */
+    void recordLoad(PageID pageID);
+
+    /**
+     * 页在缓冲池中被命中
+     */
+    void recordAccess(PageID pageID);
+
+    /**
+     * 页被移出缓冲池（丢弃、回滚等非驱逐的情况）
+     */
+    void remove(PageID pageID);
+
+    /**
+     * 选出的牺牲页未能驱逐(恰好被pin住)，按选出前的状态放回
+     * 与{@link #recordLoad}不同，不算作一次访问，不调整策略的自适应参数
+     */
+    void reinstate(PageID pageID);
+
+    /**
+     * 选出一个牺牲页，并将其从策略维护的驻留页中移除
+     *
+     * @param evictable 判断页当前是否允许被驱逐，如页被锁定、被pin时不可驱逐
+     * @return 牺牲页，没有可驱逐的页时返回null
+     */
+    PageID selectVictim(Predicate<PageID> evictable);
+
+    /**
+     * 策略名称
+     */
+    String getName();
+}
@@ -0,0 +1,43 @@
+package com.microdb.bufferpool;
+
+import com.microdb.model.page.PageID;
+
+import java.util.ArrayDeque;
+
+/**
+ * 大表扫描私有的环形缓冲区
+ * <p>
+ * 全表扫描读入的页大多只会访问一次，如果按普通页进入缓冲池，会把点查询反复访问的热页挤出去。
+ * 扫描读入的页只保留最近的若干页，超出环大小时，最早的页若仍是由扫描读入、没有被其他访问命中过、且是干净页，
+ * 立即从缓冲池中移除，因此一次扫描最多只占用环大小的帧
+ *
+ * @author zhangjw
+ * @version 1.0
+ */
+public class ScanRing {
+
+    private final BufferPool bufferPool;
+
+    /**
+     * 环大小，单位：页
+     */
+    private final int size;
+
+    private final ArrayDeque<PageID> pages;
+
+    ScanRing(BufferPool bufferPool, int size) {
+        this.bufferPool = bufferPool;
+        this.size = size;
+        this.pages = new ArrayDeque<>(size + 1);
+    }
+
+    /**
+     * 扫描离开一页时放入环中
+     */
+    public void add(PageID pageID) {
+        pages.addLast(pageID);
+        while (pages.size() > size) {
+            bufferPool.releaseScanPage(pages.pollFirst());
+        }
+    }
+}
@@ -1,5 +1,8 @@
 package com.microdb.config;
 
+import java.util.HashSet;
+import java.util.Set;
+
 /**
  * 数据库配置
  *
@@ -18,6 +21,116 @@ public class DBConfig {
      */
     private final int bufferPoolCapacity;
 
+    /**
+     * 缓冲池页面置换策略：clock-pro、lru-k
+     */
+    private String replacementPolicy = "clock-pro";
+
+    /**
+     * lru-k 置换策略的K值
+     */
+    private int lruK = 2;
+
+    /**
+     * 缓冲池分片数，0表示按CPU核数自动取值
+     */
+    private int bufferPoolShards = 0;
+
+    /**
+     * 堆外页缓存容量，单位：页，0表示不开启
+     */
+    private int offHeapArenaPages = 0;
+
+    /**
+     * 是否开启后台刷脏线程
+     */
+    private boolean backgroundFlushEnabled = false;
+
+    /**
+     * 后台刷脏间隔，单位：毫秒
+     */
+    private long backgroundFlushIntervalMillis = 1000;
+
+    /**
+     * 目标脏页比例，脏页超出该比例时后台线程开始刷盘
+     */
+    private double backgroundFlushTargetDirtyRatio = 0.1;
+
+    /**
+     * 后台线程每秒最多刷盘页数
+     */
+    private int backgroundFlushMaxPagesPerSecond = 1000;
+
+    /**
+     * 顺序扫描每次预读的页数，0表示不预读
+     */
+    private int readAheadPages = 4;
+
+    /**
+     * 大表扫描私有环的大小，单位：页，0表示不使用
+     */
+    private int scanRingPages = 16;
+
+    /**
+     * 使用内存映射模式的表文件名，"*"表示全部
+     */
+    private Set<String> mappedTableFiles = new HashSet<>();
+
+    /**
+     * 组提交攒批的最长等待时间，单位：毫秒，0表示不等待
+     */
+    private long groupCommitMaxWaitMillis = 1;
+
+    /**
+     * 组提交一批的最大事务数，达到后立即落盘
+     */
+    private int groupCommitMaxBatchSize = 64;
+
+    /**
+     * 模糊检查点的间隔，单位：毫秒，0表示不做周期检查点
+     */
+    private long checkpointIntervalMillis = 0;
+
+    /**
+     * redo、undo日志单个段文件的最大字节数
+     */
+    private long logSegmentSizeInByte = 16 * 1024 * 1024;
+
+    /**
+     * 事务内存undo链的大小上限，超出后转存到undo文件
+     */
+    private long undoChainMaxSizeInByte = 1024 * 1024;
+
+    /**
+     * 崩溃恢复时并行重做的线程数，0表示取CPU核数
+     */
+    private int recoveryRedoThreads = 0;
+
+    /**
+     * 锁升级阈值：一个事务在一个表上持有的行锁数超出时，尝试升级为表锁
+     */
+    private int lockEscalationThreshold = 5000;
+
+    /**
+     * 锁表的分区数，0表示取CPU核数的4倍
+     */
+    private int lockTablePartitions = 0;
+
+    /**
+     * 行版本存储的分区数，0表示取CPU核数的4倍
+     */
+    private int versionStorePartitions = 0;
+
+    /**
+     * 锁等待超时时间，死锁由等待图检测，超时仅作为兜底
+     */
+    private long lockWaitTimeoutMillis = 10000;
+
+    /**
+     * 批量加载每个区(extent)的页数，一个区一次顺序写入、记录一条redo日志
+     */
+    private int bulkLoadExtentPages = 64;
+
     public DBConfig(int pageSizeInByte, int bufferPoolCapacity) {
         this.pageSizeInByte = pageSizeInByte;
         this.bufferPoolCapacity = bufferPoolCapacity;
@@ -30,4 +143,189 @@ public class DBConfig {
     public int getBufferPoolCapacity() {
         return bufferPoolCapacity;
     }
+
+    public String getReplacementPolicy() {
+        return replacementPolicy;
+    }
+
+    public void setReplacementPolicy(String replacementPolicy) {
+        this.replacementPolicy = replacementPolicy;
+    }
+
+    public int getLruK() {
+        return lruK;
+    }
+
+    public void setLruK(int lruK) {
+        this.lruK = lruK;
+    }
+
+    public int getBufferPoolShards() {
+        return bufferPoolShards;
+    }
+
+    public void setBufferPoolShards(int bufferPoolShards) {
+        this.bufferPoolShards = bufferPoolShards;
+    }
+
+    public int getOffHeapArenaPages() {
+        return offHeapArenaPages;
+    }
+
+    public void setOffHeapArenaPages(int offHeapArenaPages) {
+        this.offHeapArenaPages = offHeapArenaPages;
+    }
+
+    public boolean isBackgroundFlushEnabled() {
+        return backgroundFlushEnabled;
+    }
+
+    public void setBackgroundFlushEnabled(boolean backgroundFlushEnabled) {
+        this.backgroundFlushEnabled = backgroundFlushEnabled;
+    }
+
+    public long getBackgroundFlushIntervalMillis() {
+        return backgroundFlushIntervalMillis;
+    }
+
+    public void setBackgroundFlushIntervalMillis(long backgroundFlushIntervalMillis) {
+        this.backgroundFlushIntervalMillis = backgroundFlushIntervalMillis;
+    }
+
+    public double getBackgroundFlushTargetDirtyRatio() {
+        return backgroundFlushTargetDirtyRatio;
+    }
+
+    public void setBackgroundFlushTargetDirtyRatio(double backgroundFlushTargetDirtyRatio) {
+        this.backgroundFlushTargetDirtyRatio = backgroundFlushTargetDirtyRatio;
+    }
+
+    public int getBackgroundFlushMaxPagesPerSecond() {
+        return backgroundFlushMaxPagesPerSecond;
+    }
+
+    public void setBackgroundFlushMaxPagesPerSecond(int backgroundFlushMaxPagesPerSecond) {
+        this.backgroundFlushMaxPagesPerSecond = backgroundFlushMaxPagesPerSecond;
+    }
+
+    public int getReadAheadPages() {
+        return readAheadPages;
+    }
+
+    public void setReadAheadPages(int readAheadPages) {
+        this.readAheadPages = readAheadPages;
+    }
+
+    public int getScanRingPages() {
+        return scanRingPages;
+    }
+
+    public void setScanRingPages(int scanRingPages) {
+        this.scanRingPages = scanRingPages;
+    }
+
+    public Set<String> getMappedTableFiles() {
+        return mappedTableFiles;
+    }
+
+    public void setMappedTableFiles(Set<String> mappedTableFiles) {
+        this.mappedTableFiles = mappedTableFiles;
+    }
+
+    /**
+     * 表文件是否使用内存映射模式
+     *
+     * @param fileName 表文件名
+     */
+    public boolean isMappedTableFile(String fileName) {
+        return mappedTableFiles.contains("*") || mappedTableFiles.contains(fileName);
+    }
+
+    public long getGroupCommitMaxWaitMillis() {
+        return groupCommitMaxWaitMillis;
+    }
+
+    public void setGroupCommitMaxWaitMillis(long groupCommitMaxWaitMillis) {
+        this.groupCommitMaxWaitMillis = groupCommitMaxWaitMillis;
+    }
+
+    public int getGroupCommitMaxBatchSize() {
+        return groupCommitMaxBatchSize;
+    }
+
+    public void setGroupCommitMaxBatchSize(int groupCommitMaxBatchSize) {
+        this.groupCommitMaxBatchSize = groupCommitMaxBatchSize;
+    }
+
+    public long getCheckpointIntervalMillis() {
+        return checkpointIntervalMillis;
+    }
+
+    public void setCheckpointIntervalMillis(long checkpointIntervalMillis) {
+        this.checkpointIntervalMillis = checkpointIntervalMillis;
+    }
+
+    public long getLogSegmentSizeInByte() {
+        return logSegmentSizeInByte;
+    }
+
+    public void setLogSegmentSizeInByte(long logSegmentSizeInByte) {
+        this.logSegmentSizeInByte = logSegmentSizeInByte;
+    }
+
+    public long getUndoChainMaxSizeInByte() {
+        return undoChainMaxSizeInByte;
+    }
+
+    public void setUndoChainMaxSizeInByte(long undoChainMaxSizeInByte) {
+        this.undoChainMaxSizeInByte = undoChainMaxSizeInByte;
+    }
+
+    public int getRecoveryRedoThreads() {
+        return recoveryRedoThreads;
+    }
+
+    public void setRecoveryRedoThreads(int recoveryRedoThreads) {
+        this.recoveryRedoThreads = recoveryRedoThreads;
+    }
+
+    public int getLockEscalationThreshold() {
+        return lockEscalationThreshold;
+    }
+
+    public void setLockEscalationThreshold(int lockEscalationThreshold) {
+        this.lockEscalationThreshold = lockEscalationThreshold;
+    }
+
+    public int getLockTablePartitions() {
+        return lockTablePartitions;
+    }
+
+    public void setLockTablePartitions(int lockTablePartitions) {
+        this.lockTablePartitions = lockTablePartitions;
+    }
+
+    public int getVersionStorePartitions() {
+        return versionStorePartitions;
+    }
+
+    public void setVersionStorePartitions(int versionStorePartitions) {
+        this.versionStorePartitions = versionStorePartitions;
+    }
+
+    public long getLockWaitTimeoutMillis() {
+        return lockWaitTimeoutMillis;
+    }
+
+    public void setLockWaitTimeoutMillis(long lockWaitTimeoutMillis) {
+        this.lockWaitTimeoutMillis = lockWaitTimeoutMillis;
+    }
+
+    public int getBulkLoadExtentPages() {
+        return bulkLoadExtentPages;
+    }
+
+    public void setBulkLoadExtentPages(int bulkLoadExtentPages) {
+        this.bulkLoadExtentPages = bulkLoadExtentPages;
+    }
 }
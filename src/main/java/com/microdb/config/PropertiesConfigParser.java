@@ -3,7 +3,9 @@ package com.microdb.config;
 import com.microdb.exception.ParseException;
 
 import java.io.InputStream;
+import java.util.HashSet;
 import java.util.Properties;
+import java.util.Set;
 
 /**
  * Properties 解析器
@@ -28,11 +30,47 @@ public class PropertiesConfigParser {
             // load 文本
             // String text = load(filePath);
             // 文本parse，创建config
-            return new DBConfig(pageSize, bufferPoolCapacity);
+            DBConfig dbConfig = new DBConfig(pageSize, bufferPoolCapacity);
+            dbConfig.setReplacementPolicy(props.getProperty("buffer_pool_replacement_policy", "clock-pro").trim());
+            dbConfig.setLruK(Integer.parseInt(props.getProperty("lru_k", "2")));
+            dbConfig.setBufferPoolShards(Integer.parseInt(props.getProperty("buffer_pool_shards", "0").trim()));
+            dbConfig.setOffHeapArenaPages(Integer.parseInt(props.getProperty("off_heap_arena_pages", "0").trim()));
+            dbConfig.setBackgroundFlushEnabled(Boolean.parseBoolean(props.getProperty("background_flush_enabled", "false").trim()));
+            dbConfig.setBackgroundFlushIntervalMillis(Long.parseLong(props.getProperty("background_flush_interval_ms", "1000").trim()));
+            dbConfig.setBackgroundFlushTargetDirtyRatio(Double.parseDouble(props.getProperty("background_flush_target_dirty_ratio", "0.1").trim()));
+            dbConfig.setBackgroundFlushMaxPagesPerSecond(Integer.parseInt(props.getProperty("background_flush_max_pages_per_second", "1000").trim()));
+            dbConfig.setReadAheadPages(Integer.parseInt(props.getProperty("read_ahead_pages", "4").trim()));
+            dbConfig.setScanRingPages(Integer.parseInt(props.getProperty("scan_ring_pages", "16").trim()));
+            dbConfig.setMappedTableFiles(parseList(props.getProperty("mmap_table_files", "")));
+            dbConfig.setGroupCommitMaxWaitMillis(Long.parseLong(props.getProperty("group_commit_max_wait_ms", "1").trim()));
+            dbConfig.setGroupCommitMaxBatchSize(Integer.parseInt(props.getProperty("group_commit_max_batch_size", "64").trim()));
+            dbConfig.setCheckpointIntervalMillis(Long.parseLong(props.getProperty("checkpoint_interval_ms", "0").trim()));
+            dbConfig.setLogSegmentSizeInByte(Long.parseLong(props.getProperty("log_segment_size", "16777216").trim()));
+            dbConfig.setUndoChainMaxSizeInByte(Long.parseLong(props.getProperty("undo_chain_max_size", "1048576").trim()));
+            dbConfig.setRecoveryRedoThreads(Integer.parseInt(props.getProperty("recovery_redo_threads", "0").trim()));
+            dbConfig.setLockEscalationThreshold(Integer.parseInt(props.getProperty("lock_escalation_threshold", "5000").trim()));
+            dbConfig.setLockTablePartitions(Integer.parseInt(props.getProperty("lock_table_partitions", "0").trim()));
+            dbConfig.setVersionStorePartitions(Integer.parseInt(props.getProperty("version_store_partitions", "0").trim()));
+            dbConfig.setLockWaitTimeoutMillis(Long.parseLong(props.getProperty("lock_wait_timeout_ms", "10000").trim()));
+            dbConfig.setBulkLoadExtentPages(Integer.parseInt(props.getProperty("bulk_load_extent_pages", "64").trim()));
+            return dbConfig;
         } catch (Exception e) {
             throw new ParseException("配置解析失败", e);
         }
 
     }
 
+    /**
+     * 解析逗号分隔的列表
+     */
+    private static Set<String> parseList(String value) {
+        Set<String> items = new HashSet<>();
+        for (String item : value.split(",")) {
+            if (!item.trim().isEmpty()) {
+                items.add(item.trim());
+            }
+        }
+        return items;
+    }
+
 }
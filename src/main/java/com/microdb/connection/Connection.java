@@ -61,6 +61,8 @@ public class Connection {
             HashMap<String, Object> map = getOrInitThreadMap();
             HashMap<PageID, Page> pages =
                     (HashMap<PageID, Page>) map.compute(DIRTY_PAGE_KEY, (k, v) -> v == null ? v = new HashMap<>() : v);
+            // 记录修改前的脏页标记，事务终止时恢复
+            transaction.getUndoChain().recordPage(page);
             page.markDirty(transaction.getTransactionId());
             pages.put(page.getPageID(), page);
         }
@@ -0,0 +1,25 @@
+package com.microdb.exception;
+
+import com.microdb.model.page.PageID;
+
+/**
+ * 从磁盘读取的页校验失败：写到一半崩溃(torn write)或介质损坏，且无法从redo日志修复
+ *
+ * @author zhangjw
+ * @version 1.0
+ */
+public class CorruptPageException extends DbException {
+
+    private static final long serialVersionUID = -6127045533918062047L;
+
+    private final PageID pageID;
+
+    public CorruptPageException(PageID pageID, String message) {
+        super(message + ",pageID=" + pageID);
+        this.pageID = pageID;
+    }
+
+    public PageID getPageID() {
+        return pageID;
+    }
+}
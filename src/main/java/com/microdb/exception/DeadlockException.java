@@ -0,0 +1,16 @@
+package com.microdb.exception;
+
+/**
+ * 死锁异常：事务在死锁检测中被选为牺牲者，已被终止
+ *
+ * @author zhangjw
+ * @version 1.0
+ */
+public class DeadlockException extends TransactionException {
+
+    private static final long serialVersionUID = -3209917453328655171L;
+
+    public DeadlockException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,16 @@
+package com.microdb.exception;
+
+/**
+ * 乐观事务提交时校验失败：读取过的页已被其他事务修改，或页正被其他事务锁定，事务已被终止
+ *
+ * @author zhangjw
+ * @version 1.0
+ */
+public class ValidationException extends TransactionException {
+
+    private static final long serialVersionUID = 5129374826015340917L;
+
+    public ValidationException(String message) {
+        super(message);
+    }
+}
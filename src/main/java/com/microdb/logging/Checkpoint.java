@@ -0,0 +1,113 @@
+package com.microdb.logging;
+
+import com.microdb.model.page.PageID;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 模糊检查点：不停止事务和刷盘，记录某一时刻的事务表和脏页表
+ * <p>
+ * 事务表记录未结束的事务及其第一条日志的LSN，回滚未结束的事务需要从这里读起；
+ * 脏页表记录缓冲池中的脏页及其recLSN(页变脏时日志的位置)，早于recLSN的日志对该页的修改都已落盘，
+ * 重做从最小的recLSN开始。开始收集时日志的位置(beginLsn)之后变脏的页不在脏页表中，重做至少从beginLsn开始
+ *
+ * @author zhangjw
+ * @version 1.0
+ */
+public class Checkpoint {
+
+    /**
+     * 开始收集事务表、脏页表时日志的位置
+     */
+    private final long beginLsn;
+
+    /**
+     * 未结束的事务：事务ID -> 第一条日志的LSN
+     */
+    private final Map<Long, Long> activeTransactions;
+
+    /**
+     * 脏页表：pageID -> recLSN
+     */
+    private final Map<PageID, Long> dirtyPages;
+
+    public Checkpoint(long beginLsn, Map<Long, Long> activeTransactions, Map<PageID, Long> dirtyPages) {
+        this.beginLsn = beginLsn;
+        this.activeTransactions = activeTransactions;
+        this.dirtyPages = dirtyPages;
+    }
+
+    /**
+     * 空检查点，之前的修改都已落盘
+     */
+    public static Checkpoint empty(long beginLsn) {
+        return new Checkpoint(beginLsn, Collections.emptyMap(), Collections.emptyMap());
+    }
+
+    public long getBeginLsn() {
+        return beginLsn;
+    }
+
+    public Map<Long, Long> getActiveTransactions() {
+        return activeTransactions;
+    }
+
+    public Map<PageID, Long> getDirtyPages() {
+        return dirtyPages;
+    }
+
+    /**
+     * 恢复需要读取的最早的日志位置
+     */
+    public long getRecoveryStartLsn() {
+        long start = beginLsn;
+        for (Long firstLsn : activeTransactions.values()) {
+            start = Math.min(start, firstLsn);
+        }
+        for (Long recLsn : dirtyPages.values()) {
+            start = Math.min(start, recLsn);
+        }
+        return start;
+    }
+
+    byte[] serialize() throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        dos.writeLong(beginLsn);
+        dos.writeInt(activeTransactions.size());
+        for (Map.Entry<Long, Long> entry : activeTransactions.entrySet()) {
+            dos.writeLong(entry.getKey());
+            dos.writeLong(entry.getValue());
+        }
+        dos.writeInt(dirtyPages.size());
+        for (Map.Entry<PageID, Long> entry : dirtyPages.entrySet()) {
+            LogRecord.writePageID(dos, entry.getKey());
+            dos.writeLong(entry.getValue());
+        }
+        dos.flush();
+        return baos.toByteArray();
+    }
+
+    static Checkpoint deserialize(byte[] data) throws IOException {
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        long beginLsn = dis.readLong();
+        int txCount = dis.readInt();
+        Map<Long, Long> activeTransactions = new HashMap<>(txCount * 2);
+        for (int i = 0; i < txCount; i++) {
+            activeTransactions.put(dis.readLong(), dis.readLong());
+        }
+        int dirtyPageCount = dis.readInt();
+        Map<PageID, Long> dirtyPages = new HashMap<>(dirtyPageCount * 2);
+        for (int i = 0; i < dirtyPageCount; i++) {
+            dirtyPages.put(LogRecord.readPageID(dis), dis.readLong());
+        }
+        return new Checkpoint(beginLsn, activeTransactions, dirtyPages);
+    }
+}
@@ -0,0 +1,71 @@
+package com.microdb.logging;
+
+import com.microdb.exception.DbException;
+
+import java.io.IOException;
+
+/**
+ * 检查点线程，按配置的间隔周期性地做模糊检查点，见{@link RedoLogFile#checkpoint()}
+ * <p>
+ * 检查点不阻塞事务和刷盘，重启时只需重放最后一个检查点之后的日志，恢复时间与两次检查点之间的日志量相关，而不是日志总量
+ *
+ * @author zhangjw
+ * @version 1.0
+ */
+class Checkpointer implements Runnable {
+
+    private final RedoLogFile redoLogFile;
+
+    /**
+     * 两次检查点的间隔
+     */
+    private final long intervalMillis;
+
+    private volatile boolean running = false;
+
+    private Thread thread;
+
+    Checkpointer(RedoLogFile redoLogFile, long intervalMillis) {
+        this.redoLogFile = redoLogFile;
+        this.intervalMillis = intervalMillis;
+    }
+
+    synchronized void start() {
+        if (running || intervalMillis <= 0) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this, "micro-db-checkpointer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    synchronized void shutdown() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        thread.interrupt();
+        try {
+            thread.join(intervalMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                Thread.sleep(intervalMillis);
+            } catch (InterruptedException e) {
+                break;
+            }
+            try {
+                redoLogFile.checkpoint();
+            } catch (IOException | DbException e) {
+                System.out.println("checkpoint failed:" + e.getMessage());
+            }
+        }
+    }
+}
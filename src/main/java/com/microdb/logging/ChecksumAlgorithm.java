@@ -0,0 +1,85 @@
+package com.microdb.logging;
+
+import com.microdb.exception.DbException;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+/**
+ * 日志记录、表文件页共用的校验和算法
+ * <p>
+ * 优先使用CRC32C(Java 9+，由CPU指令加速)，运行在Java 8上时退化为CRC32。
+ * 算法编号随数据一起写入，读取时按写入时的算法校验。
+ * 每个线程复用各自的校验和对象，计算前重置，不为每次计算创建对象
+ *
+ * @author zhangjw
+ * @version 1.0
+ */
+public final class ChecksumAlgorithm {
+
+    public static final byte CRC32 = 0;
+
+    public static final byte CRC32C = 1;
+
+    /**
+     * CRC32C的构造器，类加载时解析一次，运行在Java 8上时为null
+     */
+    private static final MethodHandle CRC32C_CONSTRUCTOR = crc32cConstructor();
+
+    private static final ThreadLocal<Checksum> CRC32_INSTANCE = ThreadLocal.withInitial(CRC32::new);
+
+    private static final ThreadLocal<Checksum> CRC32C_INSTANCE = ThreadLocal.withInitial(ChecksumAlgorithm::newCrc32c);
+
+    private ChecksumAlgorithm() {
+    }
+
+    /**
+     * 写入时使用的算法
+     */
+    public static byte preferred() {
+        return CRC32C_CONSTRUCTOR != null ? CRC32C : CRC32;
+    }
+
+    public static boolean isValid(byte checksumType) {
+        return checksumType == CRC32 || checksumType == CRC32C;
+    }
+
+    public static int checksum(byte checksumType, byte[] data) {
+        return checksum(checksumType, data, 0, data.length);
+    }
+
+    public static int checksum(byte checksumType, byte[] data, int offset, int length) {
+        Checksum checksum;
+        if (checksumType == CRC32C) {
+            if (CRC32C_CONSTRUCTOR == null) {
+                throw new DbException("CRC32C is not supported by current jvm");
+            }
+            checksum = CRC32C_INSTANCE.get();
+        } else {
+            checksum = CRC32_INSTANCE.get();
+        }
+        checksum.reset();
+        checksum.update(data, offset, length);
+        return (int) checksum.getValue();
+    }
+
+    private static Checksum newCrc32c() {
+        try {
+            return (Checksum) CRC32C_CONSTRUCTOR.invoke();
+        } catch (Throwable e) {
+            throw new DbException("create CRC32C error", e);
+        }
+    }
+
+    private static MethodHandle crc32cConstructor() {
+        try {
+            return MethodHandles.publicLookup()
+                    .findConstructor(Class.forName("java.util.zip.CRC32C"), MethodType.methodType(void.class));
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
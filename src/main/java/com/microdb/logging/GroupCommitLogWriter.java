@@ -0,0 +1,175 @@
+package com.microdb.logging;
+
+import com.microdb.exception.DbException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * 组提交日志写线程
+ * <p>
+ * 提交的事务将日志追加到日志文件(操作系统缓存)后登记一个落盘请求并等待，日志写线程收集一批请求后只执行一次force，
+ * 一次force使此前写入的所有日志落盘，随后唤醒这一批的全部事务。攒批在请求数达到上限或等待超时后结束，
+ * force期间到达的请求进入下一批，并发提交的事务越多，平摊到每个事务的force越少
+ *
+ * @author zhangjw
+ * @version 1.0
+ */
+class GroupCommitLogWriter implements Runnable {
+
+    private final SegmentedLog log;
+
+    /**
+     * 日志当前写到的位置
+     */
+    private final LongSupplier writtenOffset;
+
+    /**
+     * 攒批的最长等待时间
+     */
+    private final long maxWaitNanos;
+
+    /**
+     * 一批的最大请求数，达到后立即force
+     */
+    private final int maxBatchSize;
+
+    /**
+     * 等待落盘的请求
+     */
+    private List<CompletableFuture<Void>> pendingRequests = new ArrayList<>();
+
+    /**
+     * 已落盘的位置
+     */
+    private volatile long flushedOffset = 0;
+
+    private long forceCount = 0;
+
+    private volatile boolean running = false;
+
+    private Thread thread;
+
+    GroupCommitLogWriter(SegmentedLog log, LongSupplier writtenOffset, long maxWaitMillis, int maxBatchSize) {
+        this.log = log;
+        this.writtenOffset = writtenOffset;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxWaitMillis));
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+    }
+
+    synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this, "micro-db-log-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void shutdown() {
+        Thread writerThread;
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            running = false;
+            writerThread = thread;
+            notifyAll();
+        }
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 请求将offset之前的日志落盘
+     *
+     * @return 落盘完成后完成的future
+     */
+    synchronized CompletableFuture<Void> requestFlush(long offset) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        if (offset <= flushedOffset) {
+            future.complete(null);
+            return future;
+        }
+        if (!running) {
+            future.completeExceptionally(new DbException("log writer is not running"));
+            return future;
+        }
+        pendingRequests.add(future);
+        if (pendingRequests.size() == 1 || pendingRequests.size() >= maxBatchSize) {
+            notifyAll();
+        }
+        return future;
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            List<CompletableFuture<Void>> batch = nextBatch();
+            if (batch == null) {
+                return;
+            }
+            flush(batch);
+        }
+    }
+
+    /**
+     * 等待并取出一批请求，停止后处理完剩余请求才返回null
+     */
+    private synchronized List<CompletableFuture<Void>> nextBatch() {
+        try {
+            while (running && pendingRequests.isEmpty()) {
+                wait();
+            }
+            long deadline = System.nanoTime() + maxWaitNanos;
+            while (running && pendingRequests.size() < maxBatchSize) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    break;
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (pendingRequests.isEmpty()) {
+            return null;
+        }
+        List<CompletableFuture<Void>> batch = pendingRequests;
+        pendingRequests = new ArrayList<>();
+        return batch;
+    }
+
+    private void flush(List<CompletableFuture<Void>> batch) {
+        // 批中的请求都在登记前写完日志，force覆盖当前写到的位置之前的全部日志
+        long offset = writtenOffset.getAsLong();
+        try {
+            log.force();
+        } catch (IOException e) {
+            DbException exception = new DbException("redo log force error", e);
+            for (CompletableFuture<Void> request : batch) {
+                request.completeExceptionally(exception);
+            }
+            return;
+        }
+        synchronized (this) {
+            forceCount++;
+            flushedOffset = Math.max(flushedOffset, offset);
+        }
+        for (CompletableFuture<Void> request : batch) {
+            request.complete(null);
+        }
+    }
+
+    synchronized long getForceCount() {
+        return forceCount;
+    }
+}
@@ -0,0 +1,376 @@
+package com.microdb.logging;
+
+import com.microdb.exception.DbException;
+import com.microdb.model.DataBase;
+import com.microdb.model.page.Page;
+import com.microdb.model.page.PageID;
+import com.microdb.model.page.bptree.BPTreePageID;
+import com.microdb.model.page.heap.HeapPageID;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 日志记录的二进制格式
+ * <pre>
+ * int  bodyLength  记录体长度
+ * 记录体:
+ *   byte version      格式版本
+ *   byte checksumType 校验和算法，见{@link ChecksumAlgorithm}
+ *   long lsn          日志序列号，即记录在日志文件中的起始位置
+ *   int  type         记录类型，见{@link LogRecordType}
+ *   long txId         事务ID
+ *   short pageCount   页镜像个数
+ *   页镜像: byte pageIdKind, int tableId, int pageNo, [int pageType], int length, byte[] pageData
+ *   行修改记录只有一项: byte pageIdKind, int tableId, int pageNo, int slot, int length, byte[] rowData
+ *   堆表页镜像记录只有一项，页数据去掉了空闲空间
+ *   批量加载区记录只有一项: 区的第一页，数据为int 区的页数
+ *   检查点记录没有页镜像，之后是: int length, byte[] checkpoint，见{@link Checkpoint}
+ * int  checksum    记录体的校验和
+ * long lsn         记录的起始位置，用于从后向前遍历
+ * </pre>
+ * 页镜像是{@link Page#serialize()}的原始字节，读取时由表文件{@code createPage}反序列化，
+ * 不再经过Java对象序列化写入类描述、表结构和每个行、字段对象
+ *
+ * @author zhangjw
+ * @version 1.0
+ */
+public class LogRecord {
+
+    static final byte FORMAT_VERSION = 1;
+
+    private static final byte PAGE_ID_HEAP = 0;
+
+    private static final byte PAGE_ID_BPTREE = 1;
+
+    /**
+     * 记录体之外的字节数：长度前缀、校验和、起始位置
+     */
+    private static final int FRAME_SIZE_IN_BYTE = 4 + 4 + 8;
+
+    private final long lsn;
+
+    private final int type;
+
+    private final long txId;
+
+    private final List<PageID> pageIDs;
+
+    private final List<byte[]> pageData;
+
+    /**
+     * 行修改记录的slot，其他记录为-1
+     */
+    private final int slot;
+
+    /**
+     * 检查点记录的内容，其他记录为null
+     */
+    private final byte[] payload;
+
+    /**
+     * 记录占用的总字节数
+     */
+    private final int sizeInByte;
+
+    private LogRecord(long lsn, int type, long txId, List<PageID> pageIDs, List<byte[]> pageData, int slot,
+                      byte[] payload, int sizeInByte) {
+        this.lsn = lsn;
+        this.type = type;
+        this.txId = txId;
+        this.pageIDs = pageIDs;
+        this.pageData = pageData;
+        this.slot = slot;
+        this.payload = payload;
+        this.sizeInByte = sizeInByte;
+    }
+
+    /**
+     * 编码一条记录
+     *
+     * @param lsn   记录的起始位置
+     * @param pages 页镜像
+     */
+    public static byte[] encode(long lsn, int type, long txId, Page... pages) throws IOException {
+        ByteArrayOutputStream bodyBytes = new ByteArrayOutputStream();
+        DataOutputStream body = new DataOutputStream(bodyBytes);
+        byte checksumType = writeHeader(body, lsn, type, txId, pages.length);
+        for (Page page : pages) {
+            writePageID(body, page.getPageID());
+            byte[] data = page.serialize();
+            body.writeInt(data.length);
+            body.write(data);
+        }
+        return frame(lsn, checksumType, bodyBytes.toByteArray());
+    }
+
+    /**
+     * 编码一条行修改记录
+     *
+     * @param lsn     记录的起始位置
+     * @param type    {@link LogRecordType#HEAP_INSERT}或{@link LogRecordType#HEAP_DELETE}
+     * @param rowData 行序列化后的字节
+     */
+    public static byte[] encodeRowChange(long lsn, int type, long txId, PageID pageID, int slot, byte[] rowData)
+            throws IOException {
+        ByteArrayOutputStream bodyBytes = new ByteArrayOutputStream(64 + rowData.length);
+        DataOutputStream body = new DataOutputStream(bodyBytes);
+        byte checksumType = writeHeader(body, lsn, type, txId, 1);
+        writePageID(body, pageID);
+        body.writeInt(slot);
+        body.writeInt(rowData.length);
+        body.write(rowData);
+        return frame(lsn, checksumType, bodyBytes.toByteArray());
+    }
+
+    /**
+     * 编码一条堆表页镜像记录
+     *
+     * @param lsn   记录的起始位置
+     * @param image {@link com.microdb.model.page.heap.HeapPage#serializeImage()}的镜像
+     */
+    public static byte[] encodePageImage(long lsn, long txId, PageID pageID, byte[] image) throws IOException {
+        ByteArrayOutputStream bodyBytes = new ByteArrayOutputStream(64 + image.length);
+        DataOutputStream body = new DataOutputStream(bodyBytes);
+        byte checksumType = writeHeader(body, lsn, LogRecordType.HEAP_PAGE_IMAGE, txId, 1);
+        writePageID(body, pageID);
+        body.writeInt(image.length);
+        body.write(image);
+        return frame(lsn, checksumType, bodyBytes.toByteArray());
+    }
+
+    /**
+     * 编码一条批量加载区记录
+     *
+     * @param lsn         记录的起始位置
+     * @param firstPageID 区的第一页
+     * @param pageCount   区的页数
+     */
+    public static byte[] encodeExtent(long lsn, long txId, PageID firstPageID, int pageCount) throws IOException {
+        ByteArrayOutputStream bodyBytes = new ByteArrayOutputStream(64);
+        DataOutputStream body = new DataOutputStream(bodyBytes);
+        byte checksumType = writeHeader(body, lsn, LogRecordType.HEAP_EXTENT, txId, 1);
+        writePageID(body, firstPageID);
+        body.writeInt(4);
+        body.writeInt(pageCount);
+        return frame(lsn, checksumType, bodyBytes.toByteArray());
+    }
+
+    /**
+     * 编码一条检查点记录
+     *
+     * @param lsn        记录的起始位置
+     * @param checkpoint 序列化后的检查点
+     */
+    public static byte[] encodeCheckpoint(long lsn, byte[] checkpoint) throws IOException {
+        ByteArrayOutputStream bodyBytes = new ByteArrayOutputStream(64 + checkpoint.length);
+        DataOutputStream body = new DataOutputStream(bodyBytes);
+        byte checksumType = writeHeader(body, lsn, LogRecordType.CHECKPOINT, 0, 0);
+        body.writeInt(checkpoint.length);
+        body.write(checkpoint);
+        return frame(lsn, checksumType, bodyBytes.toByteArray());
+    }
+
+    private static byte writeHeader(DataOutputStream body, long lsn, int type, long txId, int pageCount)
+            throws IOException {
+        byte checksumType = ChecksumAlgorithm.preferred();
+        body.writeByte(FORMAT_VERSION);
+        body.writeByte(checksumType);
+        body.writeLong(lsn);
+        body.writeInt(type);
+        body.writeLong(txId);
+        body.writeShort(pageCount);
+        return checksumType;
+    }
+
+    /**
+     * 记录体加上长度前缀、校验和、起始位置
+     */
+    private static byte[] frame(long lsn, byte checksumType, byte[] bodyData) throws IOException {
+        ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(bodyData.length + FRAME_SIZE_IN_BYTE);
+        DataOutputStream record = new DataOutputStream(recordBytes);
+        record.writeInt(bodyData.length);
+        record.write(bodyData);
+        record.writeInt(ChecksumAlgorithm.checksum(checksumType, bodyData));
+        record.writeLong(lsn);
+        return recordBytes.toByteArray();
+    }
+
+    /**
+     * 读取position处的记录
+     *
+     * @return 记录不完整(写到一半崩溃)或校验失败时返回null
+     */
+    public static LogRecord read(RandomAccessFile raf, long position) throws IOException {
+        long fileLength = raf.length();
+        if (position < 0 || position + FRAME_SIZE_IN_BYTE > fileLength) {
+            return null;
+        }
+        raf.seek(position);
+        int bodyLength = raf.readInt();
+        if (bodyLength <= 0 || position + bodyLength + FRAME_SIZE_IN_BYTE > fileLength) {
+            return null;
+        }
+        byte[] bodyData = new byte[bodyLength];
+        raf.readFully(bodyData);
+        int checksum = raf.readInt();
+
+        // 先校验，再解析记录体
+        byte checksumType = bodyLength > 1 ? bodyData[1] : -1;
+        if (!ChecksumAlgorithm.isValid(checksumType)
+                || ChecksumAlgorithm.checksum(checksumType, bodyData) != checksum) {
+            return null;
+        }
+        DataInputStream body = new DataInputStream(new ByteArrayInputStream(bodyData));
+        byte version = body.readByte();
+        if (version != FORMAT_VERSION) {
+            throw new DbException("unsupported log record version:" + version + ",position=" + position);
+        }
+        body.readByte();
+        long lsn = body.readLong();
+        int type = body.readInt();
+        long txId = body.readLong();
+        int pageCount = body.readShort();
+        List<PageID> pageIDs = new ArrayList<>(pageCount);
+        List<byte[]> pageData = new ArrayList<>(pageCount);
+        int slot = -1;
+        for (int i = 0; i < pageCount; i++) {
+            pageIDs.add(readPageID(body));
+            if (isRowChange(type)) {
+                slot = body.readInt();
+            }
+            byte[] data = new byte[body.readInt()];
+            body.readFully(data);
+            pageData.add(data);
+        }
+        byte[] payload = null;
+        if (type == LogRecordType.CHECKPOINT) {
+            payload = new byte[body.readInt()];
+            body.readFully(payload);
+        }
+        return new LogRecord(lsn, type, txId, pageIDs, pageData, slot, payload, bodyLength + FRAME_SIZE_IN_BYTE);
+    }
+
+    /**
+     * 读取结束于end处的记录，用于从后向前遍历
+     *
+     * @return 没有更早的记录时返回null
+     */
+    public static LogRecord readBefore(RandomAccessFile raf, long end) throws IOException {
+        if (end < FRAME_SIZE_IN_BYTE) {
+            return null;
+        }
+        raf.seek(end - 8);
+        return read(raf, raf.readLong());
+    }
+
+    private static boolean isRowChange(int type) {
+        return type == LogRecordType.HEAP_INSERT || type == LogRecordType.HEAP_DELETE;
+    }
+
+    static void writePageID(DataOutputStream out, PageID pageID) throws IOException {
+        if (pageID instanceof BPTreePageID) {
+            out.writeByte(PAGE_ID_BPTREE);
+            out.writeInt(pageID.getTableId());
+            out.writeInt(pageID.getPageNo());
+            out.writeInt(((BPTreePageID) pageID).getPageType());
+        } else {
+            out.writeByte(PAGE_ID_HEAP);
+            out.writeInt(pageID.getTableId());
+            out.writeInt(pageID.getPageNo());
+        }
+    }
+
+    static PageID readPageID(DataInputStream in) throws IOException {
+        byte kind = in.readByte();
+        int tableId = in.readInt();
+        int pageNo = in.readInt();
+        if (kind == PAGE_ID_BPTREE) {
+            return new BPTreePageID(tableId, pageNo, in.readInt());
+        }
+        return new HeapPageID(tableId, pageNo);
+    }
+
+    public long getLsn() {
+        return lsn;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public long getTxId() {
+        return txId;
+    }
+
+    public int getPageCount() {
+        return pageIDs.size();
+    }
+
+    public PageID getPageID(int index) {
+        return pageIDs.get(index);
+    }
+
+    public boolean isRowChange() {
+        return isRowChange(type);
+    }
+
+    public int getSlot() {
+        return slot;
+    }
+
+    /**
+     * 行修改记录的行数据
+     */
+    public byte[] getRowData() {
+        return pageData.get(0);
+    }
+
+    /**
+     * 堆表页镜像记录的镜像
+     */
+    public byte[] getPageImage() {
+        return pageData.get(0);
+    }
+
+    /**
+     * 批量加载区记录的页数，区的第一页为{@link #getPageID(int) getPageID(0)}
+     */
+    public int getExtentPageCount() {
+        return ByteBuffer.wrap(pageData.get(0)).getInt();
+    }
+
+    /**
+     * 检查点记录中的检查点
+     */
+    public Checkpoint getCheckpoint() throws IOException {
+        return Checkpoint.deserialize(payload);
+    }
+
+    /**
+     * 由页镜像重建页
+     */
+    public Page getPage(int index) {
+        PageID pageID = pageIDs.get(index);
+        return DataBase.getInstance().getDbTableById(pageID.getTableId())
+                .getTableFile().createPage(pageID, pageData.get(index));
+    }
+
+    /**
+     * 下一条记录的起始位置
+     */
+    public long getNextLsn() {
+        return lsn + sizeInByte;
+    }
+
+    public int getSizeInByte() {
+        return sizeInByte;
+    }
+}
@@ -10,4 +10,29 @@ public interface LogRecordType {
     int TX_START = 0;
     int PAGE_FLUSH = 1;
     int TX_COMMIT = 2;
+    /**
+     * undo日志中页的原始数据
+     */
+    int BEFORE_PAGE = 3;
+    /**
+     * 堆表页插入一行：slot+行数据
+     */
+    int HEAP_INSERT = 4;
+    /**
+     * 堆表页删除一行：slot+被删除的行数据，用于回滚
+     */
+    int HEAP_DELETE = 5;
+    int TX_ABORT = 6;
+    /**
+     * 检查点，之前的修改都已落盘，恢复从最后一个检查点之后开始
+     */
+    int CHECKPOINT = 7;
+    /**
+     * 堆表页由干净变脏后第一次修改时的整页镜像(去掉空闲空间)，只用于修复损坏的页，恢复时不重做
+     */
+    int HEAP_PAGE_IMAGE = 8;
+    /**
+     * 批量加载写入堆表的一个区：起始页+页数，不含页数据，页在事务提交前已落盘；回滚时清空这些页
+     */
+    int HEAP_EXTENT = 9;
 }
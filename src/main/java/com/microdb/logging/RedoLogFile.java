@@ -1,16 +1,30 @@
 package com.microdb.logging;
 
+import com.microdb.annotation.VisibleForTest;
+import com.microdb.bufferpool.PageHandle;
+import com.microdb.config.DBConfig;
 import com.microdb.exception.DbException;
 import com.microdb.model.DataBase;
-import com.microdb.model.table.DbTable;
 import com.microdb.model.page.Page;
+import com.microdb.model.page.PageID;
+import com.microdb.model.page.heap.HeapPage;
+import com.microdb.model.table.DbTable;
+import com.microdb.model.table.tablefile.FreeSpaceMap;
+import com.microdb.model.table.tablefile.HeapTableFile;
 import com.microdb.transaction.TransactionID;
 
 import java.io.*;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * 重做日志，用于数据库运行时崩溃后的数据恢复
@@ -25,53 +39,84 @@ public class RedoLogFile {
     private final File file;
 
     /**
-     * 随机存储文件
+     * 分段日志
+     */
+    private final SegmentedLog log;
+
+    /**
+     * 当前写到的位置，即下一条记录的LSN
+     */
+    private volatile long offset;
+
+    private static final long DEFAULT_GROUP_COMMIT_MAX_WAIT_MILLIS = 1;
+
+    private static final int DEFAULT_GROUP_COMMIT_MAX_BATCH_SIZE = 64;
+
+    private static final long DEFAULT_LOG_SEGMENT_SIZE_IN_BYTE = 16 * 1024 * 1024;
+
+    /**
+     * 组提交日志写线程
      */
-    private RandomAccessFile raf;
+    private final GroupCommitLogWriter logWriter;
 
     /**
-     * 当前写到的位置
+     * 周期检查点线程
      */
-    private long offset = -1;
+    private final Checkpointer checkpointer;
 
     /**
-     * 存储偏移地址占用的字节数，以long存储，占用8字节
+     * 主记录文件，保存最后一个检查点的LSN
      */
-    private int offsetAddrInByte = 8;
+    private final File masterFile;
 
     /**
-     * 事务开始时的偏移地址
+     * 事务表：未结束的事务 -> 事务开始记录的LSN
      */
-    HashMap<Long, Long> txId2StartOffset = new HashMap<>();
+    private final Map<Long, Long> activeTransactions = new HashMap<>();
 
     public RedoLogFile(File file) {
+        this(file, DEFAULT_GROUP_COMMIT_MAX_WAIT_MILLIS, DEFAULT_GROUP_COMMIT_MAX_BATCH_SIZE, 0,
+                DEFAULT_LOG_SEGMENT_SIZE_IN_BYTE);
+    }
+
+    public RedoLogFile(File file, DBConfig dbConfig) {
+        this(file, dbConfig.getGroupCommitMaxWaitMillis(), dbConfig.getGroupCommitMaxBatchSize(),
+                dbConfig.getCheckpointIntervalMillis(), dbConfig.getLogSegmentSizeInByte());
+    }
+
+    /**
+     * @param file 日志目录，存放日志段、清单和检查点主记录
+     */
+    public RedoLogFile(File file, long groupCommitMaxWaitMillis, int groupCommitMaxBatchSize,
+                       long checkpointIntervalMillis, long logSegmentSizeInByte) {
         this.file = file;
+        this.log = new SegmentedLog(file, logSegmentSizeInByte);
+        this.masterFile = new File(file, "checkpoint");
         try {
-            raf = new RandomAccessFile(file, "rw");
-        } catch (FileNotFoundException e) {
+            // 接着已有的日志写，LSN在重启后保持递增；从最后一个检查点开始找到日志末尾，截掉写到一半的记录
+            LogRecord checkpointRecord = findLastCheckpoint();
+            long from = checkpointRecord == null ? log.getStartLsn() : checkpointRecord.getLsn();
+            List<LogRecord> records = readRecords(from);
+            offset = records.isEmpty() ? from : records.get(records.size() - 1).getNextLsn();
+            log.truncateAfter(offset);
+        } catch (IOException e) {
             throw new DbException("load redo log file error ", e);
         }
+        this.logWriter = new GroupCommitLogWriter(log, this::getOffset,
+                groupCommitMaxWaitMillis, groupCommitMaxBatchSize);
+        this.logWriter.start();
+        this.checkpointer = new Checkpointer(this, checkpointIntervalMillis);
+        this.checkpointer.start();
     }
 
     /**
      * 记录事务开始
+     * <p>
+     * 不单独落盘，事务提交时的force会使之前写入的所有日志一起落盘
      */
     public synchronized void recordTxStart(TransactionID transactionID) throws IOException {
-        // 如果文件没有记录过信息，从头开始
-        if (offset == -1) {
-            offset = 0;
-        }
-
-        raf.seek(offset);
-        raf.writeInt(LogRecordType.TX_START);
-        raf.writeLong(transactionID.getId());
-        // 在本次记录的末尾处写入记录的开始位置
-        raf.writeLong(offset);
-
-        // 更新写指针
-        offset = raf.getFilePointer();
-
-        raf.getChannel().force(true);
+        activeTransactions.put(transactionID.getId(), offset);
+        append(LogRecord.encode(offset, LogRecordType.TX_START, transactionID.getId()));
     }
 
     /**
@@ -84,178 +129,501 @@ public class RedoLogFile {
     public synchronized void recordPageChange(TransactionID transactionID,
                                               Page beforePage,
                                               Page afterPage) throws IOException {
+        append(LogRecord.encode(offset, LogRecordType.PAGE_FLUSH, transactionID.getId(), beforePage, afterPage));
+    }
+
+    /**
+     * 记录行的修改
+     *
+     * @param type    {@link LogRecordType#HEAP_INSERT}或{@link LogRecordType#HEAP_DELETE}
+     * @param rowData 插入的行或被删除的行
+     * @return 记录的LSN，作为页的LSN
+     */
+    public synchronized long recordRowChange(TransactionID transactionID, int type, PageID pageID, int slot,
+                                             byte[] rowData) throws IOException {
+        long lsn = offset;
+        append(LogRecord.encodeRowChange(lsn, type, transactionID.getId(), pageID, slot, rowData));
+        return lsn;
+    }
+
+    /**
+     * 记录堆表页的整页镜像，页由干净变脏后第一次修改时记录，用于修复磁盘上损坏的页
+     */
+    public synchronized void recordPageImage(TransactionID transactionID, HeapPage page) throws IOException {
+        append(LogRecord.encodePageImage(offset, transactionID.getId(), page.getPageID(), page.serializeImage()));
+    }
 
-        raf.writeInt(LogRecordType.PAGE_FLUSH);
-        // 事务ID
-        raf.writeLong(transactionID.getId());
-        // 页数据
-        writePage(beforePage);
-        writePage(afterPage);
-        raf.writeLong(offset);
-        // 更新offset
-        offset = raf.getFilePointer();
+    /**
+     * 记录批量加载写入的一个区，区中的页写盘前调用并落盘
+     *
+     * @return 记录的LSN，作为区中各页的LSN
+     */
+    public synchronized long recordExtent(TransactionID transactionID, PageID firstPageID, int pageCount)
+            throws IOException {
+        long lsn = offset;
+        append(LogRecord.encodeExtent(lsn, transactionID.getId(), firstPageID, pageCount));
+        return lsn;
     }
 
     /**
      * 记录事务提交
      */
     public synchronized void recordTxCommit(TransactionID transactionID) throws IOException {
-        raf.writeInt(LogRecordType.TX_COMMIT);
-        raf.writeLong(transactionID.getId());
-        // 在本次记录的末尾处写入记录的开始位置
-        raf.writeLong(offset);
+        append(LogRecord.encode(offset, LogRecordType.TX_COMMIT, transactionID.getId()));
+        activeTransactions.remove(transactionID.getId());
+    }
+
+    /**
+     * 记录事务终止，事务的修改已由undo日志回滚，恢复时不再重做
+     */
+    public synchronized void recordTxAbort(TransactionID transactionID) throws IOException {
+        append(LogRecord.encode(offset, LogRecordType.TX_ABORT, transactionID.getId()));
+        activeTransactions.remove(transactionID.getId());
+    }
+
+    /**
+     * 一条记录一次写入，只进入操作系统缓存，由日志写线程落盘
+     */
+    private void append(byte[] record) throws IOException {
+        log.append(offset, record);
         // 更新写指针
-        offset = raf.getFilePointer();
+        offset += record.length;
     }
 
     /**
-     * 恢复已提交的事务为修改后的数据，恢复未提交的事务为修改前的数据，
+     * 不加锁读取，持有日志的锁等待落盘时，日志写线程仍可读取
      */
-    public synchronized void recover() throws IOException {
-        // 从后向前遍历文件，找出未提交事务和已提交的事务
-        offset = raf.length();
-        // 文件中所有记录的起始地址
-        ArrayList<Long> recordStartPosLis = new ArrayList<>();
-        raf.seek(offset - offsetAddrInByte);
-        long recordStartPos = raf.readLong();
-        recordStartPosLis.add(recordStartPos);
-        while (recordStartPos >= 0) {
-            if (recordStartPos == 0) {
-                recordStartPosLis.add(recordStartPos);
-                break;
+    private long getOffset() {
+        return offset;
+    }
+
+    /**
+     * 日志当前写到的位置，即下一条记录的LSN
+     */
+    public long getCurrentLsn() {
+        return offset;
+    }
+
+    /**
+     * 模糊检查点
+     * <p>
+     * 先记下日志的位置，再收集脏页表、事务表，不阻塞事务和刷盘。脏页表之外的页都已写入表文件，
+     * 表文件落盘后检查点才成立，之后写检查点记录并更新主记录
+     */
+    public void checkpoint() throws IOException {
+        long beginLsn = offset;
+        Map<PageID, Long> dirtyPages = DataBase.getBufferPool().getDirtyPageTable();
+        Map<Long, Long> transactions;
+        synchronized (this) {
+            transactions = new HashMap<>(activeTransactions);
+        }
+        DataBase.getInstance().syncTableFiles();
+        writeCheckpoint(new Checkpoint(beginLsn, transactions, dirtyPages));
+    }
+
+    private void writeCheckpoint(Checkpoint checkpoint) throws IOException {
+        long lsn;
+        synchronized (this) {
+            lsn = offset;
+            append(LogRecord.encodeCheckpoint(lsn, checkpoint.serialize()));
+        }
+        flush();
+        writeMasterRecord(lsn);
+        // 恢复只需要从检查点的恢复起点开始的日志，之前的段可以删除
+        log.truncateBefore(checkpoint.getRecoveryStartLsn());
+    }
+
+    private void writeMasterRecord(long checkpointLsn) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(masterFile)) {
+            DataOutputStream dos = new DataOutputStream(out);
+            dos.writeLong(checkpointLsn);
+            dos.flush();
+            out.getFD().sync();
+        }
+    }
+
+    /**
+     * 最后一个检查点记录：优先按主记录定位，主记录缺失或无效时从头查找
+     *
+     * @return 没有检查点时返回null
+     */
+    private LogRecord findLastCheckpoint() throws IOException {
+        if (masterFile.length() == 8) {
+            long checkpointLsn;
+            try (DataInputStream in = new DataInputStream(new FileInputStream(masterFile))) {
+                checkpointLsn = in.readLong();
+            }
+            LogRecord record = log.read(checkpointLsn);
+            if (record != null && record.getType() == LogRecordType.CHECKPOINT && record.getLsn() == checkpointLsn) {
+                return record;
+            }
+        }
+        LogRecord lastCheckpoint = null;
+        for (LogRecord record : readRecords(log.getStartLsn())) {
+            if (record.getType() == LogRecordType.CHECKPOINT) {
+                lastCheckpoint = record;
+            }
+        }
+        return lastCheckpoint;
+    }
+
+    /**
+     * 崩溃恢复，分析、重做、回滚三个阶段，只读取最后一个检查点所需的日志
+     * <p>
+     * 分析：从检查点的事务表、脏页表出发，读取检查点开始之后的日志，得到崩溃时未结束的事务和可能未落盘的脏页；
+     * 重做：从脏页表中最小的recLSN开始，重做已提交和未结束事务的修改(重复历史)，
+     * 页不在脏页表中、记录早于页的recLSN、页的LSN不小于记录的LSN时，修改已在磁盘上，跳过。
+     * 记录按PageID散列分给多个线程并行重做，同一页的记录由同一线程按日志顺序重做；
+     * 回滚：按日志逆序回滚未结束的事务，插入的行清空slot，删除的行写回slot，整页镜像记录写回修改前的页，批量加载的区清空。
+     * 已终止的事务在运行时已由undo日志回滚，不再处理。
+     * <p>
+     * 页经缓冲池读取和修改，恢复完成后统一写盘，记录一个空检查点。恢复在接受事务之前进行，读取页不加锁
+     */
+    public void recover() throws IOException {
+        LogRecord checkpointRecord = findLastCheckpoint();
+        Checkpoint checkpoint = checkpointRecord == null ? Checkpoint.empty(0) : checkpointRecord.getCheckpoint();
+        List<LogRecord> records = readRecords(checkpoint.getRecoveryStartLsn());
+
+        // 1.分析
+        Map<Long, Long> losers = new HashMap<>(checkpoint.getActiveTransactions());
+        Map<PageID, Long> dirtyPages = new HashMap<>(checkpoint.getDirtyPages());
+        Set<Long> committedTxIds = new HashSet<>();
+        Set<Long> abortedTxIds = new HashSet<>();
+        for (LogRecord record : records) {
+            if (record.getType() == LogRecordType.TX_COMMIT) {
+                committedTxIds.add(record.getTxId());
+            } else if (record.getType() == LogRecordType.TX_ABORT) {
+                abortedTxIds.add(record.getTxId());
+            }
+            if (record.getLsn() < checkpoint.getBeginLsn()) {
+                continue;
+            }
+            if (record.getType() == LogRecordType.TX_START) {
+                losers.putIfAbsent(record.getTxId(), record.getLsn());
+            } else if (record.isRowChange() || record.getType() == LogRecordType.PAGE_FLUSH) {
+                for (int i = 0; i < record.getPageCount(); i++) {
+                    dirtyPages.putIfAbsent(record.getPageID(i), record.getLsn());
+                }
             }
-            raf.seek(recordStartPos - offsetAddrInByte);
-            recordStartPos = raf.readLong();
-            recordStartPosLis.add(recordStartPos);
         }
+        losers.keySet().removeAll(committedTxIds);
+        losers.keySet().removeAll(abortedTxIds);
 
-        // HashMap<Long, Long> allTxs2Pos = new HashMap<>();
-        HashMap<Long, Long> commitTxs2Pos = new HashMap<>();
-        for (Long pos : recordStartPosLis) {
-            raf.seek(pos);
-            int recordType = raf.readInt();
-            if (recordType == LogRecordType.TX_START) {
-                // allTxs2Pos.put(raf.readLong(), pos);
-                txId2StartOffset.put(raf.readLong(), pos);
+        // 2.重做，按页分区
+        RecoveryPages recoveryPages = new RecoveryPages();
+        int redoThreads = resolveRedoThreads(DataBase.getDBConfig());
+        List<List<LogRecord>> partitions = new ArrayList<>(redoThreads);
+        for (int i = 0; i < redoThreads; i++) {
+            partitions.add(new ArrayList<>());
+        }
+        for (LogRecord record : records) {
+            if (abortedTxIds.contains(record.getTxId())) {
+                continue;
             }
-            if (recordType == LogRecordType.TX_COMMIT) {
-                commitTxs2Pos.put(raf.readLong(), pos);
+            // 整页镜像记录的两个页都是被修改的页，修改前、修改后的镜像
+            boolean redo = record.isRowChange() && needRedo(dirtyPages, record, 0)
+                    || record.getType() == LogRecordType.PAGE_FLUSH && committedTxIds.contains(record.getTxId())
+                    && needRedo(dirtyPages, record, 1);
+            if (redo) {
+                partitions.get(Math.floorMod(record.getPageID(0).hashCode(), redoThreads)).add(record);
             }
         }
+        redoInParallel(partitions, recoveryPages);
 
-        for (Map.Entry<Long, Long> entry : txId2StartOffset.entrySet()) {
-            if (commitTxs2Pos.containsKey(entry.getKey())) {
-                // 事务已提交，刷盘
-                recoverCommittedPage(entry.getKey());
-            } else {
+        // 3.回滚
+        for (int i = records.size() - 1; i >= 0; i--) {
+            LogRecord record = records.get(i);
+            if (losers.containsKey(record.getTxId())) {
                 // 事务未提交，回滚
-                rollback(entry.getKey());
+                undo(recoveryPages, record);
+            }
+        }
+        recoveryPages.flush();
+        // 空闲空间映射不记录日志，按恢复后页的实际内容刷新
+        for (DbTable dbTable : DataBase.getInstance().getDbTables()) {
+            if (dbTable.getTableFile() instanceof HeapTableFile) {
+                ((HeapTableFile) dbTable.getTableFile()).refreshFreeSpaceMap();
             }
         }
-        txId2StartOffset.clear();
+
+        synchronized (this) {
+            for (Long txId : losers.keySet()) {
+                append(LogRecord.encode(offset, LogRecordType.TX_ABORT, txId));
+            }
+        }
+        writeCheckpoint(Checkpoint.empty(offset));
     }
 
     /**
-     * 将事务修改过的页面，在磁盘刷回原始版本，缓存中丢弃
+     * 页在脏页表中且记录不早于页的recLSN时才可能需要重做
+     */
+    private static boolean needRedo(Map<PageID, Long> dirtyPages, LogRecord record, int pageIndex) {
+        Long recLsn = dirtyPages.get(record.getPageID(pageIndex));
+        return recLsn != null && record.getLsn() >= recLsn;
+    }
+
+    private static int resolveRedoThreads(DBConfig dbConfig) {
+        int redoThreads = dbConfig.getRecoveryRedoThreads();
+        if (redoThreads <= 0) {
+            redoThreads = Runtime.getRuntime().availableProcessors();
+        }
+        return Math.max(1, redoThreads);
+    }
+
+    /**
+     * 每个分区由一个线程按日志顺序重做
+     */
+    private void redoInParallel(List<List<LogRecord>> partitions, RecoveryPages recoveryPages) throws IOException {
+        if (partitions.size() == 1) {
+            redo(partitions.get(0), recoveryPages);
+            return;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(partitions.size(), runnable -> {
+            Thread thread = new Thread(runnable, "micro-db-recovery-redo");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (List<LogRecord> partition : partitions) {
+                if (!partition.isEmpty()) {
+                    futures.add(executor.submit(() -> redo(partition, recoveryPages)));
+                }
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("redo interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException("redo error", e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private void redo(List<LogRecord> records, RecoveryPages recoveryPages) {
+        for (LogRecord record : records) {
+            if (record.isRowChange()) {
+                redoRowChange(recoveryPages, record);
+            } else {
+                // 事务已提交，刷盘
+                recoveryPages.install(record.getPage(1));
+            }
+        }
+    }
+
+    /**
+     * 将事务修改过的页面，在磁盘刷回原始版本
      *
      * @param txIdRollback 回滚的事务
      */
     public synchronized void rollback(long txIdRollback) throws IOException {
+        // 从事务开始的位置读取，未知时从保留的第一条日志读取
+        Long txStartLsn = activeTransactions.get(txIdRollback);
+        List<LogRecord> records = readRecords(txStartLsn == null ? log.getStartLsn() : txStartLsn);
+        RecoveryPages recoveryPages = new RecoveryPages();
+        for (int i = records.size() - 1; i >= 0; i--) {
+            LogRecord record = records.get(i);
+            if (record.getTxId() == txIdRollback) {
+                undo(recoveryPages, record);
+            }
+        }
+        recoveryPages.flush();
+    }
 
-        // 事务开始位置
-        Long txStartOffset = txId2StartOffset.get(txIdRollback);
-        // 待读取的偏移位置
-        raf.seek(raf.length() - offsetAddrInByte);
-        long offsetToRead = raf.readLong();
-        while (txStartOffset <= offsetToRead) {
-            raf.seek(offsetToRead);
-            int recordType = raf.readInt();
-            if (recordType == LogRecordType.PAGE_FLUSH) {
-                long txId = raf.readLong();
-                if (txIdRollback == txId) {
-                    Page beforePage = this.readPage();
-                    DbTable dbTableById = DataBase.getInstance().getDbTableById(beforePage.getPageID().getTableId());
-                    dbTableById.getTableFile().writePageToDisk(beforePage);
-                    DataBase.getBufferPool().discardPages(Collections.singletonList(beforePage.getPageID()));
-                }
+    /**
+     * 由保留的日志重建磁盘上损坏的页
+     * <p>
+     * B+tree页取已提交事务最后记录的修改后镜像；堆表页从最后一个整页镜像开始，按日志顺序重放该页的行修改，
+     * 运行时终止的事务在写终止记录之前已回滚，回滚本身没有日志，因此在终止记录处逆序撤销该事务对该页的修改。
+     * 崩溃时正在写盘的页是脏页，变脏后记录了镜像，检查点截断日志时保留脏页recLSN之后的日志，因此torn write总能修复
+     *
+     * @return 保留的日志中没有该页的镜像时返回null
+     */
+    public Page repairPage(PageID pageID) throws IOException {
+        List<LogRecord> records = readRecords(log.getStartLsn());
+        Set<Long> committedTxIds = new HashSet<>();
+        for (LogRecord record : records) {
+            if (record.getType() == LogRecordType.TX_COMMIT) {
+                committedTxIds.add(record.getTxId());
             }
-            // 已经到开始位置，结束循环
-            if (txStartOffset == offsetToRead) {
+        }
+        int imageIndex = records.size() - 1;
+        for (; imageIndex >= 0; imageIndex--) {
+            LogRecord record = records.get(imageIndex);
+            if (record.getType() == LogRecordType.HEAP_PAGE_IMAGE && record.getPageID(0).equals(pageID)) {
                 break;
             }
+            if (record.getType() == LogRecordType.PAGE_FLUSH && committedTxIds.contains(record.getTxId())
+                    && record.getPageID(1).equals(pageID)) {
+                return record.getPage(1);
+            }
+        }
+        if (imageIndex < 0) {
+            return null;
+        }
 
-            raf.seek(offsetToRead - offsetAddrInByte);
-            offsetToRead = raf.readLong();
+        LogRecord imageRecord = records.get(imageIndex);
+        HeapPage page = (HeapPage) DataBase.getInstance().getDbTableById(pageID.getTableId()).getTableFile()
+                .createPage(pageID, HeapPage.restoreImage(imageRecord.getPageImage()));
+        page.setPageLsn(imageRecord.getLsn());
+        Map<Long, List<LogRecord>> changesByTx = new HashMap<>();
+        for (int i = 0; i < records.size(); i++) {
+            LogRecord record = records.get(i);
+            if (record.isRowChange() && record.getPageID(0).equals(pageID)) {
+                changesByTx.computeIfAbsent(record.getTxId(), txId -> new ArrayList<>()).add(record);
+                if (i > imageIndex) {
+                    applyRowChange(page, record, false);
+                    page.setPageLsn(record.getLsn());
+                }
+            } else if (record.getType() == LogRecordType.TX_ABORT) {
+                List<LogRecord> changes = changesByTx.remove(record.getTxId());
+                if (i > imageIndex && changes != null) {
+                    for (int j = changes.size() - 1; j >= 0; j--) {
+                        applyRowChange(page, changes.get(j), true);
+                    }
+                }
+            }
         }
-        // 复位
-        raf.seek(offset);
+        FreeSpaceMap.of(pageID).update(page);
+        return page;
     }
 
-    private Page readPage() throws IOException {
-        Page beforePage;
-        int pageSize = raf.readInt();
-        byte[] bytes = new byte[pageSize];
-        raf.read(bytes);
+    /**
+     * 在页上重做或撤销一条行修改
+     */
+    private static void applyRowChange(HeapPage page, LogRecord record, boolean undo) {
+        if ((record.getType() == LogRecordType.HEAP_INSERT) != undo) {
+            page.setRow(record.getSlot(), record.getRowData());
+        } else {
+            page.clearSlot(record.getSlot());
+        }
+    }
 
-        ByteArrayInputStream bais = new ByteArrayInputStream(bytes);
-        ObjectInputStream inputStream = new ObjectInputStream(bais);
-        try {
-            beforePage = (Page) inputStream.readObject();
-        } catch (ClassNotFoundException e) {
-            throw new DbException("deserialize error", e);
+    /**
+     * 页的LSN小于记录的LSN时重做行修改
+     */
+    private void redoRowChange(RecoveryPages recoveryPages, LogRecord record) {
+        try (PageHandle handle = DataBase.getBufferPool().pinPageForRecovery(record.getPageID(0))) {
+            HeapPage page = (HeapPage) handle.getPage();
+            if (page.getPageLsn() >= record.getLsn()) {
+                return;
+            }
+            applyRowChange(page, record, false);
+            page.setPageLsn(record.getLsn());
+            FreeSpaceMap.of(page.getPageID()).update(page);
+            recoveryPages.markDirty(page);
         }
-        return beforePage;
-    }
-
-    private void writePage(Page beforePage) throws IOException {
-        // 序列化
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        ObjectOutputStream outputStream = new ObjectOutputStream(baos);
-        outputStream.writeObject(beforePage);
-        byte[] bytes = baos.toByteArray();
-        // 写入page占用字节数和page数据
-        raf.writeInt(bytes.length);
-        raf.write(bytes);
-    }
-
-    private void recoverCommittedPage(Long txIdCommit) throws IOException {
-        // 事务开始位置
-        Long txStartOffset = txId2StartOffset.get(txIdCommit);
-        // 待读取的偏移位置
-        raf.seek(raf.length() - offsetAddrInByte);
-        long offsetToRead = raf.readLong();
-
-        while (txStartOffset <= offsetToRead) {
-            raf.seek(offsetToRead);
-            int recordType = raf.readInt();
-            if (recordType == LogRecordType.PAGE_FLUSH) {
-                raf.seek(offsetToRead + 4);
-                long txId = raf.readLong();
-                if (txIdCommit == txId) {
-                    Page beforePage = this.readPage();
-                    Page afterPage = this.readPage();
-                    DbTable dbTableById = DataBase.getInstance().getDbTableById(beforePage.getPageID().getTableId());
-                    dbTableById.getTableFile().writePageToDisk(afterPage);
-                    DataBase.getBufferPool().discardPages(Collections.singletonList(beforePage.getPageID()));
-                }
+    }
+
+    private void undo(RecoveryPages recoveryPages, LogRecord record) {
+        if (record.isRowChange()) {
+            try (PageHandle handle = DataBase.getBufferPool().pinPageForRecovery(record.getPageID(0))) {
+                HeapPage page = (HeapPage) handle.getPage();
+                applyRowChange(page, record, true);
+                FreeSpaceMap.of(page.getPageID()).update(page);
+                recoveryPages.markDirty(page);
             }
-            // 已经到开始位置，结束循环
-            if (txStartOffset == offsetToRead) {
-                break;
+        } else if (record.getType() == LogRecordType.PAGE_FLUSH) {
+            recoveryPages.install(record.getPage(0));
+        } else if (record.getType() == LogRecordType.HEAP_EXTENT) {
+            PageID firstPageID = record.getPageID(0);
+            HeapTableFile.of(firstPageID).clearExtent(firstPageID.getPageNo(), record.getExtentPageCount());
+        }
+    }
+
+    /**
+     * 恢复过程中修改的页
+     * <p>
+     * 页以恢复专用的事务ID标记为脏页，缓冲池满时可以正常驱逐(刷盘)，恢复完成后统一写盘
+     */
+    private static class RecoveryPages {
+
+        private final TransactionID recoveryTxId = new TransactionID();
+
+        private final Set<PageID> pageIDs = ConcurrentHashMap.newKeySet();
+
+        void markDirty(Page page) {
+            page.markDirty(recoveryTxId);
+            pageIDs.add(page.getPageID());
+        }
+
+        /**
+         * 以整页镜像替换缓冲池中的页
+         */
+        void install(Page page) {
+            markDirty(page);
+            DataBase.getBufferPool().installPageForRecovery(page);
+        }
+
+        void flush() {
+            if (pageIDs.isEmpty()) {
+                return;
             }
+            DataBase.getBufferPool().flushPages(new ArrayList<>(pageIDs), recoveryTxId);
+            DataBase.getInstance().syncTableFiles();
+            // 驱逐时可能以恢复事务记录了undo日志，恢复完成后不再需要
+            DataBase.getUndoLogFile().recordTxCommit(recoveryTxId);
+        }
+    }
+
+    /**
+     * 从from开始顺序读取全部完整的记录
+     */
+    private List<LogRecord> readRecords(long from) throws IOException {
+        List<LogRecord> records = new ArrayList<>();
+        long position = from;
+        LogRecord record;
+        while ((record = log.read(position)) != null) {
+            records.add(record);
+            position = record.getNextLsn();
+        }
+        return records;
+    }
 
-            raf.seek(offsetToRead - offsetAddrInByte);
-            offsetToRead = raf.readLong();
+    /**
+     * 刷盘，等待已写入的日志落盘
+     * <p>
+     * 不持有日志的锁等待，等待期间其他事务可以继续追加日志，由日志写线程合并为一次force
+     */
+    public void flush() throws IOException {
+        try {
+            logWriter.requestFlush(getOffset()).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("wait for redo log flush interrupted");
+        } catch (ExecutionException e) {
+            throw new IOException("redo log flush error", e.getCause());
         }
-        // 复位
-        raf.seek(offset);
     }
 
     /**
-     * 刷盘
+     * 保留的日志段数
+     */
+    @VisibleForTest
+    public int getSegmentCount() {
+        return log.getSegmentCount();
+    }
+
+    /**
+     * 日志写线程执行force的次数
      */
-    public synchronized void flush() throws IOException {
-        raf.getChannel().force(true);
+    @VisibleForTest
+    public long getForceCount() {
+        return logWriter.getForceCount();
+    }
 
+    /**
+     * 停止检查点线程和日志写线程，停止前已登记的落盘请求会处理完
+     */
+    public void shutdown() {
+        checkpointer.shutdown();
+        logWriter.shutdown();
+        log.close();
     }
 }
@@ -0,0 +1,315 @@
+package com.microdb.logging;
+
+import com.microdb.exception.DbException;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.ClosedChannelException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 分段日志：日志存放在一个目录下的多个段文件中，LSN是日志在全部段中的逻辑位置
+ * <p>
+ * 段文件以其第一条记录的LSN命名，一条记录不跨段，当前段写不下时新建一段，新段的起始LSN即上一段的结束位置，LSN保持连续。
+ * 清单文件(manifest)按顺序列出有效的段，新建段、删除段时先写临时文件再原子替换；不在清单中的段文件是写清单前崩溃遗留的，打开时删除。
+ * 不再需要的段(检查点之前的redo、最老的活跃事务之前的undo)整段删除，磁盘占用有上限，回滚和恢复只访问最近的段
+ *
+ * @author zhangjw
+ * @version 1.0
+ */
+public class SegmentedLog {
+
+    private static final String MANIFEST_FILE_NAME = "manifest";
+
+    private static final String SEGMENT_FILE_SUFFIX = ".log";
+
+    private final File dir;
+
+    /**
+     * 单个段的最大字节数
+     */
+    private final long segmentSizeInByte;
+
+    /**
+     * 段的起始LSN -> 段，按LSN排序
+     */
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+
+    /**
+     * 当前写入的段，即最后一段
+     */
+    private Segment activeSegment;
+
+    public SegmentedLog(File dir, long segmentSizeInByte) {
+        if (segmentSizeInByte <= 0) {
+            throw new IllegalArgumentException("segment size must be greater than 0");
+        }
+        if (dir.exists() && !dir.isDirectory()) {
+            throw new DbException("log path is not a directory:" + dir.getPath());
+        }
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new DbException("create log directory error:" + dir.getPath());
+        }
+        this.dir = dir;
+        this.segmentSizeInByte = segmentSizeInByte;
+        try {
+            for (long baseLsn : readManifest()) {
+                segments.put(baseLsn, new Segment(baseLsn, segmentFile(baseLsn)));
+            }
+            deleteUnlistedSegments();
+            if (segments.isEmpty()) {
+                segments.put(0L, new Segment(0, segmentFile(0)));
+                writeManifest();
+            }
+            activeSegment = segments.lastEntry().getValue();
+        } catch (IOException e) {
+            throw new DbException("load log segments error, dir=" + dir.getPath(), e);
+        }
+    }
+
+    /**
+     * 第一个保留的LSN
+     */
+    public synchronized long getStartLsn() {
+        return segments.firstKey();
+    }
+
+    /**
+     * 日志末尾，即下一条记录的LSN
+     */
+    public synchronized long getEndLsn() throws IOException {
+        return activeSegment.getEndLsn();
+    }
+
+    /**
+     * 截掉end之后的日志，用于丢弃写到一半的记录
+     */
+    public synchronized void truncateAfter(long end) throws IOException {
+        if (end < getStartLsn()) {
+            end = getStartLsn();
+        }
+        while (segments.size() > 1 && segments.lastKey() > end) {
+            Segment segment = segments.pollLastEntry().getValue();
+            writeManifest();
+            segment.delete();
+        }
+        activeSegment = segments.lastEntry().getValue();
+        if (activeSegment.raf.length() > end - activeSegment.baseLsn) {
+            activeSegment.raf.setLength(end - activeSegment.baseLsn);
+        }
+    }
+
+    /**
+     * 在lsn处写入一条记录，lsn必须是日志末尾；当前段写不下时先新建一段
+     */
+    public synchronized void append(long lsn, byte[] record) throws IOException {
+        if (lsn != getEndLsn()) {
+            throw new DbException("append log at " + lsn + " but log ends at " + getEndLsn());
+        }
+        long segmentLength = activeSegment.raf.length();
+        if (segmentLength > 0 && segmentLength + record.length > segmentSizeInByte) {
+            rotate();
+        }
+        RandomAccessFile raf = activeSegment.raf;
+        raf.seek(lsn - activeSegment.baseLsn);
+        raf.write(record);
+    }
+
+    /**
+     * 新建一段，新段的起始LSN是当前段的结束位置，即日志末尾
+     */
+    private void rotate() throws IOException {
+        long baseLsn = activeSegment.getEndLsn();
+        // 新段生效前，上一段的日志必须已落盘
+        activeSegment.raf.getChannel().force(false);
+        Segment segment = new Segment(baseLsn, segmentFile(baseLsn));
+        segments.put(baseLsn, segment);
+        writeManifest();
+        activeSegment = segment;
+    }
+
+    /**
+     * 读取lsn处的记录
+     *
+     * @return 不在保留范围内、记录不完整或校验失败时返回null
+     */
+    public synchronized LogRecord read(long lsn) throws IOException {
+        Map.Entry<Long, Segment> entry = segments.floorEntry(lsn);
+        if (entry == null) {
+            return null;
+        }
+        Segment segment = entry.getValue();
+        LogRecord record = LogRecord.read(segment.raf, lsn - segment.baseLsn);
+        if (record == null || record.getLsn() != lsn) {
+            return null;
+        }
+        return record;
+    }
+
+    /**
+     * 读取结束于end处的记录，用于从后向前遍历
+     *
+     * @return 没有更早的记录时返回null
+     */
+    public synchronized LogRecord readBefore(long end) throws IOException {
+        // end是段的起始位置时，前一条记录在上一段的末尾
+        Map.Entry<Long, Segment> entry = segments.lowerEntry(end);
+        if (entry == null) {
+            return null;
+        }
+        Segment segment = entry.getValue();
+        long position = end - segment.baseLsn;
+        if (position < 8 || position > segment.raf.length()) {
+            return null;
+        }
+        segment.raf.seek(position - 8);
+        return read(segment.raf.readLong());
+    }
+
+    /**
+     * 将当前段已写入的日志落盘，之前的段在新建下一段时已落盘
+     */
+    public void force() throws IOException {
+        Segment segment;
+        synchronized (this) {
+            segment = activeSegment;
+        }
+        try {
+            segment.raf.getChannel().force(false);
+        } catch (ClosedChannelException e) {
+            // 段已被删除，不再需要落盘
+        }
+    }
+
+    /**
+     * 删除完全位于lsn之前的段，当前写入的段不会被删除
+     *
+     * @return 删除的段数
+     */
+    public synchronized int truncateBefore(long lsn) throws IOException {
+        List<Segment> obsolete = new ArrayList<>();
+        for (Map.Entry<Long, Segment> entry : segments.entrySet()) {
+            Segment segment = entry.getValue();
+            if (segment == activeSegment || segment.getEndLsn() > lsn) {
+                break;
+            }
+            obsolete.add(segment);
+        }
+        if (obsolete.isEmpty()) {
+            return 0;
+        }
+        for (Segment segment : obsolete) {
+            segments.remove(segment.baseLsn);
+        }
+        // 先更新清单，再删除段文件
+        writeManifest();
+        for (Segment segment : obsolete) {
+            segment.delete();
+        }
+        return obsolete.size();
+    }
+
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    public synchronized void close() {
+        for (Segment segment : segments.values()) {
+            segment.close();
+        }
+    }
+
+    private File segmentFile(long baseLsn) {
+        return new File(dir, String.format("%020d%s", baseLsn, SEGMENT_FILE_SUFFIX));
+    }
+
+    private List<Long> readManifest() throws IOException {
+        List<Long> baseLsns = new ArrayList<>();
+        File manifest = new File(dir, MANIFEST_FILE_NAME);
+        if (!manifest.exists()) {
+            return baseLsns;
+        }
+        for (String line : Files.readAllLines(manifest.toPath(), StandardCharsets.UTF_8)) {
+            if (!line.trim().isEmpty()) {
+                baseLsns.add(Long.parseLong(line.trim()));
+            }
+        }
+        return baseLsns;
+    }
+
+    private void writeManifest() throws IOException {
+        StringBuilder content = new StringBuilder();
+        for (long baseLsn : segments.keySet()) {
+            content.append(baseLsn).append('\n');
+        }
+        File tmp = new File(dir, MANIFEST_FILE_NAME + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            out.write(content.toString().getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+        }
+        Files.move(tmp.toPath(), new File(dir, MANIFEST_FILE_NAME).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void deleteUnlistedSegments() {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(SEGMENT_FILE_SUFFIX));
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            boolean listed = false;
+            for (Segment segment : segments.values()) {
+                listed |= segment.file.equals(file);
+            }
+            if (!listed) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * 日志段
+     */
+    private static class Segment {
+
+        /**
+         * 段中第一条记录的LSN
+         */
+        private final long baseLsn;
+
+        private final File file;
+
+        private final RandomAccessFile raf;
+
+        Segment(long baseLsn, File file) throws IOException {
+            this.baseLsn = baseLsn;
+            this.file = file;
+            this.raf = new RandomAccessFile(file, "rw");
+        }
+
+        long getEndLsn() throws IOException {
+            return baseLsn + raf.length();
+        }
+
+        void close() {
+            try {
+                raf.close();
+            } catch (IOException e) {
+                throw new DbException("close log segment error, file=" + file.getName(), e);
+            }
+        }
+
+        void delete() {
+            close();
+            file.delete();
+        }
+    }
+}
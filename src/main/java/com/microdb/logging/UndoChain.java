@@ -0,0 +1,315 @@
+package com.microdb.logging;
+
+import com.microdb.bufferpool.BufferPool;
+import com.microdb.bufferpool.PageHandle;
+import com.microdb.exception.DbException;
+import com.microdb.model.DataBase;
+import com.microdb.model.page.Page;
+import com.microdb.model.page.PageID;
+import com.microdb.model.page.heap.HeapPage;
+import com.microdb.model.table.tablefile.FreeSpaceMap;
+import com.microdb.model.table.tablefile.HeapTableFile;
+import com.microdb.transaction.Lock;
+import com.microdb.transaction.Transaction;
+import com.microdb.transaction.TransactionID;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 事务的内存undo链
+ * <p>
+ * 事务修改堆表的行时，在内存中按顺序记录逆操作：插入的行回滚时清空slot，删除的行回滚时写回slot。
+ * 事务终止时按逆序直接作用于缓冲池中的页，只撤销本事务的行，同一页上其他事务的修改不受影响；
+ * 页没有写过盘时不读undo文件、不写表文件，页恢复为事务修改前的脏页标记。
+ * 页在事务提交前被刷盘(STEAL)时，磁盘上已有未提交的修改：页不在缓冲池中时重新读入，撤销后在写终止记录之前写盘。
+ * <p>
+ * 只有链的大小超出上限时才写入undo文件，链上的页转存为整页原始数据，由{@link UndoLogFile#rollback}回滚。
+ * 堆表页可能同时被多个事务按行修改，转存前先将页锁升级为X锁，等待其他事务结束，
+ * 再将链上的逆操作作用于页的副本得到本事务修改前的页，其中保留了其他事务已提交的修改。
+ * B+树页的修改涉及多个页的整体重排，不记录逆操作，修改时持有页的X锁，刷盘时原始数据写入undo文件，
+ * 回滚时将页的原始数据写回磁盘并从缓冲池中丢弃；
+ * 批量加载的区直接写入表文件，回滚时清空整个区
+ *
+ * @author zhangjw
+ * @version 1.0
+ */
+public class UndoChain {
+
+    /**
+     * 每个逆操作除行数据外的估算开销
+     */
+    private static final int ENTRY_OVERHEAD_IN_BYTE = 32;
+
+    private final Transaction transaction;
+
+    /**
+     * 链的大小上限
+     */
+    private final long maxSizeInByte;
+
+    /**
+     * 事务修改过的页，按首次修改的顺序
+     */
+    private final Map<PageID, PageUndo> pages = new LinkedHashMap<>();
+
+    /**
+     * 行的逆操作，按修改顺序
+     */
+    private final List<RowUndo> rowUndos = new ArrayList<>();
+
+    /**
+     * 已转存到undo文件的页，之后的修改不再记录逆操作
+     */
+    private final Set<PageID> spilledPages = new HashSet<>();
+
+    /**
+     * 批量加载写入的区，回滚时清空
+     */
+    private final List<ExtentUndo> extentUndos = new ArrayList<>();
+
+    private long sizeInByte = 0;
+
+    public UndoChain(Transaction transaction, long maxSizeInByte) {
+        this.transaction = transaction;
+        this.maxSizeInByte = maxSizeInByte;
+    }
+
+    /**
+     * 记录事务将要修改的页，在标记脏页之前调用
+     */
+    public void recordPage(Page page) {
+        PageUndo pageUndo = pages.get(page.getPageID());
+        if (pageUndo == null) {
+            pages.put(page.getPageID(), new PageUndo(page.getDirtyTxId(), DataBase.getRedoLogFile().getCurrentLsn()));
+        } else if (!transaction.getTransactionId().equals(page.getDirtyTxId())) {
+            // 本事务两次修改之间，页被其他事务修改过或已写盘
+            pageUndo.shared = true;
+        }
+    }
+
+    /**
+     * 记录行修改的逆操作
+     *
+     * @param type    {@link LogRecordType#HEAP_INSERT}或{@link LogRecordType#HEAP_DELETE}
+     * @param rowData 删除时为被删除的行数据
+     */
+    public void recordRowChange(int type, PageID pageID, int slot, byte[] rowData) {
+        if (spilledPages.contains(pageID)) {
+            return;
+        }
+        rowUndos.add(new RowUndo(type, pageID, slot, rowData));
+        sizeInByte += ENTRY_OVERHEAD_IN_BYTE + (type == LogRecordType.HEAP_DELETE ? rowData.length : 0);
+    }
+
+    /**
+     * 记录批量加载写入的区，区中的页直接写入表文件，不经过缓冲池
+     */
+    public void recordExtent(PageID firstPageID, int pageCount) {
+        extentUndos.add(new ExtentUndo(firstPageID, pageCount));
+    }
+
+    /**
+     * 链的大小超出上限时转存，调用方不能持有页的监视器：转存时升级页锁可能等待其他事务
+     */
+    public void spillIfFull() {
+        if (sizeInByte > maxSizeInByte) {
+            spill();
+        }
+    }
+
+    /**
+     * 链上的页以整页原始数据写入undo文件，清空链
+     */
+    private void spill() {
+        BufferPool bufferPool = DataBase.getBufferPool();
+        Map<PageID, HeapPage> beforePages = new LinkedHashMap<>();
+        // 逆序将逆操作作用于页的副本
+        for (int i = rowUndos.size() - 1; i >= 0; i--) {
+            RowUndo rowUndo = rowUndos.get(i);
+            HeapPage beforePage = beforePages.get(rowUndo.pageID);
+            if (beforePage == null) {
+                // 页上的其他事务结束后，页中只剩本事务未提交的修改
+                DataBase.getLockManager().acquireLock(transaction, rowUndo.pageID, Lock.LockMode.X);
+                try (PageHandle handle = bufferPool.pinPageUnlocked(rowUndo.pageID, false)) {
+                    beforePage = copyOf((HeapPage) handle.getPage());
+                }
+                beforePages.put(rowUndo.pageID, beforePage);
+            }
+            undo(beforePage, rowUndo);
+        }
+        UndoLogFile undoLogFile = DataBase.getUndoLogFile();
+        for (HeapPage beforePage : beforePages.values()) {
+            undoLogFile.recordBeforePage(transaction.getTransactionId(), beforePage);
+            spilledPages.add(beforePage.getPageID());
+        }
+        rowUndos.clear();
+        sizeInByte = 0;
+    }
+
+    private static HeapPage copyOf(HeapPage page) {
+        synchronized (page) {
+            try {
+                return new HeapPage(page.getPageID(), page.serialize());
+            } catch (IOException e) {
+                throw new DbException("copy page error", e);
+            }
+        }
+    }
+
+    private static void undo(HeapPage page, RowUndo rowUndo) {
+        if (rowUndo.type == LogRecordType.HEAP_INSERT) {
+            page.clearSlot(rowUndo.slot);
+        } else {
+            page.setRow(rowUndo.slot, rowUndo.rowData);
+        }
+    }
+
+    /**
+     * 回滚事务在缓冲池中的修改
+     *
+     * @param restoredPages 已由undo文件恢复的页，跳过
+     */
+    public void rollback(Set<PageID> restoredPages) {
+        BufferPool bufferPool = DataBase.getBufferPool();
+        Map<PageID, List<RowUndo>> rowUndosByPage = new HashMap<>();
+        for (RowUndo rowUndo : rowUndos) {
+            rowUndosByPage.computeIfAbsent(rowUndo.pageID, k -> new ArrayList<>()).add(rowUndo);
+        }
+        for (Map.Entry<PageID, PageUndo> entry : pages.entrySet()) {
+            PageID pageID = entry.getKey();
+            if (restoredPages.contains(pageID)) {
+                continue;
+            }
+            List<RowUndo> pageRowUndos = rowUndosByPage.get(pageID);
+            if (pageRowUndos != null) {
+                rollbackRows(pageID, entry.getValue(), pageRowUndos);
+                continue;
+            }
+            Page page = bufferPool.getCachedPage(pageID);
+            if (page == null) {
+                continue;
+            }
+            if (page.isRowLogged()) {
+                restoreDirtyMark(page, entry.getValue());
+            } else {
+                UndoLogFile.restorePage(page.getBeforePage());
+            }
+        }
+        // 区中的页只会在加载之后被行修改，按逆序最后清空区：本事务删除加载的行时，撤销删除写回的行随区一起清空。
+        // 加载期间事务持有表的X锁，区中只有本事务的行
+        for (int i = extentUndos.size() - 1; i >= 0; i--) {
+            ExtentUndo extentUndo = extentUndos.get(i);
+            HeapTableFile.of(extentUndo.firstPageID)
+                    .clearExtent(extentUndo.firstPageID.getPageNo(), extentUndo.pageCount);
+        }
+        extentUndos.clear();
+        rowUndos.clear();
+        pages.clear();
+    }
+
+    /**
+     * 逆序撤销本事务在一页上的行修改
+     * <p>
+     * 页在本事务第一次修改之后写过盘(已被驱逐、当前是干净页或之后重新变脏)，磁盘上有本事务的修改，
+     * 撤销后立即写盘：恢复时不再处理已终止的事务，终止记录落盘前磁盘上的页必须已撤销
+     */
+    private void rollbackRows(PageID pageID, PageUndo pageUndo, List<RowUndo> pageRowUndos) {
+        BufferPool bufferPool = DataBase.getBufferPool();
+        boolean stolen;
+        // 页被驱逐时已写盘，从表文件重新读入
+        try (PageHandle handle = bufferPool.pinPageUnlocked(pageID, false)) {
+            HeapPage page = (HeapPage) handle.getPage();
+            // 其他事务可能正在修改同一页的其他行
+            synchronized (page) {
+                stolen = !page.isDirty() || page.getRecLsn() > pageUndo.firstLsn;
+                for (int i = pageRowUndos.size() - 1; i >= 0; i--) {
+                    undo(page, pageRowUndos.get(i));
+                }
+                FreeSpaceMap.of(pageID).update(page);
+                if (stolen) {
+                    page.markDirty(transaction.getTransactionId());
+                } else {
+                    restoreDirtyMark(page, pageUndo);
+                }
+            }
+        }
+        if (stolen) {
+            bufferPool.flushPages(Collections.singletonList(pageID), transaction.getTransactionId());
+            HeapTableFile.of(pageID).sync();
+        }
+    }
+
+    /**
+     * 页内容已恢复，修改前是干净页且期间只有本事务修改过时与磁盘一致；其他事务修改过该页时保留其脏页标记
+     */
+    private void restoreDirtyMark(Page page, PageUndo pageUndo) {
+        synchronized (page) {
+            if (!pageUndo.shared && transaction.getTransactionId().equals(page.getDirtyTxId())) {
+                page.markDirty(pageUndo.prevDirtyTxId);
+            }
+        }
+    }
+
+    /**
+     * 事务修改过的页
+     */
+    private static class PageUndo {
+        /**
+         * 修改前的脏页标记
+         */
+        private final TransactionID prevDirtyTxId;
+
+        /**
+         * 第一次修改前redo日志的位置，页此后由干净变脏时recLSN大于该位置
+         */
+        private final long firstLsn;
+
+        /**
+         * 本事务两次修改之间页被其他事务修改过或写过盘，回滚后不能恢复修改前的脏页标记
+         */
+        private boolean shared;
+
+        PageUndo(TransactionID prevDirtyTxId, long firstLsn) {
+            this.prevDirtyTxId = prevDirtyTxId;
+            this.firstLsn = firstLsn;
+        }
+    }
+
+    /**
+     * 批量加载写入的区
+     */
+    private static class ExtentUndo {
+        private final PageID firstPageID;
+        private final int pageCount;
+
+        ExtentUndo(PageID firstPageID, int pageCount) {
+            this.firstPageID = firstPageID;
+            this.pageCount = pageCount;
+        }
+    }
+
+    /**
+     * 行的逆操作
+     */
+    private static class RowUndo {
+        private final int type;
+        private final PageID pageID;
+        private final int slot;
+        private final byte[] rowData;
+
+        RowUndo(int type, PageID pageID, int slot, byte[] rowData) {
+            this.type = type;
+            this.pageID = pageID;
+            this.slot = slot;
+            this.rowData = rowData;
+        }
+    }
+}
@@ -1,14 +1,20 @@
 package com.microdb.logging;
 
+import com.microdb.annotation.VisibleForTest;
+import com.microdb.config.DBConfig;
 import com.microdb.exception.DbException;
 import com.microdb.model.DataBase;
 import com.microdb.model.table.DbTable;
 import com.microdb.model.page.Page;
+import com.microdb.model.page.PageID;
 import com.microdb.transaction.TransactionID;
 
-import java.io.*;
+import java.io.File;
+import java.io.IOException;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
 
 /**
  * undo 日志，用于回滚
@@ -23,30 +29,35 @@ public class UndoLogFile {
     private final File file;
 
     /**
-     * 随机存储文件
+     * 分段日志
      */
-    private final RandomAccessFile raf;
+    private final SegmentedLog log;
 
     /**
      * 当前写到的位置
      */
-    private long offset = -1;
+    private long offset;
 
     /**
-     * 存储偏移地址占用的字节数，以long存储，占用8字节
+     * 事务开始时的偏移地址
      */
-    private int offsetAddrInByte = 8;
+    HashMap<Long, Long> txId2StartOffset = new HashMap<>();
 
     /**
-     * 事务开始时的偏移地址
+     * 事务在undo文件中记录了原始数据的页
      */
-    HashMap<Long, Long> txId2StartOffset = new HashMap<>();
-    
-    public UndoLogFile(File file){
+    private final HashMap<Long, Set<PageID>> txId2LoggedPages = new HashMap<>();
+
+    /**
+     * @param file 日志目录，存放日志段和清单
+     */
+    public UndoLogFile(File file, DBConfig dbConfig) {
         this.file = file;
+        this.log = new SegmentedLog(file, dbConfig.getLogSegmentSizeInByte());
         try {
-            raf = new RandomAccessFile(file, "rw");
-        } catch (FileNotFoundException e) {
+            // 崩溃恢复由redo日志完成，重启前的undo日志不再被读取，接在末尾继续写，之后随事务结束被删除
+            offset = log.getEndLsn();
+        } catch (IOException e) {
             throw new DbException("load undo log file error ", e);
         }
     }
@@ -55,13 +66,18 @@ public class UndoLogFile {
      * 记录事务开始
      */
     public synchronized void recordTxStart(TransactionID transactionID) {
-        // 如果文件没有记录过信息，从头开始
-        if (offset == -1) {
-            offset = 0;
-        }
         txId2StartOffset.put(transactionID.getId(), offset);
     }
 
+    /**
+     * 记录事务提交，事务不会再回滚，删除不再被任何活跃事务需要的日志段
+     */
+    public synchronized void recordTxCommit(TransactionID transactionID) {
+        txId2StartOffset.remove(transactionID.getId());
+        txId2LoggedPages.remove(transactionID.getId());
+        truncate();
+    }
+
     /**
      * 记录原始页
      * 计入事务ID+页原始数据
@@ -71,27 +87,10 @@ public class UndoLogFile {
      */
     public synchronized void recordBeforePageWhenFlushDisk(TransactionID transactionID,
                                                            Page beforePage) {
-
         try {
-            // 事务ID
-            raf.writeLong(transactionID.getId());
-
-            // 序列化
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            ObjectOutputStream outputStream = new ObjectOutputStream(baos);
-            outputStream.writeObject(beforePage);
-            byte[] bytes = baos.toByteArray();
-            // 写入page占用字节数和page数据
-            raf.writeInt(bytes.length);
-            raf.write(bytes);
-
-            // 本次写入的起始位置
-            raf.writeLong(offset);
-
-            // 更新offset
-            offset = raf.getFilePointer();
-
-            raf.getChannel().force(true);
+            append(transactionID, beforePage);
+            // 页随后写盘，原始数据必须先落盘
+            log.force();
             System.out.println("写入undo log ,offset=" + offset);
         } catch (IOException e) {
             throw new DbException("write undo file failed", e);
@@ -99,53 +98,95 @@ public class UndoLogFile {
     }
 
     /**
-     * 将事务修改过的页面，在磁盘刷回原始版本，缓存中丢弃
+     * 记录原始页，不落盘，用于内存undo链超出上限时转存
+     * <p>
+     * 崩溃恢复由redo日志完成，不读取undo文件，页未写盘时undo记录无需落盘
+     */
+    public synchronized void recordBeforePage(TransactionID transactionID, Page beforePage) {
+        try {
+            append(transactionID, beforePage);
+        } catch (IOException e) {
+            throw new DbException("write undo file failed", e);
+        }
+    }
+
+    private void append(TransactionID transactionID, Page beforePage) throws IOException {
+        // 事务ID+页原始数据，记录的起始位置写在末尾
+        byte[] record = LogRecord.encode(offset, LogRecordType.BEFORE_PAGE, transactionID.getId(), beforePage);
+        log.append(offset, record);
+        // 更新offset
+        offset += record.length;
+        txId2LoggedPages.computeIfAbsent(transactionID.getId(), k -> new HashSet<>()).add(beforePage.getPageID());
+    }
+
+    /**
+     * 将事务在undo文件中记录了原始数据的页，在磁盘刷回原始版本，缓存中丢弃
+     * <p>
+     * 事务没有写过undo文件时不读取文件，其修改由内存undo链回滚，见{@link UndoChain}
      *
      * @param transactionID 回滚的事务
+     * @return 已恢复的页
      */
-    public synchronized void rollback(TransactionID transactionID) {
+    public synchronized Set<PageID> rollback(TransactionID transactionID) {
         try {
             // 事务开始位置
-            Long txStartOffset = txId2StartOffset.get(transactionID.getId());
-
-            // 待读取的偏移位置
-            raf.seek(raf.length() - offsetAddrInByte);
-            long offsetToRead = raf.readLong();
-
-            while (txStartOffset <= offsetToRead) {
-                raf.seek(offsetToRead);
-                long txId = raf.readLong();
-                if (transactionID.getId() == txId) {
-                    int pageSize = raf.readInt();
-                    byte[] bytes = new byte[pageSize];
-                    raf.read(bytes);
-
-                    ByteArrayInputStream bais = new ByteArrayInputStream(bytes);
-                    ObjectInputStream inputStream = new ObjectInputStream(bais);
-                    Page beforePage = (Page) inputStream.readObject();
-
-                    DbTable dbTableById = DataBase.getInstance().getDbTableById(beforePage.getPageID().getTableId());
-                    dbTableById.getTableFile().writePageToDisk(beforePage);
-                    DataBase.getBufferPool().discardPages(Collections.singletonList(beforePage.getPageID()));
-                }
+            Long txStartOffset = txId2StartOffset.remove(transactionID.getId());
+            Set<PageID> loggedPages = txId2LoggedPages.remove(transactionID.getId());
+            if (txStartOffset == null || loggedPages == null) {
+                truncate();
+                return Collections.emptySet();
+            }
 
-                // 已经到开始位置，结束循环
-                if (txStartOffset == offsetToRead) {
-                    break;
+            // 从最后一条记录向前读取，直到事务开始位置，只访问事务开始之后的段
+            long end = offset;
+            LogRecord record;
+            while (end > txStartOffset && (record = log.readBefore(end)) != null) {
+                if (transactionID.getId() == record.getTxId()) {
+                    restorePage(record.getPage(0));
                 }
-
-                raf.seek(offsetToRead - offsetAddrInByte);
-                offsetToRead = raf.readLong();
+                end = record.getLsn();
             }
-            // 复位
-            raf.seek(offset);
-
-            txId2StartOffset.remove(transactionID.getId());
-        } catch (IOException | ClassNotFoundException e) {
+            truncate();
+            return loggedPages;
+        } catch (IOException e) {
             throw new DbException("undo file rollback failed", e);
         }
+    }
+
+    /**
+     * 原始页写回磁盘，缓存中丢弃
+     */
+    static void restorePage(Page beforePage) {
+        DbTable dbTableById = DataBase.getInstance().getDbTableById(beforePage.getPageID().getTableId());
+        dbTableById.getTableFile().writePageToDisk(beforePage);
+        dbTableById.getTableFile().sync();
+        DataBase.getBufferPool().discardPages(Collections.singletonList(beforePage.getPageID()));
+    }
 
+    /**
+     * 删除最老的活跃事务开始之前的日志段，没有活跃事务时只保留当前写入的段
+     */
+    private void truncate() {
+        long keepFrom = offset;
+        for (long txStartOffset : txId2StartOffset.values()) {
+            keepFrom = Math.min(keepFrom, txStartOffset);
+        }
+        try {
+            log.truncateBefore(keepFrom);
+        } catch (IOException e) {
+            throw new DbException("truncate undo log failed", e);
+        }
     }
 
+    /**
+     * 保留的日志段数
+     */
+    @VisibleForTest
+    public int getSegmentCount() {
+        return log.getSegmentCount();
+    }
 
+    public void close() {
+        log.close();
+    }
 }
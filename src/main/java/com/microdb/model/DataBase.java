@@ -11,8 +11,10 @@ import com.microdb.model.table.DbTable;
 import com.microdb.model.table.TableDesc;
 import com.microdb.model.table.tablefile.TableFile;
 import com.microdb.transaction.LockManager;
+import com.microdb.transaction.VersionStore;
 
 import java.io.File;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -46,6 +48,11 @@ public class DataBase {
      */
     private final LockManager lockManager;
 
+    /**
+     * 行版本存储
+     */
+    private final VersionStore versionStore;
+
     /**
      * undo 日志
      */
@@ -60,10 +67,11 @@ public class DataBase {
         this.dbConfig = new PropertiesConfigParser().parse("config.properties");
         this.tableId2Table = new HashMap<>();
         this.tableName2Table = new HashMap<>();
-        this.lockManager = new LockManager();
+        this.lockManager = new LockManager(dbConfig);
+        this.versionStore = new VersionStore(dbConfig);
         this.bufferPool = new BufferPool(dbConfig);
-        this.undoLogFile = new UndoLogFile(new File("undo"));
-        this.redoLogFile = new RedoLogFile(new File("redo"));
+        this.undoLogFile = new UndoLogFile(new File("undo"), dbConfig);
+        this.redoLogFile = new RedoLogFile(new File("redo"), dbConfig);
     }
 
     public static DataBase getInstance() {
@@ -82,6 +90,10 @@ public class DataBase {
         return singleton.get().lockManager;
     }
 
+    public static VersionStore getVersionStore() {
+        return singleton.get().versionStore;
+    }
+
     public static UndoLogFile getUndoLogFile() {
         return singleton.get().undoLogFile;
     }
@@ -137,16 +149,41 @@ public class DataBase {
     }
 
 
+    /**
+     * 所有表
+     */
+    public Collection<DbTable> getDbTables() {
+        return tableId2Table.values();
+    }
+
+    /**
+     * 所有表文件落盘
+     */
+    public void syncTableFiles() {
+        for (DbTable dbTable : tableId2Table.values()) {
+            dbTable.getTableFile().sync();
+        }
+    }
+
     @VisibleForTest
     public static void resetWithFile(TableFile tableFile, String tableName) {
         DataBase dataBase = new DataBase();
         dataBase.addTable(tableFile, tableName);
-        singleton.set(dataBase);
+        singleton.getAndSet(dataBase).shutdown();
     }
 
     @VisibleForTest
     public static void reset() {
         DataBase dataBase = new DataBase();
-        singleton.set(dataBase);
+        singleton.getAndSet(dataBase).shutdown();
+    }
+
+    /**
+     * 停止后台线程，关闭日志文件
+     */
+    private void shutdown() {
+        bufferPool.shutdown();
+        redoLogFile.shutdown();
+        undoLogFile.close();
     }
 }
\ No newline at end of file
@@ -15,6 +15,13 @@ public interface IFieldType {
      */
     int getSizeInByte();
 
+    /**
+     * 返回字段最少占用的字节数，定长字段与{@link #getSizeInByte()}相同
+     */
+    default int getMinSizeInByte() {
+        return getSizeInByte();
+    }
+
     /**
      * 文件流中字节反序列化，解析出字段值
      */
@@ -41,24 +41,30 @@ public class LongField implements Field {
 
     @Override
     public boolean compare(PredicateEnum predicateEnum, Field operand) {
-        LongField operandValue = (LongField) operand;
+        return compare(value, predicateEnum, ((LongField) operand).value);
+    }
+
+    /**
+     * 是否满足 value 比较 operand，int型字段也按long比较，用于不创建字段对象时直接比较页中的值
+     */
+    public static boolean compare(long value, PredicateEnum predicateEnum, long operand) {
         switch (predicateEnum) {
             case EQUALS:
-                return value == operandValue.value;
+                return value == operand;
             case NOT_EQUALS:
-                return value != operandValue.value;
+                return value != operand;
 
             case GREATER_THAN:
-                return value > operandValue.value;
+                return value > operand;
 
             case GREATER_THAN_OR_EQ:
-                return value >= operandValue.value;
+                return value >= operand;
 
             case LESS_THAN:
-                return value < operandValue.value;
+                return value < operand;
 
             case LESS_THAN_OR_EQ:
-                return value <= operandValue.value;
+                return value <= operand;
         }
         return false;
     }
@@ -1,5 +1,6 @@
 package com.microdb.model.page;
 
+import com.microdb.model.DataBase;
 import com.microdb.transaction.TransactionID;
 
 /**
@@ -14,11 +15,26 @@ public abstract class DirtyPage implements Page {
      */
     protected TransactionID dirtyTxId = null;
 
+    /**
+     * 页由干净变脏时redo日志的位置，此前的日志记录对应的修改已在磁盘上，干净页为-1
+     */
+    protected long recLsn = -1;
+
     @Override
     public void markDirty(TransactionID transactionID) {
+        if (transactionID == null) {
+            recLsn = -1;
+        } else if (dirtyTxId == null) {
+            recLsn = DataBase.getRedoLogFile().getCurrentLsn();
+        }
         dirtyTxId = transactionID;
     }
 
+    @Override
+    public long getRecLsn() {
+        return recLsn;
+    }
+
     @Override
     public boolean isDirty() {
         return dirtyTxId != null;
@@ -13,6 +13,11 @@ import java.io.IOException;
  */
 public interface Page {
 
+    /**
+     * 每页末尾保留的字节数，表文件写盘时在此写入校验和，页数据不使用
+     */
+    int TRAILER_SIZE_IN_BYTE = 4 + 1;
+
     PageID getPageID();
 
     /**
@@ -48,6 +53,11 @@ public interface Page {
 
     TransactionID getDirtyTxId();
 
+    /**
+     * 页由干净变脏时redo日志的位置，用于检查点的脏页表
+     */
+    long getRecLsn();
+
     /**
      * 保留页原始数据
      */
@@ -56,4 +66,11 @@ public interface Page {
      * 获取页在修改前的数据
      */
     Page getBeforePage();
+
+    /**
+     * 页的修改是否已逐行记录redo日志，是则事务提交、页刷盘时不需要再记录整页镜像
+     */
+    default boolean isRowLogged() {
+        return false;
+    }
 }
@@ -42,7 +42,8 @@ public class BPTreeHeaderPage extends BPTreePage implements Serializable {
     /**
      * 槽位数量
      */
-    public static final int maxSlotNum = DataBase.getDBConfig().getPageSizeInByte() - 2 * BPTreeHeaderPage.POINTER_SIZE_IN_BYTE;
+    public static final int maxSlotNum = DataBase.getDBConfig().getPageSizeInByte() - TRAILER_SIZE_IN_BYTE
+            - 2 * BPTreeHeaderPage.POINTER_SIZE_IN_BYTE;
 
     public BPTreeHeaderPage(BPTreePageID bpTreePageID, byte[] pageData) throws IOException {
         this.pageID = bpTreePageID;
@@ -64,6 +65,8 @@ public class BPTreeHeaderPage extends BPTreePage implements Serializable {
         dos.writeInt(prevHeaderPageNo);
         // 3.prevHeaderPageNo
         dos.writeInt(nextHeaderPageNo);
+        // 4.页尾保留
+        fillBytes(dos, TRAILER_SIZE_IN_BYTE);
         return baos.toByteArray();
     }
 
@@ -147,7 +147,7 @@ public class BPTreeInternalPage extends BPTreePage implements Serializable {
             }
         }
 
-        // 6、填充剩余空间
+        // 6、填充剩余空间，页尾保留的字节也填0
         int slotSize = slotUsageStatusBitMap.length;
         int parentPageNoSize = INDEX_SIZE_IN_BYTE;
         int childrenPageTypeSize = 1;
@@ -246,7 +246,7 @@ public class BPTreeInternalPage extends BPTreePage implements Serializable {
         // 每页一个父pageNo指针 一个字节表示子page类型
         int extra = FieldType.INT.getSizeInByte() + 1;
 
-        return (DataBase.getDBConfig().getPageSizeInByte() - extra) / perEntrySizeInByte;
+        return (DataBase.getDBConfig().getPageSizeInByte() - TRAILER_SIZE_IN_BYTE - extra) / perEntrySizeInByte;
     }
 
     @Override
@@ -3,6 +3,8 @@ package com.microdb.model.page.bptree;
 import com.microdb.exception.DbException;
 import com.microdb.model.DataBase;
 import com.microdb.model.field.Field;
+import com.microdb.model.field.IntField;
+import com.microdb.model.field.LongField;
 import com.microdb.model.page.Page;
 import com.microdb.model.row.Row;
 import com.microdb.model.row.RowID;
@@ -10,15 +12,17 @@ import com.microdb.model.table.TableDesc;
 import com.microdb.operator.PredicateEnum;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.Iterator;
-import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Objects;
-import java.util.stream.Collectors;
 
 /**
  * B+ Tree 叶页
  * 格式：slotStatusBitMap + 三个指针（父节点、左右、兄弟节点）+ rows
+ * <p>
+ * 读入时不解析行，保留页数据：{@link #getInt}、{@link #getLong}直接从页数据读取字段，行对象在第一次访问时才创建。
+ * 页内移动、插入的行以行对象保存，序列化时写出；没有创建行对象的slot直接复制读入时的字节
  *
  * @author zhangjw
  * @version 1.0
@@ -44,10 +48,25 @@ public class BPTreeLeafPage extends BPTreePage implements Serializable {
     private int maxSlotNum;
 
     /**
-     * 行
+     * 行，为null且slot已使用时，行数据在读入的页数据中的原位置
      */
     private Row[] rows;
 
+    /**
+     * 读入的页数据
+     */
+    private byte[] data;
+
+    /**
+     * 包装页数据，按绝对位置读取字段，见{@link #buffer()}
+     */
+    private transient ByteBuffer buffer;
+
+    /**
+     * 各字段在行中的偏移
+     */
+    private int[] fieldOffsets;
+
     /**
      * 左兄弟
      */
@@ -68,6 +87,7 @@ public class BPTreeLeafPage extends BPTreePage implements Serializable {
         this.tableDesc = DataBase.getInstance().getDbTableById(pageID.getTableId()).getTableDesc();
         this.keyFieldIndex = keyFieldIndex;
         this.maxSlotNum = this.calculateMaxSlotNum(this.tableDesc);
+        this.fieldOffsets = this.tableDesc.getFieldOffsets();
         deserialize(pageData);
         // if (pageID.getPageNo() > 2) {
         //     if (parentPageNo == 0) {
@@ -81,18 +101,14 @@ public class BPTreeLeafPage extends BPTreePage implements Serializable {
     }
 
     private void check(BPTreeLeafPage leafPage) {
-        // bitmap中数量
-        int existRowCount = leafPage.getExistRowCount();
-
-        // 实际存储的数量
+        // 已创建的行对象
         Row[] rows = leafPage.rows;
-        int cnt = 0;
-        for (Row b : rows) {
-            cnt += b != null ? 1 : 0;
-        }
         for (int i = 0; i < slotUsageStatusBitMap.length; i++) {
             Row b = rows[i];
             if (b != null) {
+                if (!slotUsageStatusBitMap[i]) {
+                    throw new DbException("页状态不一致，bitmap与实际存储rows不一致，pageID=" + leafPage.getPageID());
+                }
                 if (b.getRowID() == null) {
                     throw new DbException("rowID 不能为空");
                 }
@@ -101,10 +117,6 @@ public class BPTreeLeafPage extends BPTreePage implements Serializable {
                 }
             }
         }
-
-        if (existRowCount != cnt) {
-            throw new DbException("页状态不一致，bitmap与实际存储rows的数量不一致，pageID=" + leafPage.getPageID());
-        }
     }
 
     public TableDesc getTableDesc() {
@@ -148,7 +160,9 @@ public class BPTreeLeafPage extends BPTreePage implements Serializable {
 
         // 3. rows 行数据
         for (int i = 0; i < rows.length; i++) {
-            if (isSlotUsed(i)) {
+            if (isSlotUsed(i) && rows[i] == null) {
+                dos.write(data, rowOffset(i), tableDesc.getRowMaxSizeInBytes());
+            } else if (isSlotUsed(i)) {
                 for (int j = 0; j < tableDesc.getAttributesNum(); j++) {
                     rows[i].getField(j).serialize(dos);
                 }
@@ -157,7 +171,7 @@ public class BPTreeLeafPage extends BPTreePage implements Serializable {
             }
         }
 
-        // 4. 填充剩余空间
+        // 4. 填充剩余空间，页尾保留的字节也填0
         int slotSize = slotUsageStatusBitMap.length;
         int indexSize = 3 * 4;
         int rowSize = tableDesc.getRowMaxSizeInBytes() * rows.length;
@@ -201,28 +215,27 @@ public class BPTreeLeafPage extends BPTreePage implements Serializable {
         // 4.rightSiblingPageNo
         this.rightSiblingPageNo = dis.readInt();
 
-        // 5. rows
-        int rowMaxSizeInBytes = tableDesc.getRowMaxSizeInBytes();
+        // 5. rows 不解析，访问时从页数据读取
         rows = new Row[maxSlotNum];
-        for (int i = 0; i < rows.length; i++) {
-            if (isSlotUsed(i)) {
-                Row row = new Row(tableDesc);
-                List<Field> fieldList = tableDesc.getFieldTypes().stream()
-                        .map(x -> x.parse(dis))
-                        .collect(Collectors.toList());
-                row.setFields(fieldList);
-                row.setRowID(new RowID(pageID, i));
-                rows[i] = row;
-            } else {
-                rows[i] = null;
-                for (int i1 = 0; i1 < rowMaxSizeInBytes; i1++) {
-                    dis.readByte();
-                }
-            }
-        }
+        data = pageData.clone();
+        buffer = ByteBuffer.wrap(data);
         dis.close();
     }
 
+    private ByteBuffer buffer() {
+        if (buffer == null) {
+            buffer = ByteBuffer.wrap(data);
+        }
+        return buffer;
+    }
+
+    /**
+     * 读入的页数据中，第slotIndex行的位置
+     */
+    private int rowOffset(int slotIndex) {
+        return maxSlotNum + 3 * POINTER_SIZE_IN_BYTE + slotIndex * tableDesc.getRowMaxSizeInBytes();
+    }
+
     @Override
     public boolean hasEmptySlot() {
         for (boolean b : this.slotUsageStatusBitMap) {
@@ -249,7 +262,7 @@ public class BPTreeLeafPage extends BPTreePage implements Serializable {
         int sizePerRowInBytes = tableDesc.getRowMaxSizeInBytes() + slotStatusSizeInByte;
 
         int pointerSizeInBytes = 3 * POINTER_SIZE_IN_BYTE;
-        return (DataBase.getDBConfig().getPageSizeInByte() - pointerSizeInBytes) / sizePerRowInBytes;
+        return (DataBase.getDBConfig().getPageSizeInByte() - TRAILER_SIZE_IN_BYTE - pointerSizeInBytes) / sizePerRowInBytes;
     }
 
     @Override
@@ -280,7 +293,7 @@ public class BPTreeLeafPage extends BPTreePage implements Serializable {
         Field key = row.getField(keyFieldIndex);
         for (int i = 0; i < maxSlotNum; i++) {
             if (isSlotUsed(i)) {
-                if (rows[i].getField(keyFieldIndex).compare(PredicateEnum.LESS_THAN_OR_EQ, key)) {
+                if (getRow(i).getField(keyFieldIndex).compare(PredicateEnum.LESS_THAN_OR_EQ, key)) {
                     lastLessOrEqKeyIndex = i;
                 } else {
                     break;
@@ -363,7 +376,7 @@ public class BPTreeLeafPage extends BPTreePage implements Serializable {
     private void shift(int from, int to) {
         if (!isSlotUsed(to) && isSlotUsed(from)) {
             slotUsageStatusBitMap[to] = true;
-            rows[to] = rows[from];
+            rows[to] = getRow(from);
             rows[to].setRowID(new RowID(pageID, to));
 
             // 清空from
@@ -422,7 +435,44 @@ public class BPTreeLeafPage extends BPTreePage implements Serializable {
         if (!isSlotUsed(index)) {
             return null;
         }
-        return rows[index];
+        Row row = rows[index];
+        if (row == null) {
+            DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data,
+                    rowOffset(index), tableDesc.getRowMaxSizeInBytes()));
+            row = new Row(tableDesc);
+            row.setFields(tableDesc.getFieldTypes().stream()
+                    .map(x -> x.parse(dis))
+                    .toArray(Field[]::new));
+            row.setRowID(new RowID(pageID, index));
+            rows[index] = row;
+        }
+        return row;
+    }
+
+    /**
+     * 直接读取int型字段，没有创建行对象时不解析行
+     *
+     * @param fieldIndex 字段下标
+     */
+    public int getInt(int slotIndex, int fieldIndex) {
+        Row row = rows[slotIndex];
+        if (row != null) {
+            return ((IntField) row.getField(fieldIndex)).getValue();
+        }
+        return buffer().getInt(rowOffset(slotIndex) + fieldOffsets[fieldIndex]);
+    }
+
+    /**
+     * 直接读取long型字段，没有创建行对象时不解析行
+     *
+     * @param fieldIndex 字段下标
+     */
+    public long getLong(int slotIndex, int fieldIndex) {
+        Row row = rows[slotIndex];
+        if (row != null) {
+            return ((LongField) row.getField(fieldIndex)).getValue();
+        }
+        return buffer().getLong(rowOffset(slotIndex) + fieldOffsets[fieldIndex]);
     }
 
     /**
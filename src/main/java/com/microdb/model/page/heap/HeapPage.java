@@ -11,11 +11,29 @@ import com.microdb.model.page.PageID;
 import com.microdb.model.row.RowID;
 
 import java.io.*;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.IntPredicate;
 
 /**
- * 页，读写磁盘文件数据时以page为基本单位
+ * 堆表页，读写磁盘文件数据时以page为基本单位
+ * <p>
+ * 页内为slotted page格式，行(元组)变长：
+ * <pre>
+ * | page LSN(8) | slot数(2) | 元组区起点(2) | slot状态位图 | slot目录：每个slot 偏移(2)+长度(2) | 空闲空间 | 元组区 | 页尾保留(5) |
+ * </pre>
+ * slot目录从页头向后增长，元组从页尾向前分配，两者之间为空闲空间。删除行只清除状态位和目录项，留下的空洞在
+ * 插入时空闲空间不足时通过页内整理(compaction)回收：存活的元组重新紧凑地排列到页尾，slot编号不变，因此RowID不变。
+ * 元组区起点为0表示页尾(空页)，全0的页数据即为空页。页的最后{@link #TRAILER_SIZE_IN_BYTE}字节保留给表文件写入校验和，
+ * 元组区在其之前结束
+ * <p>
+ * 表结构中的字段都是定长时(元组长度由表结构确定)，不需要slot目录：第i个slot的元组固定在页尾向前第i+1个元组的位置，
+ * 每行只占元组和状态位图中的一位，删除留下的位置由同一slot复用，不需要整理
+ * <p>
+ * 页保留原始字节，读入时不解析行：{@link #getInt}、{@link #getLong}直接从字节中读取字段，
+ * 行对象在第一次{@link #getRow}时才创建并缓存
  *
  * @author zhangjw
  * @version 1.0
@@ -23,12 +41,33 @@ import java.util.Iterator;
 public class HeapPage extends DirtyPage implements Page, Serializable {
 
     private static final long serialVersionUID = 201055810875655321L;
+
+    /**
+     * 页头中page LSN占用的字节数
+     */
+    public static final int PAGE_LSN_SIZE_IN_BYTE = 8;
+
+    /**
+     * 页头：page LSN、slot数、元组区起点
+     */
+    private static final int HEADER_SIZE_IN_BYTE = PAGE_LSN_SIZE_IN_BYTE + 2 + 2;
+
+    /**
+     * 变长元组的slot目录项：元组偏移、长度各2字节
+     */
+    private static final int SLOT_SIZE_IN_BYTE = 4;
+
+    /**
+     * 页内偏移以2字节无符号数存储
+     */
+    private static final int MAX_PAGE_SIZE_IN_BYTE = 1 << 16;
+
     /**
      * page 编号
      */
     private PageID pageID;
     /**
-     * 行数据数组
+     * 已创建的行对象，按需从页数据解析，slot修改时清除
      */
     private Row[] rows;
     /**
@@ -36,15 +75,54 @@ public class HeapPage extends DirtyPage implements Page, Serializable {
      */
     private TableDesc tableDesc;
     /**
-     * 一页数据最多可存放的数据行数
+     * 一页数据最多可存放的数据行数，按最短的行计算，决定状态位图的大小
      */
     private int maxSlotNum;
+
+    /**
+     * 页数据
+     */
+    private byte[] data;
+
+    /**
+     * 包装页数据，按绝对位置读取字段，不分配对象，见{@link #buffer()}
+     */
+    private transient ByteBuffer buffer;
+
+    /**
+     * 各字段在元组中的偏移，字段类型均为定长
+     */
+    private int[] fieldOffsets;
+
+    /**
+     * 定长元组的长度，由表结构确定；元组变长时为0，按slot目录定位元组
+     */
+    private int fixedTupleSize;
+
+    /**
+     * slot目录的项数，不小于最大的已使用slot编号+1
+     */
+    private int slotCount;
+
+    /**
+     * 元组区起点，空闲空间的末尾
+     */
+    private int heapStart;
+
+    /**
+     * 存活元组的总字节数
+     */
+    private int liveTupleBytes;
+
+    /**
+     * 最后一次修改该页的redo日志记录的LSN，随页落盘，恢复时LSN不小于日志记录的修改已在页上，跳过重做
+     */
+    private long pageLsn;
+
     /**
-     * slot使用状态标识位图
-     * 为利用 {@link DataOutputStream#writeBoolean(boolean)} api的便利性，
-     * 物理文件使用一个byte存储一个状态位
+     * 页内容的修改次数，不落盘，乐观事务以页对象和修改次数作为读取时的页版本
      */
-    private boolean[] slotUsageStatusBitMap;
+    private long modCount;
 
     /**
      * 原始页数据
@@ -54,9 +132,9 @@ public class HeapPage extends DirtyPage implements Page, Serializable {
     public HeapPage(PageID pageID, byte[] pageData) throws IOException {
         this.pageID = pageID;
         this.tableDesc = DataBase.getInstance().getDbTableById(pageID.getTableId()).getTableDesc();
+        this.fixedTupleSize = fixedTupleSize(this.tableDesc);
         this.maxSlotNum = calculateMaxSlotNum(this.tableDesc);
-        this.rows = new Row[this.maxSlotNum];
-        this.slotUsageStatusBitMap = new boolean[this.maxSlotNum];
+        this.fieldOffsets = this.tableDesc.getFieldOffsets();
         deserialize(pageData);
 
         // 保留页原始数据
@@ -70,112 +148,134 @@ public class HeapPage extends DirtyPage implements Page, Serializable {
 
     @Override
     public byte[] serialize() throws IOException {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(DataBase.getDBConfig().getPageSizeInByte());
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // 1.序列化 slot 使用状态位图
-        for (boolean status : slotUsageStatusBitMap) {
-            dos.writeBoolean(status);
-        }
-
-        // 2.序列化行数据
-        for (int i = 0; i < rows.length; i++) {
-            if (isSlotUsed(i)) {
-                for (Field field : rows[i].getFields()) {
-                    field.serialize(dos);
-                }
-            } else { // 空slot的位置填充
-                fillBytes(dos, tableDesc.getRowMaxSizeInBytes());
-            }
-        }
+        writeHeader();
+        return data.clone();
+    }
 
-        // 3.slot状态位图和行数据之外的位置填充 0
-        int zeroSize =
-                DataBase.getDBConfig().getPageSizeInByte()
-                        - slotUsageStatusBitMap.length
-                        - tableDesc.getRowMaxSizeInBytes() * rows.length;
-        fillBytes(dos, zeroSize);
-        dos.flush();
-        return baos.toByteArray();
+    /**
+     * 去掉空闲空间的页镜像，用于redo日志中的整页镜像：int 空闲空间起点 + 空闲空间之前的字节 + 元组区
+     */
+    public byte[] serializeImage() {
+        writeHeader();
+        int holeStart = slotDirectoryEnd();
+        int tupleBytes = pageEnd() - heapStart;
+        byte[] image = new byte[4 + holeStart + tupleBytes];
+        ByteBuffer.wrap(image).putInt(holeStart);
+        System.arraycopy(data, 0, image, 4, holeStart);
+        System.arraycopy(data, heapStart, image, 4 + holeStart, tupleBytes);
+        return image;
     }
 
     /**
-     * 向dos中填充指定数量的字节
-     *
-     * @param dos      DataOutputStream
-     * @param bytesNum 填充的字节数量
-     * @throws IOException write byte error
+     * 由{@link #serializeImage()}的镜像还原页数据，空闲空间填0
      */
-    protected void fillBytes(DataOutputStream dos, int bytesNum) throws IOException {
-        if (dos == null) {
-            throw new DbException("fill bytes error: stream is closed ");
-        }
-        byte[] emptyBytes = new byte[bytesNum];
-        dos.write(emptyBytes, 0, bytesNum);
+    public static byte[] restoreImage(byte[] image) {
+        byte[] pageData = createEmptyPageData();
+        int holeStart = ByteBuffer.wrap(image).getInt();
+        int tupleBytes = image.length - 4 - holeStart;
+        System.arraycopy(image, 4, pageData, 0, holeStart);
+        System.arraycopy(image, 4 + holeStart, pageData, pageData.length - TRAILER_SIZE_IN_BYTE - tupleBytes, tupleBytes);
+        return pageData;
     }
 
     /**
      * 反序列化文件数据到page
-     * 将 slotUsageStatusBitMap 、rows 字节反序列化到对象
+     * 只读取页头、统计存活元组的字节数，不解析行
      */
     public void deserialize(byte[] pageData) throws IOException {
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(pageData));
-        // slot状态位反序列化
-        for (int i = 0; i < slotUsageStatusBitMap.length; i++) {
-            slotUsageStatusBitMap[i] = dis.readBoolean();
-        }
-        // 行数据Row反序列化
+        modCount++;
+        data = pageData.clone();
+        buffer = ByteBuffer.wrap(data);
+        pageLsn = buffer.getLong(0);
+        slotCount = buffer.getShort(PAGE_LSN_SIZE_IN_BYTE) & 0xFFFF;
+        int storedHeapStart = buffer.getShort(PAGE_LSN_SIZE_IN_BYTE + 2) & 0xFFFF;
+        heapStart = storedHeapStart == 0 ? pageEnd() : storedHeapStart;
+        liveTupleBytes = 0;
         rows = new Row[maxSlotNum];
-        for (int i = 0; i < rows.length; i++) {
+        for (int i = 0; i < slotCount; i++) {
             if (isSlotUsed(i)) {
-                Row row = new Row(this.tableDesc);
-                Field[] fields = this.tableDesc.getFieldTypes()
-                        .stream()
-                        .map(x -> x.parse(dis))
-                        .toArray(Field[]::new);
-                row.setFields(fields);
-                row.setRowID(new RowID(pageID, i));
-                rows[i] = row;
-            } else {
-                rows[i] = null;
+                liveTupleBytes += getTupleLength(i);
             }
         }
+    }
+
+    private ByteBuffer buffer() {
+        if (buffer == null) {
+            buffer = ByteBuffer.wrap(data);
+        }
+        return buffer;
+    }
 
-        dis.close();
+    private void writeHeader() {
+        buffer().putLong(0, pageLsn);
+        buffer().putShort(PAGE_LSN_SIZE_IN_BYTE, (short) slotCount);
+        buffer().putShort(PAGE_LSN_SIZE_IN_BYTE + 2, (short) (heapStart == pageEnd() ? 0 : heapStart));
     }
 
     @Override
     public boolean isSlotUsed(int i) {
-        return slotUsageStatusBitMap[i];
+        return (data[bitmapOffset() + i / Byte.SIZE] & (1 << (i % Byte.SIZE))) != 0;
     }
 
-    private boolean isSlotEmpty(int i) {
-        return !slotUsageStatusBitMap[i];
+    private void setSlotUsed(int i, boolean used) {
+        int index = bitmapOffset() + i / Byte.SIZE;
+        if (used) {
+            data[index] |= (byte) (1 << (i % Byte.SIZE));
+        } else {
+            data[index] &= (byte) ~(1 << (i % Byte.SIZE));
+        }
     }
 
     public static byte[] createEmptyPageData() {
         return new byte[DataBase.getDBConfig().getPageSizeInByte()];
     }
 
+    /**
+     * 能否再插入一个最长的行
+     */
     @Override
     public boolean hasEmptySlot() {
-        for (boolean b : this.slotUsageStatusBitMap) {
-            if (!b) {
-                return true;
+        for (int i = 0; i < maxSlotNum; i++) {
+            if (!isSlotUsed(i)) {
+                return canInsert(i, tableDesc.getRowMaxSizeInBytes());
             }
         }
         return false;
     }
 
+    /**
+     * slot为空，且整理后的空闲空间能容纳元组和需要新增的slot目录项
+     *
+     * @param tupleSize 元组的字节数
+     */
+    public boolean canInsert(int slotIndex, int tupleSize) {
+        if (slotIndex >= maxSlotNum || isSlotUsed(slotIndex)) {
+            return false;
+        }
+        if (fixedTupleSize > 0) {
+            // 每个slot的位置固定，按最大slot数计算时已留出空间
+            return tupleSize == fixedTupleSize;
+        }
+        return tupleSize + newSlotBytes(slotIndex) <= pageEnd() - slotDirectoryEnd() - liveTupleBytes;
+    }
+
     /**
      * 计算返回一页数据可存放的数据行数
-     * 页字节数容量（4KB）/(表一行占用字节+行的状态标识占用字节），向下取整
-     * 行的状态标识占用位数：每行占用1byte
+     * 每行占用最短的元组、一个slot目录项(定长元组没有)和状态位图中的一位，向下取整
      */
     public int calculateMaxSlotNum(TableDesc tableDesc) {
-        // slot状态位占用空间=1byte
-        int slotStatusSizeInByte = 1;
-        return DataBase.getDBConfig().getPageSizeInByte() / (tableDesc.getRowMaxSizeInBytes() + slotStatusSizeInByte);
+        int pageSizeInByte = DataBase.getDBConfig().getPageSizeInByte();
+        if (pageSizeInByte > MAX_PAGE_SIZE_IN_BYTE) {
+            throw new DbException("heap page size can not exceed " + MAX_PAGE_SIZE_IN_BYTE);
+        }
+        int slotSizeInByte = fixedTupleSize(tableDesc) > 0 ? 0 : SLOT_SIZE_IN_BYTE;
+        int minSlotSizeInBit = (Math.max(tableDesc.getRowMinSizeInBytes(), 1) + slotSizeInByte) * Byte.SIZE + 1;
+        return (pageSizeInByte - HEADER_SIZE_IN_BYTE - TRAILER_SIZE_IN_BYTE) * Byte.SIZE / minSlotSizeInBit;
+    }
+
+    private static int fixedTupleSize(TableDesc tableDesc) {
+        int rowMinSize = tableDesc.getRowMinSizeInBytes();
+        return rowMinSize > 0 && rowMinSize == tableDesc.getRowMaxSizeInBytes() ? rowMinSize : 0;
     }
 
     @Override
@@ -187,33 +287,306 @@ public class HeapPage extends DirtyPage implements Page, Serializable {
         if (row == null) {
             throw new DbException("insert row error: row can not be null");
         }
+        byte[] rowData = serializeRow(row);
         for (int i = 0; i < this.maxSlotNum; i++) {
-            if (!slotUsageStatusBitMap[i]) {
-                slotUsageStatusBitMap[i] = true;
+            if (canInsert(i, rowData.length)) {
+                putTuple(i, rowData);
                 row.setRowID(new RowID(pageID, i));
-                rows[i] = row;
                 return;
             }
         }
         throw new DbException("insert row error: no empty slot");
     }
 
+    /**
+     * 插入行到指定的空slot，slot由调用方加行锁后选定
+     */
+    public void insertRow(Row row, int slotIndex) {
+        if (row == null) {
+            throw new DbException("insert row error: row can not be null");
+        }
+        if (isSlotUsed(slotIndex)) {
+            throw new DbException("insert row error: slot is used, slotIndex=" + slotIndex);
+        }
+        byte[] rowData = serializeRow(row);
+        if (!canInsert(slotIndex, rowData.length)) {
+            throw new DbException("insert row error: no free space, slotIndex=" + slotIndex);
+        }
+        putTuple(slotIndex, rowData);
+        row.setRowID(new RowID(pageID, slotIndex));
+    }
+
     public void deleteRow(Row row) {
         if (row == null) {
             throw new DbException("delete row error: row can not be null");
         }
+        clearSlot(row.getRowID().getSlotIndex());
+    }
+
+    /**
+     * 行序列化后的字节，即页中存放的元组
+     */
+    public static byte[] serializeRow(Row row) {
+        try {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            DataOutputStream dos = new DataOutputStream(baos);
+            for (Field field : row.getFields()) {
+                field.serialize(dos);
+            }
+            dos.flush();
+            return baos.toByteArray();
+        } catch (IOException e) {
+            throw new DbException("serialize row error", e);
+        }
+    }
+
+    /**
+     * slot中的元组，用于记录行修改日志
+     */
+    public byte[] getRowData(int slotIndex) {
+        int offset = getTupleOffset(slotIndex);
+        return Arrays.copyOfRange(data, offset, offset + getTupleLength(slotIndex));
+    }
 
-        int slotIndex = row.getRowID().getSlotIndex();
-        slotUsageStatusBitMap[slotIndex] = false;
+    /**
+     * 按slot写入行，重做插入、回滚删除时使用
+     */
+    public void setRow(int slotIndex, byte[] rowData) {
+        if (isSlotUsed(slotIndex)) {
+            clearSlot(slotIndex);
+        }
+        if (!canInsert(slotIndex, rowData.length)) {
+            throw new DbException("set row error: no free space, slotIndex=" + slotIndex);
+        }
+        putTuple(slotIndex, rowData);
+    }
+
+    /**
+     * 将行的序列化字节解析为slot处的行，不修改页
+     */
+    public Row toRow(int slotIndex, byte[] rowData) {
+        return toRow(slotIndex, new DataInputStream(new ByteArrayInputStream(rowData)));
+    }
+
+    private Row toRow(int slotIndex, DataInputStream dis) {
+        Row row = new Row(this.tableDesc);
+        row.setFields(this.tableDesc.getFieldTypes()
+                .stream()
+                .map(x -> x.parse(dis))
+                .toArray(Field[]::new));
+        row.setRowID(new RowID(pageID, slotIndex));
+        return row;
+    }
+
+    /**
+     * slot中的行，slot为空时返回null
+     * 第一次访问时从页数据解析，之后返回缓存的行对象
+     */
+    public Row getRow(int slotIndex) {
+        if (!isSlotUsed(slotIndex)) {
+            return null;
+        }
+        Row row = rows[slotIndex];
+        if (row == null) {
+            row = toRow(slotIndex, new DataInputStream(new ByteArrayInputStream(data,
+                    getTupleOffset(slotIndex), getTupleLength(slotIndex))));
+            rows[slotIndex] = row;
+        }
+        return row;
+    }
+
+    /**
+     * 直接从页数据读取int型字段，不创建行对象，slot需已使用
+     *
+     * @param fieldIndex 字段下标
+     */
+    public int getInt(int slotIndex, int fieldIndex) {
+        return buffer().getInt(getTupleOffset(slotIndex) + fieldOffsets[fieldIndex]);
+    }
+
+    /**
+     * 直接从页数据读取long型字段，不创建行对象，slot需已使用
+     *
+     * @param fieldIndex 字段下标
+     */
+    public long getLong(int slotIndex, int fieldIndex) {
+        return buffer().getLong(getTupleOffset(slotIndex) + fieldOffsets[fieldIndex]);
+    }
+
+    /**
+     * 清空slot，重做删除、回滚插入时使用
+     * 元组占用的空间成为空洞，在页内整理时回收；末尾的空slot目录项直接收回
+     */
+    public void clearSlot(int slotIndex) {
+        if (isSlotUsed(slotIndex)) {
+            liveTupleBytes -= getTupleLength(slotIndex);
+            setSlotUsed(slotIndex, false);
+            setSlot(slotIndex, 0, 0);
+        }
+        rows[slotIndex] = null;
+        while (slotCount > 0 && !isSlotUsed(slotCount - 1)) {
+            slotCount--;
+        }
+        if (fixedTupleSize > 0) {
+            heapStart = pageEnd() - slotCount * fixedTupleSize;
+        }
+        modCount++;
+    }
+
+    /**
+     * 在元组区分配空间写入元组，连续的空闲空间不足时先整理页
+     */
+    private void putTuple(int slotIndex, byte[] rowData) {
+        if (fixedTupleSize > 0) {
+            putFixedTuple(slotIndex, rowData);
+            return;
+        }
+        int newSlotBytes = newSlotBytes(slotIndex);
+        if (heapStart - slotDirectoryEnd() - newSlotBytes < rowData.length) {
+            compact();
+        }
+        if (slotIndex >= slotCount) {
+            for (int i = slotCount; i < slotIndex; i++) {
+                setSlot(i, 0, 0);
+            }
+            slotCount = slotIndex + 1;
+        }
+        heapStart -= rowData.length;
+        System.arraycopy(rowData, 0, data, heapStart, rowData.length);
+        setSlot(slotIndex, heapStart, rowData.length);
+        setSlotUsed(slotIndex, true);
         rows[slotIndex] = null;
+        liveTupleBytes += rowData.length;
+        modCount++;
     }
 
+    /**
+     * 定长元组写入slot的固定位置，元组区起点为最后一个slot的元组位置
+     */
+    private void putFixedTuple(int slotIndex, byte[] rowData) {
+        if (slotIndex >= slotCount) {
+            slotCount = slotIndex + 1;
+            heapStart = pageEnd() - slotCount * fixedTupleSize;
+        }
+        System.arraycopy(rowData, 0, data, getTupleOffset(slotIndex), rowData.length);
+        setSlotUsed(slotIndex, true);
+        rows[slotIndex] = null;
+        liveTupleBytes += rowData.length;
+        modCount++;
+    }
+
+    /**
+     * 页内整理：存活的元组按slot顺序紧凑地排列到页尾，slot编号不变
+     */
+    private void compact() {
+        byte[] compacted = new byte[data.length];
+        int newHeapStart = pageEnd();
+        for (int i = 0; i < slotCount; i++) {
+            if (!isSlotUsed(i)) {
+                continue;
+            }
+            int length = getTupleLength(i);
+            newHeapStart -= length;
+            System.arraycopy(data, getTupleOffset(i), compacted, newHeapStart, length);
+            setSlot(i, newHeapStart, length);
+        }
+        System.arraycopy(compacted, newHeapStart, data, newHeapStart, pageEnd() - newHeapStart);
+        Arrays.fill(data, slotDirectoryEnd(), newHeapStart, (byte) 0);
+        heapStart = newHeapStart;
+    }
+
+    /**
+     * 使用该slot需要新增的slot目录字节数
+     */
+    private int newSlotBytes(int slotIndex) {
+        return slotIndex < slotCount ? 0 : (slotIndex + 1 - slotCount) * slotSizeInByte();
+    }
+
+    /**
+     * slot目录项的字节数，定长元组没有slot目录
+     */
+    private int slotSizeInByte() {
+        return fixedTupleSize > 0 ? 0 : SLOT_SIZE_IN_BYTE;
+    }
+
+    /**
+     * 元组区的末尾，页尾保留给表文件写入校验和
+     */
+    private int pageEnd() {
+        return data.length - TRAILER_SIZE_IN_BYTE;
+    }
+
+    private int bitmapOffset() {
+        return HEADER_SIZE_IN_BYTE;
+    }
+
+    private int slotDirectoryOffset() {
+        return HEADER_SIZE_IN_BYTE + (maxSlotNum + Byte.SIZE - 1) / Byte.SIZE;
+    }
+
+    private int slotDirectoryEnd() {
+        return slotDirectoryOffset() + slotCount * slotSizeInByte();
+    }
+
+    private int getTupleOffset(int slotIndex) {
+        if (fixedTupleSize > 0) {
+            return pageEnd() - (slotIndex + 1) * fixedTupleSize;
+        }
+        return ((data[slotDirectoryOffset() + slotIndex * SLOT_SIZE_IN_BYTE] & 0xFF) << 8)
+                | (data[slotDirectoryOffset() + slotIndex * SLOT_SIZE_IN_BYTE + 1] & 0xFF);
+    }
+
+    private int getTupleLength(int slotIndex) {
+        if (fixedTupleSize > 0) {
+            return fixedTupleSize;
+        }
+        return ((data[slotDirectoryOffset() + slotIndex * SLOT_SIZE_IN_BYTE + 2] & 0xFF) << 8)
+                | (data[slotDirectoryOffset() + slotIndex * SLOT_SIZE_IN_BYTE + 3] & 0xFF);
+    }
+
+    private void setSlot(int slotIndex, int offset, int length) {
+        if (fixedTupleSize > 0) {
+            return;
+        }
+        int position = slotDirectoryOffset() + slotIndex * SLOT_SIZE_IN_BYTE;
+        data[position] = (byte) (offset >>> 8);
+        data[position + 1] = (byte) offset;
+        data[position + 2] = (byte) (length >>> 8);
+        data[position + 3] = (byte) length;
+    }
+
+    public long getModCount() {
+        return modCount;
+    }
+
+    public long getPageLsn() {
+        return pageLsn;
+    }
+
+    public void setPageLsn(long pageLsn) {
+        this.pageLsn = pageLsn;
+    }
+
+    @Override
+    public boolean isRowLogged() {
+        return true;
+    }
 
     /**
      * 反回迭代器，迭代该页的每一行
      */
     public Iterator<Row> getRowIterator() {
-        return new RowIterator();
+        return new RowIterator(slotIndex -> true);
+    }
+
+    /**
+     * 反回迭代器，只迭代满足条件的行
+     * 条件在创建迭代器时直接作用于页数据(见{@link #getInt}、{@link #getLong})，不满足条件的行不创建行对象
+     *
+     * @param slotFilter 按slot下标判断行是否满足条件
+     */
+    public Iterator<Row> getRowIterator(IntPredicate slotFilter) {
+        return new RowIterator(slotFilter);
     }
 
     @Override
@@ -236,27 +609,39 @@ public class HeapPage extends DirtyPage implements Page, Serializable {
 
     //====================================迭代器======================================
 
+    /**
+     * 创建时记录满足条件的slot，迭代到时才创建行对象
+     */
     private class RowIterator implements Iterator<Row> {
-        private Iterator<Row> rowIterator;
-
-        public RowIterator() {
-            ArrayList<Row> rowList = new ArrayList<>();
-            for (int i = 0; i < slotUsageStatusBitMap.length; i++) {
-                if (isSlotUsed(i)) {
-                    rowList.add(rows[i]);
+        private final int[] slots;
+        private int cursor = 0;
+
+        public RowIterator(IntPredicate slotFilter) {
+            int[] matched = new int[slotCount];
+            int count = 0;
+            for (int i = 0; i < slotCount; i++) {
+                if (isSlotUsed(i) && slotFilter.test(i)) {
+                    matched[count++] = i;
                 }
             }
-            rowIterator = rowList.iterator();
+            slots = Arrays.copyOf(matched, count);
         }
 
         @Override
         public boolean hasNext() {
-            return rowIterator.hasNext();
+            // 跳过迭代过程中被删除的行
+            while (cursor < slots.length && !isSlotUsed(slots[cursor])) {
+                cursor++;
+            }
+            return cursor < slots.length;
         }
 
         @Override
         public Row next() {
-            return rowIterator.next();
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return getRow(slots[cursor++]);
         }
     }
 }
@@ -3,6 +3,7 @@ package com.microdb.model.row;
 import com.microdb.model.page.PageID;
 
 import java.io.Serializable;
+import java.util.Objects;
 
 /**
  * 内部页中键元素
@@ -36,4 +37,26 @@ public class RowID implements Serializable {
     public int getSlotIndex() {
         return slotIndex;
     }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        RowID that = (RowID) o;
+        return slotIndex == that.slotIndex &&
+                Objects.equals(pageID, that.pageID);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(pageID, slotIndex);
+    }
+
+    @Override
+    public String toString() {
+        return "RowID{" +
+                "pageID=" + pageID +
+                ", slotIndex=" + slotIndex +
+                '}';
+    }
 }
@@ -72,6 +72,30 @@ public class TableDesc implements Serializable {
                 .sum();
     }
 
+    /**
+     * 返回一行数据最少占用的字节数
+     */
+    public int getRowMinSizeInBytes() {
+        return this.attributes
+                .stream()
+                .map(Attribute::getFieldType)
+                .mapToInt(IFieldType::getMinSizeInByte)
+                .sum();
+    }
+
+    /**
+     * 返回各字段在序列化后的行中的字节偏移，字段类型均为定长
+     */
+    public int[] getFieldOffsets() {
+        int[] offsets = new int[this.attributes.size()];
+        int offset = 0;
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = offset;
+            offset += this.attributes.get(i).getFieldType().getSizeInByte();
+        }
+        return offsets;
+    }
+
     public FieldType getFieldType(int keyFieldIndex) {
         return this.attributes.get(keyFieldIndex).getFieldType();
     }
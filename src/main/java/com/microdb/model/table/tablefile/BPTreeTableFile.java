@@ -1,6 +1,7 @@
 package com.microdb.model.table.tablefile;
 
 import com.microdb.annotation.VisibleForTest;
+import com.microdb.bufferpool.PinScope;
 import com.microdb.connection.Connection;
 import com.microdb.exception.DbException;
 import com.microdb.model.DataBase;
@@ -14,6 +15,7 @@ import com.microdb.operator.PredicateEnum;
 import com.microdb.operator.bptree.IndexPredicate;
 
 import java.io.*;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 
@@ -45,9 +47,14 @@ public class BPTreeTableFile implements TableFile {
      */
     private final int keyFieldIndex;
 
+    /**
+     * 按位置读写物理文件
+     */
+    private final PageFile pageFile;
 
     public BPTreeTableFile(File file, TableDesc tableDesc, int keyFieldIndex) {
         this.file = file;
+        this.pageFile = PageFile.open(file);
         this.tableDesc = tableDesc;
         this.tableId = file.getAbsoluteFile().hashCode();
         this.keyFieldIndex = keyFieldIndex;
@@ -66,36 +73,42 @@ public class BPTreeTableFile implements TableFile {
      */
     @Override
     public void insertRow(Row row) throws IOException {
-        // 查找B+树的根节点Page，如果为不存在，则新增一个leafPage，设置为树的根节点
-        BPTreeRootPtrPage rootPtrPage = getRootPrtPage();
-        // 首次插入数据，初始化rootPage维护第一个leafPage的指针，写入磁盘
-        if (rootPtrPage.getRootNodePageID() == null) {
-            // 该表尚未插入数据，获取文件中最后一个LeafPage，也是第一个LeafPage，因为上面代码中写入了的leafPage的空数据空间
-            BPTreePageID firstLeafPageID = new BPTreePageID(tableId, getExistPageCount(), BPTreePageType.LEAF);
-
-            rootPtrPage.setRootPageID(firstLeafPageID);
-            // rootPtr更新后刷盘，TODO rootPtr header需要设置
-            Connection.cacheDirtyPage(rootPtrPage);
-        }
+        // 插入过程中可能触发页分裂，分裂涉及的页在操作结束前保持pin住
+        PinScope pinScope = DataBase.getBufferPool().openPinScope();
+        try {
+            // 查找B+树的根节点Page，如果为不存在，则新增一个leafPage，设置为树的根节点
+            BPTreeRootPtrPage rootPtrPage = getRootPrtPage();
+            // 首次插入数据，初始化rootPage维护第一个leafPage的指针，写入磁盘
+            if (rootPtrPage.getRootNodePageID() == null) {
+                // 该表尚未插入数据，获取文件中最后一个LeafPage，也是第一个LeafPage，因为上面代码中写入了的leafPage的空数据空间
+                BPTreePageID firstLeafPageID = new BPTreePageID(tableId, getExistPageCount(), BPTreePageType.LEAF);
+
+                rootPtrPage.setRootPageID(firstLeafPageID);
+                // rootPtr更新后刷盘，TODO rootPtr header需要设置
+                Connection.cacheDirtyPage(rootPtrPage);
+            }
 
-        // 从b+tree中查找按索引查找数据期望插入的leafPage。如果leafPage已满，触发页分裂
-        BPTreeLeafPage leafPage = this.findLeafPage(rootPtrPage.getRootNodePageID(), row.getField(keyFieldIndex));
-        if (!leafPage.hasEmptySlot()) {
-            leafPage = this.splitLeafPage(leafPage, row.getField(keyFieldIndex));
-            System.out.println("页分裂" + leafPage.getPageID());
-            if (leafPage.getParentPageID().getPageNo() == 0) {
-                throw new DbException("叶页分裂后，父parent no 不应为0");
+            // 从b+tree中查找按索引查找数据期望插入的leafPage。如果leafPage已满，触发页分裂
+            BPTreeLeafPage leafPage = this.findLeafPage(rootPtrPage.getRootNodePageID(), row.getField(keyFieldIndex));
+            if (!leafPage.hasEmptySlot()) {
+                leafPage = this.splitLeafPage(leafPage, row.getField(keyFieldIndex));
+                System.out.println("页分裂" + leafPage.getPageID());
+                if (leafPage.getParentPageID().getPageNo() == 0) {
+                    throw new DbException("叶页分裂后，父parent no 不应为0");
+                }
             }
-        }
 
-        System.out.println("insertRow:" + row);
-        leafPage.insertRow(row);
-        try {
-            Connection.cacheDirtyPage(leafPage);
-            System.out.println("writePageToDisk:" + leafPage.getPageID());
-        } catch (Exception e) {
-            System.out.println("error row=" + row.toString());
-            throw new DbException(e);
+            System.out.println("insertRow:" + row);
+            leafPage.insertRow(row);
+            try {
+                Connection.cacheDirtyPage(leafPage);
+                System.out.println("writePageToDisk:" + leafPage.getPageID());
+            } catch (Exception e) {
+                System.out.println("error row=" + row.toString());
+                throw new DbException(e);
+            }
+        } finally {
+            pinScope.close();
         }
     }
 
@@ -104,16 +117,21 @@ public class BPTreeTableFile implements TableFile {
      */
     @Override
     public void deleteRow(Row row) throws IOException {
-        BPTreePageID bpTreePageID = new BPTreePageID(tableId, row.getRowID().getPageID().getPageNo(), BPTreePageType.LEAF);
-        BPTreeLeafPage page = (BPTreeLeafPage) DataBase.getBufferPool().getPage(bpTreePageID);
-        page.deleteRow(row);
-        Connection.cacheDirtyPage(page);
-
-        // 数量不足一半时，与兄弟节点重新分布元素
-        if (page.isNeedRedistribute()) {
-            redistributePage(page);
+        // 删除过程中可能触发页合并、重分布，涉及的页在操作结束前保持pin住
+        PinScope pinScope = DataBase.getBufferPool().openPinScope();
+        try {
+            BPTreePageID bpTreePageID = new BPTreePageID(tableId, row.getRowID().getPageID().getPageNo(), BPTreePageType.LEAF);
+            BPTreeLeafPage page = (BPTreeLeafPage) DataBase.getBufferPool().getPage(bpTreePageID);
+            page.deleteRow(row);
+            Connection.cacheDirtyPage(page);
+
+            // 数量不足一半时，与兄弟节点重新分布元素
+            if (page.isNeedRedistribute()) {
+                redistributePage(page);
+            }
+        } finally {
+            pinScope.close();
         }
-
     }
 
     /**
@@ -606,47 +624,52 @@ public class BPTreeTableFile implements TableFile {
     @Override
     public BPTreePage readPageFromDisk(PageID pageID) {
         BPTreePageID bpTreePageID = (BPTreePageID) pageID;
-        try (BufferedInputStream bis = new BufferedInputStream(new FileInputStream(file))) {
-            if (bpTreePageID.getPageType() == BPTreePageType.ROOT_PTR) {
-                byte[] bytes = new byte[BPTreeRootPtrPage.rootPtrPageSizeInByte];
-                int bytesRead = bis.read(bytes, 0, BPTreeRootPtrPage.rootPtrPageSizeInByte);
-                if (bytesRead == -1) {
-                    throw new IllegalArgumentException("BPTree file read from disk error：reach the end of the file");
-                }
-                if (bytesRead < BPTreeRootPtrPage.rootPtrPageSizeInByte) {
-                    throw new IllegalArgumentException("未从 BPTree file 中读取到" + BPTreeRootPtrPage.rootPtrPageSizeInByte + "字节");
-                }
-                // System.out.println("BPTree file read  page ,pageNo=" + BPTreePageID.getPageNo() + ",BPTree type=" + BPTreePageID.getPageType());
-                return new BPTreeRootPtrPage(bpTreePageID, bytes);
-            } else {
-                byte[] pageData = new byte[DataBase.getDBConfig().getPageSizeInByte()];
-                long size = BPTreeRootPtrPage.rootPtrPageSizeInByte + (bpTreePageID.getPageNo() - 1) * DataBase.getDBConfig().getPageSizeInByte();
+        byte[] pageData = new byte[DataBase.getDBConfig().getPageSizeInByte()];
+        checkBytesRead(pageFile.read(getPageOffset(bpTreePageID.getPageNo()), pageData), pageData.length);
+        // System.out.println("BPTree file read  page ,pageNo=" + BPTreePageID.getPageNo() + ",BPTree type=" + BPTreePageID.getPageType());
+        return createPage(bpTreePageID, PageFrame.verify(pageID, pageData));
+    }
 
-                if (bis.skip(size) != size) {
-                    throw new IllegalArgumentException("BPTree file read from disk error:寻址错误");
-                }
-                int bytesRead = bis.read(pageData, 0, DataBase.getDBConfig().getPageSizeInByte());
-                if (bytesRead == -1) {
-                    throw new IllegalArgumentException("BPTree file read from disk error：reach the end of the file");
-                }
-                if (bytesRead < DataBase.getDBConfig().getPageSizeInByte()) {
-                    throw new IllegalArgumentException("未从 BPTree file 中读取到" + DataBase.getDBConfig().getPageSizeInByte() + "字节");
-                }
+    private static void checkBytesRead(int bytesRead, int expected) {
+        if (bytesRead == -1) {
+            throw new IllegalArgumentException("BPTree file read from disk error：reach the end of the file");
+        }
+        if (bytesRead < expected) {
+            throw new IllegalArgumentException("未从 BPTree file 中读取到" + expected + "字节");
+        }
+    }
+
+    /**
+     * 页在文件中的偏移：文件开头是页号为0的rootPtr页，之后是页号从1开始的普通页。
+     * rootPtr页的数据只有{@link BPTreeRootPtrPage#rootPtrPageSizeInByte}字节，也占一整页，使所有页按页大小对齐
+     */
+    private static long getPageOffset(int pageNo) {
+        return (long) pageNo * DataBase.getDBConfig().getPageSizeInByte();
+    }
 
-                // System.out.println("BPTree file read  page ,pageNo=" + BPTreePageID.getPageNo() + ",BPTree type=" + BPTreePageID.getPageType());
+    /**
+     * 页数据补齐到页大小并在页尾写入校验和
+     */
+    private static byte[] sealPage(byte[] pageData) {
+        int pageSizeInByte = DataBase.getDBConfig().getPageSizeInByte();
+        return PageFrame.seal(pageData.length == pageSizeInByte ? pageData : Arrays.copyOf(pageData, pageSizeInByte));
+    }
 
-                if (bpTreePageID.getPageType() == BPTreePageType.HEADER) {
-                    return new BPTreeHeaderPage(bpTreePageID, pageData);
-                } else if (bpTreePageID.getPageType() == BPTreePageType.INTERNAL) {
-                    return new BPTreeInternalPage(bpTreePageID, pageData, keyFieldIndex);
-                } else { //BPTreePageID.getPageType() == BPTreePageType.LEAF
-                    return new BPTreeLeafPage(bpTreePageID, pageData, keyFieldIndex);
-                }
+    @Override
+    public BPTreePage createPage(PageID pageID, byte[] pageData) {
+        BPTreePageID bpTreePageID = (BPTreePageID) pageID;
+        try {
+            if (bpTreePageID.getPageType() == BPTreePageType.ROOT_PTR) {
+                return new BPTreeRootPtrPage(bpTreePageID, pageData);
+            } else if (bpTreePageID.getPageType() == BPTreePageType.HEADER) {
+                return new BPTreeHeaderPage(bpTreePageID, pageData);
+            } else if (bpTreePageID.getPageType() == BPTreePageType.INTERNAL) {
+                return new BPTreeInternalPage(bpTreePageID, pageData, keyFieldIndex);
+            } else { //BPTreePageID.getPageType() == BPTreePageType.LEAF
+                return new BPTreeLeafPage(bpTreePageID, pageData, keyFieldIndex);
             }
-        } catch (FileNotFoundException e) {
-            throw new DbException("BPTree file not found", e);
         } catch (IOException e) {
-            throw new DbException("BPTree file read page from disk error", e);
+            throw new DbException("BPTree file create page error", e);
         }
     }
 
@@ -654,18 +677,18 @@ public class BPTreeTableFile implements TableFile {
     public void writePageToDisk(Page page) {
         try {
             byte[] pageData = page.serialize();
-            RandomAccessFile rf = new RandomAccessFile(file, "rw");
             BPTreePageID pageID = (BPTreePageID) page.getPageID();
-            if (pageID.getPageType() != BPTreePageType.ROOT_PTR) {
-                rf.seek(BPTreeRootPtrPage.rootPtrPageSizeInByte + (page.getPageID().getPageNo() - 1) * DataBase.getDBConfig().getPageSizeInByte());
-            }
-            rf.write(pageData);
-            rf.close();
+            pageFile.write(getPageOffset(pageID.getPageNo()), sealPage(pageData));
         } catch (IOException e) {
             throw new DbException("writePageToDisk failed", e);
         }
     }
 
+    @Override
+    public void sync() {
+        pageFile.sync();
+    }
+
     @Override
     public int getTableId() {
         return tableId;
@@ -673,7 +696,8 @@ public class BPTreeTableFile implements TableFile {
 
     @Override
     public int getExistPageCount() {
-        return (int) ((file.length() - BPTreeRootPtrPage.rootPtrPageSizeInByte) / DataBase.getDBConfig().getPageSizeInByte());
+        // 不含rootPtr页
+        return (int) (pageFile.size() / DataBase.getDBConfig().getPageSizeInByte()) - 1;
     }
 
     /**
@@ -682,13 +706,9 @@ public class BPTreeTableFile implements TableFile {
     private BPTreeRootPtrPage getRootPrtPage() throws IOException {
         // 首次在该页插入数据时，写入空数据
         synchronized (this) {
-            if (file.length() == 0) {
-                BufferedOutputStream bos = new BufferedOutputStream(new FileOutputStream(file, true));
-                byte[] emptyRootPtrData = BPTreeRootPtrPage.createEmptyPageData();
-                byte[] emptyLeafData = BPTreeLeafPage.createEmptyPageData();
-                bos.write(emptyRootPtrData);
-                bos.write(emptyLeafData);
-                bos.close();
+            if (pageFile.size() == 0) {
+                pageFile.write(getPageOffset(0), sealPage(BPTreeRootPtrPage.createEmptyPageData()));
+                pageFile.write(getPageOffset(1), sealPage(BPTreeLeafPage.createEmptyPageData()));
             }
         }
         // 获取单例的rootPage,如果不存在则新增
@@ -902,17 +922,9 @@ public class BPTreeTableFile implements TableFile {
      * @param pageType 页类型
      */
     private void writeEmptyPageToDisk(int pageNo, int pageType) throws IOException {
-        // TODO opt
-        RandomAccessFile rf = new RandomAccessFile(file, "rw");
-        if (pageType == BPTreePageType.ROOT_PTR) {
-            rf.seek(0);
-            rf.write(new byte[BPTreeRootPtrPage.rootPtrPageSizeInByte]);
-        } else {
-            int pageSizeInByte = DataBase.getDBConfig().getPageSizeInByte(); // 除 ROOT_PTR之外的页大小
-            rf.seek(BPTreeRootPtrPage.rootPtrPageSizeInByte + (pageNo - 1) * pageSizeInByte);
-            rf.write(new byte[pageSizeInByte]);
-        }
-        rf.close();
+        // 全0的页视为空页，见PageFrame；rootPtr页的页号为0
+        pageFile.write(getPageOffset(pageType == BPTreePageType.ROOT_PTR ? 0 : pageNo),
+                new byte[DataBase.getDBConfig().getPageSizeInByte()]);
     }
 
     /**
@@ -953,10 +965,8 @@ public class BPTreeTableFile implements TableFile {
         // 没有headerPage或现有的HeaderPage均没有空槽位，直接新增一个新页
         if (headerPageID == null) {
             synchronized (this) {
-                BufferedOutputStream bw = new BufferedOutputStream(new FileOutputStream(file, true));
-                byte[] emptyData = new byte[DataBase.getDBConfig().getPageSizeInByte()];
-                bw.write(emptyData);
-                bw.close();
+                byte[] emptyPage = new byte[DataBase.getDBConfig().getPageSizeInByte()];
+                pageFile.append(emptyPage);
                 emptyPageNo = getExistPageCount();
             }
         }
@@ -1023,6 +1033,16 @@ public class BPTreeTableFile implements TableFile {
     }
 
     //====================================迭代器======================================
+
+    /**
+     * 移动到叶页，并沿右兄弟指针预读之后的叶页
+     */
+    private static BPTreeLeafPage moveTo(PageCursor cursor, BPTreePageID leafPageID) {
+        BPTreeLeafPage leafPage = (BPTreeLeafPage) cursor.moveTo(leafPageID);
+        cursor.readAhead(leafPage.getRightSibPageID(), page -> ((BPTreeLeafPage) page).getRightSibPageID());
+        return leafPage;
+    }
+
     private static class BPTreeTableFileIterator implements ITableFileIterator {
 
         /**
@@ -1039,6 +1059,11 @@ public class BPTreeTableFile implements TableFile {
          */
         private BPTreeTableFile bpTreeTableFile;
 
+        /**
+         * 持有当前页的pin
+         */
+        private final PageCursor cursor = new PageCursor();
+
         private Row next = null;
 
         public BPTreeTableFileIterator(BPTreeTableFile bpTreeTableFile) {
@@ -1050,7 +1075,9 @@ public class BPTreeTableFile implements TableFile {
             // 找到文件的根指针页，拿到根节点页ID，从根节点找到第一个叶子页面
             BPTreeRootPtrPage page = (BPTreeRootPtrPage) DataBase.getBufferPool()
                     .getPage(BPTreeRootPtrPage.getRootPtrPageID(bpTreeTableFile.getTableId()));
-            this.curPage = bpTreeTableFile.findLeafPage(page.getRootNodePageID(), null);
+            BPTreePageID firstLeafPageID = bpTreeTableFile.findLeafPage(page.getRootNodePageID(), null).getPageID();
+            cursor.startScan(bpTreeTableFile.getExistPageCount(), false);
+            this.curPage = moveTo(cursor, firstLeafPageID);
             this.rowIterator = curPage.getRowIterator();
         }
 
@@ -1079,6 +1106,7 @@ public class BPTreeTableFile implements TableFile {
         public void close() {
             rowIterator = null;
             curPage = null;
+            cursor.release();
         }
 
         private Row readNext() {
@@ -1092,8 +1120,9 @@ public class BPTreeTableFile implements TableFile {
                 BPTreePageID nextPageID = curPage.getRightSibPageID();
                 if (nextPageID == null) {
                     curPage = null;
+                    cursor.release();
                 } else {
-                    curPage = (BPTreeLeafPage) DataBase.getBufferPool().getPage(nextPageID);
+                    curPage = moveTo(cursor, nextPageID);
                     rowIterator = curPage.getRowIterator();
                     if (!rowIterator.hasNext()) {
                         rowIterator = null;
@@ -1115,6 +1144,7 @@ public class BPTreeTableFile implements TableFile {
         private BPTreeLeafPage curPage;
         private Iterator<Row> rowIterator;
         private Row next = null;
+        private final PageCursor cursor = new PageCursor();
 
         public BPTreeIndexIterator(BPTreeTableFile bpTreeTableFile, IndexPredicate indexPredicate) {
             this.bpTreeTableFile = bpTreeTableFile;
@@ -1130,11 +1160,14 @@ public class BPTreeTableFile implements TableFile {
             BPTreeRootPtrPage page =
                     (BPTreeRootPtrPage) DataBase.getBufferPool().getPage(BPTreeRootPtrPage.getRootPtrPageID(bpTreeTableFile.getTableId()));
             BPTreePageID rootNodePageID = page.getRootNodePageID();
+            BPTreeLeafPage leafPage;
             if (PredicateEnum.BPTREE_INDEX_PREDICATES.contains(indexPredicate.getPredicate())) {
-                curPage = bpTreeTableFile.findLeafPage(rootNodePageID, indexPredicate.getParamOperand());
+                leafPage = bpTreeTableFile.findLeafPage(rootNodePageID, indexPredicate.getParamOperand());
             } else {
-                curPage = bpTreeTableFile.findLeafPage(rootNodePageID, null);
+                leafPage = bpTreeTableFile.findLeafPage(rootNodePageID, null);
             }
+            cursor.startScan(bpTreeTableFile.getExistPageCount(), false);
+            curPage = moveTo(cursor, leafPage.getPageID());
             rowIterator = curPage.getRowIterator();
         }
 
@@ -1169,7 +1202,7 @@ public class BPTreeTableFile implements TableFile {
                 if (nextPage == null) {
                     return null;
                 } else {
-                    curPage = (BPTreeLeafPage) DataBase.getBufferPool().getPage(nextPage);
+                    curPage = moveTo(cursor, nextPage);
                     rowIterator = curPage.getRowIterator();
                 }
             }
@@ -1194,6 +1227,7 @@ public class BPTreeTableFile implements TableFile {
         public void close() {
             rowIterator = null;
             curPage = null;
+            cursor.release();
         }
     }
 
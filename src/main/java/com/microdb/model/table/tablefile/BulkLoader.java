@@ -0,0 +1,123 @@
+package com.microdb.model.table.tablefile;
+
+import com.microdb.connection.Connection;
+import com.microdb.exception.DbException;
+import com.microdb.model.DataBase;
+import com.microdb.model.page.heap.HeapPage;
+import com.microdb.model.page.heap.HeapPageID;
+import com.microdb.model.row.Row;
+import com.microdb.model.row.RowID;
+import com.microdb.transaction.Lock;
+import com.microdb.transaction.Transaction;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * 堆表批量加载，在当前事务中将大量行直接写入表文件末尾的新页
+ * <p>
+ * 不经过缓冲池、空闲空间查找和行锁：加载前在表上加X锁，行按顺序在内存中填满页，每个区(extent，
+ * 配置{@code bulk_load_extent_pages}个页)记录一条只含起始页和页数的redo日志并落盘，再一次顺序写入表文件。
+ * 加载结束时表文件落盘，之后提交事务即持久，不需要逐行记录日志。
+ * 事务终止或崩溃时未提交，由undo链或恢复的回滚阶段清空写入的区。
+ * <p>
+ * 区中的页以加载事务登记到版本存储，不逐行记录版本：事务提交前快照读看到的是空页，提交后只对之后的快照可见；
+ * 乐观事务读到未提交的区时提交校验失败
+ *
+ * @author zhangjw
+ * @version 1.0
+ */
+public class BulkLoader {
+
+    private final HeapTableFile tableFile;
+
+    /**
+     * 每个区的页数
+     */
+    private final int extentPages;
+
+    /**
+     * 上一个区放不下、留给下一个区的行
+     */
+    private Row pendingRow;
+
+    public BulkLoader(HeapTableFile tableFile) {
+        this(tableFile, DataBase.getDBConfig().getBulkLoadExtentPages());
+    }
+
+    public BulkLoader(HeapTableFile tableFile, int extentPages) {
+        if (extentPages <= 0) {
+            throw new IllegalArgumentException("extentPages must be positive");
+        }
+        this.tableFile = tableFile;
+        this.extentPages = extentPages;
+    }
+
+    /**
+     * 加载全部行，返回前表文件已落盘；行的RowID在加载时设置
+     *
+     * @return 加载的行数
+     */
+    public long load(Iterator<Row> rows) {
+        Transaction transaction = Connection.currentTransaction();
+        if (transaction.isOptimistic()) {
+            throw new DbException("bulk load is not supported in optimistic transaction");
+        }
+        DataBase.getLockManager().acquireTableLock(transaction, tableFile.getTableId(), Lock.LockMode.X);
+        long rowCount = 0;
+        pendingRow = null;
+        while (pendingRow != null || rows.hasNext()) {
+            // 插入时新建页也在表文件的监视器内，区从文件末尾开始
+            synchronized (tableFile) {
+                List<HeapPage> pages = new ArrayList<>(extentPages);
+                rowCount += fillExtent(rows, tableFile.getExistPageCount(), pages);
+                tableFile.writeExtent(transaction, pages);
+            }
+        }
+        tableFile.sync();
+        return rowCount;
+    }
+
+    /**
+     * 从firstPageNo开始按顺序填满一个区的页
+     *
+     * @return 填入的行数
+     */
+    private long fillExtent(Iterator<Row> rows, int firstPageNo, List<HeapPage> pages) {
+        long rowCount = 0;
+        HeapPage page = null;
+        int slotIndex = 0;
+        while (pendingRow != null || rows.hasNext()) {
+            Row row = pendingRow != null ? pendingRow : rows.next();
+            pendingRow = null;
+            byte[] rowData = HeapPage.serializeRow(row);
+            if (page == null || slotIndex >= page.getMaxSlotNum() || !page.canInsert(slotIndex, rowData.length)) {
+                if (pages.size() == extentPages) {
+                    pendingRow = row;
+                    break;
+                }
+                page = newPage(firstPageNo + pages.size());
+                pages.add(page);
+                slotIndex = 0;
+                if (!page.canInsert(slotIndex, rowData.length)) {
+                    throw new DbException("bulk load error: row is larger than a page, row=" + row);
+                }
+            }
+            page.setRow(slotIndex, rowData);
+            row.setRowID(new RowID(page.getPageID(), slotIndex));
+            slotIndex++;
+            rowCount++;
+        }
+        return rowCount;
+    }
+
+    private HeapPage newPage(int pageNo) {
+        try {
+            return new HeapPage(new HeapPageID(tableFile.getTableId(), pageNo), HeapPage.createEmptyPageData());
+        } catch (IOException e) {
+            throw new DbException("bulk load create page error", e);
+        }
+    }
+}
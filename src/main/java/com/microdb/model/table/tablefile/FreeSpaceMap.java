@@ -0,0 +1,129 @@
+package com.microdb.model.table.tablefile;
+
+import com.microdb.model.page.PageID;
+import com.microdb.model.page.heap.HeapPage;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * 堆表的空闲空间映射(FSM)，每页一位，标记页中是否可能有空slot，插入时据此直接定位目标页，不需要逐页读取
+ * <p>
+ * 与表文件存放在一起(表文件名加{@code .fsm}后缀)，格式为：覆盖的页数(int) + 位图，随表文件在刷脏、检查点时落盘。
+ * 映射只是提示，不记录日志：标记为空闲的页在插入时发现已满会被纠正；
+ * 页从磁盘读入时按页的实际内容刷新；崩溃恢复结束时重新读取映射中标记为已满的页并落盘，
+ * 见{@link HeapTableFile#refreshFreeSpaceMap()}，因此映射不会长期遗漏空闲页。
+ * 未被映射覆盖的页(映射落盘后新建的页)视为空闲
+ *
+ * @author zhangjw
+ * @version 1.0
+ */
+public class FreeSpaceMap {
+
+    private static final int HEADER_SIZE_IN_BYTE = 4;
+
+    private final PageFile file;
+
+    /**
+     * 第i位表示第i页可能有空slot
+     */
+    private final BitSet freePages;
+
+    /**
+     * 映射覆盖的页数
+     */
+    private int pageCount;
+
+    /**
+     * 上次落盘之后是否有修改
+     */
+    private boolean modified = false;
+
+    /**
+     * @param file           映射文件
+     * @param existPageCount 表文件中已有的页数
+     */
+    public FreeSpaceMap(File file, int existPageCount) {
+        this.file = new PageFile(file);
+        this.freePages = new BitSet();
+        if (file.exists()) {
+            load();
+        }
+        if (existPageCount > pageCount) {
+            freePages.set(pageCount, existPageCount);
+            pageCount = existPageCount;
+            modified = true;
+        }
+    }
+
+    /**
+     * 堆表页所在表的空闲空间映射
+     */
+    public static FreeSpaceMap of(PageID pageID) {
+        return HeapTableFile.of(pageID).getFreeSpaceMap();
+    }
+
+    private void load() {
+        byte[] header = new byte[HEADER_SIZE_IN_BYTE];
+        if (file.read(0, header) < HEADER_SIZE_IN_BYTE) {
+            return;
+        }
+        int coveredPageCount = ByteBuffer.wrap(header).getInt();
+        byte[] bitmap = new byte[bitmapSizeInByte(coveredPageCount)];
+        file.read(HEADER_SIZE_IN_BYTE, bitmap);
+        freePages.or(BitSet.valueOf(bitmap));
+        freePages.clear(coveredPageCount, bitmap.length * Byte.SIZE);
+        pageCount = coveredPageCount;
+    }
+
+    /**
+     * fromPageNo及之后第一个可能有空slot的页
+     *
+     * @return 页号，没有时返回-1
+     */
+    public synchronized int nextFreePage(int fromPageNo) {
+        return freePages.nextSetBit(fromPageNo);
+    }
+
+    /**
+     * 按页的内容更新映射，调用方持有页的监视器
+     */
+    public void update(HeapPage page) {
+        update(page.getPageID().getPageNo(), page.hasEmptySlot());
+    }
+
+    public synchronized void update(int pageNo, boolean hasEmptySlot) {
+        if (pageNo >= pageCount) {
+            pageCount = pageNo + 1;
+            modified = true;
+        }
+        if (freePages.get(pageNo) != hasEmptySlot) {
+            freePages.set(pageNo, hasEmptySlot);
+            modified = true;
+        }
+    }
+
+    /**
+     * 映射落盘
+     */
+    public synchronized void sync() {
+        if (!modified) {
+            return;
+        }
+        byte[] bitmap = Arrays.copyOf(freePages.toByteArray(), bitmapSizeInByte(pageCount));
+        file.write(0, ByteBuffer.allocate(HEADER_SIZE_IN_BYTE).putInt(pageCount).array());
+        file.write(HEADER_SIZE_IN_BYTE, bitmap);
+        file.sync();
+        modified = false;
+    }
+
+    private static int bitmapSizeInByte(int pageCount) {
+        return (pageCount + Byte.SIZE - 1) / Byte.SIZE;
+    }
+
+    public synchronized boolean isFree(int pageNo) {
+        return freePages.get(pageNo);
+    }
+}
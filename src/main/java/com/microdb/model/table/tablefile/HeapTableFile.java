@@ -1,7 +1,10 @@
 package com.microdb.model.table.tablefile;
 
+import com.microdb.bufferpool.PageHandle;
 import com.microdb.connection.Connection;
+import com.microdb.exception.CorruptPageException;
 import com.microdb.exception.DbException;
+import com.microdb.logging.LogRecordType;
 import com.microdb.model.DataBase;
 import com.microdb.model.row.Row;
 import com.microdb.model.table.TableDesc;
@@ -9,13 +12,20 @@ import com.microdb.model.page.Page;
 import com.microdb.model.page.PageID;
 import com.microdb.model.page.heap.HeapPage;
 import com.microdb.model.page.heap.HeapPageID;
+import com.microdb.model.row.RowID;
+import com.microdb.operator.FilterPredicate;
+import com.microdb.transaction.Lock;
+import com.microdb.transaction.ReadWriteSet;
+import com.microdb.transaction.Snapshot;
+import com.microdb.transaction.Transaction;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.stream.Collectors;
 
 /**
  * 表磁盘文件，存储一个表的数据
@@ -34,6 +44,16 @@ public class HeapTableFile implements TableFile {
      */
     private final TableDesc tableDesc;
 
+    /**
+     * 按位置读写物理文件
+     */
+    private final PageFile pageFile;
+
+    /**
+     * 空闲空间映射，插入时据此定位有空slot的页
+     */
+    private final FreeSpaceMap freeSpaceMap;
+
     public HeapTableFile(File file, TableDesc tableDesc) {
         if (tableDesc == null) {
             throw new IllegalArgumentException("tableDesc cant not be null");
@@ -43,6 +63,15 @@ public class HeapTableFile implements TableFile {
         }
         this.file = file;
         this.tableDesc = tableDesc;
+        this.pageFile = PageFile.open(file);
+        this.freeSpaceMap = new FreeSpaceMap(new File(file.getPath() + ".fsm"), getExistPageCount());
+    }
+
+    /**
+     * 堆表页所在的表文件
+     */
+    public static HeapTableFile of(PageID pageID) {
+        return (HeapTableFile) DataBase.getInstance().getDbTableById(pageID.getTableId()).getTableFile();
     }
 
     @Override
@@ -51,26 +80,33 @@ public class HeapTableFile implements TableFile {
     }
 
     /**
-     * 读取一页数据
+     * 读取一页数据，校验页尾的校验和
      *
      * @param pageID pageID
      * @return page
+     * @throws com.microdb.exception.CorruptPageException 页损坏
      */
     @Override
     public Page readPageFromDisk(PageID pageID) {
         byte[] pageData = HeapPage.createEmptyPageData();
+        pageFile.read(pageOffset(pageID.getPageNo()), pageData);
+        HeapPage page = (HeapPage) createPage(pageID, PageFrame.verify(pageID, pageData));
+        // 按页的实际内容纠正空闲空间映射
+        freeSpaceMap.update(page);
+        return page;
+    }
+
+    @Override
+    public Page createPage(PageID pageID, byte[] pageData) {
         try {
-            FileInputStream in = new FileInputStream(file);
-            in.skip(pageID.getPageNo() * DataBase.getDBConfig().getPageSizeInByte());
-            in.read(pageData);
             return new HeapPage(pageID, pageData);
         } catch (IOException e) {
-            throw new DbException("read Page from disk error", e);
+            throw new DbException("create page error", e);
         }
     }
 
     /**
-     * 写数据至磁盘
+     * 写数据至磁盘，页尾写入校验和
      *
      * @param page
      */
@@ -78,14 +114,22 @@ public class HeapTableFile implements TableFile {
     public void writePageToDisk(Page page) {
         try {
             byte[] pgData = page.serialize();
-            RandomAccessFile dbFile = new RandomAccessFile(file, "rws");
-            dbFile.skipBytes(page.getPageID().getPageNo() * DataBase.getDBConfig().getPageSizeInByte());
-            dbFile.write(pgData);
+            pageFile.write(pageOffset(page.getPageID().getPageNo()), PageFrame.seal(pgData));
         } catch (IOException e) {
             throw new DbException("write page To disk error", e);
         }
     }
 
+    private static long pageOffset(int pageNo) {
+        return (long) pageNo * DataBase.getDBConfig().getPageSizeInByte();
+    }
+
+    @Override
+    public void sync() {
+        pageFile.sync();
+        freeSpaceMap.sync();
+    }
+
     /**
      * 返回文件的唯一id
      * 取文件绝对路径散列值
@@ -100,53 +144,303 @@ public class HeapTableFile implements TableFile {
      */
     @Override
     public int getExistPageCount() {
-        return (int) file.length() / DataBase.getDBConfig().getPageSizeInByte();
+        return (int) (pageFile.size() / DataBase.getDBConfig().getPageSizeInByte());
+    }
+
+    public FreeSpaceMap getFreeSpaceMap() {
+        return freeSpaceMap;
+    }
+
+    /**
+     * 崩溃恢复结束时按磁盘上页的实际内容刷新空闲空间映射并落盘
+     * <p>
+     * 映射不记录日志，崩溃前未落盘的映射可能把已有空slot的页标记为已满，插入不再访问这些页，空间永久泄漏。
+     * 标记为空闲的页在插入时会被纠正，只需读取标记为已满的页；损坏的页跳过，在第一次读入缓冲池修复时纠正
+     */
+    public void refreshFreeSpaceMap() {
+        int pageCount = getExistPageCount();
+        for (int pageNo = 0; pageNo < pageCount; pageNo++) {
+            if (freeSpaceMap.isFree(pageNo)) {
+                continue;
+            }
+            try {
+                readPageFromDisk(new HeapPageID(getTableId(), pageNo));
+            } catch (CorruptPageException e) {
+                System.out.println("refresh free space map skip corrupt page:" + e.getPageID());
+            }
+        }
+        freeSpaceMap.sync();
+    }
+
+    /**
+     * 批量加载写入一个区：先记录一条redo日志并落盘，再一次顺序写入区中所有的页，页的LSN为该记录的LSN。
+     * 写入前页登记到版本存储，事务提交前对快照读不可见，乐观事务读取时校验失败。
+     * 页不经过缓冲池，写入只进入操作系统缓存，由{@link BulkLoader}在加载结束时落盘；缓冲池中区内的页被丢弃
+     *
+     * @param pages 页号连续、从文件末尾开始的页
+     */
+    void writeExtent(Transaction transaction, List<HeapPage> pages) {
+        PageID firstPageID = pages.get(0).getPageID();
+        int pageSize = DataBase.getDBConfig().getPageSizeInByte();
+        try {
+            long lsn = DataBase.getRedoLogFile().recordExtent(
+                    transaction.getTransactionId(), firstPageID, pages.size());
+            DataBase.getRedoLogFile().flush();
+            // 先登记回滚，写到一半失败时也能清空
+            transaction.getUndoChain().recordExtent(firstPageID, pages.size());
+            for (HeapPage page : pages) {
+                DataBase.getVersionStore().recordPageLoad(transaction.getTransactionId(), page.getPageID());
+            }
+            byte[] extent = new byte[pages.size() * pageSize];
+            for (int i = 0; i < pages.size(); i++) {
+                HeapPage page = pages.get(i);
+                page.setPageLsn(lsn);
+                System.arraycopy(PageFrame.seal(page.serialize()), 0, extent, i * pageSize, pageSize);
+            }
+            pageFile.write(pageOffset(firstPageID.getPageNo()), extent);
+        } catch (IOException e) {
+            throw new DbException("write extent error", e);
+        }
+        List<PageID> pageIDs = new ArrayList<>(pages.size());
+        for (HeapPage page : pages) {
+            pageIDs.add(page.getPageID());
+            freeSpaceMap.update(page);
+        }
+        // 扫描空表时会读入文件末尾之外的空页，丢弃缓冲池中这些过期的页
+        DataBase.getBufferPool().discardPages(pageIDs);
+    }
+
+    /**
+     * 清空批量加载写入的区：写入空页(全0的页)并落盘，丢弃缓冲池中的页；区中超出文件末尾的页(崩溃前未写入)忽略
+     */
+    public void clearExtent(int firstPageNo, int pageCount) {
+        int clearPageCount = Math.min(pageCount, getExistPageCount() - firstPageNo);
+        if (clearPageCount <= 0) {
+            return;
+        }
+        pageFile.write(pageOffset(firstPageNo), new byte[clearPageCount * DataBase.getDBConfig().getPageSizeInByte()]);
+        pageFile.sync();
+        List<PageID> pageIDs = new ArrayList<>(clearPageCount);
+        for (int pageNo = firstPageNo; pageNo < firstPageNo + clearPageCount; pageNo++) {
+            pageIDs.add(new HeapPageID(getTableId(), pageNo));
+            freeSpaceMap.update(pageNo, true);
+        }
+        DataBase.getBufferPool().discardPages(pageIDs);
     }
 
+    /**
+     * 插入行
+     * <p>
+     * 页上只加IX锁，选定的slot加行X锁，多个事务可以同时向同一页插入；
+     * 页内的修改、标记脏页、记录日志在页的监视器内完成，保证并发修改同一页时页的结构和页LSN的顺序
+     * <p>
+     * 由空闲空间映射定位有空slot的页，不读取已满的页
+     * <p>
+     * 乐观事务不加锁，插入事务私有的页副本，提交时写入缓冲池
+     */
     @Override
     public void insertRow(Row row) throws IOException {
-        int existPageCount = this.getExistPageCount();
-        HeapPage availablePage = (HeapPage) getFirstPageHasEmptySlot(existPageCount);
-
-        // 现有所有页面均没有空slot,新建立一个页面
-        if (null == availablePage) {
-            int pageNo = existPageCount; // 由于pageNo从0开始
-            PageID pageID = new HeapPageID(this.getTableId(), pageNo);
-            availablePage = new HeapPage(pageID, HeapPage.createEmptyPageData());
-            writePageToDisk(availablePage);
-            availablePage = (HeapPage) DataBase.getBufferPool().getPage(pageID);
+        Transaction transaction = Connection.currentTransaction();
+        int startPageNo = 0;
+        while (true) {
+            int existPageCount = this.getExistPageCount();
+            boolean inserted = transaction.isOptimistic()
+                    ? insertIntoPrivatePages(row, startPageNo, existPageCount, transaction.getReadWriteSet())
+                    : insertIntoExistingPages(row, startPageNo, existPageCount);
+            if (inserted) {
+                break;
+            }
+            // 现有所有页面均没有可用的空slot,新建立一个页面；其他事务已新建页面时直接在新页中查找
+            synchronized (this) {
+                if (this.getExistPageCount() == existPageCount) {
+                    int pageNo = existPageCount; // 由于pageNo从0开始
+                    PageID pageID = new HeapPageID(this.getTableId(), pageNo);
+                    writePageToDisk(new HeapPage(pageID, HeapPage.createEmptyPageData()));
+                    freeSpaceMap.update(pageNo, true);
+                }
+            }
+            startPageNo = existPageCount;
+        }
+        if (!transaction.isOptimistic()) {
+            spillUndoChainIfFull();
         }
-        availablePage.insertRow(row);
-        Connection.cacheDirtyPage(availablePage);
     }
 
     @Override
     public void deleteRow(Row row) {
         PageID pageID = row.getRowID().getPageID();
-        HeapPage page = (HeapPage) DataBase.getBufferPool().getPage(pageID);
-        page.deleteRow(row);
-        Connection.cacheDirtyPage(page);
+        Transaction transaction = Connection.currentTransaction();
+        if (transaction.isOptimistic()) {
+            deleteFromPrivatePage(row, transaction.getReadWriteSet());
+            return;
+        }
+        DataBase.getLockManager().acquireRowLock(transaction, row.getRowID(), Lock.LockMode.X);
+        try (PageHandle handle = DataBase.getBufferPool().pinPage(pageID, Lock.LockMode.IX)) {
+            HeapPage page = (HeapPage) handle.getPage();
+            int slotIndex = row.getRowID().getSlotIndex();
+            synchronized (page) {
+                if (!page.isSlotUsed(slotIndex)) {
+                    return;
+                }
+                byte[] rowData = page.getRowData(slotIndex);
+                page.deleteRow(row);
+                Connection.cacheDirtyPage(page);
+                logRowChange(LogRecordType.HEAP_DELETE, page, slotIndex, rowData);
+                freeSpaceMap.update(page);
+            }
+        }
+        spillUndoChainIfFull();
     }
 
-    private Page getFirstPageHasEmptySlot(int existPageCount) throws IOException {
-        // 当前文件还没有插入数据，返回空
-        if (existPageCount == 0) {
-            return null;
+    /**
+     * 在[startPageNo, existPageCount)中空闲空间映射标记为空闲的页中，找到第一个能容纳该行、能加上行锁的空slot并插入
+     * 被其他未提交事务删除的行仍持有行锁，其slot不能复用
+     *
+     * @return 是否插入成功
+     */
+    private boolean insertIntoExistingPages(Row row, int startPageNo, int existPageCount) {
+        Transaction transaction = Connection.currentTransaction();
+        int rowSize = HeapPage.serializeRow(row).length;
+        for (int pageNo = freeSpaceMap.nextFreePage(startPageNo);
+             pageNo >= 0 && pageNo < existPageCount;
+             pageNo = freeSpaceMap.nextFreePage(pageNo + 1)) {
+            PageID pageID = new HeapPageID(this.getTableId(), pageNo);
+            try (PageHandle handle = DataBase.getBufferPool().pinPage(pageID, Lock.LockMode.IX)) {
+                HeapPage page = (HeapPage) handle.getPage();
+                synchronized (page) {
+                    for (int slotIndex = 0; slotIndex < page.getMaxSlotNum(); slotIndex++) {
+                        if (!page.canInsert(slotIndex, rowSize) || !DataBase.getLockManager()
+                                .tryAcquireRowLock(transaction, new RowID(pageID, slotIndex), Lock.LockMode.X)) {
+                            continue;
+                        }
+                        page.insertRow(row, slotIndex);
+                        // 先标记脏页，页的recLSN不晚于本次修改的日志记录
+                        Connection.cacheDirtyPage(page);
+                        logRowChange(LogRecordType.HEAP_INSERT, page, slotIndex, page.getRowData(slotIndex));
+                        freeSpaceMap.update(page);
+                        return true;
+                    }
+                    // 空闲空间不足时标记为已满；空slot都被其他事务锁定时仍保留
+                    freeSpaceMap.update(page);
+                }
+            }
         }
+        return false;
+    }
 
-        for (int pageNo = 0; pageNo < existPageCount; pageNo++) {
+    /**
+     * 乐观事务在[startPageNo, existPageCount)中空闲空间映射标记为空闲的页中找到第一个能容纳该行的空slot，插入页的私有副本
+     *
+     * @return 是否插入成功
+     */
+    private boolean insertIntoPrivatePages(Row row, int startPageNo, int existPageCount, ReadWriteSet readWriteSet) {
+        int rowSize = HeapPage.serializeRow(row).length;
+        for (int pageNo = freeSpaceMap.nextFreePage(startPageNo);
+             pageNo >= 0 && pageNo < existPageCount;
+             pageNo = freeSpaceMap.nextFreePage(pageNo + 1)) {
             PageID pageID = new HeapPageID(this.getTableId(), pageNo);
-            Page pg = DataBase.getBufferPool().getPage(pageID);
-            if (pg.hasEmptySlot()) {
-                return pg;
+            try (PageHandle handle = DataBase.getBufferPool().pinPageUnlocked(pageID, false)) {
+                HeapPage page = (HeapPage) handle.getPage();
+                if (!readWriteSet.hasPrivatePage(pageID)) {
+                    // 已满的页不复制
+                    synchronized (page) {
+                        if (!page.hasEmptySlot()) {
+                            freeSpaceMap.update(page);
+                            continue;
+                        }
+                    }
+                }
+                HeapPage privatePage = readWriteSet.getPrivatePage(page);
+                for (int slotIndex = 0; slotIndex < privatePage.getMaxSlotNum(); slotIndex++) {
+                    if (privatePage.canInsert(slotIndex, rowSize)) {
+                        privatePage.insertRow(row, slotIndex);
+                        readWriteSet.recordWrite(LogRecordType.HEAP_INSERT, pageID, slotIndex, row);
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 乐观事务从页的私有副本中删除行
+     */
+    private void deleteFromPrivatePage(Row row, ReadWriteSet readWriteSet) {
+        PageID pageID = row.getRowID().getPageID();
+        try (PageHandle handle = DataBase.getBufferPool().pinPageUnlocked(pageID, false)) {
+            HeapPage privatePage = readWriteSet.getPrivatePage((HeapPage) handle.getPage());
+            int slotIndex = row.getRowID().getSlotIndex();
+            if (!privatePage.isSlotUsed(slotIndex)) {
+                return;
+            }
+            privatePage.deleteRow(row);
+            readWriteSet.recordWrite(LogRecordType.HEAP_DELETE, pageID, slotIndex, row);
+        }
+    }
+
+    /**
+     * 乐观事务提交时，将缓存的行修改写入缓冲池中的页，与悲观事务一样标记脏页、记录日志
+     * 调用方已持有页的X锁，且已校验页在复制后未被修改，slot的状态与修改私有副本时一致
+     *
+     * @param type {@link LogRecordType#HEAP_INSERT}或{@link LogRecordType#HEAP_DELETE}
+     */
+    public void installRowChange(HeapPage page, int type, int slotIndex, Row row) {
+        synchronized (page) {
+            if (type == LogRecordType.HEAP_INSERT) {
+                page.insertRow(row, slotIndex);
+                Connection.cacheDirtyPage(page);
+                logRowChange(type, page, slotIndex, page.getRowData(slotIndex));
+            } else {
+                byte[] rowData = page.getRowData(slotIndex);
+                page.clearSlot(slotIndex);
+                Connection.cacheDirtyPage(page);
+                logRowChange(type, page, slotIndex, rowData);
+            }
+            freeSpaceMap.update(page);
+        }
+        spillUndoChainIfFull();
+    }
+
+    /**
+     * 记录行修改的redo日志，并将日志记录的LSN设为页的LSN；逆操作记入事务的内存undo链，修改前的状态记入版本链
+     * <p>
+     * 页由干净变脏后的第一次修改(页的LSN早于recLSN)之前先记录整页镜像，页写盘时损坏可由镜像和之后的行修改修复
+     */
+    private void logRowChange(int type, HeapPage page, int slotIndex, byte[] rowData) {
+        Transaction transaction = Connection.currentTransaction();
+        try {
+            if (page.getPageLsn() < page.getRecLsn()) {
+                DataBase.getRedoLogFile().recordPageImage(transaction.getTransactionId(), page);
             }
+            long lsn = DataBase.getRedoLogFile().recordRowChange(
+                    transaction.getTransactionId(), type, page.getPageID(), slotIndex, rowData);
+            page.setPageLsn(lsn);
+            transaction.getUndoChain().recordRowChange(type, page.getPageID(), slotIndex, rowData);
+            DataBase.getVersionStore().recordRowChange(transaction.getTransactionId(), type,
+                    new RowID(page.getPageID(), slotIndex), rowData);
+        } catch (IOException e) {
+            throw new DbException("redo log record row change error", e);
         }
-        return null;
+    }
+
+    /**
+     * undo链超出上限时转存，转存需要升级页锁，可能等待其他事务，因此在页的监视器之外进行
+     */
+    private void spillUndoChainIfFull() {
+        Connection.currentTransaction().getUndoChain().spillIfFull();
     }
 
     @Override
     public ITableFileIterator getIterator() {
-        return new HeapTableFileIterator();
+        return new HeapTableFileIterator(null);
+    }
+
+    /**
+     * 只返回满足条件的行的迭代器，条件直接作用于页数据，不满足条件的行不创建行对象
+     */
+    public ITableFileIterator getIterator(FilterPredicate filterPredicate) {
+        return new HeapTableFileIterator(filterPredicate);
     }
 
     //====================================迭代器======================================
@@ -158,7 +452,28 @@ public class HeapTableFile implements TableFile {
         private HeapPage curPage;
         private Iterator<Row> rowIterator;
 
-        public HeapTableFileIterator() {
+        /**
+         * 读事务的快照，按快照读取时不加页锁；写事务为null，加锁读取最新数据
+         */
+        private Snapshot snapshot;
+
+        /**
+         * 乐观事务的读集，不加页锁读取并记录页版本；其他事务为null
+         */
+        private ReadWriteSet readWriteSet;
+
+        /**
+         * 过滤条件，为null时返回所有行
+         */
+        private final FilterPredicate filterPredicate;
+
+        /**
+         * 持有当前页的pin
+         */
+        private final PageCursor cursor = new PageCursor();
+
+        public HeapTableFileIterator(FilterPredicate filterPredicate) {
+            this.filterPredicate = filterPredicate;
             this.pageNo = null;
             this.tableId = getTableId();
             this.existPageCount = getExistPageCount();
@@ -169,8 +484,12 @@ public class HeapTableFile implements TableFile {
         @Override
         public void open() throws DbException {
             pageNo = 0;
+            Transaction transaction = Connection.currentTransaction();
+            snapshot = transaction.getLockType() == Lock.LockType.SLock ? transaction.getSnapshot() : null;
+            readWriteSet = snapshot == null && transaction.isOptimistic() ? transaction.getReadWriteSet() : null;
+            cursor.startScan(existPageCount, snapshot != null || readWriteSet != null);
             curPage = getPage(pageNo);
-            rowIterator = curPage.getRowIterator();
+            rowIterator = rowsOf(curPage);
         }
 
         @Override
@@ -184,7 +503,7 @@ public class HeapTableFile implements TableFile {
                 } else {
                     pageNo += 1;
                     curPage = getPage(pageNo);
-                    rowIterator = curPage.getRowIterator();
+                    rowIterator = rowsOf(curPage);
                 }
             }
             return rowIterator.hasNext();
@@ -203,11 +522,40 @@ public class HeapTableFile implements TableFile {
         public void close() {
             pageNo = null;
             rowIterator = null;
+            curPage = null;
+            cursor.release();
         }
 
         private HeapPage getPage(Integer pageNo) {
             PageID pageID = new HeapPageID(tableId, pageNo);
-            return (HeapPage) DataBase.getBufferPool().getPage(pageID);
+            HeapPage page = (HeapPage) cursor.moveTo(pageID);
+            cursor.readAhead(nextPageID(page), this::nextPageID);
+            return page;
+        }
+
+        private Iterator<Row> rowsOf(HeapPage page) {
+            if (snapshot != null) {
+                return filter(DataBase.getVersionStore().getVisibleRows(snapshot, page));
+            }
+            if (readWriteSet != null) {
+                return filter(readWriteSet.readRows(page));
+            }
+            if (filterPredicate != null) {
+                return page.getRowIterator(slotIndex -> filterPredicate.filter(page, slotIndex));
+            }
+            return page.getRowIterator();
+        }
+
+        private Iterator<Row> filter(List<Row> rows) {
+            if (filterPredicate == null) {
+                return rows.iterator();
+            }
+            return rows.stream().filter(filterPredicate::filter).collect(Collectors.toList()).iterator();
+        }
+
+        private PageID nextPageID(Page page) {
+            int nextPageNo = page.getPageID().getPageNo() + 1;
+            return nextPageNo < existPageCount ? new HeapPageID(tableId, nextPageNo) : null;
         }
         //
         // private Iterator<Row> getRowIterator(Integer pageNo) {
@@ -0,0 +1,95 @@
+package com.microdb.model.table.tablefile;
+
+import com.microdb.exception.DbException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 内存映射模式的表文件，用于读多写少的表
+ * <p>
+ * 文件按固定大小分段映射，读页时直接从映射内存复制，省去read系统调用及内核缓存到用户空间的复制；
+ * 文件增长后，读到映射范围之外时重新映射。写入仍通过FileChannel，与映射共享操作系统页缓存，写入后映射立即可见
+ *
+ * @author zhangjw
+ * @version 1.0
+ */
+public class MappedPageFile extends PageFile {
+
+    /**
+     * 每个映射段的大小
+     */
+    private static final int SEGMENT_SIZE_IN_BYTE = 64 * 1024 * 1024;
+
+    private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+
+    /**
+     * 已映射的字节数
+     */
+    private volatile long mappedSize = 0;
+
+    public MappedPageFile(File file) {
+        super(file);
+    }
+
+    @Override
+    public int read(long position, byte[] dst) {
+        if (position + dst.length > mappedSize) {
+            remap();
+        }
+        MappedByteBuffer[] mapped = segments;
+        long end = Math.min(position + dst.length, mappedSize);
+        if (position >= end) {
+            return dst.length > 0 ? -1 : 0;
+        }
+        int offset = 0;
+        while (position + offset < end) {
+            long current = position + offset;
+            ByteBuffer segment = mapped[(int) (current / SEGMENT_SIZE_IN_BYTE)].duplicate();
+            segment.position((int) (current % SEGMENT_SIZE_IN_BYTE));
+            int length = (int) Math.min(segment.remaining(), end - current);
+            segment.get(dst, offset, length);
+            offset += length;
+        }
+        return offset;
+    }
+
+    /**
+     * 按当前文件大小重新映射，只重新映射最后一个不完整的段和新增的段
+     */
+    private synchronized void remap() {
+        try {
+            FileChannel channel = channel();
+            long size = channel.size();
+            if (size <= mappedSize) {
+                return;
+            }
+            int segmentCount = (int) ((size + SEGMENT_SIZE_IN_BYTE - 1) / SEGMENT_SIZE_IN_BYTE);
+            MappedByteBuffer[] remapped = new MappedByteBuffer[segmentCount];
+            MappedByteBuffer[] mapped = segments;
+            for (int i = 0; i < segmentCount; i++) {
+                long start = (long) i * SEGMENT_SIZE_IN_BYTE;
+                long length = Math.min(SEGMENT_SIZE_IN_BYTE, size - start);
+                if (i < mapped.length && mapped[i].capacity() == length) {
+                    remapped[i] = mapped[i];
+                } else {
+                    remapped[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+                }
+            }
+            segments = remapped;
+            mappedSize = size;
+        } catch (IOException e) {
+            throw new DbException("map page file error, file=" + getFile().getName(), e);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        segments = new MappedByteBuffer[0];
+        mappedSize = 0;
+        super.close();
+    }
+}
@@ -0,0 +1,107 @@
+package com.microdb.model.table.tablefile;
+
+import com.microdb.bufferpool.BufferPool;
+import com.microdb.bufferpool.PageHandle;
+import com.microdb.bufferpool.ScanRing;
+import com.microdb.model.DataBase;
+import com.microdb.model.page.Page;
+import com.microdb.model.page.PageID;
+
+import java.util.function.Function;
+
+/**
+ * 表迭代器当前所在的页
+ * 持有当前页的pin，保证迭代过程中页不会被驱逐；移动到下一页或关闭时释放上一页
+ * <p>
+ * 大表扫描时使用私有环，离开的页交给{@link ScanRing}，避免挤出缓冲池中的热页；每前进若干页发起一次异步预读。
+ * 快照读、乐观事务读取时不加页锁
+ *
+ * @author zhangjw
+ * @version 1.0
+ */
+class PageCursor {
+
+    private PageHandle handle;
+
+    /**
+     * 大表扫描的私有环，非大表扫描时为null
+     */
+    private ScanRing scanRing;
+
+    /**
+     * 距离下一次预读还需前进的页数
+     */
+    private int pagesUntilReadAhead = 0;
+
+    /**
+     * 已移动过的页数，预读线程据此判断预读是否已落后于扫描
+     */
+    private volatile int position = 0;
+
+    /**
+     * 是否不加页锁读取
+     */
+    private boolean unlocked = false;
+
+    /**
+     * 开始一次扫描
+     *
+     * @param tablePageCount 表的页数，决定是否使用私有环
+     * @param unlocked       是否不加页锁读取：快照读，或乐观事务读取
+     */
+    void startScan(int tablePageCount, boolean unlocked) {
+        release();
+        scanRing = DataBase.getBufferPool().openScanRing(tablePageCount);
+        pagesUntilReadAhead = 0;
+        this.unlocked = unlocked;
+    }
+
+    /**
+     * 移动到指定页，并释放当前页
+     */
+    Page moveTo(PageID pageID) {
+        BufferPool bufferPool = DataBase.getBufferPool();
+        PageHandle next;
+        if (unlocked) {
+            next = bufferPool.pinPageUnlocked(pageID, scanRing != null);
+        } else {
+            next = scanRing == null ? bufferPool.pinPage(pageID) : bufferPool.pinPageForScan(pageID);
+        }
+        release();
+        handle = next;
+        pagesUntilReadAhead--;
+        position++;
+        return handle.getPage();
+    }
+
+    /**
+     * 预读当前页之后的页，上一次预读的页尚未读完时不重复发起
+     *
+     * @param nextPageID 当前页的下一页，为null时不预读
+     * @param following  由已读入的页得到下一页
+     */
+    void readAhead(PageID nextPageID, Function<Page, PageID> following) {
+        if (pagesUntilReadAhead > 0 || nextPageID == null) {
+            return;
+        }
+        BufferPool bufferPool = DataBase.getBufferPool();
+        // 第i个预读的页是当前页之后的第i+1页
+        int current = position;
+        bufferPool.readAhead(nextPageID, following, i -> position > current + i);
+        pagesUntilReadAhead = bufferPool.getReadAheadPages();
+    }
+
+    /**
+     * 释放当前页
+     */
+    void release() {
+        if (handle != null) {
+            PageID pageID = handle.getPageID();
+            handle.close();
+            handle = null;
+            if (scanRing != null) {
+                scanRing.add(pageID);
+            }
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.microdb.model.table.tablefile;
+
+import com.microdb.exception.DbException;
+import com.microdb.model.DataBase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 表的物理文件，每个表持有一个长期打开的FileChannel，按位置读写，不移动共享的文件指针，多线程可并发读写不同的页
+ * <p>
+ * 写入只进入操作系统缓存，不立即落盘：数据页的持久性由redo日志保证，{@link #sync()}在刷脏、检查点时批量调用
+ *
+ * @author zhangjw
+ * @version 1.0
+ */
+public class PageFile {
+
+    private final File file;
+
+    private volatile FileChannel channel;
+
+    /**
+     * 上次sync之后是否有写入
+     */
+    private volatile boolean modified = false;
+
+    public PageFile(File file) {
+        this.file = file;
+    }
+
+    /**
+     * 打开表文件，文件名在配置{@code mmap_table_files}中时使用内存映射模式
+     */
+    public static PageFile open(File file) {
+        if (DataBase.getDBConfig().isMappedTableFile(file.getName())) {
+            return new MappedPageFile(file);
+        }
+        return new PageFile(file);
+    }
+
+    protected File getFile() {
+        return file;
+    }
+
+    protected FileChannel channel() throws IOException {
+        FileChannel fileChannel = channel;
+        if (fileChannel == null) {
+            synchronized (this) {
+                if (channel == null) {
+                    channel = new RandomAccessFile(file, "rw").getChannel();
+                }
+                fileChannel = channel;
+            }
+        }
+        return fileChannel;
+    }
+
+    /**
+     * 从position处读取，直到填满dst或到达文件末尾
+     *
+     * @return 读取的字节数，position已在文件末尾时返回-1
+     */
+    public int read(long position, byte[] dst) {
+        try {
+            FileChannel fileChannel = channel();
+            ByteBuffer buffer = ByteBuffer.wrap(dst);
+            while (buffer.hasRemaining()) {
+                int n = fileChannel.read(buffer, position + buffer.position());
+                if (n < 0) {
+                    break;
+                }
+            }
+            return buffer.position() == 0 && dst.length > 0 ? -1 : buffer.position();
+        } catch (IOException e) {
+            throw new DbException("read page file error, file=" + file.getName(), e);
+        }
+    }
+
+    /**
+     * 在position处写入
+     */
+    public void write(long position, byte[] src) {
+        try {
+            FileChannel fileChannel = channel();
+            ByteBuffer buffer = ByteBuffer.wrap(src);
+            while (buffer.hasRemaining()) {
+                fileChannel.write(buffer, position + buffer.position());
+            }
+            modified = true;
+        } catch (IOException e) {
+            throw new DbException("write page file error, file=" + file.getName(), e);
+        }
+    }
+
+    /**
+     * 追加到文件末尾
+     *
+     * @return 写入的位置
+     */
+    public synchronized long append(byte[] src) {
+        long position = size();
+        write(position, src);
+        return position;
+    }
+
+    public long size() {
+        try {
+            return channel().size();
+        } catch (IOException e) {
+            throw new DbException("get page file size error, file=" + file.getName(), e);
+        }
+    }
+
+    /**
+     * 将已写入的数据落盘
+     */
+    public void sync() {
+        if (!modified) {
+            return;
+        }
+        try {
+            modified = false;
+            channel().force(false);
+        } catch (IOException e) {
+            modified = true;
+            throw new DbException("sync page file error, file=" + file.getName(), e);
+        }
+    }
+
+    public synchronized void close() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                throw new DbException("close page file error, file=" + file.getName(), e);
+            }
+            channel = null;
+        }
+    }
+}
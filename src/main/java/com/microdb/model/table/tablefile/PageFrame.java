@@ -0,0 +1,79 @@
+package com.microdb.model.table.tablefile;
+
+import com.microdb.exception.CorruptPageException;
+import com.microdb.logging.ChecksumAlgorithm;
+import com.microdb.model.DataBase;
+import com.microdb.model.page.Page;
+import com.microdb.model.page.PageID;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 页在表文件中的格式：校验和写在页数据末尾保留的{@link Page#TRAILER_SIZE_IN_BYTE}字节中，
+ * 页在文件中只占页大小的字节，按页大小对齐
+ * <pre>
+ * byte[] pageData   页数据，即{@link Page#serialize()}的字节，末尾保留的字节不使用
+ * byte checksumType 校验和算法，见{@link ChecksumAlgorithm}
+ * int  checksum     之前所有字节(含校验和算法)的校验和
+ * </pre>
+ * 页写到一半时崩溃(torn write)，磁盘上新旧数据混杂，读取时校验和不一致。堆表页的LSN在页头中，随页数据一起校验。
+ * 全0的页是新分配、尚未写入过的页(B+tree分配新页时直接写入0)，视为有效的空页
+ *
+ * @author zhangjw
+ * @version 1.0
+ */
+public final class PageFrame {
+
+    private PageFrame() {
+    }
+
+    /**
+     * 在页数据末尾写入校验和，返回同一数组
+     *
+     * @param pageData 页大小的页数据，末尾保留的字节会被覆盖
+     */
+    public static byte[] seal(byte[] pageData) {
+        int checksumTypeOffset = pageData.length - Page.TRAILER_SIZE_IN_BYTE;
+        byte checksumType = ChecksumAlgorithm.preferred();
+        pageData[checksumTypeOffset] = checksumType;
+        int checksum = ChecksumAlgorithm.checksum(checksumType, pageData, 0, checksumTypeOffset + 1);
+        ByteBuffer.wrap(pageData).putInt(checksumTypeOffset + 1, checksum);
+        return pageData;
+    }
+
+    /**
+     * 校验从表文件读取的页数据，返回同一数组，校验耗时计入缓冲池统计
+     *
+     * @throws CorruptPageException 校验和不一致
+     */
+    public static byte[] verify(PageID pageID, byte[] pageData) {
+        long start = System.nanoTime();
+        try {
+            int checksumTypeOffset = pageData.length - Page.TRAILER_SIZE_IN_BYTE;
+            byte checksumType = pageData[checksumTypeOffset];
+            int storedChecksum = ByteBuffer.wrap(pageData).getInt(checksumTypeOffset + 1);
+            // 写入过的页校验和算法不为0，只有页尾全为0时才检查整页
+            if (checksumType != 0 || storedChecksum != 0 || !isAllZero(pageData)) {
+                if (!ChecksumAlgorithm.isValid(checksumType)) {
+                    throw new CorruptPageException(pageID, "unknown page checksum type:" + checksumType);
+                }
+                int checksum = ChecksumAlgorithm.checksum(checksumType, pageData, 0, checksumTypeOffset + 1);
+                if (checksum != storedChecksum) {
+                    throw new CorruptPageException(pageID, "page checksum mismatch");
+                }
+            }
+            return pageData;
+        } finally {
+            DataBase.getBufferPool().getStats().recordPageVerification(System.nanoTime() - start);
+        }
+    }
+
+    private static boolean isAllZero(byte[] pageData) {
+        for (byte b : pageData) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -29,11 +29,25 @@ public interface TableFile {
      */
     Page readPageFromDisk(PageID pageID);
 
+    /**
+     * 由页序列化后的字节构建页对象
+     *
+     * @param pageID   pageID
+     * @param pageData 页数据
+     * @return page
+     */
+    Page createPage(PageID pageID, byte[] pageData);
+
     /**
      * 写数据至磁盘
      */
     void writePageToDisk(Page page);
 
+    /**
+     * 将已写入的页落盘
+     */
+    void sync();
+
     /**
      * 返回文件的唯一id
      * 取文件绝对路径散列值
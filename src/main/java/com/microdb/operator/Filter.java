@@ -31,6 +31,10 @@ public class Filter extends Operator {
 
     @Override
     public void open() throws DbException {
+        // 直接扫描堆表时条件下推到页，不满足条件的行不创建行对象；下推与否，返回的行都再经过本条件过滤
+        if (tableIterator instanceof SeqScan) {
+            ((SeqScan) tableIterator).pushDown(filterPredicate);
+        }
         tableIterator.open();
         super.open();
     }
@@ -38,6 +42,9 @@ public class Filter extends Operator {
     @Override
     public void close() {
         super.close();
+        if (tableIterator instanceof SeqScan) {
+            ((SeqScan) tableIterator).pushDown(null);
+        }
         tableIterator = null;
     }
 
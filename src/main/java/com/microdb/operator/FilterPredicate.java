@@ -1,7 +1,10 @@
 package com.microdb.operator;
 
+import com.microdb.model.page.heap.HeapPage;
 import com.microdb.model.row.Row;
 import com.microdb.model.field.Field;
+import com.microdb.model.field.IntField;
+import com.microdb.model.field.LongField;
 
 /**
  * Predicate 用于条件过滤,见{@link Filter}
@@ -36,5 +39,21 @@ public class FilterPredicate {
         return row.getField(fieldIndex).compare(predicateEnum, paramOperand);
     }
 
+    /**
+     * 直接比较页中slot处行的字段值，不创建行对象
+     */
+    public boolean filter(HeapPage page, int slotIndex) {
+        switch (paramOperand.getType()) {
+            case INT:
+                return LongField.compare(page.getInt(slotIndex, fieldIndex), predicateEnum,
+                        ((IntField) paramOperand).getValue());
+            case LONG:
+                return LongField.compare(page.getLong(slotIndex, fieldIndex), predicateEnum,
+                        ((LongField) paramOperand).getValue());
+            default:
+                return filter(page.getRow(slotIndex));
+        }
+    }
+
 
 }
@@ -4,6 +4,7 @@ import com.microdb.exception.DbException;
 import com.microdb.model.DataBase;
 import com.microdb.model.row.Row;
 import com.microdb.model.table.TableDesc;
+import com.microdb.model.table.tablefile.HeapTableFile;
 import com.microdb.model.table.tablefile.ITableFileIterator;
 import com.microdb.model.table.tablefile.TableFile;
 
@@ -20,13 +21,31 @@ public class SeqScan extends Operator {
     /**
      * 表中行数据的迭代
      */
-    private final ITableFileIterator tableFileIterator;
+    private ITableFileIterator tableFileIterator;
 
     public SeqScan(int tableId) {
         this.tableFile = DataBase.getInstance().getDbTableById(tableId).getTableFile();
         this.tableFileIterator = this.tableFile.getIterator();
     }
 
+    /**
+     * 将过滤条件下推到堆表扫描，在页数据上直接判断，不满足条件的行不创建行对象
+     * 由{@link Filter}在open前设置、close时清除
+     *
+     * @param filterPredicate 过滤条件，为null时清除
+     * @return 是否下推成功，不是堆表时不下推
+     */
+    boolean pushDown(FilterPredicate filterPredicate) {
+        if (!(tableFile instanceof HeapTableFile)) {
+            return false;
+        }
+        HeapTableFile heapTableFile = (HeapTableFile) tableFile;
+        // 释放原迭代器持有的页
+        tableFileIterator.close();
+        tableFileIterator = filterPredicate == null ? heapTableFile.getIterator() : heapTableFile.getIterator(filterPredicate);
+        return true;
+    }
+
     @Override
     public void open() throws DbException {
         tableFileIterator.open();
@@ -1,20 +1,29 @@
 package com.microdb.transaction;
 
-import com.microdb.model.page.PageID;
-
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.locks.Condition;
 
 /**
  * 锁
- * 支持独占锁、共享锁
+ * 锁定的资源可以是表、页、行，每个持有者以一种锁模式持有
+ * <p>
+ * 不能立即授予的请求进入该锁的FIFO等待队列，已持有锁的事务申请锁升级时排在新请求之前。
+ * 锁被释放时从队首开始，把与持有者兼容的一组连续请求一并授予，只唤醒被授予的请求
  *
  * @author zhangjw
  * @version 1.0
  */
 public class Lock {
     /**
-     * 锁类型枚举
+     * 锁类型枚举，事务开始时确定，表示事务读还是写
      */
     public enum LockType {
         /**
@@ -29,58 +38,280 @@ public class Lock {
     }
 
     /**
-     * 被锁的页
+     * 多粒度锁模式
+     * <p>
+     * 在行(页)上加S/X锁前，需要在其所在的页、表上加相应的意向锁IS/IX；SIX表示持有S锁且有意在下层加X锁
      */
-    private PageID pageID;
+    public enum LockMode {
+        /**
+         * 意向共享锁
+         */
+        IS,
+
+        /**
+         * 意向独占锁
+         */
+        IX,
+
+        /**
+         * 共享锁
+         */
+        S,
+
+        /**
+         * 共享意向独占锁
+         */
+        SIX,
+
+        /**
+         * 独占锁
+         */
+        X;
+
+        /**
+         * 兼容矩阵，下标为ordinal
+         */
+        private static final boolean[][] COMPATIBLE = {
+                //         IS     IX     S      SIX    X
+                /* IS  */ {true, true, true, true, false},
+                /* IX  */ {true, true, false, false, false},
+                /* S   */ {true, false, true, false, false},
+                /* SIX */ {true, false, false, false, false},
+                /* X   */ {false, false, false, false, false},
+        };
+
+        /**
+         * 两个事务分别持有的锁是否兼容
+         */
+        public boolean isCompatibleWith(LockMode other) {
+            return COMPATIBLE[ordinal()][other.ordinal()];
+        }
+
+        /**
+         * 持有当前锁时是否已具备other锁的全部权限
+         */
+        public boolean covers(LockMode other) {
+            if (this == other || this == X) {
+                return true;
+            }
+            switch (this) {
+                case IX:
+                case S:
+                    return other == IS;
+                case SIX:
+                    return other != X;
+                default:
+                    return false;
+            }
+        }
+
+        /**
+         * 同一事务先后申请两种锁时，实际需要持有的锁：两者的上确界
+         */
+        public LockMode combine(LockMode other) {
+            if (covers(other)) {
+                return this;
+            }
+            if (other.covers(this)) {
+                return other;
+            }
+            // 仅IX与S互不包含
+            return SIX;
+        }
+
+        /**
+         * 在下层加当前锁时，上层需要持有的意向锁
+         */
+        public LockMode intention() {
+            return this == IS || this == S ? IS : IX;
+        }
+
+        /**
+         * 锁类型对应的锁模式
+         */
+        public static LockMode of(LockType lockType) {
+            return lockType == LockType.XLock ? X : S;
+        }
+    }
 
     /**
-     * 锁类型
+     * 被锁的资源：表、页或行
      */
-    private LockType lockType;
+    private final Object resource;
 
-    // /**
-    //  * 持有该锁的事务,独占锁：一个页只能被一个事务持有
-    //  * 后续实现共享锁(s lock)
-    //  */
-    // private TransactionID lockHolder;
+    /**
+     * 持有该锁的事务 -> 持有的锁模式
+     */
+    private final Map<TransactionID, LockMode> holders;
 
     /**
-     * 持有该锁的事务
+     * 等待队列
      */
-    private Set<TransactionID> lockHolders;
+    private final LinkedList<Request> waiters;
 
-    public Lock(PageID pageID, LockType lockType) {
-        this.pageID = pageID;
-        this.lockType = lockType;
-        lockHolders = new HashSet<>();
+    public Lock(Object resource) {
+        this.resource = resource;
+        this.holders = new HashMap<>();
+        this.waiters = new LinkedList<>();
     }
-    //
-    // public Lock(PageID pageID) {
-    //     this.pageID = pageID;
-    //     lockHolders = new ArrayList<>();
-    // }
-    //
-    // public TransactionID getLockHolder() {
-    //     return lockHolder;
-    // }
 
+    public Object getResource() {
+        return resource;
+    }
 
-    public void setLockType(LockType lockType) {
-        this.lockType = lockType;
+    /**
+     * 事务持有的锁模式，未持有时返回null
+     */
+    public LockMode getMode(TransactionID transactionID) {
+        return holders.get(transactionID);
     }
 
-    public LockType getLockType() {
-        return lockType;
+    /**
+     * 其他持有者是否都与mode兼容
+     */
+    public boolean isCompatible(TransactionID transactionID, LockMode mode) {
+        for (Map.Entry<TransactionID, LockMode> entry : holders.entrySet()) {
+            if (!entry.getKey().equals(transactionID) && !entry.getValue().isCompatibleWith(mode)) {
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
-     * 添加持有锁的事务
+     * 添加持有锁的事务，或更新其持有的锁模式
      */
-    public void addHolder(TransactionID transactionID) {
-        lockHolders.add(transactionID);
+    public void addHolder(TransactionID transactionID, LockMode mode) {
+        holders.put(transactionID, mode);
+    }
+
+    public void removeHolder(TransactionID transactionID) {
+        holders.remove(transactionID);
     }
 
     public Set<TransactionID> getLockHolders() {
-        return lockHolders;
+        return holders.keySet();
+    }
+
+    /**
+     * 请求能否立即授予：与其他持有者兼容，且新请求不能越过等待中的请求
+     *
+     * @param upgrade 是否为已持有锁的事务申请锁升级
+     */
+    boolean canGrant(TransactionID transactionID, LockMode mode, boolean upgrade) {
+        return (upgrade || waiters.isEmpty()) && isCompatible(transactionID, mode);
+    }
+
+    /**
+     * 请求进入等待队列，锁升级排在所有新请求之前
+     */
+    void enqueue(Request request) {
+        if (!request.upgrade) {
+            waiters.addLast(request);
+            return;
+        }
+        ListIterator<Request> iterator = waiters.listIterator();
+        while (iterator.hasNext()) {
+            if (!iterator.next().upgrade) {
+                iterator.previous();
+                break;
+            }
+        }
+        iterator.add(request);
+    }
+
+    void cancel(Request request) {
+        waiters.remove(request);
+    }
+
+    /**
+     * 从队首开始授予与持有者兼容的连续请求
+     *
+     * @return 被授予的请求，由调用方唤醒
+     */
+    List<Request> grantWaiters() {
+        List<Request> granted = new ArrayList<>();
+        Iterator<Request> iterator = waiters.iterator();
+        while (iterator.hasNext()) {
+            Request request = iterator.next();
+            if (!isCompatible(request.transactionID, request.mode)) {
+                break;
+            }
+            holders.put(request.transactionID, request.mode);
+            request.granted = true;
+            iterator.remove();
+            granted.add(request);
+        }
+        return granted;
+    }
+
+    /**
+     * 等待图中request指向的事务：与之不兼容的持有者，以及排在它前面的等待者
+     */
+    Set<TransactionID> getBlockers(Request request) {
+        Set<TransactionID> blockers = new HashSet<>();
+        for (Map.Entry<TransactionID, LockMode> entry : holders.entrySet()) {
+            if (!entry.getValue().isCompatibleWith(request.mode)) {
+                blockers.add(entry.getKey());
+            }
+        }
+        for (Request waiter : waiters) {
+            if (waiter == request) {
+                break;
+            }
+            blockers.add(waiter.transactionID);
+        }
+        blockers.remove(request.transactionID);
+        return blockers;
+    }
+
+    /**
+     * 没有持有者和等待者，可以从锁表中移除
+     */
+    boolean isFree() {
+        return holders.isEmpty() && waiters.isEmpty();
+    }
+
+    /**
+     * 等待中的锁请求，每个请求有自己的条件变量，授予时只唤醒该请求的线程
+     */
+    static final class Request {
+        private final TransactionID transactionID;
+        private final LockMode mode;
+        private final boolean upgrade;
+        private final Condition condition;
+        private boolean granted = false;
+
+        /**
+         * 被死锁检测选为牺牲者
+         */
+        private boolean victim = false;
+
+        Request(TransactionID transactionID, LockMode mode, boolean upgrade, Condition condition) {
+            this.transactionID = transactionID;
+            this.mode = mode;
+            this.upgrade = upgrade;
+            this.condition = condition;
+        }
+
+        TransactionID getTransactionID() {
+            return transactionID;
+        }
+
+        boolean isGranted() {
+            return granted;
+        }
+
+        boolean isVictim() {
+            return victim;
+        }
+
+        void markVictim() {
+            victim = true;
+        }
+
+        Condition getCondition() {
+            return condition;
+        }
     }
 }
@@ -1,21 +1,46 @@
 package com.microdb.transaction;
 
+import com.microdb.annotation.VisibleForTest;
 import com.microdb.bufferpool.BufferPool;
+import com.microdb.config.DBConfig;
+import com.microdb.exception.DeadlockException;
 import com.microdb.exception.TransactionException;
 import com.microdb.model.DataBase;
 import com.microdb.model.page.Page;
 import com.microdb.model.page.PageID;
+import com.microdb.model.row.RowID;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.stream.Collectors;
 
 /**
- * 锁管理器：记录事务持有哪些页锁、页锁被哪些事务持有
+ * 锁管理器：记录事务持有哪些锁、锁被哪些事务持有
  * 事务的ACID特性需要锁来支持
- * 锁的粒度为页级别
+ * <p>
+ * 多粒度锁：锁的粒度分为表、页、行三级，行锁以{@link RowID}为键。
+ * 在下层加S/X锁前，先自上而下在表、页上加意向锁IS/IX，意向锁之间相互兼容，
+ * 因此多个事务可以同时向同一页插入、删除不同的行，只在行上互斥；整页读取的事务在页上加S锁，与写行的事务互斥。
+ * <p>
+ * 锁升级：一个事务在一个表上持有的行锁数超出{@code lock_escalation_threshold}时，尝试将表上的意向锁升级为S/X锁，
+ * 成功后释放该表上的全部行锁；表被其他事务锁定时不等待，保留行锁，行锁数再增加一个阈值后重试
+ * <p>
+ * 锁表按资源的散列值分区，每个分区有自己的互斥锁，不同分区上的加锁、解锁互不阻塞。
+ * 等待以锁为单位排队，释放时只唤醒被授予的请求，见{@link Lock}
+ * <p>
+ * 死锁检测：事务进入等待时，在等待图(等待者 -> 不兼容的持有者、排在前面的等待者)中查找包含它的环，
+ * 找到时选环中最年轻(事务ID最大)的事务为牺牲者，唤醒它并立即终止，抛出{@link DeadlockException}。
+ * 每个环都由最后一个进入等待的事务闭合，因此在等待时检测即可发现全部死锁；锁等待超时{@code lock_wait_timeout_ms}仅作为兜底
  *
  * @author zhangjw
  * @version 1.0
@@ -27,156 +52,603 @@ public class LockManager {
      * 锁的默认超时时间
      */
     public static final int defaultTimeOutInMillis = 10000;
+
+    /**
+     * 锁等待超时时间
+     */
+    private final long lockWaitTimeoutMillis;
+
     /**
-     * 管理中的锁
+     * 锁表分区
      */
-    private final ConcurrentHashMap<PageID, Lock> lockTable;
+    private final LockPartition[] partitions;
 
     /**
      * 管理中的事务
      */
-    private final ConcurrentHashMap<TransactionID, List<PageID>> transactionTable;
+    private final ConcurrentHashMap<TransactionID, HeldLocks> transactionTable;
+
+    /**
+     * 等待图的顶点：等待中的事务 -> 等待的请求
+     */
+    private final ConcurrentHashMap<TransactionID, Waiting> waitingTable;
+
+    /**
+     * 同一时刻只有一个线程做死锁检测，避免同一个环选出两个牺牲者
+     */
+    private final ReentrantLock detectionLock = new ReentrantLock();
 
 
-    public LockManager() {
-        lockTable = new ConcurrentHashMap<>();
+    public LockManager(DBConfig dbConfig) {
+        int partitionCount = dbConfig.getLockTablePartitions();
+        if (partitionCount <= 0) {
+            partitionCount = Runtime.getRuntime().availableProcessors() * 4;
+        }
+        partitions = new LockPartition[partitionCount];
+        for (int i = 0; i < partitionCount; i++) {
+            partitions[i] = new LockPartition();
+        }
         transactionTable = new ConcurrentHashMap<>();
+        waitingTable = new ConcurrentHashMap<>();
+        lockWaitTimeoutMillis = dbConfig.getLockWaitTimeoutMillis();
     }
 
-    public int getDefaultTimeOutInMillis() {
-        return defaultTimeOutInMillis;
+    public long getDefaultTimeOutInMillis() {
+        return lockWaitTimeoutMillis;
     }
 
     /**
-     * 获取页锁
-     * 暂时只实现独占锁
+     * 获取页锁，锁模式由事务的锁类型决定：读事务加S锁，写事务加X锁
      * 线程安全
      * <p>
-     * 支持重入(一个事务中某页可能被访问多次)
+     * 支持重入(一个事务中某页可能被访问多次)，已持有S锁的事务再申请X锁时锁升级
      */
-    public synchronized void acquireLock(Transaction transaction, PageID pageID)
+    public void acquireLock(Transaction transaction, PageID pageID) throws TransactionException {
+        acquireLock(transaction, pageID, Lock.LockMode.of(transaction.getLockType()));
+    }
+
+    /**
+     * 以指定模式获取页锁，先在表上加意向锁
+     */
+    public void acquireLock(Transaction transaction, PageID pageID, Lock.LockMode mode)
             throws TransactionException {
-        System.out.println(String.format("事务开始获取页锁,transaction=%s,pageID=%s", transaction, pageID));
+        System.out.println(String.format("事务开始获取页锁,transaction=%s,pageID=%s,mode=%s", transaction, pageID, mode));
         TransactionID currentTransId = transaction.getTransactionId();
+        long deadline = System.currentTimeMillis() + lockWaitTimeoutMillis;
+        try {
+            grant(currentTransId, new TableKey(pageID.getTableId()), mode.intention(), deadline);
+            grant(currentTransId, pageID, mode, deadline);
+        } catch (DeadlockException e) {
+            transaction.abort();
+            throw e;
+        }
+    }
 
-        // 申请x锁
-        if (Objects.equals(transaction.getLockType(), Lock.LockType.XLock)) {
-            // 独占锁实现：
-            // 判断该页是否被锁定
-            // 如果未被锁定：可成功获取锁，锁定并返回
-            // 如果被锁定：判断锁定它的事务表是否包含当前事务，如果包含，锁重入或升级，获取成功；如果不包含，则阻塞。
-            while (true) {
-                if (!lockTable.containsKey(pageID)) {
-                    grantLock(transaction, pageID, currentTransId);
-                    return;
-                } else {
-                    if (lockTable.get(pageID).getLockHolders().contains(currentTransId)) {
-                        Lock lock = lockTable.get(pageID);
-                        // 锁升级
-                        if (Objects.equals(lock.getLockType(), Lock.LockType.SLock)) {
-                            lock.setLockType(Lock.LockType.XLock);
-                            lockTable.put(pageID, lock);
-                        }
-                        return;
-                    } else {
-                        block(System.currentTimeMillis());
-                    }
-                }
-            }
-        } else { // 申请s锁
-            // 共享锁实现：
-            // 判断该页是否被锁定
-            // 如果未被锁定：可成功获取锁，锁定并返回
-            // 如果被锁定：判断现有锁类型，若是x锁,判断是否由当前事务持有，若是获取成功，否则阻塞；
-            //                        若是s锁，获取成功，更新锁的持有者
-            while (true) {
-                if (!lockTable.containsKey(pageID)) {
-                    grantLock(transaction, pageID, currentTransId);
-                    return;
-                } else {
-                    Lock existingLock = lockTable.get(pageID);
-                    if (Objects.equals(existingLock.getLockType(), Lock.LockType.XLock)) {
-                        if (existingLock.getLockHolders().size() == 1
-                                && existingLock.getLockHolders().contains(currentTransId)) {
-                            return;
-                        } else {
-                            block(System.currentTimeMillis());
-                        }
-                    } else {
-                        existingLock.addHolder(currentTransId);
-                        return;
-                    }
-                }
+    /**
+     * 获取表锁
+     */
+    public void acquireTableLock(Transaction transaction, int tableId, Lock.LockMode mode)
+            throws TransactionException {
+        try {
+            grant(transaction.getTransactionId(), new TableKey(tableId), mode,
+                    System.currentTimeMillis() + lockWaitTimeoutMillis);
+        } catch (DeadlockException e) {
+            transaction.abort();
+            throw e;
+        }
+    }
+
+    /**
+     * 获取行锁，先在表、页上加意向锁；表或页上已持有的锁包含所需权限时，不再加行锁
+     *
+     * @param mode S或X
+     */
+    public void acquireRowLock(Transaction transaction, RowID rowID, Lock.LockMode mode)
+            throws TransactionException {
+        TransactionID currentTransId = transaction.getTransactionId();
+        long deadline = System.currentTimeMillis() + lockWaitTimeoutMillis;
+        PageID pageID = rowID.getPageID();
+        try {
+            grant(currentTransId, new TableKey(pageID.getTableId()), mode.intention(), deadline);
+            grant(currentTransId, pageID, mode.intention(), deadline);
+            if (isCoveredByAncestors(currentTransId, rowID, mode)) {
+                return;
             }
+            grant(currentTransId, rowID, mode, deadline);
+        } catch (DeadlockException e) {
+            transaction.abort();
+            throw e;
+        }
+        escalateIfNeeded(currentTransId, pageID.getTableId());
+    }
+
+    /**
+     * 尝试获取行锁，行已被其他事务锁定时立即返回，不阻塞
+     * 用于插入时挑选空slot：被其他未提交事务删除的行，其slot不能复用
+     *
+     * @return 是否获取成功
+     */
+    public boolean tryAcquireRowLock(Transaction transaction, RowID rowID, Lock.LockMode mode) {
+        TransactionID currentTransId = transaction.getTransactionId();
+        PageID pageID = rowID.getPageID();
+        if (!tryGrant(currentTransId, new TableKey(pageID.getTableId()), mode.intention())
+                || !tryGrant(currentTransId, pageID, mode.intention())) {
+            return false;
         }
+        if (isCoveredByAncestors(currentTransId, rowID, mode)) {
+            return true;
+        }
+        if (!tryGrant(currentTransId, rowID, mode)) {
+            return false;
+        }
+        escalateIfNeeded(currentTransId, pageID.getTableId());
+        return true;
     }
 
-    private void grantLock(Transaction transaction, PageID pageID, TransactionID currentTransId) {
-        Lock existingLock = new Lock(pageID, transaction.getLockType());
-        existingLock.addHolder(currentTransId);
-        lockTable.put(pageID, existingLock);
+    /**
+     * 尝试获取页锁，页已被其他事务锁定时立即返回，不阻塞
+     * 已获取的表意向锁在事务释放锁时一并释放
+     *
+     * @return 是否获取成功
+     */
+    public boolean tryAcquireLock(Transaction transaction, PageID pageID) {
+        return tryAcquireLock(transaction, pageID, Lock.LockMode.of(transaction.getLockType()));
+    }
 
-        List<PageID> pageIDS = transactionTable.getOrDefault(currentTransId, new ArrayList<>());
-        pageIDS.add(pageID);
-        transactionTable.put(currentTransId, pageIDS);
-        return;
+    /**
+     * 以指定模式尝试获取页锁，不阻塞
+     */
+    public boolean tryAcquireLock(Transaction transaction, PageID pageID, Lock.LockMode mode) {
+        TransactionID currentTransId = transaction.getTransactionId();
+        return tryGrant(currentTransId, new TableKey(pageID.getTableId()), mode.intention())
+                && tryGrant(currentTransId, pageID, mode);
     }
 
     /**
-     * 阻塞，使用synchronized 配套的object.wait
-     * wait使线程进入等待队列，由其他线程notify唤醒
-     * wait带有一个超时时间，用来避免死锁
+     * 在资源上授予锁，与其他事务持有的锁不兼容、或前面有等待的请求时，进入锁的等待队列
+     * 事务已持有该资源的锁时，持有的锁与申请的锁合并(锁升级)
      *
-     * @param startTime 开始时间
+     * @param deadline 等待的截止时间，超时事务异常结束
      */
-    private void block(long startTime) {
+    private void grant(TransactionID transactionID, Object resource, Lock.LockMode mode, long deadline) {
+        acquire(transactionID, resource, mode, deadline, true);
+    }
+
+    private boolean tryGrant(TransactionID transactionID, Object resource, Lock.LockMode mode) {
+        return acquire(transactionID, resource, mode, 0, false);
+    }
+
+    private boolean acquire(TransactionID transactionID, Object resource, Lock.LockMode mode,
+                            long deadline, boolean wait) {
+        LockPartition partition = partitionOf(resource);
+        partition.latch.lock();
         try {
-            // 线程进入等待队列睡眠
-            wait(LockManager.defaultTimeOutInMillis);
+            Lock lock = partition.locks.computeIfAbsent(resource, Lock::new);
+            Lock.LockMode heldMode = lock.getMode(transactionID);
+            Lock.LockMode targetMode = heldMode == null ? mode : heldMode.combine(mode);
+            if (heldMode == targetMode) {
+                return true;
+            }
+            boolean upgrade = heldMode != null;
+            if (lock.canGrant(transactionID, targetMode, upgrade)) {
+                lock.addHolder(transactionID, targetMode);
+            } else if (!wait) {
+                return false;
+            } else {
+                block(partition, lock, new Lock.Request(transactionID, targetMode, upgrade,
+                        partition.latch.newCondition()), deadline);
+            }
+            HeldLocks heldLocks = transactionTable.computeIfAbsent(transactionID, k -> new HeldLocks());
+            if (!upgrade) {
+                heldLocks.add(resource);
+            }
+            if (targetMode == Lock.LockMode.X && resource instanceof RowID) {
+                heldLocks.markExclusive((RowID) resource);
+            }
+            return true;
+        } finally {
+            partition.latch.unlock();
+        }
+    }
 
-            // 判断是由其他线程唤醒，还是过超时时间唤醒，若超时，事务异常结束
-            if (System.currentTimeMillis() - startTime > LockManager.defaultTimeOutInMillis) {
-                throw new TransactionException("获取锁超时");
+    /**
+     * 阻塞，直到请求被授予；调用时持有分区的互斥锁，等待时释放
+     * 请求被授予时由释放锁的线程单独唤醒；被选为死锁牺牲者或超时则退出等待队列，事务异常结束
+     */
+    private void block(LockPartition partition, Lock lock, Lock.Request request, long deadline) {
+        TransactionID transactionID = request.getTransactionID();
+        lock.enqueue(request);
+        waitingTable.put(transactionID, new Waiting(partition, lock, request));
+        try {
+            // 检测时不持有分区锁，检测过程中需要逐个锁定其他分区
+            partition.latch.unlock();
+            try {
+                detectDeadlock(transactionID);
+            } finally {
+                partition.latch.lock();
+            }
+            while (!request.isGranted()) {
+                if (request.isVictim()) {
+                    throw new DeadlockException("检测到死锁，事务被选为牺牲者,transactionID=" + transactionID);
+                }
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    throw new TransactionException("获取锁超时");
+                }
+                request.getCondition().await(remaining, TimeUnit.MILLISECONDS);
             }
         } catch (InterruptedException e) {
-            throw new TransactionException("object.wait() exception");
+            Thread.currentThread().interrupt();
+            throw new TransactionException("lock wait interrupted");
+        } finally {
+            waitingTable.remove(transactionID);
+            if (!request.isGranted()) {
+                // 退出队列后，排在后面的请求可能可以授予
+                lock.cancel(request);
+                signal(lock.grantWaiters());
+                if (lock.isFree()) {
+                    partition.locks.remove(lock.getResource());
+                }
+            }
+        }
+    }
+
+    /**
+     * 在等待图中查找包含transactionID的环，找到时选环中最年轻的事务为牺牲者并唤醒它
+     */
+    private void detectDeadlock(TransactionID transactionID) {
+        detectionLock.lock();
+        try {
+            List<TransactionID> cycle = findCycle(transactionID, new ArrayList<>(), new HashSet<>());
+            if (cycle == null) {
+                return;
+            }
+            TransactionID victim = cycle.stream()
+                    .max(Comparator.comparingLong(TransactionID::getId))
+                    .orElse(transactionID);
+            Waiting waiting = waitingTable.get(victim);
+            if (waiting == null) {
+                return;
+            }
+            waiting.partition.latch.lock();
+            try {
+                if (!waiting.request.isGranted()) {
+                    System.out.println(String.format("检测到死锁,cycle=%s,victim=%s", cycle, victim));
+                    waiting.request.markVictim();
+                    waiting.request.getCondition().signal();
+                }
+            } finally {
+                waiting.partition.latch.unlock();
+            }
+        } finally {
+            detectionLock.unlock();
+        }
+    }
+
+    /**
+     * 深度优先搜索，path为从起点到当前事务的路径
+     *
+     * @return 回到起点的环，没有时返回null
+     */
+    private List<TransactionID> findCycle(TransactionID current, List<TransactionID> path, Set<TransactionID> visited) {
+        path.add(current);
+        visited.add(current);
+        for (TransactionID blocker : getBlockers(current)) {
+            if (blocker.equals(path.get(0))) {
+                return new ArrayList<>(path);
+            }
+            if (!visited.contains(blocker)) {
+                List<TransactionID> cycle = findCycle(blocker, path, visited);
+                if (cycle != null) {
+                    return cycle;
+                }
+            }
+        }
+        path.remove(path.size() - 1);
+        return null;
+    }
+
+    /**
+     * 等待图中事务指向的事务，事务未在等待时没有出边
+     */
+    private Set<TransactionID> getBlockers(TransactionID transactionID) {
+        Waiting waiting = waitingTable.get(transactionID);
+        if (waiting == null) {
+            return Collections.emptySet();
+        }
+        waiting.partition.latch.lock();
+        try {
+            if (waiting.request.isGranted()) {
+                return Collections.emptySet();
+            }
+            return waiting.lock.getBlockers(waiting.request);
+        } finally {
+            waiting.partition.latch.unlock();
+        }
+    }
+
+    private static void signal(List<Lock.Request> grantedRequests) {
+        for (Lock.Request request : grantedRequests) {
+            request.getCondition().signal();
+        }
+    }
+
+    /**
+     * 事务在资源上持有的锁，未持有时返回null
+     */
+    private Lock.LockMode modeOf(TransactionID transactionID, Object resource) {
+        LockPartition partition = partitionOf(resource);
+        partition.latch.lock();
+        try {
+            Lock lock = partition.locks.get(resource);
+            return lock == null ? null : lock.getMode(transactionID);
+        } finally {
+            partition.latch.unlock();
+        }
+    }
+
+    /**
+     * 事务在行所在的表或页上持有的锁是否已包含对行加mode锁的权限
+     */
+    private boolean isCoveredByAncestors(TransactionID transactionID, RowID rowID, Lock.LockMode mode) {
+        PageID pageID = rowID.getPageID();
+        return covers(modeOf(transactionID, new TableKey(pageID.getTableId())), mode)
+                || covers(modeOf(transactionID, pageID), mode);
+    }
+
+    private boolean covers(Lock.LockMode heldMode, Lock.LockMode mode) {
+        // 意向锁不包含下层的S/X权限
+        return heldMode != null && heldMode != Lock.LockMode.IS && heldMode != Lock.LockMode.IX
+                && heldMode.covers(mode);
+    }
+
+    /**
+     * 行锁数超出阈值时，尝试升级为表锁并释放该表上的行锁
+     * 每次加行锁都会检查，只比较计数；升级失败后行锁数再增加一个阈值才重试，不在每次加行锁时重试
+     */
+    private void escalateIfNeeded(TransactionID transactionID, int tableId) {
+        int threshold = DataBase.getDBConfig().getLockEscalationThreshold();
+        if (threshold <= 0) {
+            return;
+        }
+        HeldLocks heldLocks = transactionTable.get(transactionID);
+        Lock.LockMode mode = heldLocks.pollEscalation(tableId, threshold);
+        if (mode == null || !tryGrant(transactionID, new TableKey(tableId), mode)) {
+            return;
+        }
+        List<RowID> rowIDs = heldLocks.removeRows(tableId);
+        System.out.println(String.format("transactionID:%s锁升级,tableId=%s,mode=%s,释放行锁数=%s",
+                transactionID, tableId, mode, rowIDs.size()));
+        for (RowID rowID : rowIDs) {
+            release(transactionID, rowID);
         }
     }
 
     /**
-     * 释放页锁：释放事务使用的页，并唤醒阻塞中的其他线程
+     * 释放锁：释放事务持有的表、页、行锁，并唤醒被授予锁的等待者
      */
-    public synchronized void releaseLock(TransactionID transactionID)
+    public void releaseLock(TransactionID transactionID)
             throws TransactionException {
         System.out.println(String.format("transactionID:%s释放锁", transactionID));
 
-        // 获取事务中使用的页，删除页的锁
-        List<PageID> pageIDS = transactionTable.get(transactionID);
-        if (pageIDS != null && !pageIDS.isEmpty()) {
-            for (PageID pageID : pageIDS) {
-                lockTable.remove(pageID);
+        // 删除事务
+        HeldLocks heldLocks = transactionTable.remove(transactionID);
+        if (heldLocks != null) {
+            for (Object resource : heldLocks.all()) {
+                release(transactionID, resource);
             }
         }
-        // 删除事务
-        transactionTable.remove(transactionID);
+    }
+
+    private void release(TransactionID transactionID, Object resource) {
+        LockPartition partition = partitionOf(resource);
+        partition.latch.lock();
+        try {
+            Lock lock = partition.locks.get(resource);
+            if (lock == null) {
+                return;
+            }
+            lock.removeHolder(transactionID);
+            signal(lock.grantWaiters());
+            if (lock.isFree()) {
+                partition.locks.remove(resource);
+            }
+        } finally {
+            partition.latch.unlock();
+        }
+    }
+
+    /**
+     * 页是否被任一事务锁定，包括页上的意向锁
+     */
+    public boolean isLocked(PageID pageID) {
+        LockPartition partition = partitionOf(pageID);
+        partition.latch.lock();
+        try {
+            Lock lock = partition.locks.get(pageID);
+            return lock != null && !lock.getLockHolders().isEmpty();
+        } finally {
+            partition.latch.unlock();
+        }
+    }
 
-        // 唤醒睡眠中的线程
-        notifyAll();
+    private LockPartition partitionOf(Object resource) {
+        int h = resource.hashCode();
+        return partitions[Math.floorMod(h ^ (h >>> 16), partitions.length)];
     }
 
     public List<PageID> getPageIDs(TransactionID transactionId) {
-        return transactionTable.get(transactionId);
+        HeldLocks heldLocks = transactionTable.get(transactionId);
+        return heldLocks == null ? null : heldLocks.getPages();
     }
 
     public List<Page> getPages(TransactionID transactionId) {
-        List<PageID> pageIDS = transactionTable.get(transactionId);
+        List<PageID> pageIDS = getPageIDs(transactionId);
         BufferPool bufferPool = DataBase.getBufferPool();
 
         if (pageIDS != null ) {
+            // 不在缓冲池中的页已被驱逐刷盘，不需要再读入
             return pageIDS.stream()
-                    .map(bufferPool::getPage)
+                    .map(bufferPool::getCachedPage)
+                    .filter(Objects::nonNull)
                     .collect(Collectors.toList());
         }
         return new ArrayList<>();
     }
+
+    /**
+     * 事务在表上持有的锁，未持有时返回null
+     */
+    @VisibleForTest
+    public Lock.LockMode getTableLockMode(TransactionID transactionID, int tableId) {
+        return modeOf(transactionID, new TableKey(tableId));
+    }
+
+    /**
+     * 事务持有的行锁数
+     */
+    @VisibleForTest
+    public int getRowLockCount(TransactionID transactionID) {
+        HeldLocks heldLocks = transactionTable.get(transactionID);
+        return heldLocks == null ? 0 : heldLocks.getRowCount();
+    }
+
+    /**
+     * 表锁的键
+     */
+    private static final class TableKey {
+        private final int tableId;
+
+        TableKey(int tableId) {
+            this.tableId = tableId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            return tableId == ((TableKey) o).tableId;
+        }
+
+        @Override
+        public int hashCode() {
+            return Integer.hashCode(tableId);
+        }
+
+        @Override
+        public String toString() {
+            return "TableKey{tableId=" + tableId + '}';
+        }
+    }
+
+    /**
+     * 锁表的一个分区
+     */
+    private static final class LockPartition {
+        private final ReentrantLock latch = new ReentrantLock();
+        private final HashMap<Object, Lock> locks = new HashMap<>();
+    }
+
+    /**
+     * 等待中的请求及其所在的锁
+     */
+    private static final class Waiting {
+        private final LockPartition partition;
+        private final Lock lock;
+        private final Lock.Request request;
+
+        Waiting(LockPartition partition, Lock lock, Lock.Request request) {
+            this.partition = partition;
+            this.lock = lock;
+            this.request = request;
+        }
+    }
+
+    /**
+     * 一个事务持有的锁，按粒度分别记录
+     */
+    private static final class HeldLocks {
+        private final Set<TableKey> tables = new HashSet<>();
+        private final List<PageID> pages = new ArrayList<>();
+
+        /**
+         * tableId -> 该表上的行锁
+         */
+        private final Map<Integer, TableRows> rows = new HashMap<>();
+
+        synchronized void add(Object resource) {
+            if (resource instanceof TableKey) {
+                tables.add((TableKey) resource);
+            } else if (resource instanceof PageID) {
+                pages.add((PageID) resource);
+            } else {
+                RowID rowID = (RowID) resource;
+                rows.computeIfAbsent(rowID.getPageID().getTableId(), k -> new TableRows()).rowIDs.add(rowID);
+            }
+        }
+
+        /**
+         * 行锁以X模式授予(含S锁升级为X锁)
+         */
+        synchronized void markExclusive(RowID rowID) {
+            TableRows tableRows = rows.get(rowID.getPageID().getTableId());
+            if (tableRows != null) {
+                tableRows.exclusive = true;
+            }
+        }
+
+        /**
+         * 行锁数超出阈值、且达到下一次尝试的行锁数时，返回升级的表锁模式：持有X行锁时为X，否则为S；
+         * 同时把下一次尝试推后一个阈值，升级失败时不在每次加行锁时重试。未到尝试时机返回null
+         */
+        synchronized Lock.LockMode pollEscalation(int tableId, int threshold) {
+            TableRows tableRows = rows.get(tableId);
+            if (tableRows == null) {
+                return null;
+            }
+            int count = tableRows.rowIDs.size();
+            if (count <= threshold || count < tableRows.nextEscalationCount) {
+                return null;
+            }
+            tableRows.nextEscalationCount = count + threshold;
+            return tableRows.exclusive ? Lock.LockMode.X : Lock.LockMode.S;
+        }
+
+        synchronized List<PageID> getPages() {
+            return new ArrayList<>(pages);
+        }
+
+        synchronized List<RowID> removeRows(int tableId) {
+            TableRows removed = rows.remove(tableId);
+            return removed == null ? Collections.emptyList() : removed.rowIDs;
+        }
+
+        synchronized int getRowCount() {
+            return rows.values().stream().mapToInt(tableRows -> tableRows.rowIDs.size()).sum();
+        }
+
+        synchronized List<Object> all() {
+            List<Object> resources = new ArrayList<>(tables);
+            resources.addAll(pages);
+            rows.values().forEach(tableRows -> resources.addAll(tableRows.rowIDs));
+            return resources;
+        }
+    }
+
+    /**
+     * 一个事务在一个表上持有的行锁
+     */
+    private static final class TableRows {
+        private final List<RowID> rowIDs = new ArrayList<>();
+
+        /**
+         * 是否持有X行锁，决定升级的表锁模式
+         */
+        private boolean exclusive;
+
+        /**
+         * 下一次尝试锁升级时的行锁数
+         */
+        private int nextEscalationCount;
+    }
 }
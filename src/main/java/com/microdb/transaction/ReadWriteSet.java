@@ -0,0 +1,235 @@
+package com.microdb.transaction;
+
+import com.microdb.bufferpool.BufferPool;
+import com.microdb.bufferpool.PageHandle;
+import com.microdb.connection.Connection;
+import com.microdb.exception.DbException;
+import com.microdb.model.DataBase;
+import com.microdb.model.page.Page;
+import com.microdb.model.page.PageID;
+import com.microdb.model.page.heap.HeapPage;
+import com.microdb.model.row.Row;
+import com.microdb.model.table.tablefile.HeapTableFile;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 乐观事务的读集与写集
+ * <p>
+ * 读取阶段不加页锁：读取页时记录页版本(缓冲池中的页对象及其修改次数)；修改时先复制页，修改写入事务私有的页副本，
+ * 同时按顺序记录行修改，之后的读取读私有副本。
+ * 其他事务批量加载、尚未提交的页读作空页，读集中记为冲突，提交时校验失败。
+ * <p>
+ * 提交时校验：以不阻塞的方式在读过的页上加S锁、修改过的页上加X锁，加锁失败说明页上有其他事务未提交的修改；
+ * 加锁成功后pin住页并检查页版本未变，页被修改或被驱逐后重新读入都视为冲突。
+ * 校验通过后将记录的行修改重放到缓冲池中的页上，与悲观事务一样标记脏页、记录日志；
+ * 页从校验到重放结束一直被pin住，缓冲池已满时也不会被驱逐
+ *
+ * @author zhangjw
+ * @version 1.0
+ */
+public class ReadWriteSet {
+
+    /**
+     * 读过的页 -> 第一次读取时的页版本
+     */
+    private final Map<PageID, PageVersion> readVersions = new LinkedHashMap<>();
+
+    /**
+     * 修改过的页 -> 私有的页副本
+     */
+    private final Map<PageID, HeapPage> privatePages = new HashMap<>();
+
+    /**
+     * 行修改，按修改顺序
+     */
+    private final List<RowWrite> rowWrites = new ArrayList<>();
+
+    /**
+     * 校验时pin住的页，重放结束或校验失败时释放
+     */
+    private final Map<PageID, PageHandle> pinnedPages = new HashMap<>();
+
+    /**
+     * 读取页中的行，页已被本事务修改时读取私有副本
+     */
+    public List<Row> readRows(HeapPage page) {
+        HeapPage privatePage = privatePages.get(page.getPageID());
+        if (privatePage != null) {
+            return rowsOf(privatePage);
+        }
+        synchronized (page) {
+            if (!recordRead(page)) {
+                return new ArrayList<>();
+            }
+            return rowsOf(page);
+        }
+    }
+
+    public boolean hasPrivatePage(PageID pageID) {
+        return privatePages.containsKey(pageID);
+    }
+
+    /**
+     * 页的私有副本，第一次修改页时复制
+     */
+    public HeapPage getPrivatePage(HeapPage page) {
+        HeapPage privatePage = privatePages.get(page.getPageID());
+        if (privatePage != null) {
+            return privatePage;
+        }
+        synchronized (page) {
+            recordRead(page);
+            try {
+                privatePage = new HeapPage(page.getPageID(), page.serialize());
+            } catch (IOException e) {
+                throw new DbException("copy page error", e);
+            }
+        }
+        privatePages.put(page.getPageID(), privatePage);
+        return privatePage;
+    }
+
+    /**
+     * 记录已作用于私有副本的行修改
+     *
+     * @param type {@link com.microdb.logging.LogRecordType#HEAP_INSERT}或
+     *             {@link com.microdb.logging.LogRecordType#HEAP_DELETE}
+     */
+    public void recordWrite(int type, PageID pageID, int slotIndex, Row row) {
+        rowWrites.add(new RowWrite(type, pageID, slotIndex, row));
+    }
+
+    /**
+     * 校验读集，加上的页锁在事务结束时释放
+     * 修改过的页通过校验后保持pin住，直到{@link #install()}结束；校验失败时释放
+     *
+     * @return 是否通过
+     */
+    boolean validate(Transaction transaction) {
+        LockManager lockManager = DataBase.getLockManager();
+        BufferPool bufferPool = DataBase.getBufferPool();
+        for (Map.Entry<PageID, PageVersion> entry : readVersions.entrySet()) {
+            PageID pageID = entry.getKey();
+            boolean written = privatePages.containsKey(pageID);
+            Lock.LockMode mode = written ? Lock.LockMode.X : Lock.LockMode.S;
+            if (!lockManager.tryAcquireLock(transaction, pageID, mode)) {
+                releasePins();
+                return false;
+            }
+            // 先pin住再比较页对象，比较之后页不会被驱逐；页已被驱逐时重新读入的是另一个页对象
+            PageHandle handle = bufferPool.pinPageUnlocked(pageID, false);
+            boolean current = entry.getValue().isCurrent(handle.getPage());
+            if (written && current) {
+                pinnedPages.put(pageID, handle);
+            } else {
+                handle.close();
+            }
+            if (!current) {
+                releasePins();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 将行修改重放到缓冲池中的页，校验通过后调用，重放结束后释放校验时的pin
+     */
+    void install() {
+        try {
+            for (RowWrite rowWrite : rowWrites) {
+                HeapPage page = (HeapPage) pinnedPages.get(rowWrite.pageID).getPage();
+                HeapTableFile tableFile = (HeapTableFile) DataBase.getInstance()
+                        .getDbTableById(rowWrite.pageID.getTableId()).getTableFile();
+                tableFile.installRowChange(page, rowWrite.type, rowWrite.slotIndex, rowWrite.row);
+            }
+        } finally {
+            releasePins();
+        }
+        // 页已在缓冲池中
+        Connection.clearDirtyPages();
+    }
+
+    private void releasePins() {
+        for (PageHandle handle : pinnedPages.values()) {
+            handle.close();
+        }
+        pinnedPages.clear();
+    }
+
+    /**
+     * 记录读取时的页版本
+     *
+     * @return 页的内容是否可读，其他事务批量加载、尚未提交的页不可读，记为必然冲突的版本
+     */
+    private boolean recordRead(HeapPage page) {
+        TransactionID reader = Connection.currentTransaction().getTransactionId();
+        if (DataBase.getVersionStore().isLoadedByUncommitted(reader, page.getPageID())) {
+            readVersions.put(page.getPageID(), PageVersion.CONFLICT);
+            return false;
+        }
+        readVersions.putIfAbsent(page.getPageID(), new PageVersion(page, page.getModCount()));
+        return true;
+    }
+
+    private static List<Row> rowsOf(HeapPage page) {
+        List<Row> rows = new ArrayList<>();
+        for (int slotIndex = 0; slotIndex < page.getMaxSlotNum(); slotIndex++) {
+            Row row = page.getRow(slotIndex);
+            if (row != null) {
+                rows.add(row);
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * 页版本：页被驱逐后重新读入是另一个页对象，修改次数从头计数，因此同时比较页对象
+     */
+    private static class PageVersion {
+        /**
+         * 读到未提交的批量加载的页，校验总是失败
+         */
+        private static final PageVersion CONFLICT = new PageVersion(null, -1);
+
+        private final HeapPage page;
+        private final long modCount;
+
+        PageVersion(HeapPage page, long modCount) {
+            this.page = page;
+            this.modCount = modCount;
+        }
+
+        boolean isCurrent(Page cachedPage) {
+            if (page == null || cachedPage != page) {
+                return false;
+            }
+            synchronized (page) {
+                return page.getModCount() == modCount;
+            }
+        }
+    }
+
+    /**
+     * 缓存的行修改
+     */
+    private static class RowWrite {
+        private final int type;
+        private final PageID pageID;
+        private final int slotIndex;
+        private final Row row;
+
+        RowWrite(int type, PageID pageID, int slotIndex, Row row) {
+            this.type = type;
+            this.pageID = pageID;
+            this.slotIndex = slotIndex;
+            this.row = row;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.microdb.transaction;
+
+/**
+ * 事务的一致性快照
+ * 快照只看到获取快照之前已提交的事务(提交序号不大于快照的提交序号)及事务自身的修改
+ *
+ * @author zhangjw
+ * @version 1.0
+ */
+public class Snapshot {
+
+    /**
+     * 快照所属的事务
+     */
+    private final TransactionID owner;
+
+    /**
+     * 获取快照时最后一个已提交事务的提交序号
+     */
+    private final long commitSeq;
+
+    Snapshot(TransactionID owner, long commitSeq) {
+        this.owner = owner;
+        this.commitSeq = commitSeq;
+    }
+
+    public TransactionID getOwner() {
+        return owner;
+    }
+
+    public long getCommitSeq() {
+        return commitSeq;
+    }
+
+    @Override
+    public String toString() {
+        return "Snapshot{" +
+                "owner=" + owner +
+                ", commitSeq=" + commitSeq +
+                '}';
+    }
+}
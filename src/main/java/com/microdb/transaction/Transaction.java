@@ -3,13 +3,16 @@ package com.microdb.transaction;
 import com.microdb.annotation.VisibleForTest;
 import com.microdb.connection.Connection;
 import com.microdb.exception.DbException;
+import com.microdb.exception.ValidationException;
 import com.microdb.logging.RedoLogFile;
+import com.microdb.logging.UndoChain;
 import com.microdb.model.DataBase;
 import com.microdb.model.page.Page;
 import com.microdb.model.page.PageID;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.Set;
 
 /**
  * 事务
@@ -28,18 +31,73 @@ public class Transaction {
      */
     private Lock.LockType lockType;
 
+    /**
+     * 是否为乐观事务：读写堆表不加页锁，修改缓存在私有的页副本中，提交时校验
+     */
+    private final boolean optimistic;
+
+    /**
+     * 内存undo链，事务第一次修改页时创建
+     */
+    private UndoChain undoChain;
+
+    /**
+     * 一致性快照，第一次快照读时获取；只写或不读取的事务不持有快照，不阻止版本清理
+     */
+    private Snapshot snapshot;
+
+    /**
+     * 乐观事务的读集与写集，第一次读写堆表的页时创建
+     */
+    private ReadWriteSet readWriteSet;
+
     /**
      * 构造事务,事务ID自增
      */
     public Transaction(Lock.LockType lockType) {
+        this(lockType, false);
+    }
+
+    /**
+     * 构造事务
+     *
+     * @param optimistic 是否为乐观事务，提交时校验失败抛出{@link ValidationException}，由调用方以新事务重试
+     */
+    public Transaction(Lock.LockType lockType, boolean optimistic) {
         this.transactionId = new TransactionID();
         this.lockType = lockType;
+        this.optimistic = optimistic;
     }
 
     public TransactionID getTransactionId() {
         return transactionId;
     }
 
+    public UndoChain getUndoChain() {
+        if (undoChain == null) {
+            undoChain = new UndoChain(this, DataBase.getDBConfig().getUndoChainMaxSizeInByte());
+        }
+        return undoChain;
+    }
+
+    public Snapshot getSnapshot() {
+        if (snapshot == null) {
+            snapshot = DataBase.getVersionStore().takeSnapshot(transactionId);
+        }
+        return snapshot;
+    }
+
+    public boolean isOptimistic() {
+        return optimistic;
+    }
+
+    public ReadWriteSet getReadWriteSet() {
+        if (readWriteSet == null) {
+            readWriteSet = new ReadWriteSet();
+        }
+        return readWriteSet;
+    }
+
     public Lock.LockType getLockType() {
         return lockType;
     }
@@ -65,8 +123,14 @@ public class Transaction {
      * NO-STEAL/force策略，所以事务提交时需要将脏页刷盘，事务提交前要确保脏页不被刷盘。
      * <p>
      * STEAL/No-force策略，事务提交，脏页也可不刷盘
+     * <p>
+     * 乐观事务先校验读集，通过后将缓存的修改写入缓冲池，再按同样的流程提交
      */
     public void commit() {
+        if (readWriteSet != null) {
+            validateAndInstall();
+        }
+
         // NO-STEAL 事务中产生的脏页刷盘
         // List<PageID> pageIDs = DataBase.getLockManager().getPageIDs(transactionId);
         // DataBase.getBufferPool().flushPages(pageIDs, transactionId);
@@ -77,7 +141,8 @@ public class Transaction {
             redoLogFile.recordTxCommit(transactionId);
             List<Page> pages = DataBase.getLockManager().getPages(transactionId);
             for (Page page : pages) {
-                if (page.isDirty()) {
+                // 逐行记录了redo日志的页不再记录整页镜像
+                if (page.isDirty() && !page.isRowLogged()) {
                     redoLogFile.recordPageChange(transactionId, page.getBeforePage(), page);
                 }
             }
@@ -85,11 +150,16 @@ public class Transaction {
         } catch (IOException e) {
             throw new DbException("redo log recordTxCommit error", e);
         }
-        List<PageID> pageIDs = DataBase.getLockManager().getPageIDs(transactionId);
-        // 事务提交后更新页快照
-        for (PageID pageID : pageIDs) {
-            Page page = DataBase.getBufferPool().getPage(pageID);
-            page.saveBeforePage();
+        DataBase.getUndoLogFile().recordTxCommit(transactionId);
+        undoChain = null;
+        // 释放锁之前分配提交序号，之后的快照可以看到本事务的修改
+        DataBase.getVersionStore().commit(transactionId);
+        releaseSnapshot();
+        // 事务提交后更新页快照，逐行记录日志的页按行回滚，不使用页快照(其中可能有其他事务未提交的行)
+        for (Page page : DataBase.getLockManager().getPages(transactionId)) {
+            if (!page.isRowLogged()) {
+                page.saveBeforePage();
+            }
         }
 
         // 释放锁
@@ -102,6 +172,8 @@ public class Transaction {
     /**
      * 终止事务，并回滚事务中修改的的脏页
      * 由于NO-STEAL策略，事务提交前脏页都没有刷盘，直接丢弃缓冲池中的相关页即可
+     * <p>
+     * STEAL策略下，已刷盘(或转存)的页由undo文件恢复，其余的页由内存undo链在缓冲池中回滚
      */
     public void abort() {
 
@@ -111,7 +183,20 @@ public class Transaction {
 
         // Steal/No-force策略
         // 将事务修改过的页面，在磁盘刷回原始版本，缓存中丢弃
-        DataBase.getUndoLogFile().rollback(transactionId);
+        // 乐观事务未写入缓冲池的修改直接丢弃
+        readWriteSet = null;
+        Set<PageID> restoredPages = DataBase.getUndoLogFile().rollback(transactionId);
+        if (undoChain != null) {
+            undoChain.rollback(restoredPages);
+            undoChain = null;
+        }
+        DataBase.getVersionStore().abort(transactionId);
+        releaseSnapshot();
+        try {
+            DataBase.getRedoLogFile().recordTxAbort(transactionId);
+        } catch (IOException e) {
+            throw new DbException("redo log recordTxAbort error", e);
+        }
 
         // 释放锁
         DataBase.getLockManager().releaseLock(transactionId);
@@ -120,11 +205,31 @@ public class Transaction {
         Connection.clearTransaction();
     }
 
+    /**
+     * 校验乐观事务的读集，失败时终止事务
+     */
+    private void validateAndInstall() {
+        if (!readWriteSet.validate(this)) {
+            abort();
+            throw new ValidationException("optimistic transaction validation failed,transaction=" + this);
+        }
+        readWriteSet.install();
+        readWriteSet = null;
+    }
+
+    private void releaseSnapshot() {
+        if (snapshot != null) {
+            DataBase.getVersionStore().releaseSnapshot(snapshot);
+            snapshot = null;
+        }
+    }
+
     @Override
     public String toString() {
         return "[" +
                 "transactionId=" + transactionId +
                 ", lockType=" + lockType +
+                ", optimistic=" + optimistic +
                 ']';
     }
 }
@@ -0,0 +1,325 @@
+package com.microdb.transaction;
+
+import com.microdb.annotation.VisibleForTest;
+import com.microdb.config.DBConfig;
+import com.microdb.logging.LogRecordType;
+import com.microdb.model.page.PageID;
+import com.microdb.model.page.heap.HeapPage;
+import com.microdb.model.row.Row;
+import com.microdb.model.row.RowID;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 行版本存储，用于多版本并发控制(MVCC)
+ * <p>
+ * 事务修改堆表的行时，与内存undo链一样记录修改前的状态，按行组成版本链(新版本在前)，版本以修改它的事务ID标记。
+ * 事务提交时获得递增的提交序号，快照只看到提交序号不大于快照序号的事务的修改。
+ * 快照读取一页时，对每个slot沿版本链从新到旧撤销快照不可见的修改，遇到可见的版本为止，得到快照时刻的行，不需要加页锁。
+ * 批量加载写入的页不逐行记录版本，整页以加载事务标记：加载事务对快照不可见时整页为空。
+ * 加载期间事务持有表的X锁，页上之后的修改都来自更晚提交的事务，对该快照同样不可见
+ * <p>
+ * 版本链按PageID散列到多个分区(配置{@code version_store_partitions})，每个分区有自己的互斥锁，
+ * 修改不同分区中的页的写事务互不阻塞。提交序号与活跃快照只在事务开始快照读、提交、结束时访问，由一个全局锁保护；
+ * 加锁顺序为全局锁在前、分区锁在后。
+ * <p>
+ * 已提交事务的版本对所有活跃快照都可见后即被清理；终止的事务回滚完成后删除其版本。
+ * 没有活跃快照时版本在提交时立即清理，版本存储只保留未提交事务的修改
+ *
+ * @author zhangjw
+ * @version 1.0
+ */
+public class VersionStore {
+
+    /**
+     * 保护提交序号、活跃快照和版本清理
+     */
+    private final Object snapshotLock = new Object();
+
+    /**
+     * 最后一个提交的事务的提交序号
+     */
+    private long commitSeq = 0;
+
+    /**
+     * 版本链分区
+     */
+    private final VersionPartition[] partitions;
+
+    /**
+     * 事务 -> 事务修改过的行，用于提交后清理、终止时删除；事务结束前只由事务自身的线程追加
+     */
+    private final ConcurrentHashMap<TransactionID, List<RowID>> txRows = new ConcurrentHashMap<>();
+
+    /**
+     * 事务 -> 事务批量加载的页，清理、删除的时机与{@link #txRows}相同
+     */
+    private final ConcurrentHashMap<TransactionID, List<PageID>> txLoadedPages = new ConcurrentHashMap<>();
+
+    /**
+     * 已提交、版本尚未清理的事务 -> 提交序号；判断版本是否可见时不加全局锁读取
+     */
+    private final ConcurrentHashMap<TransactionID, Long> committedSeqs = new ConcurrentHashMap<>();
+
+    /**
+     * 活跃快照的提交序号 -> 快照数
+     */
+    private final TreeMap<Long, Integer> activeSnapshots = new TreeMap<>();
+
+    public VersionStore(DBConfig dbConfig) {
+        int partitionCount = dbConfig.getVersionStorePartitions();
+        if (partitionCount <= 0) {
+            partitionCount = Runtime.getRuntime().availableProcessors() * 4;
+        }
+        partitions = new VersionPartition[partitionCount];
+        for (int i = 0; i < partitionCount; i++) {
+            partitions[i] = new VersionPartition();
+        }
+    }
+
+    /**
+     * 获取快照，事务结束时需调用{@link #releaseSnapshot}
+     */
+    public Snapshot takeSnapshot(TransactionID owner) {
+        synchronized (snapshotLock) {
+            Snapshot snapshot = new Snapshot(owner, commitSeq);
+            activeSnapshots.merge(commitSeq, 1, Integer::sum);
+            return snapshot;
+        }
+    }
+
+    public void releaseSnapshot(Snapshot snapshot) {
+        synchronized (snapshotLock) {
+            activeSnapshots.computeIfPresent(snapshot.getCommitSeq(), (k, v) -> v == 1 ? null : v - 1);
+            purge();
+        }
+    }
+
+    /**
+     * 记录行修改前的状态，调用方持有页的监视器，与页的修改一起完成
+     *
+     * @param type    {@link LogRecordType#HEAP_INSERT}或{@link LogRecordType#HEAP_DELETE}
+     * @param rowData 删除时为被删除的行数据
+     */
+    public void recordRowChange(TransactionID transactionID, int type, RowID rowID, byte[] rowData) {
+        VersionPartition partition = partitionOf(rowID.getPageID());
+        synchronized (partition) {
+            partition.pageVersions.computeIfAbsent(rowID.getPageID(), k -> new HashMap<>())
+                    .computeIfAbsent(rowID.getSlotIndex(), k -> new LinkedList<>())
+                    .addFirst(new RowVersion(transactionID, type, rowData));
+        }
+        txRows.computeIfAbsent(transactionID, k -> new ArrayList<>()).add(rowID);
+    }
+
+    /**
+     * 记录批量加载写入的页，在页写入表文件之前调用，页中的行都由该事务插入
+     */
+    public void recordPageLoad(TransactionID transactionID, PageID pageID) {
+        VersionPartition partition = partitionOf(pageID);
+        synchronized (partition) {
+            partition.loadedPages.put(pageID, transactionID);
+        }
+        txLoadedPages.computeIfAbsent(transactionID, k -> new ArrayList<>()).add(pageID);
+    }
+
+    /**
+     * 页是否由尚未提交的其他事务批量加载，乐观事务读取这样的页时校验失败
+     */
+    public boolean isLoadedByUncommitted(TransactionID reader, PageID pageID) {
+        VersionPartition partition = partitionOf(pageID);
+        TransactionID loader;
+        synchronized (partition) {
+            loader = partition.loadedPages.get(pageID);
+        }
+        return loader != null && !loader.equals(reader) && !committedSeqs.containsKey(loader);
+    }
+
+    /**
+     * 事务提交，分配提交序号；在释放锁之前调用
+     */
+    public void commit(TransactionID transactionID) {
+        if (!txRows.containsKey(transactionID) && !txLoadedPages.containsKey(transactionID)) {
+            return;
+        }
+        synchronized (snapshotLock) {
+            committedSeqs.put(transactionID, ++commitSeq);
+            purge();
+        }
+    }
+
+    /**
+     * 事务终止，回滚完成后删除其版本
+     */
+    public void abort(TransactionID transactionID) {
+        removeVersions(transactionID);
+    }
+
+    /**
+     * 快照可见的一页中的行
+     * 页没有版本链时直接返回页中的行
+     */
+    public List<Row> getVisibleRows(Snapshot snapshot, HeapPage page) {
+        List<Row> visibleRows = new ArrayList<>();
+        VersionPartition partition = partitionOf(page.getPageID());
+        synchronized (page) {
+            synchronized (partition) {
+                TransactionID loader = partition.loadedPages.get(page.getPageID());
+                if (loader != null && !isVisible(snapshot, loader)) {
+                    return visibleRows;
+                }
+                Map<Integer, LinkedList<RowVersion>> slotVersions = partition.pageVersions.get(page.getPageID());
+                for (int slotIndex = 0; slotIndex < page.getMaxSlotNum(); slotIndex++) {
+                    LinkedList<RowVersion> versions = slotVersions == null ? null : slotVersions.get(slotIndex);
+                    Row row = versions == null ? page.getRow(slotIndex) : getVisibleRow(snapshot, page, slotIndex, versions);
+                    if (row != null) {
+                        visibleRows.add(row);
+                    }
+                }
+            }
+        }
+        return visibleRows;
+    }
+
+    /**
+     * 沿版本链从新到旧撤销快照不可见的修改
+     */
+    private Row getVisibleRow(Snapshot snapshot, HeapPage page, int slotIndex, LinkedList<RowVersion> versions) {
+        RowVersion oldestInvisible = null;
+        for (RowVersion version : versions) {
+            if (isVisible(snapshot, version.transactionID)) {
+                break;
+            }
+            oldestInvisible = version;
+        }
+        if (oldestInvisible == null) {
+            return page.getRow(slotIndex);
+        }
+        // 修改前的状态：插入前slot为空，删除前为被删除的行
+        return oldestInvisible.type == LogRecordType.HEAP_DELETE ? page.toRow(slotIndex, oldestInvisible.rowData) : null;
+    }
+
+    private boolean isVisible(Snapshot snapshot, TransactionID transactionID) {
+        if (transactionID.equals(snapshot.getOwner())) {
+            return true;
+        }
+        Long seq = committedSeqs.get(transactionID);
+        return seq != null && seq <= snapshot.getCommitSeq();
+    }
+
+    /**
+     * 清理对所有活跃快照都可见的已提交事务的版本，调用方持有全局锁
+     * <p>
+     * 先删除版本再删除提交序号：读取时不加全局锁，版本还在时提交序号必须仍可查到
+     */
+    private void purge() {
+        long oldestSnapshotSeq = activeSnapshots.isEmpty() ? commitSeq : activeSnapshots.firstKey();
+        List<TransactionID> purgeable = new ArrayList<>();
+        for (Map.Entry<TransactionID, Long> entry : committedSeqs.entrySet()) {
+            if (entry.getValue() <= oldestSnapshotSeq) {
+                purgeable.add(entry.getKey());
+            }
+        }
+        for (TransactionID transactionID : purgeable) {
+            removeVersions(transactionID);
+            committedSeqs.remove(transactionID);
+        }
+    }
+
+    private void removeVersions(TransactionID transactionID) {
+        List<RowID> rowIDs = txRows.remove(transactionID);
+        if (rowIDs != null) {
+            for (RowID rowID : rowIDs) {
+                VersionPartition partition = partitionOf(rowID.getPageID());
+                synchronized (partition) {
+                    partition.removeVersion(rowID, transactionID);
+                }
+            }
+        }
+        List<PageID> loadedPages = txLoadedPages.remove(transactionID);
+        if (loadedPages != null) {
+            for (PageID pageID : loadedPages) {
+                VersionPartition partition = partitionOf(pageID);
+                synchronized (partition) {
+                    partition.loadedPages.remove(pageID, transactionID);
+                }
+            }
+        }
+    }
+
+    private VersionPartition partitionOf(PageID pageID) {
+        int h = pageID.hashCode();
+        return partitions[Math.floorMod(h ^ (h >>> 16), partitions.length)];
+    }
+
+    /**
+     * 版本链中的行数，加上批量加载的页数
+     */
+    @VisibleForTest
+    public int getVersionCount() {
+        int count = 0;
+        for (VersionPartition partition : partitions) {
+            synchronized (partition) {
+                count += partition.loadedPages.size();
+                count += partition.pageVersions.values().stream()
+                        .flatMap(slotVersions -> slotVersions.values().stream())
+                        .mapToInt(List::size)
+                        .sum();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 版本链的一个分区，访问时持有分区的监视器
+     */
+    private static final class VersionPartition {
+        /**
+         * 页 -> slot -> 版本链
+         */
+        private final Map<PageID, Map<Integer, LinkedList<RowVersion>>> pageVersions = new HashMap<>();
+
+        /**
+         * 批量加载的页 -> 加载事务
+         */
+        private final Map<PageID, TransactionID> loadedPages = new HashMap<>();
+
+        void removeVersion(RowID rowID, TransactionID transactionID) {
+            Map<Integer, LinkedList<RowVersion>> slotVersions = pageVersions.get(rowID.getPageID());
+            if (slotVersions == null) {
+                return;
+            }
+            LinkedList<RowVersion> versions = slotVersions.get(rowID.getSlotIndex());
+            if (versions == null) {
+                return;
+            }
+            versions.removeIf(version -> version.transactionID.equals(transactionID));
+            if (versions.isEmpty()) {
+                slotVersions.remove(rowID.getSlotIndex());
+                if (slotVersions.isEmpty()) {
+                    pageVersions.remove(rowID.getPageID());
+                }
+            }
+        }
+    }
+
+    /**
+     * 行的一个版本：记录修改它的事务及修改前的状态
+     */
+    private static class RowVersion {
+        private final TransactionID transactionID;
+        private final int type;
+        private final byte[] rowData;
+
+        RowVersion(TransactionID transactionID, int type, byte[] rowData) {
+            this.transactionID = transactionID;
+            this.type = type;
+            this.rowData = rowData;
+        }
+    }
+}
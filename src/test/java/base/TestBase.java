@@ -6,7 +6,7 @@ import org.junit.Before;
 import java.io.File;
 
 /**
- * 删除测试生成的redo undo文件
+ * 删除测试生成的redo undo日志目录，以及表的空闲空间映射文件
  *
  * @author zhangjianwei
  * @version 1.0
@@ -15,7 +15,23 @@ public class TestBase {
     @Before
     @After
     public void after() {
-        (new File("redo")).delete();
-        (new File("undo")).delete();
+        delete(new File("redo"));
+        delete(new File("undo"));
+        File[] fsmFiles = new File(".").listFiles((dir, name) -> name.endsWith(".fsm"));
+        if (fsmFiles != null) {
+            for (File fsmFile : fsmFiles) {
+                fsmFile.delete();
+            }
+        }
+    }
+
+    protected static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
     }
 }
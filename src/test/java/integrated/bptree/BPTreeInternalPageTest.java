@@ -5,6 +5,7 @@ import com.microdb.connection.Connection;
 import com.microdb.model.DataBase;
 import com.microdb.model.field.FieldType;
 import com.microdb.model.field.IntField;
+import com.microdb.model.page.Page;
 import com.microdb.model.page.bptree.*;
 import com.microdb.model.row.Row;
 import com.microdb.model.table.TableDesc;
@@ -281,7 +282,7 @@ public class BPTreeInternalPageTest extends TestBase {
         // 每页一个父pageNo指针 一个字节表示子page类型
         int extra = FieldType.INT.getSizeInByte() + 1;
 
-        return (DataBase.getDBConfig().getPageSizeInByte() - extra) / perEntrySizeInByte;
+        return (DataBase.getDBConfig().getPageSizeInByte() - Page.TRAILER_SIZE_IN_BYTE - extra) / perEntrySizeInByte;
     }
 
     /**
@@ -296,7 +297,7 @@ public class BPTreeInternalPageTest extends TestBase {
 
         int POINTER_SIZE_IN_BYTE = 4;
         int pointerSizeInBytes = 3 * POINTER_SIZE_IN_BYTE;
-        return (DataBase.getDBConfig().getPageSizeInByte() - pointerSizeInBytes) / sizePerRowInBytes;
+        return (DataBase.getDBConfig().getPageSizeInByte() - Page.TRAILER_SIZE_IN_BYTE - pointerSizeInBytes) / sizePerRowInBytes;
     }
 
 }
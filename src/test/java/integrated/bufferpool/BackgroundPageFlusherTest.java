@@ -0,0 +1,107 @@
+package integrated.bufferpool;
+
+import base.TestBase;
+import com.microdb.bufferpool.BackgroundPageFlusher;
+import com.microdb.bufferpool.BufferPool;
+import com.microdb.config.DBConfig;
+import com.microdb.connection.Connection;
+import com.microdb.model.DataBase;
+import com.microdb.model.field.FieldType;
+import com.microdb.model.field.IntField;
+import com.microdb.model.page.Page;
+import com.microdb.model.page.heap.HeapPageID;
+import com.microdb.model.row.Row;
+import com.microdb.model.table.DbTable;
+import com.microdb.model.table.TableDesc;
+import com.microdb.model.table.tablefile.HeapTableFile;
+import com.microdb.transaction.Lock;
+import com.microdb.transaction.Transaction;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * 后台刷脏
+ *
+ * @author zhangjw
+ * @version 1.0
+ */
+public class BackgroundPageFlusherTest extends TestBase {
+
+    @Test
+    public void testFlushCommittedDirtyPages() throws IOException {
+        DataBase.reset();
+        DataBase dataBase = DataBase.getInstance();
+        List<TableDesc.Attribute> attributes = Arrays.asList(new TableDesc.Attribute("f1", FieldType.INT));
+        TableDesc tableDesc = new TableDesc(attributes);
+        File file = new File(UUID.randomUUID().toString());
+        file.deleteOnExit();
+        HeapTableFile tableFile = new HeapTableFile(file, tableDesc);
+        dataBase.addTable(tableFile, "t_flusher", tableDesc);
+        DbTable table = dataBase.getDbTableByName("t_flusher");
+
+        Transaction transaction = new Transaction(Lock.LockType.XLock);
+        transaction.start();
+        Connection.passingTransaction(transaction);
+        Row row = new Row(tableDesc);
+        for (int i = 0; i < 5; i++) {
+            row.setField(0, new IntField(i));
+            table.insertRow(row);
+        }
+
+        BufferPool bufferPool = DataBase.getBufferPool();
+        DBConfig dbConfig = new DBConfig(DataBase.getDBConfig().getPageSizeInByte(), bufferPool.getCapacity());
+        dbConfig.setBackgroundFlushTargetDirtyRatio(0);
+        BackgroundPageFlusher flusher = new BackgroundPageFlusher(bufferPool, dbConfig);
+
+        // 事务未提交，页被锁定，不刷盘
+        Assert.assertEquals(1, bufferPool.getDirtyPageCount());
+        Assert.assertEquals(0, flusher.flushOnce());
+
+        transaction.commit();
+        Assert.assertEquals(1, flusher.flushOnce());
+        Assert.assertEquals(0, bufferPool.getDirtyPageCount());
+
+        Page pageOnDisk = tableFile.readPageFromDisk(new HeapPageID(tableFile.getTableId(), 0));
+        int rowCount = 0;
+        for (int slot = 0; slot < pageOnDisk.getMaxSlotNum(); slot++) {
+            if (pageOnDisk.isSlotUsed(slot)) {
+                rowCount++;
+            }
+        }
+        Assert.assertEquals(5, rowCount);
+    }
+
+    /**
+     * 刷盘后页标记为干净页，不再出现在脏页表中
+     */
+    @Test
+    public void testFlushedPageIsClean() throws IOException {
+        DataBase.reset();
+        DataBase dataBase = DataBase.getInstance();
+        TableDesc tableDesc = new TableDesc(Arrays.asList(new TableDesc.Attribute("f1", FieldType.INT)));
+        File file = new File(UUID.randomUUID().toString());
+        file.deleteOnExit();
+        HeapTableFile tableFile = new HeapTableFile(file, tableDesc);
+        dataBase.addTable(tableFile, "t_flusher");
+
+        Transaction transaction = new Transaction(Lock.LockType.XLock);
+        transaction.start();
+        Connection.passingTransaction(transaction);
+        Row row = new Row(tableDesc);
+        row.setField(0, new IntField(1));
+        dataBase.getDbTableByName("t_flusher").insertRow(row);
+        transaction.commit();
+
+        BufferPool bufferPool = DataBase.getBufferPool();
+        Assert.assertEquals(1, bufferPool.getDirtyPageCount());
+        bufferPool.flushAllPage();
+        Assert.assertEquals(0, bufferPool.getDirtyPageCount());
+        Assert.assertTrue(bufferPool.getDirtyPageTable().isEmpty());
+    }
+}
@@ -0,0 +1,102 @@
+package integrated.bufferpool;
+
+import base.TestBase;
+import com.microdb.bufferpool.BufferPool;
+import com.microdb.connection.Connection;
+import com.microdb.model.DataBase;
+import com.microdb.model.field.FieldType;
+import com.microdb.model.field.IntField;
+import com.microdb.model.page.Page;
+import com.microdb.model.page.PageID;
+import com.microdb.model.page.heap.HeapPageID;
+import com.microdb.model.row.Row;
+import com.microdb.model.table.DbTable;
+import com.microdb.model.table.TableDesc;
+import com.microdb.model.table.tablefile.HeapTableFile;
+import com.microdb.model.table.tablefile.TableFile;
+import com.microdb.transaction.Lock;
+import com.microdb.transaction.Transaction;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * 缓冲池分片
+ *
+ * @author zhangjw
+ * @version 1.0
+ */
+public class BufferPoolShardTest extends TestBase {
+
+    private DbTable table;
+
+    @Before
+    public void initDataBase() throws IOException {
+        DataBase dataBase = DataBase.getInstance();
+        String fileName = UUID.randomUUID().toString();
+        List<TableDesc.Attribute> attributes = Arrays.asList(new TableDesc.Attribute("f1", FieldType.INT));
+        TableDesc tableDesc = new TableDesc(attributes);
+        File file = new File(fileName);
+        file.deleteOnExit();
+        TableFile tableFile = new HeapTableFile(file, tableDesc);
+        dataBase.addTable(tableFile, "t_shard", tableDesc);
+        table = dataBase.getDbTableByName("t_shard");
+
+        Transaction transaction = new Transaction(Lock.LockType.XLock);
+        transaction.start();
+        Connection.passingTransaction(transaction);
+        Row row = new Row(tableDesc);
+        row.setField(0, new IntField(1));
+        table.insertRow(row);
+        transaction.commit();
+    }
+
+    /**
+     * 同一页的并发未命中只从磁盘读取一次，所有线程得到同一个页对象
+     */
+    @Test
+    public void testConcurrentMissesLoadPageOnce() throws Exception {
+        BufferPool bufferPool = DataBase.getBufferPool();
+        PageID pageID = new HeapPageID(table.getTableId(), 0);
+        bufferPool.discardPages(Collections.singletonList(pageID));
+        long missCount = bufferPool.getStats().getMissCount();
+
+        int threads = 8;
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Page>> futures = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            futures.add(executor.submit(() -> {
+                Transaction transaction = new Transaction(Lock.LockType.SLock);
+                transaction.start();
+                Connection.passingTransaction(transaction);
+                start.await();
+                try {
+                    return bufferPool.getPage(pageID);
+                } finally {
+                    DataBase.getLockManager().releaseLock(transaction.getTransactionId());
+                }
+            }));
+        }
+        start.countDown();
+
+        Page first = futures.get(0).get();
+        for (Future<Page> future : futures) {
+            Assert.assertSame(first, future.get());
+        }
+        executor.shutdown();
+        Assert.assertEquals(missCount + 1, bufferPool.getStats().getMissCount());
+    }
+}
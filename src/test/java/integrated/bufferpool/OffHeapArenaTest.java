@@ -0,0 +1,76 @@
+package integrated.bufferpool;
+
+import base.TestBase;
+import com.microdb.bufferpool.BufferPool;
+import com.microdb.config.DBConfig;
+import com.microdb.connection.Connection;
+import com.microdb.model.DataBase;
+import com.microdb.model.field.FieldType;
+import com.microdb.model.page.heap.HeapPage;
+import com.microdb.model.page.heap.HeapPageID;
+import com.microdb.model.table.TableDesc;
+import com.microdb.model.table.tablefile.HeapTableFile;
+import com.microdb.transaction.Lock;
+import com.microdb.transaction.Transaction;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * 缓冲池的堆外二级缓存
+ *
+ * @author zhangjw
+ * @version 1.0
+ */
+public class OffHeapArenaTest extends TestBase {
+
+    /**
+     * 被驱逐的页降级到堆外缓存，再次访问时不读磁盘
+     */
+    @Test
+    public void testEvictedPageServedFromOffHeapArena() throws IOException {
+        DataBase dataBase = DataBase.getInstance();
+        List<TableDesc.Attribute> attributes = Arrays.asList(new TableDesc.Attribute("f1", FieldType.INT));
+        TableDesc tableDesc = new TableDesc(attributes);
+        File file = new File(UUID.randomUUID().toString());
+        file.deleteOnExit();
+        HeapTableFile tableFile = new HeapTableFile(file, tableDesc);
+        dataBase.addTable(tableFile, "t_off_heap", tableDesc);
+
+        int pageCount = 40;
+        for (int pageNo = 0; pageNo < pageCount; pageNo++) {
+            HeapPageID pageID = new HeapPageID(tableFile.getTableId(), pageNo);
+            tableFile.writePageToDisk(new HeapPage(pageID, HeapPage.createEmptyPageData()));
+        }
+
+        DBConfig dbConfig = new DBConfig(DataBase.getDBConfig().getPageSizeInByte(), 16);
+        dbConfig.setBufferPoolShards(1);
+        dbConfig.setOffHeapArenaPages(pageCount);
+        BufferPool bufferPool = new BufferPool(dbConfig);
+
+        Transaction transaction = new Transaction(Lock.LockType.SLock);
+        transaction.start();
+        Connection.passingTransaction(transaction);
+        try {
+            for (int pageNo = 0; pageNo < pageCount; pageNo++) {
+                bufferPool.getPage(new HeapPageID(tableFile.getTableId(), pageNo));
+            }
+            Assert.assertEquals(pageCount, bufferPool.getStats().getMissCount());
+            Assert.assertEquals(pageCount - 16, bufferPool.getStats().getEvictionCount());
+
+            // 再次访问全部页，已驱逐的页都从堆外缓存读取
+            for (int pageNo = 0; pageNo < pageCount; pageNo++) {
+                bufferPool.getPage(new HeapPageID(tableFile.getTableId(), pageNo));
+            }
+            Assert.assertEquals(pageCount, bufferPool.getStats().getMissCount());
+            Assert.assertTrue(bufferPool.getStats().getOffHeapHitCount() >= pageCount - 16);
+        } finally {
+            DataBase.getLockManager().releaseLock(transaction.getTransactionId());
+        }
+    }
+}
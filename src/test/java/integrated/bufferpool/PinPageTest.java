@@ -0,0 +1,126 @@
+package integrated.bufferpool;
+
+import base.TestBase;
+import com.microdb.bufferpool.BufferPool;
+import com.microdb.bufferpool.PageHandle;
+import com.microdb.connection.Connection;
+import com.microdb.model.DataBase;
+import com.microdb.model.field.FieldType;
+import com.microdb.model.field.IntField;
+import com.microdb.model.page.Page;
+import com.microdb.model.page.heap.HeapPageID;
+import com.microdb.model.row.Row;
+import com.microdb.model.table.DbTable;
+import com.microdb.model.table.TableDesc;
+import com.microdb.model.table.tablefile.HeapTableFile;
+import com.microdb.model.table.tablefile.TableFile;
+import com.microdb.operator.SeqScan;
+import com.microdb.transaction.Lock;
+import com.microdb.transaction.Transaction;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * 页的pin、unpin
+ *
+ * @author zhangjw
+ * @version 1.0
+ */
+public class PinPageTest extends TestBase {
+
+    private DbTable table;
+
+    @Before
+    public void initDataBase() throws IOException {
+        DataBase dataBase = DataBase.getInstance();
+        String fileName = UUID.randomUUID().toString();
+        List<TableDesc.Attribute> attributes = Arrays.asList(new TableDesc.Attribute("f1", FieldType.INT));
+        TableDesc tableDesc = new TableDesc(attributes);
+        File file = new File(fileName);
+        file.deleteOnExit();
+        TableFile tableFile = new HeapTableFile(file, tableDesc);
+        dataBase.addTable(tableFile, "t_pin", tableDesc);
+        table = dataBase.getDbTableByName("t_pin");
+
+        Transaction transaction = new Transaction(Lock.LockType.XLock);
+        transaction.start();
+        Connection.passingTransaction(transaction);
+        Row row = new Row(tableDesc);
+        for (int i = 0; i < 10; i++) {
+            row.setField(0, new IntField(i));
+            table.insertRow(row);
+        }
+        transaction.commit();
+    }
+
+    @Test
+    public void testPinAndUnpin() {
+        BufferPool bufferPool = DataBase.getBufferPool();
+        HeapPageID pageID = new HeapPageID(table.getTableId(), 0);
+
+        Transaction transaction = new Transaction(Lock.LockType.XLock);
+        transaction.start();
+        Connection.passingTransaction(transaction);
+        // 插入完成后页不再被pin
+        Assert.assertEquals(0, bufferPool.getPinCount(pageID));
+
+        try (PageHandle first = bufferPool.pinPage(pageID)) {
+            try (PageHandle second = bufferPool.pinPage(pageID)) {
+                Assert.assertSame(first.getPage(), second.getPage());
+                Assert.assertEquals(2, bufferPool.getPinCount(pageID));
+            }
+            Assert.assertEquals(1, bufferPool.getPinCount(pageID));
+        }
+        Assert.assertEquals(0, bufferPool.getPinCount(pageID));
+        transaction.commit();
+    }
+
+    /**
+     * 迭代器持有当前页的pin，关闭后释放
+     */
+    @Test
+    public void testScanPinsCurrentPage() {
+        BufferPool bufferPool = DataBase.getBufferPool();
+        HeapPageID pageID = new HeapPageID(table.getTableId(), 0);
+
+        Transaction transaction = new Transaction(Lock.LockType.XLock);
+        transaction.start();
+        Connection.passingTransaction(transaction);
+        SeqScan scan = new SeqScan(table.getTableId());
+        scan.open();
+        Assert.assertTrue(scan.hasNext());
+        Assert.assertEquals(1, bufferPool.getPinCount(pageID));
+        scan.close();
+        Assert.assertEquals(0, bufferPool.getPinCount(pageID));
+        transaction.commit();
+    }
+
+    /**
+     * 同一页以新的页对象放入缓存时复用原来的帧，已有的pin不丢失
+     */
+    @Test
+    public void testReplacePageKeepsPins() throws IOException {
+        BufferPool bufferPool = DataBase.getBufferPool();
+        HeapPageID pageID = new HeapPageID(table.getTableId(), 0);
+
+        Transaction transaction = new Transaction(Lock.LockType.XLock);
+        transaction.start();
+        Connection.passingTransaction(transaction);
+        try (PageHandle handle = bufferPool.pinPage(pageID)) {
+            Page replacement = table.getTableFile().readPageFromDisk(pageID);
+            bufferPool.installPageForRecovery(replacement);
+            Assert.assertEquals(1, bufferPool.getPinCount(pageID));
+            Assert.assertSame(replacement, handle.getPage());
+            Assert.assertSame(replacement, bufferPool.getCachedPage(pageID));
+        }
+        Assert.assertEquals(0, bufferPool.getPinCount(pageID));
+        transaction.commit();
+    }
+}
@@ -0,0 +1,80 @@
+package integrated.bufferpool;
+
+import base.TestBase;
+import com.microdb.bufferpool.BufferPool;
+import com.microdb.connection.Connection;
+import com.microdb.model.DataBase;
+import com.microdb.model.field.FieldType;
+import com.microdb.model.field.IntField;
+import com.microdb.model.page.heap.HeapPage;
+import com.microdb.model.page.heap.HeapPageID;
+import com.microdb.model.row.Row;
+import com.microdb.model.table.TableDesc;
+import com.microdb.model.table.tablefile.HeapTableFile;
+import com.microdb.operator.SeqScan;
+import com.microdb.transaction.Lock;
+import com.microdb.transaction.Transaction;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * 大表扫描的私有环与预读
+ *
+ * @author zhangjw
+ * @version 1.0
+ */
+public class ScanRingTest extends TestBase {
+
+    /**
+     * 大表全表扫描只占用少量帧，且会发起预读
+     * 每页一行，读完第一行后暂停，预读线程在扫描到达之前读入后面的页
+     */
+    @Test
+    public void testLargeScanDoesNotFloodBufferPool() throws IOException, InterruptedException {
+        DataBase.reset();
+        DataBase dataBase = DataBase.getInstance();
+        List<TableDesc.Attribute> attributes = Arrays.asList(new TableDesc.Attribute("f1", FieldType.INT));
+        TableDesc tableDesc = new TableDesc(attributes);
+        File file = new File(UUID.randomUUID().toString());
+        file.deleteOnExit();
+        HeapTableFile tableFile = new HeapTableFile(file, tableDesc);
+        dataBase.addTable(tableFile, "t_scan", tableDesc);
+
+        BufferPool bufferPool = DataBase.getBufferPool();
+        int pageCount = bufferPool.getCapacity();
+        for (int pageNo = 0; pageNo < pageCount; pageNo++) {
+            HeapPageID pageID = new HeapPageID(tableFile.getTableId(), pageNo);
+            HeapPage page = new HeapPage(pageID, HeapPage.createEmptyPageData());
+            Row row = new Row(tableDesc);
+            row.setField(0, new IntField(pageNo));
+            page.insertRow(row);
+            tableFile.writePageToDisk(page);
+        }
+
+        Transaction transaction = new Transaction(Lock.LockType.XLock);
+        transaction.start();
+        Connection.passingTransaction(transaction);
+        SeqScan scan = new SeqScan(tableFile.getTableId());
+        scan.open();
+        Assert.assertTrue(scan.hasNext());
+        scan.next();
+        Thread.sleep(100);
+        int rowCount = 1;
+        while (scan.hasNext()) {
+            scan.next();
+            rowCount++;
+        }
+        scan.close();
+        Assert.assertEquals(pageCount, rowCount);
+        transaction.commit();
+
+        Assert.assertTrue(bufferPool.getStats().getReadAheadCount() > 0);
+        Assert.assertTrue("buffer pool size:" + bufferPool.size(), bufferPool.size() < pageCount / 2);
+    }
+}
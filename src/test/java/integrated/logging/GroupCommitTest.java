@@ -0,0 +1,81 @@
+package integrated.logging;
+
+import base.TestBase;
+import com.microdb.logging.RedoLogFile;
+import com.microdb.model.DataBase;
+import com.microdb.transaction.Lock;
+import com.microdb.transaction.Transaction;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 组提交
+ *
+ * @author zhangjw
+ * @version 1.0
+ */
+public class GroupCommitTest extends TestBase {
+
+    @Before
+    public void initDataBase() {
+        DataBase.reset();
+    }
+
+    /**
+     * 并发提交的事务合并落盘，force次数少于提交的事务数
+     */
+    @Test
+    public void testConcurrentCommitsShareForce() throws Exception {
+        int threadCount = 16;
+        int txPerThread = 20;
+        RedoLogFile redoLogFile = DataBase.getRedoLogFile();
+        long forceCountBefore = redoLogFile.getForceCount();
+
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < threadCount; i++) {
+                futures.add(executor.submit(() -> {
+                    for (int j = 0; j < txPerThread; j++) {
+                        Transaction transaction = new Transaction(Lock.LockType.XLock);
+                        transaction.start();
+                        transaction.commit();
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        long forceCount = redoLogFile.getForceCount() - forceCountBefore;
+        System.out.println("commits=" + threadCount * txPerThread + ",forces=" + forceCount);
+        assertTrue(forceCount > 0);
+        assertTrue(forceCount < threadCount * txPerThread);
+    }
+
+    /**
+     * 日志已落盘时，再次flush立即返回
+     */
+    @Test
+    public void testFlushWithoutNewRecords() throws Exception {
+        RedoLogFile redoLogFile = DataBase.getRedoLogFile();
+        Transaction transaction = new Transaction(Lock.LockType.XLock);
+        transaction.start();
+        transaction.commit();
+        long forceCount = redoLogFile.getForceCount();
+
+        redoLogFile.flush();
+        assertTrue(redoLogFile.getForceCount() == forceCount);
+    }
+}
@@ -3,6 +3,7 @@ package integrated.logging;
 import base.TestBase;
 import com.microdb.bufferpool.BufferPool;
 import com.microdb.connection.Connection;
+import com.microdb.logging.RedoLogFile;
 import com.microdb.model.DataBase;
 import com.microdb.model.field.FieldType;
 import com.microdb.model.field.IntField;
@@ -13,6 +14,7 @@ import com.microdb.model.table.tablefile.TableFile;
 import com.microdb.operator.SeqScan;
 import com.microdb.transaction.Lock;
 import com.microdb.transaction.Transaction;
+import com.microdb.transaction.TransactionID;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.FixMethodOrder;
@@ -21,6 +23,8 @@ import org.junit.runners.MethodSorters;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.UUID;
@@ -39,11 +43,13 @@ public class RedoLogTest extends TestBase {
     private BufferPool bufferPool;
     private int tableId;
     private TableFile tableFile;
+    private File file;
 
     @Before
     public void initDataBase() throws IOException {
-        File redoFile = new File("redo");
-        redoFile.delete();
+        // 清除之前用例中未提交事务遗留在线程中的脏页
+        Connection.clearTransaction();
+        Connection.clearDirtyPages();
 
         DataBase.reset();
         DataBase dataBase = DataBase.getInstance();
@@ -62,6 +68,7 @@ public class RedoLogTest extends TestBase {
         personTableDesc = tableDesc;
         this.dataBase = dataBase;
         this.tableFile = tableFile;
+        this.file = file;
     }
 
     /**
@@ -131,4 +138,235 @@ public class RedoLogTest extends TestBase {
         t2.commit();
     }
 
+    /**
+     * 堆表逐行记录redo日志，插入多行的日志量小于一页
+     */
+    @Test
+    public void testRowLevelRedoLog() throws IOException {
+        initDataBase();
+        long logSizeBefore = DataBase.getRedoLogFile().getCurrentLsn();
+        Transaction transaction = new Transaction(Lock.LockType.XLock);
+        transaction.start();
+        Connection.passingTransaction(transaction);
+        for (int i = 0; i < 50; i++) {
+            Row row = new Row(personTableDesc);
+            row.setField(0, new IntField(i));
+            DataBase.getBufferPool().insertRow(row, "t_person");
+        }
+        transaction.commit();
+
+        long logSize = DataBase.getRedoLogFile().getCurrentLsn() - logSizeBefore;
+        Assert.assertTrue(logSize < DataBase.getDBConfig().getPageSizeInByte());
+    }
+
+    /**
+     * 重复恢复：页已包含日志记录的修改(页的LSN不小于记录的LSN)时不再重做
+     */
+    @Test
+    public void testRecoverTwice() throws IOException {
+        initDataBase();
+        Transaction transaction = new Transaction(Lock.LockType.XLock);
+        transaction.start();
+        Connection.passingTransaction(transaction);
+        Row row = new Row(personTableDesc);
+        row.setField(0, new IntField(10));
+        DataBase.getBufferPool().insertRow(row, "t_person");
+        transaction.commit();
+        // 提交后页已刷盘
+        bufferPool.flushAllPage();
+
+        DataBase.resetWithFile(tableFile, "t_person");
+        DataBase.getRedoLogFile().recover();
+        DataBase.resetWithFile(tableFile, "t_person");
+        DataBase.getRedoLogFile().recover();
+
+        Transaction t2 = new Transaction(Lock.LockType.SLock);
+        Connection.passingTransaction(t2);
+        SeqScan scan = new SeqScan(this.tableId);
+        scan.open();
+        int rowCount = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            rowCount++;
+        }
+        Assert.assertEquals(1, rowCount);
+        t2.commit();
+    }
+
+    /**
+     * 检查点之后恢复只读取检查点之后的日志：破坏检查点之前的日志，已提交的数据仍能恢复
+     */
+    @Test
+    public void testRecoverFromCheckpoint() throws IOException {
+        initDataBase();
+        insertAndCommit(1);
+        bufferPool.flushAllPage();
+        DataBase.getRedoLogFile().checkpoint();
+        // 检查点之后提交的数据未刷盘
+        insertAndCommit(2);
+
+        try (RandomAccessFile raf = new RandomAccessFile("redo/00000000000000000000.log", "rw")) {
+            raf.write(new byte[16]);
+        }
+        DataBase.resetWithFile(tableFile, "t_person");
+        DataBase.getRedoLogFile().recover();
+
+        Assert.assertEquals(2, countRows());
+    }
+
+    /**
+     * 检查点时仍未结束的事务，其修改在检查点之前已刷盘，恢复时从事务开始的位置读取日志并回滚
+     */
+    @Test
+    public void testCheckpointWithActiveTransaction() throws IOException {
+        initDataBase();
+        Transaction transaction = new Transaction(Lock.LockType.XLock);
+        transaction.start();
+        Connection.passingTransaction(transaction);
+        Row row = new Row(personTableDesc);
+        row.setField(0, new IntField(10));
+        DataBase.getBufferPool().insertRow(row, "t_person");
+        bufferPool.flushAllPage();
+        DataBase.getRedoLogFile().checkpoint();
+
+        DataBase.resetWithFile(tableFile, "t_person");
+        DataBase.getRedoLogFile().recover();
+
+        Assert.assertEquals(0, countRows());
+    }
+
+    /**
+     * 多个页的修改按页分区并行重做
+     */
+    @Test
+    public void testParallelRedo() throws IOException {
+        initDataBase();
+        Transaction transaction = new Transaction(Lock.LockType.XLock);
+        transaction.start();
+        Connection.passingTransaction(transaction);
+        int rowCount = 2000;
+        for (int i = 0; i < rowCount; i++) {
+            Row row = new Row(personTableDesc);
+            row.setField(0, new IntField(i));
+            DataBase.getBufferPool().insertRow(row, "t_person");
+        }
+        transaction.commit();
+        Assert.assertTrue(tableFile.getExistPageCount() > 1);
+
+        DataBase.resetWithFile(tableFile, "t_person");
+        DataBase.getRedoLogFile().recover();
+
+        Assert.assertEquals(rowCount, countRows());
+    }
+
+    /**
+     * 检查点之后，恢复起点之前的日志段被删除，重新打开后LSN接着已有的日志
+     */
+    @Test
+    public void testCheckpointTruncatesSegments() throws IOException {
+        initDataBase();
+        File dir = new File(UUID.randomUUID().toString());
+        // 每条记录单独一段
+        RedoLogFile redoLogFile = new RedoLogFile(dir, 0, 1, 0, 1);
+        try {
+            for (int i = 0; i < 5; i++) {
+                TransactionID transactionID = new TransactionID();
+                redoLogFile.recordTxStart(transactionID);
+                redoLogFile.recordTxCommit(transactionID);
+            }
+            Assert.assertEquals(10, redoLogFile.getSegmentCount());
+
+            redoLogFile.checkpoint();
+            Assert.assertEquals(1, redoLogFile.getSegmentCount());
+            long lsn = redoLogFile.getCurrentLsn();
+            redoLogFile.shutdown();
+
+            redoLogFile = new RedoLogFile(dir, 0, 1, 0, 1);
+            Assert.assertEquals(lsn, redoLogFile.getCurrentLsn());
+        } finally {
+            redoLogFile.shutdown();
+            delete(dir);
+        }
+    }
+
+    /**
+     * 页写盘时只写了一部分(torn write)，读取时校验失败，由redo日志中的整页镜像和之后的行修改重建；
+     * 运行时终止的事务的修改不出现在重建的页中
+     */
+    @Test
+    public void testRepairTornPageFromRedoLog() throws IOException {
+        initDataBase();
+        insertAndCommit(1);
+        Transaction aborted = new Transaction(Lock.LockType.XLock);
+        aborted.start();
+        Connection.passingTransaction(aborted);
+        Row row = new Row(personTableDesc);
+        row.setField(0, new IntField(2));
+        DataBase.getBufferPool().insertRow(row, "t_person");
+        aborted.abort();
+        insertAndCommit(3);
+        bufferPool.flushAllPage();
+
+        // 页的后半部分仍是旧数据
+        int pageSize = DataBase.getDBConfig().getPageSizeInByte();
+        tearPage(0, pageSize / 2, pageSize / 2);
+
+        DataBase.resetWithFile(tableFile, "t_person");
+        Assert.assertEquals(Arrays.asList(1, 3), personIds());
+        Assert.assertEquals(1, DataBase.getBufferPool().getStats().getCorruptPageCount());
+        Assert.assertEquals(1, DataBase.getBufferPool().getStats().getRepairedPageCount());
+        Assert.assertTrue(DataBase.getBufferPool().getStats().getPageVerificationCount() > 0);
+
+        // 修复后的页已写回表文件
+        DataBase.resetWithFile(tableFile, "t_person");
+        Assert.assertEquals(Arrays.asList(1, 3), personIds());
+        Assert.assertEquals(0, DataBase.getBufferPool().getStats().getCorruptPageCount());
+    }
+
+    private void tearPage(int pageNo, int offsetInPage, int length) throws IOException {
+        int pageSize = DataBase.getDBConfig().getPageSizeInByte();
+        byte[] garbage = new byte[length];
+        Arrays.fill(garbage, (byte) 0x5A);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek((long) pageNo * pageSize + offsetInPage);
+            raf.write(garbage);
+        }
+    }
+
+    private List<Integer> personIds() {
+        Transaction transaction = new Transaction(Lock.LockType.SLock);
+        Connection.passingTransaction(transaction);
+        SeqScan scan = new SeqScan(this.tableId);
+        scan.open();
+        List<Integer> personIds = new ArrayList<>();
+        while (scan.hasNext()) {
+            personIds.add(((IntField) scan.next().getField(0)).getValue());
+        }
+        transaction.commit();
+        return personIds;
+    }
+
+    private void insertAndCommit(int value) throws IOException {
+        Transaction transaction = new Transaction(Lock.LockType.XLock);
+        transaction.start();
+        Connection.passingTransaction(transaction);
+        Row row = new Row(personTableDesc);
+        row.setField(0, new IntField(value));
+        DataBase.getBufferPool().insertRow(row, "t_person");
+        transaction.commit();
+    }
+
+    private int countRows() {
+        Transaction transaction = new Transaction(Lock.LockType.SLock);
+        Connection.passingTransaction(transaction);
+        SeqScan scan = new SeqScan(this.tableId);
+        scan.open();
+        int rowCount = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            rowCount++;
+        }
+        transaction.commit();
+        return rowCount;
+    }
 }
@@ -2,8 +2,13 @@ package integrated.logging;
 
 import base.TestBase;
 import com.microdb.bufferpool.BufferPool;
+import com.microdb.config.DBConfig;
 import com.microdb.connection.Connection;
+import com.microdb.logging.UndoLogFile;
 import com.microdb.model.DataBase;
+import com.microdb.model.page.PageID;
+import com.microdb.model.page.heap.HeapPage;
+import com.microdb.model.page.heap.HeapPageID;
 import com.microdb.model.row.Row;
 import com.microdb.model.table.TableDesc;
 import com.microdb.model.table.tablefile.HeapTableFile;
@@ -13,12 +18,14 @@ import com.microdb.model.field.IntField;
 import com.microdb.operator.SeqScan;
 import com.microdb.transaction.Lock;
 import com.microdb.transaction.Transaction;
+import com.microdb.transaction.TransactionID;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.UUID;
@@ -35,6 +42,7 @@ public class UndoLogTest extends TestBase {
     private TableDesc personTableDesc;
     private BufferPool bufferPool;
     private int tableId;
+    private TableFile tableFile;
 
     @Before
     public void initDataBase() throws IOException {
@@ -50,7 +58,7 @@ public class UndoLogTest extends TestBase {
         File file = new File(fileName);
         file.deleteOnExit();
         TableDesc tableDesc = new TableDesc(attributes);
-        TableFile tableFile = new HeapTableFile(file, tableDesc);
+        tableFile = new HeapTableFile(file, tableDesc);
         dataBase.addTable(tableFile, "t_person");
         this.tableId = tableFile.getTableId();
         personTableDesc = tableDesc;
@@ -93,4 +101,163 @@ public class UndoLogTest extends TestBase {
         tx2.commit();
     }
 
+    /**
+     * 页未刷盘时，终止事务由内存undo链在缓冲池中回滚，页恢复为干净页，不写undo文件
+     */
+    @Test
+    public void testAbortInBufferPool() throws IOException {
+        Transaction transaction = new Transaction(Lock.LockType.XLock);
+        transaction.start();
+        Connection.passingTransaction(transaction);
+        Row row = new Row(personTableDesc);
+        row.setField(0, new IntField(1));
+        row.setField(1, new IntField(18));
+        DataBase.getBufferPool().insertRow(row, "t_person");
+        PageID pageID = row.getRowID().getPageID();
+        transaction.abort();
+
+        Assert.assertFalse(bufferPool.getCachedPage(pageID).isDirty());
+        Assert.assertEquals(0, countRows());
+    }
+
+    /**
+     * 内存undo链超出上限后转存到undo文件，终止事务时由undo文件回滚
+     */
+    @Test
+    public void testAbortAfterSpill() throws IOException {
+        long maxSize = DataBase.getDBConfig().getUndoChainMaxSizeInByte();
+        DataBase.getDBConfig().setUndoChainMaxSizeInByte(1);
+        try {
+            Transaction transaction = new Transaction(Lock.LockType.XLock);
+            transaction.start();
+            Connection.passingTransaction(transaction);
+            for (int i = 1; i <= 10; i++) {
+                Row row = new Row(personTableDesc);
+                row.setField(0, new IntField(i));
+                row.setField(1, new IntField(18));
+                DataBase.getBufferPool().insertRow(row, "t_person");
+            }
+            transaction.abort();
+        } finally {
+            DataBase.getDBConfig().setUndoChainMaxSizeInByte(maxSize);
+        }
+        Assert.assertEquals(0, countRows());
+    }
+
+    /**
+     * 两个事务交替修改同一页，一个提交后页被刷盘，另一个终止时只撤销自己的行，撤销后的页写回表文件
+     */
+    @Test
+    public void testAbortStolenPageSharedWithCommittedTransaction() throws IOException {
+        Transaction txA = startTransaction();
+        Transaction txB = startTransaction();
+        insert(txA, 1);
+        insert(txB, 2);
+        insert(txA, 3);
+        Connection.passingTransaction(txB);
+        txB.commit();
+
+        bufferPool.flushAllPage();
+        Connection.passingTransaction(txA);
+        txA.abort();
+        Assert.assertEquals(Arrays.asList(2), personIds());
+
+        DataBase.resetWithFile(tableFile, "t_person");
+        Assert.assertEquals(Arrays.asList(2), personIds());
+    }
+
+    /**
+     * 页被刷盘后终止的事务不影响同一页上其他事务未提交的行，该事务之后仍可提交
+     */
+    @Test
+    public void testAbortStolenPageSharedWithActiveTransaction() throws IOException {
+        Transaction txA = startTransaction();
+        Transaction txB = startTransaction();
+        insert(txA, 1);
+        insert(txB, 2);
+
+        bufferPool.flushAllPage();
+        Connection.passingTransaction(txA);
+        txA.abort();
+        Connection.passingTransaction(txB);
+        txB.commit();
+        Assert.assertEquals(Arrays.asList(2), personIds());
+
+        DataBase.resetWithFile(tableFile, "t_person");
+        Assert.assertEquals(Arrays.asList(2), personIds());
+    }
+
+    private static Transaction startTransaction() {
+        Transaction transaction = new Transaction(Lock.LockType.XLock);
+        transaction.start();
+        return transaction;
+    }
+
+    private void insert(Transaction transaction, int personId) throws IOException {
+        Connection.passingTransaction(transaction);
+        Row row = new Row(personTableDesc);
+        row.setField(0, new IntField(personId));
+        row.setField(1, new IntField(18));
+        DataBase.getBufferPool().insertRow(row, "t_person");
+    }
+
+    private List<Integer> personIds() {
+        Transaction transaction = new Transaction(Lock.LockType.SLock);
+        transaction.start();
+        Connection.passingTransaction(transaction);
+        SeqScan scan = new SeqScan(this.tableId);
+        scan.open();
+        List<Integer> personIds = new ArrayList<>();
+        while (scan.hasNext()) {
+            personIds.add(((IntField) scan.next().getField(0)).getValue());
+        }
+        transaction.commit();
+        return personIds;
+    }
+
+    private int countRows() {
+        Transaction transaction = new Transaction(Lock.LockType.SLock);
+        transaction.start();
+        Connection.passingTransaction(transaction);
+        SeqScan scan = new SeqScan(this.tableId);
+        scan.open();
+        int rowCount = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            rowCount++;
+        }
+        transaction.commit();
+        return rowCount;
+    }
+
+    /**
+     * 事务结束后，最老的活跃事务开始之前的日志段被删除
+     */
+    @Test
+    public void testTruncateSegmentsOfFinishedTransactions() throws IOException {
+        // 每条记录单独一段
+        DBConfig dbConfig = new DBConfig(4096, 100);
+        dbConfig.setLogSegmentSizeInByte(1);
+        File dir = new File(UUID.randomUUID().toString());
+        UndoLogFile undoLogFile = new UndoLogFile(dir, dbConfig);
+        try {
+            HeapPage page = new HeapPage(new HeapPageID(tableId, 0), HeapPage.createEmptyPageData());
+            TransactionID tx1 = new TransactionID();
+            TransactionID tx2 = new TransactionID();
+            undoLogFile.recordTxStart(tx1);
+            undoLogFile.recordBeforePageWhenFlushDisk(tx1, page);
+            undoLogFile.recordBeforePageWhenFlushDisk(tx1, page);
+            undoLogFile.recordTxStart(tx2);
+            undoLogFile.recordBeforePageWhenFlushDisk(tx2, page);
+            Assert.assertEquals(3, undoLogFile.getSegmentCount());
+
+            undoLogFile.recordTxCommit(tx1);
+            Assert.assertEquals(1, undoLogFile.getSegmentCount());
+            undoLogFile.recordTxCommit(tx2);
+            Assert.assertEquals(1, undoLogFile.getSegmentCount());
+        } finally {
+            undoLogFile.close();
+            delete(dir);
+        }
+    }
 }
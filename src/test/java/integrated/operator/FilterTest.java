@@ -22,6 +22,7 @@ import org.junit.Test;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.UUID;
@@ -101,4 +102,33 @@ public class FilterTest extends TestBase {
 
         transaction.commit();
     }
+
+    /**
+     * 条件下推到堆表扫描后结果不变；同一个seqScan换用其他条件时，按新条件过滤
+     */
+    @Test
+    public void testPredicatePushedDownToSeqScan() {
+        Transaction transaction = new Transaction(Lock.LockType.XLock);
+        transaction.start();
+        Connection.passingTransaction(transaction);
+
+        SeqScan seqScan = new SeqScan(this.dataBase.getDbTableByName("t_person").getTableId());
+        Filter filter = new Filter(new FilterPredicate(0, PredicateEnum.GREATER_THAN_OR_EQ, new IntField(15)), seqScan);
+        Assert.assertEquals(Arrays.asList(15, 16, 17, 18, 19), collect(filter));
+
+        Filter filter2 = new Filter(new FilterPredicate(0, PredicateEnum.LESS_THAN, new IntField(3)), seqScan);
+        Assert.assertEquals(Arrays.asList(0, 1, 2), collect(filter2));
+
+        transaction.commit();
+    }
+
+    private List<Integer> collect(Filter filter) {
+        List<Integer> values = new ArrayList<>();
+        filter.open();
+        while (filter.hasNext()) {
+            values.add(((IntField) filter.next().getField(0)).getValue());
+        }
+        filter.close();
+        return values;
+    }
 }
@@ -3,17 +3,21 @@ package integrated.transaction;
 import base.TestBase;
 import com.microdb.bufferpool.BufferPool;
 import com.microdb.connection.Connection;
+import com.microdb.exception.DeadlockException;
 import com.microdb.model.DataBase;
 import com.microdb.model.field.FieldType;
 import com.microdb.model.field.IntField;
 import com.microdb.model.page.Page;
+import com.microdb.model.page.PageID;
 import com.microdb.model.page.heap.HeapPageID;
 import com.microdb.model.row.Row;
 import com.microdb.model.table.DbTable;
 import com.microdb.model.table.TableDesc;
 import com.microdb.model.table.tablefile.HeapTableFile;
+import com.microdb.model.table.tablefile.ITableFileIterator;
 import com.microdb.model.table.tablefile.TableFile;
 import com.microdb.transaction.Lock;
+import com.microdb.transaction.LockManager;
 import com.microdb.transaction.Transaction;
 import org.junit.Before;
 import org.junit.Test;
@@ -26,7 +30,12 @@ import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.*;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 /**
@@ -316,4 +325,272 @@ public class LockTest extends TestBase {
         // 终止所有线程
         threadPool.shutdownNow();
     }
+
+    /**
+     * 两个事务同时向同一页插入，页上只加IX锁，应互不阻塞，插入不同的slot
+     */
+    @Test
+    public void concurrentInsertSamePage() throws Exception {
+        DbTable table = createTable("t_hot");
+        ExecutorService thread1 = Executors.newSingleThreadExecutor();
+        ExecutorService thread2 = Executors.newSingleThreadExecutor();
+        Transaction transaction1 = new Transaction(Lock.LockType.XLock);
+        Transaction transaction2 = new Transaction(Lock.LockType.XLock);
+        try {
+            Row row1 = thread1.submit(() -> insert(transaction1, table, 1)).get(1, TimeUnit.SECONDS);
+            // 事务1未提交
+            Row row2 = thread2.submit(() -> insert(transaction2, table, 2)).get(1, TimeUnit.SECONDS);
+
+            assertEquals(row1.getRowID().getPageID(), row2.getRowID().getPageID());
+            assertNotEquals(row1.getRowID().getSlotIndex(), row2.getRowID().getSlotIndex());
+            assertEquals(Lock.LockMode.IX,
+                    DataBase.getLockManager().getTableLockMode(transaction1.getTransactionId(), table.getTableId()));
+
+            thread1.submit(transaction1::commit).get();
+            thread2.submit(transaction2::commit).get();
+            assertEquals(2, countRows(table));
+        } finally {
+            thread1.shutdownNow();
+            thread2.shutdownNow();
+        }
+    }
+
+    /**
+     * 同一页上两个事务并发插入，一个终止、一个提交，只回滚终止事务插入的行
+     */
+    @Test
+    public void abortWithConcurrentWriterOnSamePage() throws Exception {
+        DbTable table = createTable("t_hot");
+        ExecutorService thread1 = Executors.newSingleThreadExecutor();
+        ExecutorService thread2 = Executors.newSingleThreadExecutor();
+        Transaction transaction1 = new Transaction(Lock.LockType.XLock);
+        Transaction transaction2 = new Transaction(Lock.LockType.XLock);
+        try {
+            thread1.submit(() -> insert(transaction1, table, 1)).get(1, TimeUnit.SECONDS);
+            Row row2 = thread2.submit(() -> insert(transaction2, table, 2)).get(1, TimeUnit.SECONDS);
+
+            thread1.submit(transaction1::abort).get();
+            thread2.submit(transaction2::commit).get();
+
+            assertEquals(1, countRows(table));
+            Page page = bufferPool.getCachedPage(row2.getRowID().getPageID());
+            assertTrue(page.isDirty());
+        } finally {
+            thread1.shutdownNow();
+            thread2.shutdownNow();
+        }
+    }
+
+    /**
+     * 未提交事务删除的行仍持有行锁，其他事务插入时不能复用该slot
+     */
+    @Test
+    public void deletedSlotNotReusedBeforeCommit() throws Exception {
+        DbTable table = createTable("t_hot");
+        Transaction transaction = new Transaction(Lock.LockType.XLock);
+        Connection.passingTransaction(transaction);
+        Row row = insert(transaction, table, 1);
+        transaction.commit();
+
+        ExecutorService thread1 = Executors.newSingleThreadExecutor();
+        ExecutorService thread2 = Executors.newSingleThreadExecutor();
+        Transaction transaction1 = new Transaction(Lock.LockType.XLock);
+        Transaction transaction2 = new Transaction(Lock.LockType.XLock);
+        try {
+            thread1.submit(() -> {
+                Connection.passingTransaction(transaction1);
+                DataBase.getBufferPool().deleteRow(row);
+                return null;
+            }).get(1, TimeUnit.SECONDS);
+            Row inserted = thread2.submit(() -> insert(transaction2, table, 2)).get(1, TimeUnit.SECONDS);
+            assertNotEquals(row.getRowID(), inserted.getRowID());
+
+            thread1.submit(transaction1::abort).get();
+            thread2.submit(transaction2::commit).get();
+            assertEquals(2, countRows(table));
+        } finally {
+            thread1.shutdownNow();
+            thread2.shutdownNow();
+        }
+    }
+
+    /**
+     * 行锁数超出阈值时升级为表锁，释放行锁
+     */
+    @Test
+    public void lockEscalation() throws Exception {
+        DbTable table = createTable("t_hot");
+        int threshold = DataBase.getDBConfig().getLockEscalationThreshold();
+        DataBase.getDBConfig().setLockEscalationThreshold(10);
+        try {
+            Transaction transaction = new Transaction(Lock.LockType.XLock);
+            Connection.passingTransaction(transaction);
+            for (int i = 0; i < 10; i++) {
+                insert(transaction, table, i);
+            }
+            assertEquals(10, DataBase.getLockManager().getRowLockCount(transaction.getTransactionId()));
+
+            insert(transaction, table, 10);
+            assertEquals(0, DataBase.getLockManager().getRowLockCount(transaction.getTransactionId()));
+            assertEquals(Lock.LockMode.X,
+                    DataBase.getLockManager().getTableLockMode(transaction.getTransactionId(), table.getTableId()));
+
+            // 升级后的插入不再加行锁
+            insert(transaction, table, 11);
+            assertEquals(0, DataBase.getLockManager().getRowLockCount(transaction.getTransactionId()));
+            transaction.commit();
+            assertEquals(12, countRows(table));
+        } finally {
+            DataBase.getDBConfig().setLockEscalationThreshold(threshold);
+        }
+    }
+
+    /**
+     * 表被其他事务锁定时升级失败，保留行锁；行锁数再增加一个阈值后才重试
+     */
+    @Test
+    public void lockEscalationRetryAfterThresholdStep() throws Exception {
+        DbTable table = createTable("t_hot");
+        int threshold = DataBase.getDBConfig().getLockEscalationThreshold();
+        DataBase.getDBConfig().setLockEscalationThreshold(10);
+        try {
+            // 其他事务持有表的IS锁，与表X锁不兼容
+            Transaction blocker = new Transaction(Lock.LockType.SLock);
+            assertTrue(DataBase.getLockManager().tryAcquireLock(blocker,
+                    new HeapPageID(table.getTableId(), 1000), Lock.LockMode.S));
+
+            Transaction transaction = new Transaction(Lock.LockType.XLock);
+            Connection.passingTransaction(transaction);
+            for (int i = 0; i < 11; i++) {
+                insert(transaction, table, i);
+            }
+            assertEquals(11, DataBase.getLockManager().getRowLockCount(transaction.getTransactionId()));
+
+            DataBase.getLockManager().releaseLock(blocker.getTransactionId());
+            for (int i = 11; i < 20; i++) {
+                insert(transaction, table, i);
+            }
+            assertEquals(20, DataBase.getLockManager().getRowLockCount(transaction.getTransactionId()));
+
+            insert(transaction, table, 20);
+            assertEquals(0, DataBase.getLockManager().getRowLockCount(transaction.getTransactionId()));
+            assertEquals(Lock.LockMode.X,
+                    DataBase.getLockManager().getTableLockMode(transaction.getTransactionId(), table.getTableId()));
+            transaction.commit();
+            assertEquals(21, countRows(table));
+        } finally {
+            DataBase.getDBConfig().setLockEscalationThreshold(threshold);
+        }
+    }
+
+    /**
+     * 等待队列先进先出：X锁请求等待时，后到的S锁请求不能越过它
+     */
+    @Test
+    public void waitersGrantedInFifoOrder() throws Exception {
+        DbTable table = DataBase.getInstance().getDbTableByName("t_person");
+        HeapPageID heapPageID = new HeapPageID(table.getTableId(), 0);
+        ExecutorService thread1 = Executors.newSingleThreadExecutor();
+        ExecutorService thread2 = Executors.newSingleThreadExecutor();
+        ExecutorService thread3 = Executors.newSingleThreadExecutor();
+        Transaction reader1 = new Transaction(Lock.LockType.SLock);
+        Transaction writer = new Transaction(Lock.LockType.XLock);
+        Transaction reader2 = new Transaction(Lock.LockType.SLock);
+        try {
+            thread1.submit(() -> getPage(reader1, heapPageID)).get(1, TimeUnit.SECONDS);
+            Future<Page> writerFuture = thread2.submit(() -> getPage(writer, heapPageID));
+            Thread.sleep(200);
+            Future<Page> reader2Future = thread3.submit(() -> getPage(reader2, heapPageID));
+            Thread.sleep(200);
+            assertFalse(writerFuture.isDone());
+            assertFalse(reader2Future.isDone());
+
+            thread1.submit(reader1::commit).get();
+            assertNotNull(writerFuture.get(1, TimeUnit.SECONDS));
+            Thread.sleep(200);
+            assertFalse(reader2Future.isDone());
+
+            thread2.submit(writer::commit).get();
+            assertNotNull(reader2Future.get(1, TimeUnit.SECONDS));
+            thread3.submit(reader2::commit).get();
+        } finally {
+            thread1.shutdownNow();
+            thread2.shutdownNow();
+            thread3.shutdownNow();
+        }
+    }
+
+    /**
+     * 两个事务交叉等待对方的页锁，应立即检测到死锁，终止较年轻的事务，另一个事务获得锁
+     */
+    @Test
+    public void deadlockDetected() throws Exception {
+        DbTable table = DataBase.getInstance().getDbTableByName("t_person");
+        HeapPageID page0 = new HeapPageID(table.getTableId(), 0);
+        HeapPageID page1 = new HeapPageID(table.getTableId(), 1);
+        ExecutorService thread1 = Executors.newSingleThreadExecutor();
+        ExecutorService thread2 = Executors.newSingleThreadExecutor();
+        Transaction older = new Transaction(Lock.LockType.XLock);
+        Transaction younger = new Transaction(Lock.LockType.XLock);
+        try {
+            thread1.submit(() -> getPage(older, page0)).get(1, TimeUnit.SECONDS);
+            thread2.submit(() -> getPage(younger, page1)).get(1, TimeUnit.SECONDS);
+            Future<Page> olderFuture = thread1.submit(() -> getPage(older, page1));
+            Thread.sleep(200);
+            assertFalse(olderFuture.isDone());
+
+            long start = System.currentTimeMillis();
+            try {
+                thread2.submit(() -> getPage(younger, page0)).get(2, TimeUnit.SECONDS);
+                fail("expected deadlock");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof DeadlockException);
+            }
+            assertTrue(System.currentTimeMillis() - start < LockManager.defaultTimeOutInMillis);
+
+            // 牺牲者已终止并释放锁
+            assertNotNull(olderFuture.get(1, TimeUnit.SECONDS));
+            assertNull(DataBase.getLockManager().getPageIDs(younger.getTransactionId()));
+            thread1.submit(older::commit).get();
+        } finally {
+            thread1.shutdownNow();
+            thread2.shutdownNow();
+        }
+    }
+
+    private Page getPage(Transaction transaction, PageID pageID) {
+        Connection.passingTransaction(transaction);
+        return DataBase.getBufferPool().getPage(pageID);
+    }
+
+    private DbTable createTable(String tableName) {
+        File file = new File(UUID.randomUUID().toString());
+        file.deleteOnExit();
+        dataBase.addTable(new HeapTableFile(file, personTableDesc), tableName);
+        return dataBase.getDbTableByName(tableName);
+    }
+
+    private Row insert(Transaction transaction, DbTable table, int personId) throws IOException {
+        Connection.passingTransaction(transaction);
+        Row row = new Row(personTableDesc);
+        row.setField(0, new IntField(personId));
+        row.setField(1, new IntField(18));
+        DataBase.getBufferPool().insertRow(row, table.getTableName());
+        return row;
+    }
+
+    private int countRows(DbTable table) {
+        Transaction transaction = new Transaction(Lock.LockType.SLock);
+        Connection.passingTransaction(transaction);
+        int count = 0;
+        ITableFileIterator iterator = table.getTableFile().getIterator();
+        iterator.open();
+        while (iterator.hasNext()) {
+            iterator.next();
+            count++;
+        }
+        iterator.close();
+        transaction.commit();
+        return count;
+    }
 }
@@ -0,0 +1,176 @@
+package integrated.transaction;
+
+import base.TestBase;
+import com.microdb.connection.Connection;
+import com.microdb.model.DataBase;
+import com.microdb.model.field.FieldType;
+import com.microdb.model.field.IntField;
+import com.microdb.model.row.Row;
+import com.microdb.model.table.DbTable;
+import com.microdb.model.table.TableDesc;
+import com.microdb.model.table.tablefile.HeapTableFile;
+import com.microdb.model.table.tablefile.ITableFileIterator;
+import com.microdb.model.table.tablefile.TableFile;
+import com.microdb.transaction.Lock;
+import com.microdb.transaction.Transaction;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 多版本并发控制
+ *
+ * @author zhangjw
+ * @version 1.0
+ */
+public class MvccTest extends TestBase {
+    private DataBase dataBase;
+    private TableDesc personTableDesc;
+    private DbTable table;
+    private List<Row> initRows;
+
+    @Before
+    public void initDataBase() throws IOException {
+        dataBase = DataBase.getInstance();
+        List<TableDesc.Attribute> attributes = Arrays.asList(new TableDesc.Attribute("person_id", FieldType.INT),
+                new TableDesc.Attribute("person_age", FieldType.INT));
+        personTableDesc = new TableDesc(attributes);
+
+        File file = new File(UUID.randomUUID().toString());
+        file.deleteOnExit();
+        TableFile tableFile = new HeapTableFile(file, personTableDesc);
+        dataBase.addTable(tableFile, "t_person");
+        table = dataBase.getDbTableByName("t_person");
+
+        initRows = new ArrayList<>();
+        Transaction transaction = new Transaction(Lock.LockType.XLock);
+        for (int i = 1; i <= 10; i++) {
+            initRows.add(insert(transaction, i));
+        }
+        transaction.commit();
+    }
+
+    /**
+     * 读事务不被未提交的写事务阻塞，也看不到其修改
+     */
+    @Test
+    public void readerNotBlockedByUncommittedWriter() throws Exception {
+        ExecutorService writerThread = Executors.newSingleThreadExecutor();
+        ExecutorService readerThread = Executors.newSingleThreadExecutor();
+        Transaction writer = new Transaction(Lock.LockType.XLock);
+        try {
+            writerThread.submit(() -> {
+                insert(writer, 11);
+                delete(writer, initRows.get(0));
+                return null;
+            }).get(1, TimeUnit.SECONDS);
+
+            List<Integer> personIds = readerThread.submit(() -> {
+                Transaction reader = new Transaction(Lock.LockType.SLock);
+                List<Integer> ids = scan(reader);
+                reader.commit();
+                return ids;
+            }).get(1, TimeUnit.SECONDS);
+            assertEquals(10, personIds.size());
+            assertTrue(personIds.contains(1));
+            assertFalse(personIds.contains(11));
+
+            writerThread.submit(writer::commit).get();
+        } finally {
+            writerThread.shutdownNow();
+            readerThread.shutdownNow();
+        }
+    }
+
+    /**
+     * 快照在第一次快照读时确定：之后提交的修改对已读取过的读事务不可见，对新的读事务可见
+     */
+    @Test
+    public void snapshotIsolation() throws Exception {
+        Transaction oldReader = new Transaction(Lock.LockType.SLock);
+        oldReader.start();
+        assertEquals(10, scan(oldReader).size());
+
+        Transaction writer = new Transaction(Lock.LockType.XLock);
+        insert(writer, 11);
+        delete(writer, initRows.get(0));
+        writer.commit();
+
+        List<Integer> oldIds = scan(oldReader);
+        assertEquals(10, oldIds.size());
+        assertTrue(oldIds.contains(1));
+        assertFalse(oldIds.contains(11));
+
+        Transaction newReader = new Transaction(Lock.LockType.SLock);
+        List<Integer> newIds = scan(newReader);
+        assertEquals(10, newIds.size());
+        assertFalse(newIds.contains(1));
+        assertTrue(newIds.contains(11));
+        newReader.commit();
+
+        // 旧快照仍在，版本不能清理
+        assertTrue(DataBase.getVersionStore().getVersionCount() > 0);
+        oldReader.commit();
+        assertEquals(0, DataBase.getVersionStore().getVersionCount());
+    }
+
+    /**
+     * 终止事务的修改对任何快照都不可见，回滚后版本被删除
+     */
+    @Test
+    public void abortedChangesInvisible() throws Exception {
+        Transaction reader = new Transaction(Lock.LockType.SLock);
+        reader.start();
+
+        Transaction writer = new Transaction(Lock.LockType.XLock);
+        insert(writer, 11);
+        delete(writer, initRows.get(0));
+        writer.abort();
+
+        assertEquals(0, DataBase.getVersionStore().getVersionCount());
+        List<Integer> ids = scan(reader);
+        assertEquals(10, ids.size());
+        assertTrue(ids.contains(1));
+        assertFalse(ids.contains(11));
+        reader.commit();
+    }
+
+    private Row insert(Transaction transaction, int personId) throws IOException {
+        Connection.passingTransaction(transaction);
+        Row row = new Row(personTableDesc);
+        row.setField(0, new IntField(personId));
+        row.setField(1, new IntField(18));
+        DataBase.getBufferPool().insertRow(row, table.getTableName());
+        return row;
+    }
+
+    private void delete(Transaction transaction, Row row) throws IOException {
+        Connection.passingTransaction(transaction);
+        DataBase.getBufferPool().deleteRow(row);
+    }
+
+    private List<Integer> scan(Transaction transaction) {
+        Connection.passingTransaction(transaction);
+        List<Integer> personIds = new ArrayList<>();
+        ITableFileIterator iterator = table.getTableFile().getIterator();
+        iterator.open();
+        while (iterator.hasNext()) {
+            personIds.add(((IntField) iterator.next().getField(0)).getValue());
+        }
+        iterator.close();
+        return personIds;
+    }
+}
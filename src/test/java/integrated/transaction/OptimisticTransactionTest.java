@@ -0,0 +1,214 @@
+package integrated.transaction;
+
+import base.TestBase;
+import com.microdb.connection.Connection;
+import com.microdb.exception.ValidationException;
+import com.microdb.model.DataBase;
+import com.microdb.model.field.FieldType;
+import com.microdb.model.field.IntField;
+import com.microdb.model.row.Row;
+import com.microdb.model.table.DbTable;
+import com.microdb.model.table.TableDesc;
+import com.microdb.model.table.tablefile.HeapTableFile;
+import com.microdb.model.table.tablefile.ITableFileIterator;
+import com.microdb.transaction.Lock;
+import com.microdb.transaction.Transaction;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 乐观事务
+ *
+ * @author zhangjw
+ * @version 1.0
+ */
+public class OptimisticTransactionTest extends TestBase {
+    private DataBase dataBase;
+    private TableDesc personTableDesc;
+    private DbTable table;
+    private List<Row> initRows;
+
+    @Before
+    public void initDataBase() throws IOException {
+        dataBase = DataBase.getInstance();
+        List<TableDesc.Attribute> attributes = Arrays.asList(new TableDesc.Attribute("person_id", FieldType.INT),
+                new TableDesc.Attribute("person_age", FieldType.INT));
+        personTableDesc = new TableDesc(attributes);
+        table = createTable("t_person");
+
+        initRows = new ArrayList<>();
+        Transaction transaction = new Transaction(Lock.LockType.XLock);
+        for (int i = 1; i <= 10; i++) {
+            initRows.add(insert(transaction, table, i));
+        }
+        transaction.commit();
+    }
+
+    /**
+     * 修改缓存在私有页副本中：提交前只有本事务可见，提交后写入缓冲池
+     */
+    @Test
+    public void commitInstallsBufferedWrites() throws IOException {
+        Transaction transaction = new Transaction(Lock.LockType.XLock, true);
+        insert(transaction, table, 11);
+        delete(transaction, initRows.get(0));
+
+        List<Integer> ownIds = scan(transaction, table);
+        assertEquals(10, ownIds.size());
+        assertTrue(ownIds.contains(11));
+        assertFalse(ownIds.contains(1));
+        // 读写均不加页锁
+        assertNull(DataBase.getLockManager().getPageIDs(transaction.getTransactionId()));
+        // 其他事务看不到未提交的修改
+        List<Integer> otherIds = scanInNewTransaction(table);
+        assertTrue(otherIds.contains(1));
+        assertFalse(otherIds.contains(11));
+
+        Connection.passingTransaction(transaction);
+        transaction.commit();
+
+        List<Integer> committedIds = scanInNewTransaction(table);
+        assertEquals(10, committedIds.size());
+        assertTrue(committedIds.contains(11));
+        assertFalse(committedIds.contains(1));
+        assertTrue(DataBase.getBufferPool().getCachedPage(initRows.get(0).getRowID().getPageID()).isDirty());
+        // 校验到重放期间pin住的页在提交后释放
+        assertEquals(0, DataBase.getBufferPool().getPinCount(initRows.get(0).getRowID().getPageID()));
+    }
+
+    /**
+     * 读过的页在提交前被其他事务修改，校验失败，事务终止，以新事务重试成功
+     */
+    @Test
+    public void conflictAbortsAndRetry() throws IOException {
+        Transaction transaction = new Transaction(Lock.LockType.XLock, true);
+        scan(transaction, table);
+        insert(transaction, table, 11);
+
+        Transaction other = new Transaction(Lock.LockType.XLock);
+        insert(other, table, 12);
+        other.commit();
+
+        Connection.passingTransaction(transaction);
+        try {
+            transaction.commit();
+            fail("expected validation failure");
+        } catch (ValidationException ignored) {
+        }
+        assertNull(DataBase.getLockManager().getPageIDs(transaction.getTransactionId()));
+        assertEquals(0, DataBase.getBufferPool().getPinCount(initRows.get(0).getRowID().getPageID()));
+        List<Integer> ids = scanInNewTransaction(table);
+        assertEquals(11, ids.size());
+        assertFalse(ids.contains(11));
+
+        Transaction retry = new Transaction(Lock.LockType.XLock, true);
+        insert(retry, table, 11);
+        retry.commit();
+        assertEquals(12, scanInNewTransaction(table).size());
+    }
+
+    /**
+     * 页上有其他事务未提交的修改时，提交不等待锁，立即校验失败
+     */
+    @Test
+    public void conflictWithUncommittedWriterDoesNotWait() throws Exception {
+        ExecutorService writerThread = Executors.newSingleThreadExecutor();
+        Transaction writer = new Transaction(Lock.LockType.XLock);
+        try {
+            writerThread.submit(() -> insert(writer, table, 12)).get(1, TimeUnit.SECONDS);
+
+            Transaction transaction = new Transaction(Lock.LockType.XLock, true);
+            delete(transaction, initRows.get(0));
+            long start = System.currentTimeMillis();
+            try {
+                transaction.commit();
+                fail("expected validation failure");
+            } catch (ValidationException ignored) {
+            }
+            assertTrue(System.currentTimeMillis() - start < DataBase.getLockManager().getDefaultTimeOutInMillis());
+
+            writerThread.submit(writer::commit).get();
+            List<Integer> ids = scanInNewTransaction(table);
+            assertEquals(11, ids.size());
+            assertTrue(ids.contains(1));
+        } finally {
+            writerThread.shutdownNow();
+        }
+    }
+
+    /**
+     * 修改不同表的乐观事务互不冲突，均提交成功
+     */
+    @Test
+    public void nonConflictingTransactionsCommit() throws IOException {
+        DbTable otherTable = createTable("t_other");
+        Transaction transaction1 = new Transaction(Lock.LockType.XLock, true);
+        Transaction transaction2 = new Transaction(Lock.LockType.XLock, true);
+        insert(transaction1, table, 11);
+        insert(transaction2, otherTable, 1);
+
+        Connection.passingTransaction(transaction1);
+        transaction1.commit();
+        Connection.passingTransaction(transaction2);
+        transaction2.commit();
+
+        assertEquals(11, scanInNewTransaction(table).size());
+        assertEquals(1, scanInNewTransaction(otherTable).size());
+    }
+
+    private DbTable createTable(String tableName) {
+        File file = new File(UUID.randomUUID().toString());
+        file.deleteOnExit();
+        dataBase.addTable(new HeapTableFile(file, personTableDesc), tableName);
+        return dataBase.getDbTableByName(tableName);
+    }
+
+    private Row insert(Transaction transaction, DbTable table, int personId) throws IOException {
+        Connection.passingTransaction(transaction);
+        Row row = new Row(personTableDesc);
+        row.setField(0, new IntField(personId));
+        row.setField(1, new IntField(18));
+        DataBase.getBufferPool().insertRow(row, table.getTableName());
+        return row;
+    }
+
+    private void delete(Transaction transaction, Row row) throws IOException {
+        Connection.passingTransaction(transaction);
+        DataBase.getBufferPool().deleteRow(row);
+    }
+
+    private List<Integer> scan(Transaction transaction, DbTable table) {
+        Connection.passingTransaction(transaction);
+        List<Integer> personIds = new ArrayList<>();
+        ITableFileIterator iterator = table.getTableFile().getIterator();
+        iterator.open();
+        while (iterator.hasNext()) {
+            personIds.add(((IntField) iterator.next().getField(0)).getValue());
+        }
+        iterator.close();
+        return personIds;
+    }
+
+    private List<Integer> scanInNewTransaction(DbTable table) {
+        Transaction transaction = new Transaction(Lock.LockType.SLock);
+        List<Integer> personIds = scan(transaction, table);
+        transaction.commit();
+        return personIds;
+    }
+}
@@ -68,8 +68,8 @@ public class DataBaseTest extends TestBase {
     }
 
     /**
-     * 当配置一页4096字节，表t_person有一个int型字段，占用4字节，slot状态占用1字节
-     * 4096/(4+1) = 819(向下取整)，即每页可容纳819行
+     * 当配置一页4096字节，页头占用12字节、页尾保留5字节写入校验和，表t_person有一个int型字段，元组定长4字节，不需要slot目录，slot状态占用1位
+     * (4096-12-5)*8/(4*8+1) = 988(向下取整)，即每页可容纳988行
      */
     @Test
     public void testCalculateMaxSlotNum() throws IOException {
@@ -77,7 +77,7 @@ public class DataBaseTest extends TestBase {
         HeapPage heapPage = new HeapPage(new HeapPageID(tablePerson.getTableId(), 0), HeapPage.createEmptyPageData());
         int i = heapPage.calculateMaxSlotNum(tablePerson.getTableDesc());
         System.out.println(i);
-        Assert.assertEquals(819, i);
+        Assert.assertEquals(988, i);
     }
 
     /**
@@ -93,7 +93,7 @@ public class DataBaseTest extends TestBase {
         Connection.passingTransaction(transaction);
 
         // 第1页
-        for (int i = 0; i < 819; i++) {
+        for (int i = 0; i < 988; i++) {
             row.setField(0, new IntField(i));
             tablePerson.insertRow(row);
             int existPageCount = tablePerson.getTableFile().getExistPageCount();
@@ -101,7 +101,7 @@ public class DataBaseTest extends TestBase {
         }
 
         // 第2页
-        for (int i = 0; i < 819; i++) {
+        for (int i = 0; i < 988; i++) {
             row.setField(0, new IntField(i));
             tablePerson.insertRow(row);
             int existPageCount = tablePerson.getTableFile().getExistPageCount();
@@ -0,0 +1,65 @@
+package unit.bufferpool;
+
+import base.TestBase;
+import com.microdb.bufferpool.OffHeapPageArena;
+import com.microdb.model.page.PageID;
+import com.microdb.model.page.heap.HeapPageID;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 堆外页缓存
+ *
+ * @author zhangjw
+ * @version 1.0
+ */
+public class OffHeapPageArenaTest extends TestBase {
+
+    private static PageID pageID(int pageNo) {
+        return new HeapPageID(1, pageNo);
+    }
+
+    private static byte[] pageData(int size, int value) {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) (value + i);
+        }
+        return data;
+    }
+
+    @Test
+    public void testPutAndTake() {
+        OffHeapPageArena arena = new OffHeapPageArena(2, 16);
+        arena.put(pageID(0), pageData(16, 1));
+        arena.put(pageID(1), pageData(9, 2));
+
+        assertArrayEquals(pageData(9, 2), arena.take(pageID(1)));
+        assertArrayEquals(pageData(16, 1), arena.take(pageID(0)));
+        // 取出后槽位释放
+        assertNull(arena.take(pageID(0)));
+        assertEquals(0, arena.size());
+    }
+
+    /**
+     * 槽位用尽时淘汰最久未访问的页
+     */
+    @Test
+    public void testEvictLeastRecentlyUsed() {
+        OffHeapPageArena arena = new OffHeapPageArena(2, 16);
+        arena.put(pageID(0), pageData(16, 0));
+        arena.put(pageID(1), pageData(16, 1));
+        // 覆盖写入，page0 成为最近访问的页
+        arena.put(pageID(0), pageData(16, 3));
+        arena.put(pageID(2), pageData(16, 2));
+
+        assertFalse(arena.contains(pageID(1)));
+        assertTrue(arena.contains(pageID(0)));
+        assertArrayEquals(pageData(16, 3), arena.take(pageID(0)));
+        assertArrayEquals(pageData(16, 2), arena.take(pageID(2)));
+    }
+}
@@ -0,0 +1,111 @@
+package unit.bufferpool;
+
+import base.TestBase;
+import com.microdb.bufferpool.ClockProReplacementPolicy;
+import com.microdb.bufferpool.LruKReplacementPolicy;
+import com.microdb.bufferpool.ReplacementPolicy;
+import com.microdb.model.page.PageID;
+import com.microdb.model.page.heap.HeapPageID;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * 置换策略
+ *
+ * @author zhangjw
+ * @version 1.0
+ */
+public class ReplacementPolicyTest extends TestBase {
+
+    private static PageID pageID(int pageNo) {
+        return new HeapPageID(1, pageNo);
+    }
+
+    /**
+     * 只访问过一次的页优先于访问过K次的页被驱逐
+     */
+    @Test
+    public void testLruKEvictsPagesWithLessThanKAccesses() {
+        ReplacementPolicy policy = new LruKReplacementPolicy(2, 3);
+        policy.recordLoad(pageID(0));
+        policy.recordLoad(pageID(1));
+        policy.recordLoad(pageID(2));
+        policy.recordAccess(pageID(0));
+        policy.recordAccess(pageID(2));
+
+        assertEquals(pageID(1), policy.selectVictim(x -> true));
+        assertEquals(pageID(0), policy.selectVictim(x -> true));
+        assertEquals(pageID(2), policy.selectVictim(x -> true));
+        assertNull(policy.selectVictim(x -> true));
+    }
+
+    /**
+     * 不可驱逐的页（被锁定、被pin）应被跳过
+     */
+    @Test
+    public void testSkipUnevictablePages() {
+        for (ReplacementPolicy policy : new ReplacementPolicy[]{
+                new LruKReplacementPolicy(2, 3), new ClockProReplacementPolicy(3)}) {
+            policy.recordLoad(pageID(0));
+            policy.recordLoad(pageID(1));
+            PageID victim = policy.selectVictim(x -> !x.equals(pageID(0)));
+            assertEquals(policy.getName(), pageID(1), victim);
+            assertNull(policy.getName(), policy.selectVictim(x -> !x.equals(pageID(0))));
+        }
+    }
+
+    /**
+     * 未能驱逐的牺牲页按原状态放回，不算作一次访问：CLOCK-Pro中仍为冷页，LRU-K中访问历史不变
+     */
+    @Test
+    public void testReinstateVictimWithoutAccess() {
+        ReplacementPolicy clockPro = new ClockProReplacementPolicy(3);
+        clockPro.recordLoad(pageID(0));
+        clockPro.recordLoad(pageID(1));
+        assertEquals(pageID(0), clockPro.selectVictim(x -> true));
+        clockPro.reinstate(pageID(0));
+        // 若被当作测试期内的重新读入，page 0会晋升为热页而不被handCold选中
+        assertEquals(pageID(1), clockPro.selectVictim(x -> true));
+        assertEquals(pageID(0), clockPro.selectVictim(x -> true));
+
+        ReplacementPolicy lruK = new LruKReplacementPolicy(2, 3);
+        lruK.recordLoad(pageID(0));
+        lruK.recordLoad(pageID(1));
+        assertEquals(pageID(0), lruK.selectVictim(x -> true));
+        lruK.reinstate(pageID(0));
+        // 若记为一次访问，page 0有两次访问，会晚于page 1被驱逐
+        assertEquals(pageID(0), lruK.selectVictim(x -> true));
+        assertEquals(pageID(1), lruK.selectVictim(x -> true));
+        assertNull(lruK.selectVictim(x -> true));
+    }
+
+    /**
+     * 顺序扫描大量只访问一次的页，不应把反复访问的热页挤出去
+     */
+    @Test
+    public void testClockProKeepsHotPagesDuringScan() {
+        int capacity = 10;
+        ReplacementPolicy policy = new ClockProReplacementPolicy(capacity);
+        Set<PageID> resident = new HashSet<>();
+        PageID hot = pageID(0);
+        policy.recordLoad(hot);
+        resident.add(hot);
+
+        for (int pageNo = 1; pageNo < 100; pageNo++) {
+            policy.recordAccess(hot);
+            if (resident.size() >= capacity) {
+                PageID victim = policy.selectVictim(x -> true);
+                assertNotEquals(hot, victim);
+                resident.remove(victim);
+            }
+            policy.recordLoad(pageID(pageNo));
+            resident.add(pageID(pageNo));
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package unit.heap;
+
+import base.TestBase;
+import com.microdb.model.DataBase;
+import com.microdb.model.field.FieldType;
+import com.microdb.model.field.IntField;
+import com.microdb.model.page.heap.HeapPage;
+import com.microdb.model.page.heap.HeapPageID;
+import com.microdb.model.row.Row;
+import com.microdb.model.table.TableDesc;
+import com.microdb.model.table.tablefile.HeapTableFile;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * slotted page格式的堆表页
+ *
+ * @author zhangjw
+ * @version 1.0
+ */
+public class HeapPageTest extends TestBase {
+    private TableDesc tableDesc;
+    private HeapPageID pageID;
+
+    @Before
+    public void initTable() {
+        DataBase dataBase = DataBase.getInstance();
+        tableDesc = new TableDesc(Arrays.asList(new TableDesc.Attribute("person_id", FieldType.INT),
+                new TableDesc.Attribute("person_age", FieldType.INT)));
+        File file = new File(UUID.randomUUID().toString());
+        file.deleteOnExit();
+        HeapTableFile tableFile = new HeapTableFile(file, tableDesc);
+        dataBase.addTable(tableFile, "t_person");
+        pageID = new HeapPageID(tableFile.getTableId(), 0);
+    }
+
+    /**
+     * 页写满后删除部分行，再插入时复用空出的位置，存活行的slot编号不变
+     */
+    @Test
+    public void testCompactionReclaimsDeletedSpace() throws IOException {
+        HeapPage page = new HeapPage(pageID, HeapPage.createEmptyPageData());
+        int maxSlotNum = page.getMaxSlotNum();
+        for (int i = 0; i < maxSlotNum; i++) {
+            page.insertRow(row(i));
+        }
+        assertFalse(page.hasEmptySlot());
+
+        for (int i = 0; i < maxSlotNum; i += 2) {
+            page.clearSlot(i);
+        }
+        assertTrue(page.hasEmptySlot());
+        for (int i = 0; i < maxSlotNum; i += 2) {
+            page.insertRow(row(-i), i);
+        }
+        assertFalse(page.hasEmptySlot());
+        for (int i = 0; i < maxSlotNum; i++) {
+            assertEquals(i % 2 == 0 ? -i : i, personId(page.getRow(i)));
+        }
+    }
+
+    /**
+     * 序列化后重新解析，行、空slot与空闲空间均不变
+     */
+    @Test
+    public void testSerializeRoundTrip() throws IOException {
+        HeapPage page = new HeapPage(pageID, HeapPage.createEmptyPageData());
+        for (int i = 0; i < 10; i++) {
+            page.insertRow(row(i));
+        }
+        page.clearSlot(3);
+        page.clearSlot(9);
+        page.setPageLsn(100L);
+
+        HeapPage reloaded = new HeapPage(pageID, page.serialize());
+        assertEquals(100L, reloaded.getPageLsn());
+        assertNull(reloaded.getRow(3));
+        assertFalse(reloaded.isSlotUsed(9));
+        assertEquals(7, personId(reloaded.getRow(7)));
+        assertEquals(pageID, reloaded.getRow(7).getRowID().getPageID());
+
+        Row row = row(100);
+        reloaded.insertRow(row);
+        assertEquals(3, row.getRowID().getSlotIndex());
+        assertTrue(Arrays.equals(HeapPage.serializeRow(row), reloaded.getRowData(3)));
+    }
+
+    /**
+     * 从页数据直接读取字段，读入页时不创建行对象
+     */
+    @Test
+    public void testReadFieldsWithoutRow() throws IOException {
+        HeapPage page = new HeapPage(pageID, HeapPage.createEmptyPageData());
+        for (int i = 0; i < 5; i++) {
+            Row row = row(i);
+            row.setField(1, new IntField(20 + i));
+            page.insertRow(row);
+        }
+
+        HeapPage reloaded = new HeapPage(pageID, page.serialize());
+        assertEquals(3, reloaded.getInt(3, 0));
+        assertEquals(23, reloaded.getInt(3, 1));
+        Row row = reloaded.getRow(3);
+        assertEquals(3, personId(row));
+        assertSame(row, reloaded.getRow(3));
+    }
+
+    private Row row(int personId) {
+        Row row = new Row(tableDesc);
+        row.setField(0, new IntField(personId));
+        row.setField(1, new IntField(18));
+        return row;
+    }
+
+    private int personId(Row row) {
+        return ((IntField) row.getField(0)).getValue();
+    }
+}
@@ -0,0 +1,121 @@
+package unit.logging;
+
+import base.TestBase;
+import com.microdb.logging.LogRecord;
+import com.microdb.logging.LogRecordType;
+import com.microdb.model.DataBase;
+import com.microdb.model.field.FieldType;
+import com.microdb.model.field.IntField;
+import com.microdb.model.page.heap.HeapPage;
+import com.microdb.model.page.heap.HeapPageID;
+import com.microdb.model.row.Row;
+import com.microdb.model.table.TableDesc;
+import com.microdb.model.table.tablefile.HeapTableFile;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.UUID;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 日志记录的二进制格式
+ *
+ * @author zhangjw
+ * @version 1.0
+ */
+public class LogRecordTest extends TestBase {
+
+    private HeapPage page;
+
+    private File logFile;
+
+    @Before
+    public void init() throws IOException {
+        DataBase.reset();
+        TableDesc tableDesc = new TableDesc(Arrays.asList(new TableDesc.Attribute("f1", FieldType.INT)));
+        File file = new File(UUID.randomUUID().toString());
+        file.deleteOnExit();
+        HeapTableFile tableFile = new HeapTableFile(file, tableDesc);
+        DataBase.getInstance().addTable(tableFile, "t_log_record");
+
+        page = new HeapPage(new HeapPageID(tableFile.getTableId(), 0), HeapPage.createEmptyPageData());
+        Row row = new Row(tableDesc);
+        row.setField(0, new IntField(7));
+        page.insertRow(row);
+
+        logFile = new File(UUID.randomUUID().toString());
+        logFile.deleteOnExit();
+    }
+
+    @Test
+    public void testEncodeAndRead() throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(logFile, "rw")) {
+            byte[] first = LogRecord.encode(0, LogRecordType.TX_START, 9);
+            byte[] second = LogRecord.encode(first.length, LogRecordType.PAGE_FLUSH, 9, page, page);
+            raf.write(first);
+            raf.write(second);
+
+            LogRecord start = LogRecord.read(raf, 0);
+            assertEquals(LogRecordType.TX_START, start.getType());
+            assertEquals(9, start.getTxId());
+            assertEquals(0, start.getPageCount());
+
+            LogRecord pageFlush = LogRecord.read(raf, start.getNextLsn());
+            assertEquals(first.length, pageFlush.getLsn());
+            assertEquals(2, pageFlush.getPageCount());
+            assertEquals(page.getPageID(), pageFlush.getPageID(1));
+            assertArrayEquals(page.serialize(), pageFlush.getPage(1).serialize());
+
+            // 从后向前遍历
+            assertEquals(first.length, LogRecord.readBefore(raf, raf.length()).getLsn());
+            assertEquals(0, LogRecord.readBefore(raf, first.length).getLsn());
+            assertNull(LogRecord.read(raf, pageFlush.getNextLsn()));
+        }
+    }
+
+    /**
+     * 写到一半的记录、被破坏的记录读取时返回null
+     */
+    @Test
+    public void testTornAndCorruptedRecord() throws IOException {
+        byte[] record = LogRecord.encode(0, LogRecordType.PAGE_FLUSH, 1, page, page);
+        try (RandomAccessFile raf = new RandomAccessFile(logFile, "rw")) {
+            raf.write(record, 0, record.length - 10);
+            assertNull(LogRecord.read(raf, 0));
+
+            raf.seek(0);
+            raf.write(record);
+            raf.seek(100);
+            raf.write(record[100] ^ 1);
+            assertNull(LogRecord.read(raf, 0));
+        }
+    }
+
+    /**
+     * 二进制格式比Java对象序列化小
+     */
+    @Test
+    public void testSmallerThanObjectSerialization() throws IOException {
+        // 原格式中修改前、修改后的页各自序列化
+        int objectSerializationSize = 0;
+        for (int i = 0; i < 2; i++) {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            ObjectOutputStream outputStream = new ObjectOutputStream(baos);
+            outputStream.writeObject(page);
+            objectSerializationSize += baos.size();
+        }
+        byte[] record = LogRecord.encode(0, LogRecordType.PAGE_FLUSH, 1, page, page);
+        System.out.println("object serialization=" + objectSerializationSize + ",binary record=" + record.length);
+        assertTrue(record.length < objectSerializationSize);
+    }
+}
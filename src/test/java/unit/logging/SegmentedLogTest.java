@@ -0,0 +1,103 @@
+package unit.logging;
+
+import base.TestBase;
+import com.microdb.logging.LogRecord;
+import com.microdb.logging.LogRecordType;
+import com.microdb.logging.SegmentedLog;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 分段日志
+ *
+ * @author zhangjw
+ * @version 1.0
+ */
+public class SegmentedLogTest extends TestBase {
+
+    private File dir;
+
+    @Before
+    public void init() {
+        dir = new File(UUID.randomUUID().toString());
+    }
+
+    @After
+    public void clean() {
+        delete(dir);
+    }
+
+    /**
+     * 写入的记录分布在多个段中，LSN连续，可以跨段顺序、逆序读取
+     */
+    @Test
+    public void testReadAcrossSegments() throws IOException {
+        int recordSize = LogRecord.encode(0, LogRecordType.TX_START, 0).length;
+        SegmentedLog log = new SegmentedLog(dir, recordSize * 3L);
+        long lsn = 0;
+        for (int i = 0; i < 10; i++) {
+            log.append(lsn, LogRecord.encode(lsn, LogRecordType.TX_START, i));
+            lsn += recordSize;
+        }
+        assertEquals(4, log.getSegmentCount());
+        assertEquals(lsn, log.getEndLsn());
+
+        long position = 0;
+        for (int i = 0; i < 10; i++) {
+            LogRecord record = log.read(position);
+            assertEquals(i, record.getTxId());
+            position = record.getNextLsn();
+        }
+        assertNull(log.read(position));
+
+        long end = log.getEndLsn();
+        for (int i = 9; i >= 0; i--) {
+            LogRecord record = log.readBefore(end);
+            assertEquals(i, record.getTxId());
+            end = record.getLsn();
+        }
+        assertNull(log.readBefore(end));
+        log.close();
+    }
+
+    /**
+     * 删除位于指定位置之前的段，重新打开时按清单加载剩余的段
+     */
+    @Test
+    public void testTruncateBeforeAndReopen() throws IOException {
+        int recordSize = LogRecord.encode(0, LogRecordType.TX_START, 0).length;
+        SegmentedLog log = new SegmentedLog(dir, recordSize * 2L);
+        long lsn = 0;
+        for (int i = 0; i < 6; i++) {
+            log.append(lsn, LogRecord.encode(lsn, LogRecordType.TX_START, i));
+            lsn += recordSize;
+        }
+        assertEquals(3, log.getSegmentCount());
+
+        // 第二段中间的位置，只能删除第一段
+        assertEquals(1, log.truncateBefore(recordSize * 3L));
+        assertEquals(recordSize * 2L, log.getStartLsn());
+        assertNull(log.read(0));
+        log.close();
+
+        SegmentedLog reopened = new SegmentedLog(dir, recordSize * 2L);
+        assertEquals(2, reopened.getSegmentCount());
+        assertEquals(lsn, reopened.getEndLsn());
+        assertEquals(2, reopened.read(recordSize * 2L).getTxId());
+
+        // 当前写入的段不会被删除
+        assertEquals(1, reopened.truncateBefore(lsn));
+        assertEquals(1, reopened.getSegmentCount());
+        assertTrue(new File(dir, "manifest").exists());
+        reopened.close();
+    }
+}
@@ -0,0 +1,204 @@
+package unit.tablefile;
+
+import base.TestBase;
+import com.microdb.connection.Connection;
+import com.microdb.exception.ValidationException;
+import com.microdb.model.DataBase;
+import com.microdb.model.field.FieldType;
+import com.microdb.model.field.IntField;
+import com.microdb.model.row.Row;
+import com.microdb.model.table.TableDesc;
+import com.microdb.model.table.tablefile.BulkLoader;
+import com.microdb.model.table.tablefile.HeapTableFile;
+import com.microdb.operator.SeqScan;
+import com.microdb.transaction.Lock;
+import com.microdb.transaction.Transaction;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 堆表批量加载
+ *
+ * @author zhangjw
+ * @version 1.0
+ */
+public class BulkLoaderTest extends TestBase {
+    private static final int ROW_COUNT = 2000;
+
+    private TableDesc tableDesc;
+    private HeapTableFile tableFile;
+
+    @Before
+    public void initDataBase() {
+        Connection.clearTransaction();
+        Connection.clearDirtyPages();
+        DataBase.reset();
+        tableDesc = new TableDesc(Arrays.asList(new TableDesc.Attribute("person_id", FieldType.INT),
+                new TableDesc.Attribute("person_age", FieldType.INT)));
+        File file = new File(UUID.randomUUID().toString());
+        file.deleteOnExit();
+        tableFile = new HeapTableFile(file, tableDesc);
+        DataBase.getInstance().addTable(tableFile, "t_person");
+    }
+
+    /**
+     * 行按顺序写满新页，不经过缓冲池；每个区只记录一条很小的redo日志
+     */
+    @Test
+    public void testLoadFillsPagesSequentially() {
+        long lsnBefore = DataBase.getRedoLogFile().getCurrentLsn();
+        Transaction transaction = new Transaction(Lock.LockType.XLock);
+        transaction.start();
+        Connection.passingTransaction(transaction);
+        List<Row> rows = rows(ROW_COUNT);
+        assertEquals(ROW_COUNT, new BulkLoader(tableFile, 4).load(rows.iterator()));
+        transaction.commit();
+
+        assertEquals(0, DataBase.getBufferPool().size());
+        assertEquals(0, rows.get(0).getRowID().getPageID().getPageNo());
+        assertEquals(tableFile.getExistPageCount() - 1, rows.get(ROW_COUNT - 1).getRowID().getPageID().getPageNo());
+        int extentCount = (tableFile.getExistPageCount() + 3) / 4;
+        assertTrue(DataBase.getRedoLogFile().getCurrentLsn() - lsnBefore < extentCount * 100 + 200);
+        assertEquals(IntStream.range(0, ROW_COUNT).boxed().collect(Collectors.toList()), personIds());
+    }
+
+    /**
+     * 事务终止时清空加载的区，页重新标记为空闲，之后的插入复用这些页
+     */
+    @Test
+    public void testAbortClearsExtents() throws IOException {
+        Transaction transaction = new Transaction(Lock.LockType.XLock);
+        transaction.start();
+        Connection.passingTransaction(transaction);
+        new BulkLoader(tableFile, 4).load(rows(ROW_COUNT).iterator());
+        int pageCount = tableFile.getExistPageCount();
+        transaction.abort();
+
+        assertEquals(new ArrayList<Integer>(), personIds());
+        assertTrue(tableFile.getFreeSpaceMap().isFree(0));
+
+        Transaction insert = new Transaction(Lock.LockType.XLock);
+        Connection.passingTransaction(insert);
+        Row row = rows(1).get(0);
+        DataBase.getBufferPool().insertRow(row, "t_person");
+        insert.commit();
+        assertEquals(0, row.getRowID().getPageID().getPageNo());
+        assertEquals(pageCount, tableFile.getExistPageCount());
+    }
+
+    /**
+     * 事务删除自己加载的行后终止，先撤销删除再清空区，行不会被写回
+     */
+    @Test
+    public void testAbortAfterDeletingLoadedRow() throws IOException {
+        Transaction transaction = new Transaction(Lock.LockType.XLock);
+        transaction.start();
+        Connection.passingTransaction(transaction);
+        List<Row> rows = rows(10);
+        new BulkLoader(tableFile, 4).load(rows.iterator());
+        DataBase.getBufferPool().deleteRow(rows.get(3));
+        transaction.abort();
+
+        assertEquals(new ArrayList<Integer>(), personIds());
+    }
+
+    /**
+     * 未提交的加载对快照读不可见，提交后只对之后的快照可见；乐观事务读到未提交的区时校验失败
+     */
+    @Test
+    public void testUncommittedLoadInvisibleToSnapshots() {
+        Transaction oldReader = new Transaction(Lock.LockType.SLock);
+        oldReader.start();
+        assertEquals(new ArrayList<Integer>(), personIds(oldReader));
+
+        Transaction loader = new Transaction(Lock.LockType.XLock);
+        loader.start();
+        Connection.passingTransaction(loader);
+        new BulkLoader(tableFile, 4).load(rows(ROW_COUNT).iterator());
+
+        Transaction reader = new Transaction(Lock.LockType.SLock);
+        assertEquals(new ArrayList<Integer>(), personIds(reader));
+        reader.commit();
+        Transaction optimistic = new Transaction(Lock.LockType.XLock, true);
+        personIds(optimistic);
+        try {
+            optimistic.commit();
+            fail("expected validation failure");
+        } catch (ValidationException ignored) {
+        }
+
+        Connection.passingTransaction(loader);
+        loader.commit();
+        assertEquals(new ArrayList<Integer>(), personIds(oldReader));
+        oldReader.commit();
+        assertEquals(ROW_COUNT, personIds().size());
+        assertEquals(0, DataBase.getVersionStore().getVersionCount());
+    }
+
+    /**
+     * 崩溃恢复：已提交的加载保留，未提交的加载被清空
+     */
+    @Test
+    public void testRecover() throws IOException {
+        Transaction committed = new Transaction(Lock.LockType.XLock);
+        committed.start();
+        Connection.passingTransaction(committed);
+        new BulkLoader(tableFile, 4).load(rows(ROW_COUNT).iterator());
+        committed.commit();
+
+        Transaction uncommitted = new Transaction(Lock.LockType.XLock);
+        uncommitted.start();
+        Connection.passingTransaction(uncommitted);
+        new BulkLoader(tableFile, 4).load(rows(ROW_COUNT).iterator());
+
+        // 模拟数据库崩溃后重启
+        Connection.clearTransaction();
+        DataBase.resetWithFile(tableFile, "t_person");
+        DataBase.getRedoLogFile().recover();
+
+        assertEquals(IntStream.range(0, ROW_COUNT).boxed().collect(Collectors.toList()), personIds());
+    }
+
+    private List<Row> rows(int count) {
+        List<Row> rows = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Row row = new Row(tableDesc);
+            row.setField(0, new IntField(i));
+            row.setField(1, new IntField(18));
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    private List<Integer> personIds() {
+        Transaction transaction = new Transaction(Lock.LockType.XLock);
+        List<Integer> personIds = personIds(transaction);
+        transaction.commit();
+        return personIds;
+    }
+
+    private List<Integer> personIds(Transaction transaction) {
+        Connection.passingTransaction(transaction);
+        SeqScan scan = new SeqScan(tableFile.getTableId());
+        scan.open();
+        List<Integer> personIds = new ArrayList<>();
+        while (scan.hasNext()) {
+            personIds.add(((IntField) scan.next().getField(0)).getValue());
+        }
+        scan.close();
+        return personIds;
+    }
+}
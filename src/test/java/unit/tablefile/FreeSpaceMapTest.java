@@ -0,0 +1,144 @@
+package unit.tablefile;
+
+import base.TestBase;
+import com.microdb.connection.Connection;
+import com.microdb.model.DataBase;
+import com.microdb.model.field.FieldType;
+import com.microdb.model.field.IntField;
+import com.microdb.model.row.Row;
+import com.microdb.model.table.TableDesc;
+import com.microdb.model.table.tablefile.FreeSpaceMap;
+import com.microdb.model.table.tablefile.HeapTableFile;
+import com.microdb.transaction.Lock;
+import com.microdb.transaction.Transaction;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 空闲空间映射
+ *
+ * @author zhangjw
+ * @version 1.0
+ */
+public class FreeSpaceMapTest extends TestBase {
+
+    /**
+     * 落盘后重新打开，映射不变；映射覆盖范围之外的页视为空闲
+     */
+    @Test
+    public void testSyncAndReload() {
+        File file = new File(UUID.randomUUID().toString() + ".fsm");
+        file.deleteOnExit();
+        FreeSpaceMap freeSpaceMap = new FreeSpaceMap(file, 0);
+        assertEquals(-1, freeSpaceMap.nextFreePage(0));
+        freeSpaceMap.update(0, false);
+        freeSpaceMap.update(1, true);
+        freeSpaceMap.update(2, false);
+        freeSpaceMap.update(9, true);
+        freeSpaceMap.sync();
+
+        FreeSpaceMap reopened = new FreeSpaceMap(file, 12);
+        assertFalse(reopened.isFree(0));
+        assertTrue(reopened.isFree(1));
+        assertFalse(reopened.isFree(2));
+        assertEquals(9, reopened.nextFreePage(2));
+        assertTrue(reopened.isFree(10));
+        assertTrue(reopened.isFree(11));
+    }
+
+    /**
+     * 插入跳过已满的页；删除行后页重新标记为空闲，之后的插入复用该slot
+     */
+    @Test
+    public void testInsertUsesFreeSpaceMap() throws IOException {
+        DataBase dataBase = DataBase.getInstance();
+        TableDesc tableDesc = new TableDesc(Arrays.asList(new TableDesc.Attribute("person_id", FieldType.INT),
+                new TableDesc.Attribute("person_age", FieldType.INT)));
+        File file = new File(UUID.randomUUID().toString());
+        file.deleteOnExit();
+        HeapTableFile tableFile = new HeapTableFile(file, tableDesc);
+        dataBase.addTable(tableFile, "t_person");
+        FreeSpaceMap freeSpaceMap = tableFile.getFreeSpaceMap();
+
+        Transaction transaction = new Transaction(Lock.LockType.XLock);
+        Connection.passingTransaction(transaction);
+        List<Row> rows = new ArrayList<>();
+        for (int i = 0; tableFile.getExistPageCount() < 3; i++) {
+            rows.add(insert(tableDesc, i));
+        }
+        assertFalse(freeSpaceMap.isFree(0));
+        assertFalse(freeSpaceMap.isFree(1));
+        assertTrue(freeSpaceMap.isFree(2));
+
+        Row deleted = rows.get(1);
+        DataBase.getBufferPool().deleteRow(deleted);
+        assertTrue(freeSpaceMap.isFree(0));
+
+        Row inserted = insert(tableDesc, -1);
+        assertEquals(deleted.getRowID(), inserted.getRowID());
+        assertFalse(freeSpaceMap.isFree(0));
+        transaction.commit();
+    }
+
+    /**
+     * 映射不记录日志：崩溃前落盘的映射把有空slot的页标记为已满，恢复时按页的实际内容纠正
+     */
+    @Test
+    public void testRecoverRefreshesStaleMap() throws IOException {
+        DataBase.reset();
+        TableDesc tableDesc = new TableDesc(Arrays.asList(new TableDesc.Attribute("person_id", FieldType.INT),
+                new TableDesc.Attribute("person_age", FieldType.INT)));
+        File file = new File(UUID.randomUUID().toString());
+        file.deleteOnExit();
+        new File(file.getPath() + ".fsm").deleteOnExit();
+        HeapTableFile tableFile = new HeapTableFile(file, tableDesc);
+        DataBase.getInstance().addTable(tableFile, "t_person");
+
+        Transaction transaction = new Transaction(Lock.LockType.XLock);
+        transaction.start();
+        Connection.passingTransaction(transaction);
+        List<Row> rows = new ArrayList<>();
+        for (int i = 0; tableFile.getExistPageCount() < 2; i++) {
+            rows.add(insert(tableDesc, i));
+        }
+        Row deleted = rows.get(1);
+        DataBase.getBufferPool().deleteRow(deleted);
+        transaction.commit();
+        DataBase.getBufferPool().flushAllPage();
+        DataBase.getRedoLogFile().checkpoint();
+        // 模拟映射中的过期位：页0有空slot，磁盘上的映射标记为已满
+        tableFile.getFreeSpaceMap().update(0, false);
+        tableFile.getFreeSpaceMap().sync();
+
+        // 模拟数据库崩溃后重启，页0不在脏页表中，恢复时不重做
+        HeapTableFile reopened = new HeapTableFile(file, tableDesc);
+        DataBase.resetWithFile(reopened, "t_person");
+        assertFalse(reopened.getFreeSpaceMap().isFree(0));
+        DataBase.getRedoLogFile().recover();
+        assertTrue(reopened.getFreeSpaceMap().isFree(0));
+
+        Transaction insert = new Transaction(Lock.LockType.XLock);
+        Connection.passingTransaction(insert);
+        Row inserted = insert(tableDesc, -1);
+        insert.commit();
+        assertEquals(deleted.getRowID(), inserted.getRowID());
+    }
+
+    private Row insert(TableDesc tableDesc, int personId) throws IOException {
+        Row row = new Row(tableDesc);
+        row.setField(0, new IntField(personId));
+        row.setField(1, new IntField(18));
+        DataBase.getBufferPool().insertRow(row, "t_person");
+        return row;
+    }
+}
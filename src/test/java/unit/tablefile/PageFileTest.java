@@ -0,0 +1,75 @@
+package unit.tablefile;
+
+import base.TestBase;
+import com.microdb.model.table.tablefile.MappedPageFile;
+import com.microdb.model.table.tablefile.PageFile;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.UUID;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 按位置读写表文件
+ *
+ * @author zhangjw
+ * @version 1.0
+ */
+public class PageFileTest extends TestBase {
+
+    @Test
+    public void testPositionalReadWrite() {
+        File file = new File(UUID.randomUUID().toString());
+        file.deleteOnExit();
+        PageFile pageFile = new PageFile(file);
+        try {
+            pageFile.write(8, new byte[]{1, 2, 3, 4});
+            assertEquals(12, pageFile.size());
+            assertEquals(12, pageFile.append(new byte[]{5, 6}));
+
+            byte[] bytes = new byte[6];
+            assertEquals(6, pageFile.read(8, bytes));
+            assertArrayEquals(new byte[]{1, 2, 3, 4, 5, 6}, bytes);
+
+            // 读到文件末尾时只返回实际读取的字节数
+            byte[] tail = new byte[4];
+            assertEquals(2, pageFile.read(12, tail));
+            assertEquals(-1, pageFile.read(14, tail));
+            pageFile.sync();
+        } finally {
+            pageFile.close();
+        }
+    }
+
+    /**
+     * 内存映射模式：写入后映射可见，文件增长后重新映射
+     */
+    @Test
+    public void testMappedReadAfterGrowth() {
+        File file = new File(UUID.randomUUID().toString());
+        file.deleteOnExit();
+        PageFile pageFile = new MappedPageFile(file);
+        try {
+            assertEquals(-1, pageFile.read(0, new byte[4]));
+            pageFile.append(new byte[]{1, 2, 3, 4});
+            byte[] bytes = new byte[4];
+            assertEquals(4, pageFile.read(0, bytes));
+            assertArrayEquals(new byte[]{1, 2, 3, 4}, bytes);
+
+            // 覆盖写入已映射的区域
+            pageFile.write(2, new byte[]{7});
+            pageFile.append(new byte[]{5, 6});
+            byte[] grown = new byte[6];
+            assertEquals(6, pageFile.read(0, grown));
+            assertArrayEquals(new byte[]{1, 2, 7, 4, 5, 6}, grown);
+
+            byte[] tail = new byte[4];
+            assertEquals(2, pageFile.read(4, tail));
+            assertEquals(-1, pageFile.read(6, tail));
+        } finally {
+            pageFile.close();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package unit.tablefile;
+
+import base.TestBase;
+import com.microdb.connection.Connection;
+import com.microdb.exception.CorruptPageException;
+import com.microdb.model.DataBase;
+import com.microdb.model.field.FieldType;
+import com.microdb.model.field.IntField;
+import com.microdb.model.page.Page;
+import com.microdb.model.page.heap.HeapPage;
+import com.microdb.model.page.heap.HeapPageID;
+import com.microdb.model.row.Row;
+import com.microdb.model.table.TableDesc;
+import com.microdb.model.table.tablefile.HeapTableFile;
+import com.microdb.model.table.tablefile.PageFrame;
+import com.microdb.operator.SeqScan;
+import com.microdb.transaction.Lock;
+import com.microdb.transaction.Transaction;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.UUID;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * 表文件中页尾的校验和
+ *
+ * @author zhangjw
+ * @version 1.0
+ */
+public class PageFrameTest extends TestBase {
+    private HeapPageID pageID;
+
+    @Before
+    public void initDataBase() {
+        DataBase.reset();
+        pageID = new HeapPageID(1, 0);
+    }
+
+    @Test
+    public void testSealAndVerify() {
+        byte[] pageData = new byte[128];
+        Arrays.fill(pageData, 0, pageData.length - Page.TRAILER_SIZE_IN_BYTE, (byte) 7);
+        byte[] expected = pageData.clone();
+        byte[] sealed = PageFrame.seal(pageData);
+        assertEquals(128, sealed.length);
+        assertArrayEquals(Arrays.copyOf(expected, 128 - Page.TRAILER_SIZE_IN_BYTE),
+                Arrays.copyOf(PageFrame.verify(pageID, sealed), 128 - Page.TRAILER_SIZE_IN_BYTE));
+        assertEquals(1, DataBase.getBufferPool().getStats().getPageVerificationCount());
+    }
+
+    /**
+     * 全0的页是新分配的页
+     */
+    @Test
+    public void testZeroPageIsEmptyPage() {
+        assertArrayEquals(new byte[128], PageFrame.verify(pageID, new byte[128]));
+    }
+
+    /**
+     * 页数据或页尾的校验和任一字节被改写，校验失败
+     */
+    @Test
+    public void testDetectCorruption() {
+        byte[] sealed = PageFrame.seal(new byte[128]);
+        for (int position : new int[]{0, 64, 128 - Page.TRAILER_SIZE_IN_BYTE, 127}) {
+            byte[] corrupted = sealed.clone();
+            corrupted[position] ^= 1;
+            try {
+                PageFrame.verify(pageID, corrupted);
+                fail("corruption not detected at " + position);
+            } catch (CorruptPageException e) {
+                assertEquals(pageID, e.getPageID());
+            }
+        }
+    }
+
+    /**
+     * 日志中没有页的镜像时无法修复，查询抛出校验失败的异常
+     */
+    @Test
+    public void testCorruptPageWithoutImage() throws IOException {
+        DataBase dataBase = DataBase.getInstance();
+        TableDesc tableDesc = new TableDesc(Arrays.asList(new TableDesc.Attribute("person_id", FieldType.INT)));
+        File file = new File(UUID.randomUUID().toString());
+        file.deleteOnExit();
+        HeapTableFile tableFile = new HeapTableFile(file, tableDesc);
+        dataBase.addTable(tableFile, "t_person");
+
+        // 不经过缓冲池直接写盘，没有redo日志
+        HeapPage page = new HeapPage(new HeapPageID(tableFile.getTableId(), 0), HeapPage.createEmptyPageData());
+        Row row = new Row(tableDesc);
+        row.setField(0, new IntField(1));
+        page.insertRow(row);
+        tableFile.writePageToDisk(page);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(10);
+            raf.write(0x5A);
+        }
+
+        Transaction transaction = new Transaction(Lock.LockType.XLock);
+        Connection.passingTransaction(transaction);
+        SeqScan scan = new SeqScan(tableFile.getTableId());
+        try {
+            scan.open();
+            fail("corrupt page should not be read");
+        } catch (CorruptPageException e) {
+            assertEquals(page.getPageID(), e.getPageID());
+        } finally {
+            transaction.abort();
+        }
+        assertEquals(1, DataBase.getBufferPool().getStats().getCorruptPageCount());
+        assertEquals(0, DataBase.getBufferPool().getStats().getRepairedPageCount());
+    }
+}